@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.volley;
+
+import java.util.Random;
+
+/**
+ * Retry policy that adapts to the health of the request's host, as tracked by a shared
+ * {@link HostHealth}:
+ *
+ * <ul>
+ *     <li>The timeout of the first attempt is {@value #P95_TIMEOUT_MULTIPLIER} times the 95th
+ *     percentile of the host's recent latency, within the given bounds, or the initial timeout
+ *     until enough latencies are known. Each retry allows {@value #TIMEOUT_BACKOFF_MULT} times
+ *     longer.</li>
+ *     <li>Retries wait for an exponentially growing, fully jittered delay, so that clients
+ *     failing at the same moment do not retry at the same moment. The wait does not hold a
+ *     dispatcher: the network throws a {@link DeferredRetryError} and the request waits in the
+ *     queue.</li>
+ *     <li>Requests to a host whose circuit is open fail fast with a {@link CircuitOpenError}.
+ *     This also stops the retries of requests in flight.</li>
+ * </ul>
+ *
+ * <p>An instance belongs to a single request, like {@link DefaultRetryPolicy}.</p>
+ */
+public class AdaptiveRetryPolicy implements RetryPolicy {
+    /** The default timeout while the host's latency is unknown. */
+    public static final int DEFAULT_INITIAL_TIMEOUT_MS = 5000;
+
+    /** The default lower bound of derived timeouts. */
+    public static final int DEFAULT_MIN_TIMEOUT_MS = 2000;
+
+    /** The default upper bound of timeouts. */
+    public static final int DEFAULT_MAX_TIMEOUT_MS = 30000;
+
+    /** The default number of retries. */
+    public static final int DEFAULT_MAX_RETRIES = 3;
+
+    /** The default delay bound of the first retry; it doubles with each retry. */
+    public static final long DEFAULT_BASE_DELAY_MS = 500;
+
+    /** The default upper bound of retry delays. */
+    public static final long DEFAULT_MAX_DELAY_MS = 10000;
+
+    /** Timeout as a multiple of the 95th percentile latency. */
+    private static final float P95_TIMEOUT_MULTIPLIER = 3f;
+
+    /** Growth of the timeout with each retry. */
+    private static final float TIMEOUT_BACKOFF_MULT = 1.5f;
+
+    private static final Random sRandom = new Random();
+
+    private final HostHealth mHealth;
+    private final int mInitialTimeoutMs;
+    private final int mMinTimeoutMs;
+    private final int mMaxTimeoutMs;
+    private final int mMaxNumRetries;
+    private final long mBaseDelayMs;
+    private final long mMaxDelayMs;
+
+    private String mHost = "";
+    private int mCurrentTimeoutMs;
+    private int mCurrentRetryCount;
+    private long mRetryDelayMs;
+
+    /**
+     * Constructs a new retry policy using the default values and {@link HostHealth#getDefault()}.
+     */
+    public AdaptiveRetryPolicy() {
+        this(DEFAULT_INITIAL_TIMEOUT_MS, DEFAULT_MAX_RETRIES);
+    }
+
+    /**
+     * Constructs a new retry policy using {@link HostHealth#getDefault()}.
+     * @param initialTimeoutMs The timeout while the host's latency is unknown.
+     * @param maxNumRetries The maximum number of retries.
+     */
+    public AdaptiveRetryPolicy(int initialTimeoutMs, int maxNumRetries) {
+        this(HostHealth.getDefault(), initialTimeoutMs, DEFAULT_MIN_TIMEOUT_MS,
+                DEFAULT_MAX_TIMEOUT_MS, maxNumRetries, DEFAULT_BASE_DELAY_MS,
+                DEFAULT_MAX_DELAY_MS);
+    }
+
+    /**
+     * Constructs a new retry policy.
+     * @param health The host health shared between requests.
+     * @param initialTimeoutMs The timeout while the host's latency is unknown.
+     * @param minTimeoutMs The lower bound of timeouts derived from latency.
+     * @param maxTimeoutMs The upper bound of all timeouts.
+     * @param maxNumRetries The maximum number of retries.
+     * @param baseDelayMs The delay bound of the first retry.
+     * @param maxDelayMs The upper bound of retry delays.
+     */
+    public AdaptiveRetryPolicy(HostHealth health, int initialTimeoutMs, int minTimeoutMs,
+            int maxTimeoutMs, int maxNumRetries, long baseDelayMs, long maxDelayMs) {
+        mHealth = health;
+        mInitialTimeoutMs = initialTimeoutMs;
+        mMinTimeoutMs = minTimeoutMs;
+        mMaxTimeoutMs = Math.max(minTimeoutMs, maxTimeoutMs);
+        mMaxNumRetries = maxNumRetries;
+        mBaseDelayMs = baseDelayMs;
+        mMaxDelayMs = maxDelayMs;
+        mCurrentTimeoutMs = Math.min(initialTimeoutMs, mMaxTimeoutMs);
+    }
+
+    /**
+     * Called by the network before each attempt. Binds the policy to the request's host and
+     * derives the timeout of the first attempt from the host's latency.
+     *
+     * @throws CircuitOpenError if the host's circuit is open
+     */
+    public void onAttemptStart(Request<?> request) throws CircuitOpenError {
+        mHost = NetworkScheduler.getHost(request);
+        if (!mHealth.tryAcquire(mHost)) {
+            request.addMarker("circuit-open");
+            throw new CircuitOpenError();
+        }
+        if (mCurrentRetryCount == 0) {
+            long p95 = mHealth.getLatencyPercentile(mHost, 95);
+            if (p95 >= 0) {
+                long timeout = (long) (p95 * P95_TIMEOUT_MULTIPLIER);
+                mCurrentTimeoutMs = (int) Math.max(mMinTimeoutMs, Math.min(timeout, mMaxTimeoutMs));
+            }
+        }
+    }
+
+    /**
+     * Called by the network when the host answered (with any status below 500).
+     *
+     * @param latencyMs time from sending the request to receiving the response headers
+     */
+    public void onResponse(long latencyMs) {
+        mHealth.recordSuccess(mHost, latencyMs);
+    }
+
+    /**
+     * Called by the network when an attempt failed in a way that is not retried, such as a
+     * connection failure or a server error on a request that is not idempotent.
+     */
+    public void onFailure() {
+        mHealth.recordFailure(mHost);
+    }
+
+    @Override
+    public int getCurrentTimeout() {
+        return mCurrentTimeoutMs;
+    }
+
+    @Override
+    public int getCurrentRetryCount() {
+        return mCurrentRetryCount;
+    }
+
+    /**
+     * Returns the time to wait before the attempt prepared by the last {@link #retry}.
+     */
+    public long getRetryDelayMs() {
+        return mRetryDelayMs;
+    }
+
+    /**
+     * Records the failure with the host, then prepares for the next retry by growing the
+     * timeout and choosing a jittered delay.
+     */
+    @Override
+    public void retry(VolleyError error) throws VolleyError {
+        if (!(error instanceof AuthFailureError)) {
+            // The host answered an auth failure; that says nothing about its health.
+            mHealth.recordFailure(mHost);
+        }
+        mCurrentRetryCount++;
+        if (mCurrentRetryCount > mMaxNumRetries) {
+            mHealth.countGiveUp();
+            throw error;
+        }
+        mHealth.countRetry(getReason(error));
+        mCurrentTimeoutMs = (int) Math.min(mCurrentTimeoutMs * TIMEOUT_BACKOFF_MULT, mMaxTimeoutMs);
+        // Full jitter: anywhere between no delay and the exponential bound.
+        int shift = Math.min(mCurrentRetryCount - 1, 30);
+        long bound = Math.min(mMaxDelayMs, mBaseDelayMs << shift);
+        mRetryDelayMs = bound > 0 ? (long) (sRandom.nextDouble() * bound) : 0;
+    }
+
+    private static String getReason(VolleyError error) {
+        if (error instanceof TimeoutError) {
+            return "timeout";
+        } else if (error instanceof AuthFailureError) {
+            return "auth";
+        } else if (error instanceof NoConnectionError) {
+            return "no-connection";
+        } else if (error instanceof ServerError) {
+            return "server";
+        } else if (error instanceof NetworkError) {
+            return "network";
+        }
+        return error.getClass().getSimpleName();
+    }
+}
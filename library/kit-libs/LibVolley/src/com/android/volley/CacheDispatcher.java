@@ -19,10 +19,14 @@ package com.android.volley;
 import android.os.Process;
 
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
 
 /**
  * Provides a thread for performing cache triage on a queue of requests.
  *
+ * Several cache dispatchers may share one queue, so that a slow disk read or the parse of a
+ * large cache hit does not hold up the lookups behind it.
+ *
  * Requests added to the specified cache queue are resolved from cache.
  * Any deliverable response is posted back to the caller via a
  * {@link ResponseDelivery}.  Cache misses and responses that require
@@ -45,6 +49,12 @@ public class CacheDispatcher extends Thread {
     /** For posting responses. */
     private final ResponseDelivery mDelivery;
 
+    /**
+     * Released once the cache may be read, or null if this dispatcher initializes the cache
+     * itself.
+     */
+    private final CountDownLatch mCacheReady;
+
     /** Used for telling us to die. */
     private volatile boolean mQuit = false;
 
@@ -60,10 +70,28 @@ public class CacheDispatcher extends Thread {
     public CacheDispatcher(
             BlockingQueue<Request<?>> cacheQueue, BlockingQueue<Request<?>> networkQueue,
             Cache cache, ResponseDelivery delivery) {
+        this(cacheQueue, networkQueue, cache, delivery, null);
+    }
+
+    /**
+     * Creates a new cache triage dispatcher thread that leaves initializing the cache to
+     * someone else.  You must call {@link #start()} in order to begin processing.
+     *
+     * @param cacheQueue Queue of incoming requests for triage
+     * @param networkQueue Queue to post requests that require network to
+     * @param cache Cache interface to use for resolution
+     * @param delivery Delivery interface to use for posting responses
+     * @param cacheReady Latch released once the cache may be read, or null to have this
+     *     dispatcher initialize the cache before serving
+     */
+    public CacheDispatcher(
+            BlockingQueue<Request<?>> cacheQueue, BlockingQueue<Request<?>> networkQueue,
+            Cache cache, ResponseDelivery delivery, CountDownLatch cacheReady) {
         mCacheQueue = cacheQueue;
         mNetworkQueue = networkQueue;
         mCache = cache;
         mDelivery = delivery;
+        mCacheReady = cacheReady;
     }
 
     /**
@@ -80,8 +108,22 @@ public class CacheDispatcher extends Thread {
         if (DEBUG) VolleyLog.v("start new dispatcher");
         Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
 
-        // Make a blocking call to initialize the cache.
-        mCache.initialize();
+        if (mCacheReady == null) {
+            // Make a blocking call to initialize the cache.
+            mCache.initialize();
+        } else {
+            while (true) {
+                try {
+                    mCacheReady.await();
+                    break;
+                } catch (InterruptedException e) {
+                    // We may have been interrupted because it was time to quit.
+                    if (mQuit) {
+                        return;
+                    }
+                }
+            }
+        }
 
         while (true) {
             try {
@@ -89,6 +131,7 @@ public class CacheDispatcher extends Thread {
                 // at least one is available.
                 final Request<?> request = mCacheQueue.take();
                 request.addMarker("cache-queue-take");
+                request.getTiming().mark(RequestTiming.CACHE_TAKE);
 
                 // If the request has been canceled, don't bother dispatching it.
                 if (request.isCanceled()) {
@@ -98,15 +141,21 @@ public class CacheDispatcher extends Thread {
 
                 // Attempt to retrieve this item from cache.
                 Cache.Entry entry = mCache.get(request.getCacheKey());
+                request.getTiming().mark(RequestTiming.CACHE_DONE);
+                final boolean cacheOnly = request.getCacheMode() == Request.CacheMode.CACHE_ONLY;
                 if (entry == null) {
                     request.addMarker("cache-miss");
+                    if (cacheOnly) {
+                        mDelivery.postError(request, new CacheMissError());
+                        continue;
+                    }
                     // Cache miss; send off to the network dispatcher.
                     mNetworkQueue.put(request);
                     continue;
                 }
 
                 // If it is completely expired, just send it to the network.
-                if (entry.isExpired()) {
+                if (entry.isExpired() && !cacheOnly) {
                     request.addMarker("cache-hit-expired");
                     request.setCacheEntry(entry);
                     mNetworkQueue.put(request);
@@ -115,13 +164,22 @@ public class CacheDispatcher extends Thread {
 
                 // We have a cache hit; parse its data for delivery back to the request.
                 request.addMarker("cache-hit");
+                request.getTiming().setCacheHit(true);
+                request.getTiming().mark(RequestTiming.PARSE_START);
                 Response<?> response = request.parseNetworkResponse(
                         new NetworkResponse(entry.data, entry.responseHeaders));
+                request.getTiming().mark(RequestTiming.PARSE_END);
                 request.addMarker("cache-hit-parsed");
 
                 if (!entry.refreshNeeded()) {
                     // Completely unexpired cache hit. Just deliver the response.
                     mDelivery.postResponse(request, response);
+                } else if (cacheOnly || request.shouldSkipRefresh()) {
+                    // Stale hit that must not (or need not) be refreshed: the network is off
+                    // limits, or another request is already refreshing this entry.
+                    request.addMarker("cache-hit-stale");
+                    response.stale = true;
+                    mDelivery.postResponse(request, response);
                 } else {
                     // Soft-expired cache hit. We can deliver the cached response,
                     // but we need to also send the request to the network for
@@ -131,6 +189,12 @@ public class CacheDispatcher extends Thread {
 
                     // Mark the response as intermediate.
                     response.intermediate = true;
+                    response.stale = true;
+
+                    // Identical requests are served from the cache until the refresh is done,
+                    // and the refresh yields to requests whose result is on screen.
+                    request.startRevalidation();
+                    request.setTrafficClass(Request.TrafficClass.PREFETCH);
 
                     // Post the intermediate response back to the user and have
                     // the delivery then forward the request along to the network.
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.volley;
+
+/**
+ * Thrown by a {@link Network} when a request should be retried after a delay. The
+ * {@link NetworkDispatcher} puts the request back in its queue to run once the delay has
+ * passed, instead of holding the dispatcher thread while it waits. The request is not finished
+ * and no error is delivered.
+ */
+@SuppressWarnings("serial")
+public class DeferredRetryError extends VolleyError {
+    private final long mDelayMs;
+
+    public DeferredRetryError(long delayMs) {
+        super();
+        mDelayMs = delayMs;
+    }
+
+    /** Returns the time to wait before the next attempt, in milliseconds. */
+    public long getDelayMs() {
+        return mDelayMs;
+    }
+}
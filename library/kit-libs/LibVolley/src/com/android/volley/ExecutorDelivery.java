@@ -18,6 +18,8 @@ package com.android.volley;
 
 import android.os.Handler;
 
+import com.android.volley.Request.Priority;
+
 import java.util.concurrent.Executor;
 
 /**
@@ -27,18 +29,45 @@ public class ExecutorDelivery implements ResponseDelivery {
     /** Used for posting responses, typically to the main thread. */
     private final Executor mResponsePoster;
 
+    /** Used for posting responses of {@link Priority#IMMEDIATE} requests. */
+    private final Executor mImmediatePoster;
+
     /**
      * Creates a new response delivery interface.
      * @param handler {@link Handler} to post responses on
      */
     public ExecutorDelivery(final Handler handler) {
+        this(handler, false);
+    }
+
+    /**
+     * Creates a new response delivery interface.
+     * @param handler {@link Handler} to post responses on
+     * @param frameBatched true to deliver through a {@link FrameBatchingExecutor}: responses
+     *     are delivered together once per frame within a time budget, instead of one handler
+     *     message each. Responses of {@link Priority#IMMEDIATE} requests are still posted
+     *     right away.
+     */
+    public ExecutorDelivery(final Handler handler, boolean frameBatched) {
+        this(handler, frameBatched ? new FrameBatchingExecutor(handler) : null);
+    }
+
+    /**
+     * Creates a new response delivery interface.
+     * @param handler {@link Handler} to post responses of {@link Priority#IMMEDIATE} requests on
+     * @param responsePoster {@link Executor} for all other responses, such as a
+     *     {@link FrameBatchingExecutor} with its own frame scheduler; null to post them on the
+     *     handler as well
+     */
+    public ExecutorDelivery(final Handler handler, Executor responsePoster) {
         // Make an Executor that just wraps the handler.
-        mResponsePoster = new Executor() {
+        mImmediatePoster = new Executor() {
             @Override
             public void execute(Runnable command) {
                 handler.post(command);
             }
         };
+        mResponsePoster = responsePoster != null ? responsePoster : mImmediatePoster;
     }
 
     /**
@@ -48,6 +77,7 @@ public class ExecutorDelivery implements ResponseDelivery {
      */
     public ExecutorDelivery(Executor executor) {
         mResponsePoster = executor;
+        mImmediatePoster = executor;
     }
 
     @Override
@@ -59,14 +89,20 @@ public class ExecutorDelivery implements ResponseDelivery {
     public void postResponse(Request<?> request, Response<?> response, Runnable runnable) {
         request.markDelivered();
         request.addMarker("post-response");
-        mResponsePoster.execute(new ResponseDeliveryRunnable(request, response, runnable));
+        request.getTiming().mark(RequestTiming.DELIVERY_POST);
+        getPoster(request).execute(new ResponseDeliveryRunnable(request, response, runnable));
     }
 
     @Override
     public void postError(Request<?> request, VolleyError error) {
         request.addMarker("post-error");
+        request.getTiming().mark(RequestTiming.DELIVERY_POST);
         Response<?> response = Response.error(error);
-        mResponsePoster.execute(new ResponseDeliveryRunnable(request, response, null));
+        getPoster(request).execute(new ResponseDeliveryRunnable(request, response, null));
+    }
+
+    private Executor getPoster(Request<?> request) {
+        return request.getPriority() == Priority.IMMEDIATE ? mImmediatePoster : mResponsePoster;
     }
 
     /**
@@ -95,11 +131,13 @@ public class ExecutorDelivery implements ResponseDelivery {
             }
 
             // Deliver a normal response or error, depending.
+            mRequest.getTiming().mark(RequestTiming.DELIVERY_START);
             if (mResponse.isSuccess()) {
-                mRequest.deliverResponse(mResponse.result);
+                mRequest.deliverResponse(mResponse.result, mResponse.intermediate, mResponse.stale);
             } else {
                 mRequest.deliverError(mResponse.error);
             }
+            mRequest.getTiming().mark(RequestTiming.DELIVERY_END);
 
             // If this is an intermediate response, add a marker, otherwise we're done
             // and the request can be finished.
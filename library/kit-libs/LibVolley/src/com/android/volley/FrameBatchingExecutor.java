@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.volley;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.LinkedList;
+import java.util.concurrent.Executor;
+
+/**
+ * An {@link Executor} that runs tasks on a {@link Handler}'s thread in batches, one batch per
+ * display frame, instead of posting one message per task.
+ * <p>
+ * Tasks queue up until the next frame, as signalled by a {@link FrameScheduler}, then run
+ * together until the per-frame budget is
+ * spent. Whatever is left over runs on the following frame, so a burst of work spreads over
+ * several frames rather than stalling one. At least one task runs per batch, so a task that is
+ * longer than the budget still makes progress.
+ */
+public class FrameBatchingExecutor implements Executor {
+    /** Default time budget for running tasks in a single frame. */
+    public static final long DEFAULT_FRAME_BUDGET_NANOS = 5L * 1000 * 1000;
+
+    /** Frame interval assumed by the default {@link FrameScheduler}, for a 60 Hz display. */
+    public static final long DEFAULT_FRAME_INTERVAL_MS = 16;
+
+    /**
+     * Decides when the next frame starts. The default posts to the handler on a fixed frame
+     * interval; an implementation backed by {@code android.view.Choreographer} can be supplied
+     * on platforms that have it, so that batches line up with vsync.
+     */
+    public static interface FrameScheduler {
+        /**
+         * Arranges for {@code frameTask} to run once at the start of the next frame. Called on
+         * the handler's thread, and the task must run on that thread too.
+         */
+        public void schedule(Runnable frameTask);
+    }
+
+    private final Handler mHandler;
+    private final long mFrameBudgetNanos;
+    private final FrameScheduler mFrameScheduler;
+
+    /** Tasks waiting for the next batch; guarded by itself. */
+    private final LinkedList<Runnable> mTasks = new LinkedList<Runnable>();
+
+    /** True while a batch is scheduled; guarded by {@link #mTasks}. */
+    private boolean mScheduled;
+
+    private final Runnable mDrainRunnable = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    private final Runnable mScheduleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            scheduleNextFrame();
+        }
+    };
+
+    /**
+     * Creates an executor with the {@link #DEFAULT_FRAME_BUDGET_NANOS default budget}.
+     * @param handler {@link Handler} to run tasks on, typically for the main looper
+     */
+    public FrameBatchingExecutor(Handler handler) {
+        this(handler, DEFAULT_FRAME_BUDGET_NANOS);
+    }
+
+    /**
+     * Creates an executor whose frames come from the handler on a fixed
+     * {@link #DEFAULT_FRAME_INTERVAL_MS interval}.
+     * @param handler {@link Handler} to run tasks on, typically for the main looper
+     * @param frameBudgetNanos time to spend running tasks per frame before yielding
+     */
+    public FrameBatchingExecutor(Handler handler, long frameBudgetNanos) {
+        this(handler, frameBudgetNanos, new HandlerFrameScheduler(handler));
+    }
+
+    /**
+     * @param handler {@link Handler} to run tasks on, typically for the main looper
+     * @param frameBudgetNanos time to spend running tasks per frame before yielding
+     * @param frameScheduler decides when each frame starts on the handler's thread
+     */
+    public FrameBatchingExecutor(Handler handler, long frameBudgetNanos,
+            FrameScheduler frameScheduler) {
+        mHandler = handler;
+        mFrameBudgetNanos = frameBudgetNanos;
+        mFrameScheduler = frameScheduler;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        synchronized (mTasks) {
+            mTasks.add(command);
+            if (mScheduled) {
+                return;
+            }
+            mScheduled = true;
+        }
+        if (Looper.myLooper() == mHandler.getLooper()) {
+            scheduleNextFrame();
+        } else {
+            // Frame schedulers belong to the handler's thread, so ask from there.
+            mHandler.post(mScheduleRunnable);
+        }
+    }
+
+    /**
+     * Runs queued tasks until the budget is spent, then schedules the rest for the next frame.
+     */
+    private void drain() {
+        long deadline = System.nanoTime() + mFrameBudgetNanos;
+        while (true) {
+            Runnable task;
+            synchronized (mTasks) {
+                task = mTasks.poll();
+                if (task == null) {
+                    mScheduled = false;
+                    return;
+                }
+            }
+            task.run();
+            if (System.nanoTime() >= deadline) {
+                break;
+            }
+        }
+        synchronized (mTasks) {
+            if (mTasks.isEmpty()) {
+                mScheduled = false;
+                return;
+            }
+        }
+        scheduleNextFrame();
+    }
+
+    /** Arranges for {@link #drain()} to run at the next frame; called on the handler's thread. */
+    private void scheduleNextFrame() {
+        mFrameScheduler.schedule(mDrainRunnable);
+    }
+
+    /**
+     * Starts a frame at the next multiple of {@link #DEFAULT_FRAME_INTERVAL_MS} of uptime, which
+     * approximates the display refresh without access to vsync.
+     */
+    private static class HandlerFrameScheduler implements FrameScheduler {
+        private final Handler mHandler;
+
+        public HandlerFrameScheduler(Handler handler) {
+            mHandler = handler;
+        }
+
+        @Override
+        public void schedule(Runnable frameTask) {
+            long now = SystemClock.uptimeMillis();
+            mHandler.postAtTime(frameTask,
+                    now - now % DEFAULT_FRAME_INTERVAL_MS + DEFAULT_FRAME_INTERVAL_MS);
+        }
+    }
+}
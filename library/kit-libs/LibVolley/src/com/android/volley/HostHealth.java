@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.volley;
+
+import android.os.SystemClock;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Health of the hosts requests are sent to, shared by the {@link AdaptiveRetryPolicy} of every
+ * request so that what one request learns about a host applies to the next:
+ *
+ * <ul>
+ *     <li>the response latency of recent requests, from which timeouts are derived;</li>
+ *     <li>a circuit breaker that opens after {@link #DEFAULT_FAILURE_THRESHOLD} consecutive
+ *     failures. While it is open, requests to the host fail fast. Once the open period ends,
+ *     one probe request is let through per period: its success closes the circuit, its
+ *     failure reopens it for twice as long (up to {@link #MAX_OPEN_MS});</li>
+ *     <li>counters of retries by reason, of retries given up and of requests rejected by an
+ *     open circuit.</li>
+ * </ul>
+ */
+public class HostHealth {
+    /** Consecutive failures that open the circuit of a host. */
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+
+    /** First period a circuit stays open. */
+    public static final long DEFAULT_OPEN_MS = 5000;
+
+    /** Longest period a circuit stays open. */
+    public static final long MAX_OPEN_MS = 60000;
+
+    /** Latencies kept per host. */
+    private static final int LATENCY_SAMPLES = 64;
+
+    /** Latencies needed before percentiles are reported. */
+    private static final int MIN_LATENCY_SAMPLES = 8;
+
+    private static HostHealth sDefault;
+
+    private final int mFailureThreshold;
+
+    /** State per host; guarded by this object. */
+    private final Map<String, Host> mHosts = new HashMap<String, Host>();
+
+    /** Retries per reason; guarded by this object. */
+    private final Map<String, Long> mRetryCounts = new HashMap<String, Long>();
+
+    private long mGiveUpCount;
+    private long mRejectedCount;
+
+    private static class Host {
+        /** Ring buffer of the latest latencies. */
+        final long[] latencies = new long[LATENCY_SAMPLES];
+        int latencyCount;
+        int latencyIndex;
+        int consecutiveFailures;
+        /** End of the current open period, or 0 while the circuit is closed. */
+        long openUntilMs;
+        long openMs = DEFAULT_OPEN_MS;
+        /** True while a probe let through by an expired open period has not reported back. */
+        boolean probing;
+    }
+
+    public HostHealth() {
+        this(DEFAULT_FAILURE_THRESHOLD);
+    }
+
+    /**
+     * @param failureThreshold consecutive failures that open the circuit of a host
+     */
+    public HostHealth(int failureThreshold) {
+        mFailureThreshold = Math.max(1, failureThreshold);
+    }
+
+    /**
+     * Returns the instance used by {@link AdaptiveRetryPolicy} unless another one is given.
+     */
+    public static synchronized HostHealth getDefault() {
+        if (sDefault == null) {
+            sDefault = new HostHealth();
+        }
+        return sDefault;
+    }
+
+    /**
+     * Returns true if a request to the host may be sent now: its circuit is closed, or its open
+     * period ended and this request becomes the probe for the next one.
+     */
+    public synchronized boolean tryAcquire(String host) {
+        Host state = getHost(host);
+        if (state.openUntilMs == 0) {
+            return true;
+        }
+        long now = SystemClock.elapsedRealtime();
+        if (now < state.openUntilMs) {
+            mRejectedCount++;
+            return false;
+        }
+        // Let this request probe the host; others keep failing fast until it reports back.
+        state.openUntilMs = now + state.openMs;
+        state.probing = true;
+        return true;
+    }
+
+    /**
+     * Records a response from the host, which closes its circuit.
+     *
+     * @param latencyMs time from sending the request to receiving the response headers
+     */
+    public synchronized void recordSuccess(String host, long latencyMs) {
+        Host state = getHost(host);
+        state.latencies[state.latencyIndex] = latencyMs;
+        state.latencyIndex = (state.latencyIndex + 1) % LATENCY_SAMPLES;
+        state.latencyCount = Math.min(state.latencyCount + 1, LATENCY_SAMPLES);
+        state.consecutiveFailures = 0;
+        if (state.openUntilMs != 0) {
+            state.openUntilMs = 0;
+            state.openMs = DEFAULT_OPEN_MS;
+            state.probing = false;
+            VolleyLog.d("Circuit closed for %s", host);
+        }
+    }
+
+    /**
+     * Records a failed attempt (timeout, connection failure or server error) on the host.
+     */
+    public synchronized void recordFailure(String host) {
+        Host state = getHost(host);
+        state.consecutiveFailures++;
+        long now = SystemClock.elapsedRealtime();
+        if (state.openUntilMs != 0) {
+            // Requests that were already in flight when the circuit opened may still fail; only
+            // the failure of the probe extends the open period.
+            if (state.probing) {
+                state.probing = false;
+                state.openMs = Math.min(state.openMs * 2, MAX_OPEN_MS);
+                state.openUntilMs = now + state.openMs;
+                VolleyLog.d("Circuit reopened for %s for %d ms", host, state.openMs);
+            }
+        } else if (state.consecutiveFailures >= mFailureThreshold) {
+            state.openUntilMs = now + state.openMs;
+            VolleyLog.d("Circuit opened for %s after %d failures", host,
+                    state.consecutiveFailures);
+        }
+    }
+
+    /**
+     * Returns true while the circuit of the host is open.
+     */
+    public synchronized boolean isOpen(String host) {
+        Host state = mHosts.get(host);
+        return state != null && state.openUntilMs != 0;
+    }
+
+    /**
+     * Returns the given percentile of the recent latencies of the host in milliseconds, or -1
+     * if too few have been recorded.
+     *
+     * @param percentile between 0 and 100
+     */
+    public synchronized long getLatencyPercentile(String host, int percentile) {
+        Host state = mHosts.get(host);
+        if (state == null || state.latencyCount < MIN_LATENCY_SAMPLES) {
+            return -1;
+        }
+        long[] sorted = new long[state.latencyCount];
+        System.arraycopy(state.latencies, 0, sorted, 0, state.latencyCount);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    /** Counts a retry for the given reason. */
+    public synchronized void countRetry(String reason) {
+        Long count = mRetryCounts.get(reason);
+        mRetryCounts.put(reason, count == null ? 1 : count + 1);
+    }
+
+    /** Counts a request that failed after using up its retries. */
+    public synchronized void countGiveUp() {
+        mGiveUpCount++;
+    }
+
+    /**
+     * Returns a copy of the number of retries per reason, such as "timeout" or "server".
+     */
+    public synchronized Map<String, Long> getRetryCounts() {
+        return new HashMap<String, Long>(mRetryCounts);
+    }
+
+    public synchronized long getGiveUpCount() {
+        return mGiveUpCount;
+    }
+
+    /** Returns the number of requests that failed fast because a circuit was open. */
+    public synchronized long getRejectedCount() {
+        return mRejectedCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "retries=" + mRetryCounts + " giveUps=" + mGiveUpCount
+                + " rejected=" + mRejectedCount;
+    }
+
+    private Host getHost(String host) {
+        Host state = mHosts.get(host);
+        if (state == null) {
+            state = new Host();
+            mHosts.put(host, state);
+        }
+        return state;
+    }
+}
@@ -22,6 +22,7 @@ import android.os.Build;
 import android.os.Process;
 import android.os.SystemClock;
 
+import java.io.File;
 import java.util.concurrent.BlockingQueue;
 
 /**
@@ -96,8 +97,11 @@ public class NetworkDispatcher extends Thread {
                 continue;
             }
 
+            File bodyFile = null;
+            long retryDelayMs = -1;
             try {
                 request.addMarker("network-queue-take");
+                request.getTiming().mark(RequestTiming.NETWORK_TAKE);
 
                 // If the request was cancelled already, do not perform the
                 // network request.
@@ -111,6 +115,12 @@ public class NetworkDispatcher extends Thread {
                 // Perform the network request.
                 NetworkResponse networkResponse = mNetwork.performRequest(request);
                 request.addMarker("network-http-complete");
+                // Let the next request to this host start while this one is parsed.
+                releaseScheduled(request);
+                bodyFile = networkResponse.bodyFile;
+
+                // Answer identical requests that were attached to this one while it was in flight.
+                deliverToCoalesced(request, networkResponse);
 
                 // If the server returned 304 AND we delivered a response already,
                 // we're done -- don't deliver a second identical response.
@@ -120,33 +130,164 @@ public class NetworkDispatcher extends Thread {
                 }
 
                 // Parse the response here on the worker thread.
+                request.getTiming().setCacheHit(false);
+                request.getTiming().mark(RequestTiming.PARSE_START);
                 Response<?> response = request.parseNetworkResponse(networkResponse);
+                request.getTiming().mark(RequestTiming.PARSE_END);
                 request.addMarker("network-parse-complete");
 
                 // Write to cache if applicable.
                 // TODO: Only update cache metadata instead of entire record for 304s.
                 if (request.shouldCache() && response.cacheEntry != null) {
-                    mCache.put(request.getCacheKey(), response.cacheEntry);
-                    request.addMarker("network-cache-written");
+                    if (bodyFile == null) {
+                        mCache.put(request.getCacheKey(), response.cacheEntry);
+                        request.addMarker("network-cache-written");
+                    } else if (mCache instanceof StreamingCache) {
+                        // The body is already on disk; adopt the file rather than copying it.
+                        ((StreamingCache) mCache).commitBodyFile(
+                                request.getCacheKey(), response.cacheEntry, bodyFile);
+                        bodyFile = null;
+                        request.addMarker("network-cache-written");
+                    }
                 }
 
                 // Post the response back.
                 request.markDelivered();
                 mDelivery.postResponse(request, response);
+            } catch (DeferredRetryError deferred) {
+                // Wait out the backoff in the queue; attached requests stay with this one.
+                request.addMarker("network-retry-deferred");
+                retryDelayMs = deferred.getDelayMs();
             } catch (VolleyError volleyError) {
                 volleyError.setNetworkTimeMs(SystemClock.elapsedRealtime() - startTimeMs);
+                failCoalesced(request, volleyError);
                 parseAndDeliverNetworkError(request, volleyError);
             } catch (Exception e) {
                 VolleyLog.e(e, "Unhandled exception %s", e.toString());
                 VolleyError volleyError = new VolleyError(e);
                 volleyError.setNetworkTimeMs(SystemClock.elapsedRealtime() - startTimeMs);
+                failCoalesced(request, volleyError);
                 mDelivery.postError(request, volleyError);
+            } finally {
+                releaseScheduled(request);
+                // Requeue only after the release, so that the retry cannot be taken (and
+                // counted as running) before this attempt stops counting.
+                if (retryDelayMs >= 0) {
+                    requeue(request, retryDelayMs);
+                }
+                // A streamed body that was not committed to the cache is no longer needed.
+                if (bodyFile != null && !bodyFile.delete()) {
+                    VolleyLog.d("Could not delete body file %s", bodyFile.getAbsolutePath());
+                }
+            }
+        }
+    }
+
+    /**
+     * Puts a request back in the queue to run after the given delay.
+     */
+    private void requeue(Request<?> request, long delayMs) {
+        if (mQueue instanceof NetworkScheduler) {
+            ((NetworkScheduler) mQueue).offerDelayed(request, delayMs);
+        } else {
+            // A plain queue cannot hold a request back; retry without the delay.
+            mQueue.add(request);
+        }
+    }
+
+    /**
+     * Tells the scheduler the request no longer uses the network. Releasing twice is harmless.
+     */
+    private void releaseScheduled(Request<?> request) {
+        if (mQueue instanceof NetworkScheduler) {
+            ((NetworkScheduler) mQueue).release(request);
+        }
+    }
+
+    /**
+     * Parses the network response of a request for each identical request attached to it and
+     * posts the results. Runs before the request's own parse, while a streamed body file is
+     * still in place.
+     */
+    private void deliverToCoalesced(Request<?> request, NetworkResponse networkResponse) {
+        for (Request<?> attached : request.takeCoalescedRequests()) {
+            if (attached.isCanceled()) {
+                attached.finish("coalesced-discard-cancelled");
+                continue;
+            }
+            try {
+                attached.getTiming().setCacheHit(false);
+                attached.getTiming().mark(RequestTiming.PARSE_START);
+                Response<?> response = attached.parseNetworkResponse(networkResponse);
+                attached.getTiming().mark(RequestTiming.PARSE_END);
+                attached.addMarker("coalesced-parse-complete");
+                attached.markDelivered();
+                mDelivery.postResponse(attached, response);
+            } catch (Exception e) {
+                VolleyLog.e(e, "Unhandled exception %s", e.toString());
+                mDelivery.postError(attached, new VolleyError(e));
+            }
+        }
+    }
+
+    /**
+     * Posts the error of a request to each identical request attached to it.
+     */
+    private void failCoalesced(Request<?> request, VolleyError error) {
+        for (Request<?> attached : request.takeCoalescedRequests()) {
+            if (attached.isCanceled()) {
+                attached.finish("coalesced-discard-cancelled");
+            } else {
+                parseAndDeliverNetworkError(attached, error);
             }
         }
     }
 
     private void parseAndDeliverNetworkError(Request<?> request, VolleyError error) {
+        if (deliverStaleIfError(request)) {
+            return;
+        }
         error = request.parseNetworkError(error);
         mDelivery.postError(request, error);
     }
+
+    /**
+     * Answers a failed request with its cached response if that is within the request's
+     * stale-if-error window. A request that was already served the cached response (a failed
+     * refresh) is simply finished.
+     *
+     * @return true if the request was answered and the error must not be delivered
+     */
+    private boolean deliverStaleIfError(Request<?> request) {
+        long staleIfErrorMs = request.getStaleIfErrorMs();
+        if (staleIfErrorMs <= 0 || !request.shouldCache()) {
+            return false;
+        }
+        Cache.Entry entry = request.getCacheEntry();
+        if (entry == null) {
+            entry = mCache.get(request.getCacheKey());
+        }
+        if (entry == null || System.currentTimeMillis() > entry.ttl + staleIfErrorMs) {
+            return false;
+        }
+        if (request.hasHadResponseDelivered()) {
+            request.finish("refresh-failed-served-stale");
+            return true;
+        }
+        try {
+            Response<?> response = request.parseNetworkResponse(
+                    new NetworkResponse(entry.data, entry.responseHeaders));
+            if (!response.isSuccess()) {
+                return false;
+            }
+            request.addMarker("network-error-served-stale");
+            response.stale = true;
+            request.markDelivered();
+            mDelivery.postResponse(request, response);
+            return true;
+        } catch (Exception e) {
+            VolleyLog.e(e, "Unhandled exception %s", e.toString());
+            return false;
+        }
+    }
 }
@@ -16,6 +16,12 @@
 
 package com.android.volley;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Collections;
 import java.util.Map;
 
@@ -50,6 +56,31 @@ public class NetworkResponse {
         // y-miyazaki bugfix start
         this.apacheHeaders = apacheHeaders;
         // y-miyazaki bugfix end
+        this.bodyFile = null;
+    }
+
+    /**
+     * Creates a new network response whose body was streamed to a file rather than read into
+     * memory; {@link #data} is null.
+     *
+     * @param statusCode
+     *            the HTTP status code
+     * @param bodyFile
+     *            File holding the response body
+     * @param headers
+     *            Headers returned with this response, or null for none
+     * @param networkTimeMs
+     *            Round-trip network time to receive network response
+     */
+    public NetworkResponse(int statusCode, File bodyFile, Map<String, String> headers,
+            long networkTimeMs, Header[] apacheHeaders) {
+        this.statusCode = statusCode;
+        this.data = null;
+        this.headers = headers;
+        this.notModified = false;
+        this.networkTimeMs = networkTimeMs;
+        this.apacheHeaders = apacheHeaders;
+        this.bodyFile = bodyFile;
     }
 
     public NetworkResponse(int statusCode, byte[] data, Map<String, String> headers,
@@ -74,9 +105,15 @@ public class NetworkResponse {
     /** The HTTP status code. */
     public final int statusCode;
 
-    /** Raw data from this response. */
+    /** Raw data from this response, or null if the body is in {@link #bodyFile}. */
     public final byte[] data;
 
+    /**
+     * The file holding the body when it was streamed to disk instead of {@link #data}; see
+     * {@link Request#shouldStreamBody()}. Only valid while the response is being parsed.
+     */
+    public final File bodyFile;
+
     /** Response headers. */
     public final Map<String, String> headers;
 
@@ -90,4 +127,25 @@ public class NetworkResponse {
     /** multiple headers support. */
     public final Header[] apacheHeaders;
     // y-miyazaki bugfix end
+
+    /**
+     * Opens the body for reading, whether it is held in {@link #data} or {@link #bodyFile}.
+     * The caller must close the stream.
+     */
+    public InputStream openBody() throws IOException {
+        if (bodyFile != null) {
+            return new BufferedInputStream(new FileInputStream(bodyFile));
+        }
+        return new ByteArrayInputStream(data != null ? data : new byte[0]);
+    }
+
+    /**
+     * Returns the length of the body in bytes, wherever it is held.
+     */
+    public long getBodyLength() {
+        if (bodyFile != null) {
+            return bodyFile.length();
+        }
+        return data != null ? data.length : 0;
+    }
 }
@@ -0,0 +1,598 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+import android.net.Uri;
+import android.os.SystemClock;
+
+import com.android.volley.Request.Priority;
+import com.android.volley.Request.TrafficClass;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The queue of requests waiting for a {@link NetworkDispatcher}. It replaces a plain priority
+ * queue so that one kind of traffic cannot take every dispatcher:
+ *
+ * <ul>
+ *     <li>Each {@link TrafficClass} has its own queue, and the classes share the dispatchers in
+ *     proportion to their weights (stride scheduling), so a burst of images cannot starve API
+ *     calls, and prefetches still make progress.</li>
+ *     <li>At most {@link #setMaxRequestsPerHost(int)} requests to the same host run at once, so
+ *     a slow host cannot hold every dispatcher.</li>
+ *     <li>Within a class, requests are taken by {@link Priority}, but a waiting request gains one
+ *     priority level every {@value #AGING_INTERVAL_MS} ms (up to {@link Priority#HIGH}), so low
+ *     priority work is not starved forever. {@link Priority#IMMEDIATE} requests go first.</li>
+ *     <li>The number of requests running at once adapts between 1 and the number of
+ *     dispatchers: it grows while requests are waiting and the time to first byte stays near
+ *     the best observed, shrinks when it inflates, and is capped by the
+ *     {@link ConnectionClass}.</li>
+ * </ul>
+ *
+ * <p>Every request returned by {@link #take()} or {@link #poll()} counts as running until it
+ * is passed to {@link #release(Request)}.</p>
+ */
+public class NetworkScheduler extends AbstractQueue<Request<?>>
+        implements BlockingQueue<Request<?>> {
+
+    /** Default number of requests to the same host that may run at once. */
+    public static final int DEFAULT_MAX_REQUESTS_PER_HOST = 3;
+
+    /** Requests running at once before any latency has been observed. */
+    private static final int DEFAULT_CONCURRENCY = 4;
+
+    /** Milliseconds of waiting that raise a request's priority by one level. */
+    private static final long AGING_INTERVAL_MS = 2000;
+
+    /** Pass increment of a class with weight 1. */
+    private static final long STRIDE = 1 << 20;
+
+    /** Number of completed requests between adjustments of the concurrency. */
+    private static final int ADJUST_INTERVAL = 16;
+
+    /** Weight of a new sample in the moving average of the time to first byte. */
+    private static final float LATENCY_SMOOTHING = 0.2f;
+
+    /**
+     * Ratio of the average time to first byte to the best observed above which the network or
+     * the servers are considered congested.
+     */
+    private static final float CONGESTION_RATIO = 2f;
+
+    /**
+     * Quality of the current connection, which caps the number of requests running at once.
+     */
+    public enum ConnectionClass {
+        /** Not known; no cap beyond the default. */
+        UNKNOWN(DEFAULT_CONCURRENCY),
+        /** 2G and other slow links, where parallel requests only share little bandwidth. */
+        POOR(2),
+        /** 3G and comparable links. */
+        MODERATE(4),
+        /** Wi-Fi, LTE and faster. */
+        GOOD(8);
+
+        private final int mMaxConcurrency;
+
+        private ConnectionClass(int maxConcurrency) {
+            mMaxConcurrency = maxConcurrency;
+        }
+    }
+
+    /** A queued or running request with the values it is scheduled by. */
+    private static class Entry {
+        final Request<?> request;
+        final String host;
+        final long enqueuedMs;
+        /** Time before which the request must not run, or 0. */
+        long notBeforeMs;
+        long startedMs;
+
+        Entry(Request<?> request, String host, long enqueuedMs) {
+            this.request = request;
+            this.host = host;
+            this.enqueuedMs = enqueuedMs;
+        }
+    }
+
+    /** Waiting requests per traffic class, in arrival order. */
+    private final List<List<Entry>> mQueues;
+
+    /** Weight per traffic class. */
+    private final int[] mWeights;
+
+    /** Pass of each traffic class; the class with the lowest pass is served next. */
+    private final long[] mPasses;
+
+    /** Pass of the class served last; classes that become busy again start from here. */
+    private long mVirtualTime;
+
+    /** Number of waiting requests. */
+    private int mSize;
+
+    /** Earliest time a delayed request becomes runnable, as of the last {@link #next()}. */
+    private long mNextRunnableMs = Long.MAX_VALUE;
+
+    /** Running requests. */
+    private final Map<Request<?>, Entry> mRunning = new IdentityHashMap<Request<?>, Entry>();
+
+    /** Number of running requests per host. */
+    private final Map<String, Integer> mRunningPerHost = new HashMap<String, Integer>();
+
+    private int mMaxRequestsPerHost = DEFAULT_MAX_REQUESTS_PER_HOST;
+
+    /** Upper bound of the concurrency: the number of dispatchers. */
+    private final int mMaxConcurrency;
+
+    /** Number of requests allowed to run at once. */
+    private int mConcurrency;
+
+    private ConnectionClass mConnectionClass = ConnectionClass.UNKNOWN;
+
+    /** Moving average of the time to first byte, or -1 before the first sample. */
+    private float mAverageLatencyMs = -1;
+
+    /** Lowest moving average observed on the current connection, or -1. */
+    private float mBaselineLatencyMs = -1;
+
+    /** Requests completed since the concurrency was last adjusted. */
+    private int mCompletedSinceAdjust;
+
+    /**
+     * @param maxConcurrency the number of dispatchers taking from this queue
+     */
+    public NetworkScheduler(int maxConcurrency) {
+        int classes = TrafficClass.values().length;
+        mQueues = new ArrayList<List<Entry>>(classes);
+        for (int i = 0; i < classes; i++) {
+            mQueues.add(new ArrayList<Entry>());
+        }
+        mWeights = new int[classes];
+        mWeights[TrafficClass.API.ordinal()] = 8;
+        mWeights[TrafficClass.IMAGE.ordinal()] = 4;
+        mWeights[TrafficClass.PREFETCH.ordinal()] = 1;
+        mPasses = new long[classes];
+        mMaxConcurrency = Math.max(1, maxConcurrency);
+        mConcurrency = Math.min(DEFAULT_CONCURRENCY, mMaxConcurrency);
+    }
+
+    /**
+     * Sets the share of the dispatchers a traffic class gets while other classes are waiting
+     * too. Defaults are 8 for API calls, 4 for images and 1 for prefetches.
+     */
+    public synchronized void setWeight(TrafficClass trafficClass, int weight) {
+        mWeights[trafficClass.ordinal()] = Math.max(1, weight);
+    }
+
+    /**
+     * Sets the number of requests to the same host that may run at once.
+     */
+    public synchronized void setMaxRequestsPerHost(int maxRequestsPerHost) {
+        mMaxRequestsPerHost = Math.max(1, maxRequestsPerHost);
+        notifyAll();
+    }
+
+    /**
+     * Sets the quality of the current connection. Latency observed on the previous connection
+     * is forgotten.
+     */
+    public synchronized void setConnectionClass(ConnectionClass connectionClass) {
+        if (mConnectionClass == connectionClass) {
+            return;
+        }
+        mConnectionClass = connectionClass;
+        mAverageLatencyMs = -1;
+        mBaselineLatencyMs = -1;
+        mCompletedSinceAdjust = 0;
+        mConcurrency = Math.min(Math.max(mConcurrency, DEFAULT_CONCURRENCY), getConcurrencyCap());
+        notifyAll();
+    }
+
+    /**
+     * Returns the number of requests currently allowed to run at once.
+     */
+    public synchronized int getConcurrency() {
+        return mConcurrency;
+    }
+
+    /**
+     * Returns the number of requests running.
+     */
+    public synchronized int getRunningCount() {
+        return mRunning.size();
+    }
+
+    /**
+     * Marks a request returned by {@link #take()} or {@link #poll()} as no longer using the
+     * network, and records its time to first byte. Has no effect for requests not running.
+     */
+    public void release(Request<?> request) {
+        long latencyNanos = request.getTiming().getDurationNanos(
+                RequestTiming.CONNECT_START, RequestTiming.RESPONSE_HEADERS);
+        synchronized (this) {
+            Entry entry = mRunning.remove(request);
+            if (entry == null) {
+                return;
+            }
+            Integer count = mRunningPerHost.get(entry.host);
+            if (count == null || count <= 1) {
+                mRunningPerHost.remove(entry.host);
+            } else {
+                mRunningPerHost.put(entry.host, count - 1);
+            }
+            long latencyMs = latencyNanos >= 0
+                    ? TimeUnit.NANOSECONDS.toMillis(latencyNanos)
+                    : SystemClock.elapsedRealtime() - entry.startedMs;
+            recordLatency(latencyMs);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Moves a waiting request to the queue of its current {@link Request#getTrafficClass()},
+     * keeping the time it has waited. Call after changing the class of a queued request; a
+     * changed {@link Priority} needs no call, since priorities are read on every pick.
+     *
+     * @return true if the request was waiting
+     */
+    public synchronized boolean reschedule(Request<?> request) {
+        for (List<Entry> queue : mQueues) {
+            for (int i = 0; i < queue.size(); i++) {
+                Entry entry = queue.get(i);
+                if (entry.request == request) {
+                    queue.remove(i);
+                    int trafficClass = request.getTrafficClass().ordinal();
+                    List<Entry> target = mQueues.get(trafficClass);
+                    if (target.isEmpty()) {
+                        mPasses[trafficClass] = Math.max(mPasses[trafficClass], mVirtualTime);
+                    }
+                    target.add(entry);
+                    notifyAll();
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean offer(Request<?> request) {
+        if (request == null) {
+            throw new NullPointerException();
+        }
+        String host = getHost(request);
+        synchronized (this) {
+            int trafficClass = request.getTrafficClass().ordinal();
+            List<Entry> queue = mQueues.get(trafficClass);
+            if (queue.isEmpty()) {
+                // A class that was idle does not get credit for the time it did not use.
+                mPasses[trafficClass] = Math.max(mPasses[trafficClass], mVirtualTime);
+            }
+            queue.add(new Entry(request, host, SystemClock.elapsedRealtime()));
+            mSize++;
+            notifyAll();
+        }
+        return true;
+    }
+
+    /**
+     * Adds a request that must not run for the given time, such as a retry waiting out its
+     * backoff. No dispatcher is held while it waits. Its priority ages from when it
+     * becomes runnable.
+     */
+    public void offerDelayed(Request<?> request, long delayMs) {
+        if (delayMs <= 0) {
+            offer(request);
+            return;
+        }
+        String host = getHost(request);
+        synchronized (this) {
+            long notBeforeMs = SystemClock.elapsedRealtime() + delayMs;
+            int trafficClass = request.getTrafficClass().ordinal();
+            List<Entry> queue = mQueues.get(trafficClass);
+            if (queue.isEmpty()) {
+                mPasses[trafficClass] = Math.max(mPasses[trafficClass], mVirtualTime);
+            }
+            Entry entry = new Entry(request, host, notBeforeMs);
+            entry.notBeforeMs = notBeforeMs;
+            queue.add(entry);
+            mSize++;
+            notifyAll();
+        }
+    }
+
+    @Override
+    public void put(Request<?> request) {
+        offer(request);
+    }
+
+    @Override
+    public boolean offer(Request<?> request, long timeout, TimeUnit unit) {
+        return offer(request);
+    }
+
+    @Override
+    public synchronized Request<?> take() throws InterruptedException {
+        while (true) {
+            Request<?> request = next();
+            if (request != null) {
+                return request;
+            }
+            long delay = mNextRunnableMs - SystemClock.elapsedRealtime();
+            if (mNextRunnableMs == Long.MAX_VALUE) {
+                wait();
+            } else if (delay > 0) {
+                wait(delay);
+            }
+        }
+    }
+
+    @Override
+    public synchronized Request<?> poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = SystemClock.elapsedRealtime() + unit.toMillis(timeout);
+        while (true) {
+            Request<?> request = next();
+            if (request != null) {
+                return request;
+            }
+            long now = SystemClock.elapsedRealtime();
+            long remaining = deadline - now;
+            if (remaining <= 0) {
+                return null;
+            }
+            wait(Math.max(1, Math.min(remaining, mNextRunnableMs - now)));
+        }
+    }
+
+    @Override
+    public synchronized Request<?> poll() {
+        return next();
+    }
+
+    /**
+     * Returns a waiting request, not necessarily the one {@link #take()} would return next.
+     */
+    @Override
+    public synchronized Request<?> peek() {
+        for (List<Entry> queue : mQueues) {
+            if (!queue.isEmpty()) {
+                return queue.get(0).request;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized int size() {
+        return mSize;
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public synchronized boolean remove(Object o) {
+        for (List<Entry> queue : mQueues) {
+            for (int i = 0; i < queue.size(); i++) {
+                if (queue.get(i).request == o) {
+                    queue.remove(i);
+                    mSize--;
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized void clear() {
+        for (List<Entry> queue : mQueues) {
+            queue.clear();
+        }
+        mSize = 0;
+    }
+
+    /**
+     * Returns an iterator over a snapshot of the waiting requests.
+     */
+    @Override
+    public synchronized Iterator<Request<?>> iterator() {
+        List<Request<?>> snapshot = new ArrayList<Request<?>>(mSize);
+        for (List<Entry> queue : mQueues) {
+            for (Entry entry : queue) {
+                snapshot.add(entry.request);
+            }
+        }
+        final Iterator<Request<?>> iterator = snapshot.iterator();
+        return new Iterator<Request<?>>() {
+            private Request<?> mLast;
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public Request<?> next() {
+                mLast = iterator.next();
+                return mLast;
+            }
+
+            @Override
+            public void remove() {
+                NetworkScheduler.this.remove(mLast);
+            }
+        };
+    }
+
+    @Override
+    public int drainTo(Collection<? super Request<?>> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Removes waiting requests without marking them running.
+     */
+    @Override
+    public synchronized int drainTo(Collection<? super Request<?>> c, int maxElements) {
+        int drained = 0;
+        for (List<Entry> queue : mQueues) {
+            while (!queue.isEmpty() && drained < maxElements) {
+                c.add(queue.remove(0).request);
+                mSize--;
+                drained++;
+            }
+        }
+        return drained;
+    }
+
+    /**
+     * Removes and returns the next request that may run now, or null if there is none. Must
+     * be called with this object locked.
+     */
+    private Request<?> next() {
+        mNextRunnableMs = Long.MAX_VALUE;
+        if (mSize == 0 || mRunning.size() >= mConcurrency) {
+            return null;
+        }
+        long now = SystemClock.elapsedRealtime();
+        int bestClass = -1;
+        int bestIndex = -1;
+        for (int c = 0; c < mQueues.size(); c++) {
+            int index = findRunnable(mQueues.get(c), now);
+            if (index < 0) {
+                continue;
+            }
+            if (mQueues.get(c).get(index).request.getPriority() == Priority.IMMEDIATE) {
+                bestClass = c;
+                bestIndex = index;
+                break;
+            }
+            if (bestClass < 0 || mPasses[c] < mPasses[bestClass]) {
+                bestClass = c;
+                bestIndex = index;
+            }
+        }
+        if (bestClass < 0) {
+            // Everything waiting is for hosts at their limit.
+            return null;
+        }
+
+        Entry entry = mQueues.get(bestClass).remove(bestIndex);
+        mSize--;
+        mVirtualTime = Math.max(mVirtualTime, mPasses[bestClass]);
+        mPasses[bestClass] += STRIDE / mWeights[bestClass];
+
+        entry.startedMs = now;
+        mRunning.put(entry.request, entry);
+        Integer count = mRunningPerHost.get(entry.host);
+        mRunningPerHost.put(entry.host, count == null ? 1 : count + 1);
+        return entry.request;
+    }
+
+    /**
+     * Returns the index of the request of a class to run next: the one with the highest aged
+     * priority whose host is below its limit and whose delay has passed, the earliest among
+     * equals. Returns -1 if none; delayed requests lower {@link #mNextRunnableMs}.
+     */
+    private int findRunnable(List<Entry> queue, long now) {
+        int bestIndex = -1;
+        int bestPriority = -1;
+        for (int i = 0; i < queue.size(); i++) {
+            Entry entry = queue.get(i);
+            if (entry.notBeforeMs > now) {
+                mNextRunnableMs = Math.min(mNextRunnableMs, entry.notBeforeMs);
+                continue;
+            }
+            Integer running = mRunningPerHost.get(entry.host);
+            if (running != null && running >= mMaxRequestsPerHost) {
+                continue;
+            }
+            int priority = entry.request.getPriority().ordinal();
+            if (priority < Priority.HIGH.ordinal()) {
+                long levels = (now - entry.enqueuedMs) / AGING_INTERVAL_MS;
+                priority = (int) Math.min(priority + levels, Priority.HIGH.ordinal());
+            }
+            if (priority > bestPriority) {
+                bestPriority = priority;
+                bestIndex = i;
+            }
+        }
+        return bestIndex;
+    }
+
+    /**
+     * Adds a time to first byte to the moving average and adjusts the concurrency every
+     * {@value #ADJUST_INTERVAL} requests. Must be called with this object locked.
+     */
+    private void recordLatency(long latencyMs) {
+        if (mAverageLatencyMs < 0) {
+            mAverageLatencyMs = latencyMs;
+        } else {
+            mAverageLatencyMs += (latencyMs - mAverageLatencyMs) * LATENCY_SMOOTHING;
+        }
+        if (++mCompletedSinceAdjust < ADJUST_INTERVAL) {
+            return;
+        }
+        mCompletedSinceAdjust = 0;
+        if (mBaselineLatencyMs < 0 || mAverageLatencyMs < mBaselineLatencyMs) {
+            mBaselineLatencyMs = mAverageLatencyMs;
+        }
+        if (mAverageLatencyMs > mBaselineLatencyMs * CONGESTION_RATIO) {
+            // Requests queue up in the network or at the servers; adding more only adds delay.
+            mConcurrency = Math.max(1, mConcurrency - 1);
+            // Let the baseline follow a lasting change, such as a slower route.
+            mBaselineLatencyMs += (mAverageLatencyMs - mBaselineLatencyMs) * LATENCY_SMOOTHING;
+        } else if (mSize > 0) {
+            mConcurrency = Math.min(mConcurrency + 1, getConcurrencyCap());
+        }
+        if (VolleyLog.DEBUG) {
+            VolleyLog.v("Network concurrency %d (ttfb avg=%.0f ms, best=%.0f ms, waiting=%d)",
+                    mConcurrency, mAverageLatencyMs, mBaselineLatencyMs, mSize);
+        }
+    }
+
+    /**
+     * Returns the highest concurrency allowed on the current connection.
+     */
+    private int getConcurrencyCap() {
+        return Math.min(mMaxConcurrency, mConnectionClass.mMaxConcurrency);
+    }
+
+    /**
+     * Returns the host a request is limited under.
+     */
+    static String getHost(Request<?> request) {
+        String url = request.getUrl();
+        if (url == null) {
+            return "";
+        }
+        String host = Uri.parse(url).getHost();
+        return host != null ? host : "";
+    }
+}
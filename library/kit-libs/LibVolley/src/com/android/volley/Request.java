@@ -28,6 +28,7 @@ import com.android.volley.VolleyLog.MarkerLog;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -60,6 +61,9 @@ public abstract class Request<T> implements Comparable<Request<T>> {
     /** An event log tracing the lifetime of this request; for debugging. */
     private final MarkerLog mEventLog = MarkerLog.ENABLED ? new MarkerLog() : null;
 
+    /** Stage timestamps of this request; always recorded, for metrics. */
+    private final RequestTiming mTiming = new RequestTiming();
+
     /**
      * Request method of this request.  Currently supports GET, POST, PUT, DELETE, HEAD, OPTIONS,
      * TRACE, and PATCH.
@@ -78,12 +82,45 @@ public abstract class Request<T> implements Comparable<Request<T>> {
     /** Sequence number of this request, used to enforce FIFO ordering. */
     private Integer mSequence;
 
+    /**
+     * The priority this request had when it entered the cache queue. The queue is a heap, so it
+     * orders by this fixed value rather than by {@link #getPriority()}, which may change.
+     */
+    private Priority mCacheQueuePriority = Priority.NORMAL;
+
     /** The request queue this request is associated with. */
     private RequestQueue mRequestQueue;
 
     /** Whether or not responses to this request should be cached. */
     private boolean mShouldCache = true;
 
+    /** How this request reads the cache and the network. */
+    private CacheMode mCacheMode = CacheMode.NORMAL;
+
+    /** How long past its TTL a cached response may stand in for a network error. */
+    private long mStaleIfErrorMs = 0;
+
+    /**
+     * Whether a soft-expired cached response is delivered as final because a refresh for the
+     * same cache key is already in flight.
+     */
+    private boolean mSkipRefresh = false;
+
+    /** Whether or not this request may share the response of an identical request. */
+    private boolean mIdempotent = false;
+
+    /**
+     * Key under which identical requests are attached to this one while it is in flight, or
+     * null if none can be.
+     */
+    private String mCoalescingKey;
+
+    /** Whether this request is attached to an identical request instead of being sent. */
+    private boolean mCoalesced = false;
+
+    /** The class of traffic this request is scheduled in. */
+    private TrafficClass mTrafficClass = TrafficClass.API;
+
     /** Whether or not this request has been canceled. */
     private boolean mCanceled = false;
 
@@ -203,6 +240,13 @@ public abstract class Request<T> implements Comparable<Request<T>> {
         return this;
     }
 
+    /**
+     * Returns the stage timestamps of this request.
+     */
+    public RequestTiming getTiming() {
+        return mTiming;
+    }
+
     /**
      * Adds an event to this request's event log; for debugging.
      */
@@ -280,6 +324,18 @@ public abstract class Request<T> implements Comparable<Request<T>> {
         return mSequence;
     }
 
+    /**
+     * Records the current priority as the one the cache queue orders by. Used by
+     * {@link RequestQueue} right before the request enters the cache queue.
+     */
+    void snapshotCacheQueuePriority() {
+        mCacheQueuePriority = getPriority();
+    }
+
+    Priority getCacheQueuePriority() {
+        return mCacheQueuePriority;
+    }
+
     /**
      * Returns the URL of this request.
      */
@@ -486,6 +542,142 @@ public abstract class Request<T> implements Comparable<Request<T>> {
         return mShouldCache;
     }
 
+    /**
+     * How a cacheable request uses the cache and the network.
+     */
+    public enum CacheMode {
+        /**
+         * Fresh cached responses are served; soft-expired ones are served and then refreshed;
+         * misses and expired ones go to the network.
+         */
+        NORMAL,
+        /**
+         * Only the cache is read: any cached response is served, however old, and a miss fails
+         * with a {@link CacheMissError}. Nothing is sent to the network.
+         */
+        CACHE_ONLY,
+        /** The cache is not read, but the response is still written to it. */
+        NETWORK_ONLY
+    }
+
+    /**
+     * Sets how this request uses the cache. Only applies when {@link #shouldCache()}.
+     *
+     * @return This Request object to allow for chaining.
+     */
+    public Request<?> setCacheMode(CacheMode cacheMode) {
+        mCacheMode = cacheMode;
+        return this;
+    }
+
+    /**
+     * Returns how this request uses the cache; {@link CacheMode#NORMAL} by default.
+     */
+    public CacheMode getCacheMode() {
+        return mCacheMode;
+    }
+
+    /**
+     * Sets how long past its TTL a cached response may be delivered, marked stale, instead
+     * of an error when the network request fails. 0 (the default) delivers the error.
+     *
+     * @return This Request object to allow for chaining.
+     */
+    public Request<?> setStaleIfErrorMs(long staleIfErrorMs) {
+        mStaleIfErrorMs = staleIfErrorMs;
+        return this;
+    }
+
+    public long getStaleIfErrorMs() {
+        return mStaleIfErrorMs;
+    }
+
+    /** Marks this request as one whose cache key is already being refreshed. */
+    void setSkipRefresh(boolean skipRefresh) {
+        mSkipRefresh = skipRefresh;
+    }
+
+    boolean shouldSkipRefresh() {
+        return mSkipRefresh;
+    }
+
+    /**
+     * Tells the queue that this request is about to refresh its soft-expired cache entry, so
+     * that identical requests are served from the cache meanwhile.
+     */
+    void startRevalidation() {
+        if (mRequestQueue != null) {
+            mRequestQueue.startRevalidation(this);
+        }
+    }
+
+    /**
+     * Declares whether sending this request twice has the same effect as sending it once, so
+     * that an identical request already in flight may answer it. GET, HEAD, OPTIONS and TRACE
+     * requests are always idempotent; use this to opt in other methods, such as a POST that
+     * only queries.
+     *
+     * @return This Request object to allow for chaining.
+     */
+    public final Request<?> setIdempotent(boolean idempotent) {
+        mIdempotent = idempotent;
+        return this;
+    }
+
+    /**
+     * Returns true if this request may share the response of an identical request in flight.
+     */
+    public boolean isIdempotent() {
+        switch (mMethod) {
+            case Method.GET:
+            case Method.HEAD:
+            case Method.OPTIONS:
+            case Method.TRACE:
+                return true;
+            default:
+                return mIdempotent;
+        }
+    }
+
+    /** Sets the key identical requests attach to this one under; see {@link RequestQueue}. */
+    void setCoalescingKey(String coalescingKey) {
+        mCoalescingKey = coalescingKey;
+    }
+
+    String getCoalescingKey() {
+        return mCoalescingKey;
+    }
+
+    /** Marks this request as attached to an identical request in flight. */
+    void setCoalesced(boolean coalesced) {
+        mCoalesced = coalesced;
+    }
+
+    boolean isCoalesced() {
+        return mCoalesced;
+    }
+
+    /**
+     * Detaches the requests waiting for the response of this one, so that the caller can
+     * answer them. Returns an empty list if there are none.
+     */
+    List<Request<?>> takeCoalescedRequests() {
+        if (mRequestQueue == null) {
+            return Collections.emptyList();
+        }
+        return mRequestQueue.takeCoalescedRequests(this);
+    }
+
+    /**
+     * Returns true if a large, cacheable response body may be streamed to a cache file instead
+     * of being read into memory. Subclasses that return true must parse the body with
+     * {@link NetworkResponse#openBody()} (or from {@link NetworkResponse#bodyFile}) rather
+     * than reading {@link NetworkResponse#data}, which is then null.
+     */
+    public boolean shouldStreamBody() {
+        return false;
+    }
+
     /**
      * Priority values.  Requests will be processed from higher priorities to
      * lower priorities, in FIFO order.
@@ -504,6 +696,35 @@ public abstract class Request<T> implements Comparable<Request<T>> {
         return Priority.NORMAL;
     }
 
+    /**
+     * Classes of traffic that share the network fairly; see {@link NetworkScheduler}.
+     */
+    public enum TrafficClass {
+        /** Calls whose results the user is waiting for. */
+        API,
+        /** Images to be displayed. */
+        IMAGE,
+        /** Speculative work whose result may never be used. */
+        PREFETCH
+    }
+
+    /**
+     * Sets the traffic class this request is scheduled in.
+     *
+     * @return This Request object to allow for chaining.
+     */
+    public Request<?> setTrafficClass(TrafficClass trafficClass) {
+        mTrafficClass = trafficClass;
+        return this;
+    }
+
+    /**
+     * Returns the {@link TrafficClass} of this request; {@link TrafficClass#API} by default.
+     */
+    public TrafficClass getTrafficClass() {
+        return mTrafficClass;
+    }
+
     /**
      * Returns the socket timeout in milliseconds per retry attempt. (This value can be changed
      * per retry attempt if a backoff is specified via backoffTimeout()). If there are no retry
@@ -566,6 +787,18 @@ public abstract class Request<T> implements Comparable<Request<T>> {
      */
     abstract protected void deliverResponse(T response);
 
+    /**
+     * Delivers a parsed response along with where it came from. The default implementation
+     * calls {@link #deliverResponse(Object)}; override to tell listeners about stale data.
+     *
+     * @param response The parsed response.
+     * @param intermediate True if a refreshed response (or an error) will follow.
+     * @param stale True if the response is a cached one past its soft TTL.
+     */
+    protected void deliverResponse(T response, boolean intermediate, boolean stale) {
+        deliverResponse(response);
+    }
+
     /**
      * Delivers error message to the ErrorListener that the Request was
      * initialized with.
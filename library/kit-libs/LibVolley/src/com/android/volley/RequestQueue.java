@@ -18,8 +18,13 @@ package com.android.volley;
 
 import android.os.Handler;
 import android.os.Looper;
+import android.os.Process;
 
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -27,6 +32,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -36,6 +43,12 @@ import java.util.concurrent.atomic.AtomicInteger;
  * Calling {@link #add(Request)} will enqueue the given Request for dispatch,
  * resolving from either cache or network on a worker thread, and then delivering
  * a parsed response on the main thread.
+ *
+ * <p>Idempotent requests (see {@link Request#isIdempotent()}) are coalesced: while a request is
+ * in flight, an identical one added to the queue is not sent but attached to it, and is parsed
+ * from and delivered with the same network response. Requests are identical when a
+ * {@link CoalescingKeyFunction} gives them the same key; by default that is the request class,
+ * whether the body is streamed, method, URL and a hash of the headers and body.</p>
  */
 public class RequestQueue {
 
@@ -45,6 +58,59 @@ public class RequestQueue {
         public void onRequestFinished(Request<T> request);
     }
 
+    /**
+     * Computes the key under which identical requests are coalesced.
+     */
+    public static interface CoalescingKeyFunction {
+        /**
+         * Returns the key of a request, or null if it must never be coalesced.
+         */
+        public String getKey(Request<?> request);
+    }
+
+    /**
+     * The default {@link CoalescingKeyFunction}, keyed by request class, whether the body is
+     * streamed, method, URL and a SHA-1 hash of the headers and body. The class and
+     * {@link Request#shouldStreamBody()} are part of the key because each request parses the
+     * shared response itself and expects it in one form: a streamed response is left on disk
+     * instead of in {@link NetworkResponse#data}. The headers are because they can change the
+     * response (Authorization, Accept).
+     */
+    public static class DefaultCoalescingKeyFunction implements CoalescingKeyFunction {
+        private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+        @Override
+        public String getKey(Request<?> request) {
+            StringBuilder key = new StringBuilder(request.getUrl().length() + 96);
+            key.append(request.getClass().getName()).append(' ')
+                    .append(request.shouldStreamBody() ? "stream " : "")
+                    .append(request.getMethod()).append(' ').append(request.getUrl()).append(' ');
+            try {
+                MessageDigest digest = MessageDigest.getInstance("SHA-1");
+                // Sorted so that equal headers hash the same whatever map the request built.
+                for (Map.Entry<String, String> header
+                        : new TreeMap<String, String>(request.getHeaders()).entrySet()) {
+                    digest.update(header.getKey().getBytes());
+                    digest.update((byte) ':');
+                    digest.update(String.valueOf(header.getValue()).getBytes());
+                    digest.update((byte) '\n');
+                }
+                byte[] body = request.getBody();
+                if (body != null) {
+                    digest.update(body);
+                }
+                for (byte b : digest.digest()) {
+                    key.append(HEX_DIGITS[(b >> 4) & 0xf]).append(HEX_DIGITS[b & 0xf]);
+                }
+            } catch (AuthFailureError e) {
+                return null;
+            } catch (NoSuchAlgorithmException e) {
+                return null;
+            }
+            return key.toString();
+        }
+    }
+
     /** Used for generating monotonically-increasing sequence numbers for requests. */
     private AtomicInteger mSequenceGenerator = new AtomicInteger();
 
@@ -61,6 +127,24 @@ public class RequestQueue {
     private final Map<String, Queue<Request<?>>> mWaitingRequests =
             new HashMap<String, Queue<Request<?>>>();
 
+    /**
+     * Cache keys whose in-flight request is refreshing a soft-expired entry. Requests for
+     * these keys are served the cached entry right away instead of being staged. Guarded by
+     * {@link #mWaitingRequests}.
+     */
+    private final Set<String> mRevalidatingKeys = new HashSet<String>();
+
+    /**
+     * Requests in flight that identical requests can attach to, by coalescing key. The list
+     * holds the attached requests; the request in flight is not contained in it.
+     */
+    private final Map<String, List<Request<?>>> mInFlightRequests =
+            new HashMap<String, List<Request<?>>>();
+
+    /** Computes coalescing keys; null disables coalescing. */
+    private volatile CoalescingKeyFunction mCoalescingKeyFunction =
+            new DefaultCoalescingKeyFunction();
+
     /**
      * The set of all requests currently being processed by this RequestQueue. A Request
      * will be in this set if it is waiting in any queue or currently being processed by
@@ -68,16 +152,37 @@ public class RequestQueue {
      */
     private final Set<Request<?>> mCurrentRequests = new HashSet<Request<?>>();
 
+    /**
+     * Orders the cache queue like {@link Request#compareTo(Request)}, but by the priority each
+     * request had when it was queued. A priority that changes while the request sits in the heap
+     * (an image scrolling on or off screen) would otherwise corrupt the heap order.
+     */
+    private static final Comparator<Request<?>> CACHE_QUEUE_ORDER = new Comparator<Request<?>>() {
+        @Override
+        public int compare(Request<?> left, Request<?> right) {
+            Request.Priority leftPriority = left.getCacheQueuePriority();
+            Request.Priority rightPriority = right.getCacheQueuePriority();
+            return leftPriority == rightPriority
+                    ? left.getSequence() - right.getSequence()
+                    : rightPriority.ordinal() - leftPriority.ordinal();
+        }
+    };
+
     /** The cache triage queue. */
     private final PriorityBlockingQueue<Request<?>> mCacheQueue =
-        new PriorityBlockingQueue<Request<?>>();
+        new PriorityBlockingQueue<Request<?>>(11, CACHE_QUEUE_ORDER);
 
     /** The queue of requests that are actually going out to the network. */
-    private final PriorityBlockingQueue<Request<?>> mNetworkQueue =
-        new PriorityBlockingQueue<Request<?>>();
+    private final NetworkScheduler mNetworkQueue;
 
-    /** Number of network request dispatcher threads to start. */
-    private static final int DEFAULT_NETWORK_THREAD_POOL_SIZE = 4;
+    /**
+     * Number of network request dispatcher threads to start. The scheduler decides how many of
+     * them run at once.
+     */
+    private static final int DEFAULT_NETWORK_THREAD_POOL_SIZE = 6;
+
+    /** Number of cache dispatcher threads to start. */
+    private static final int DEFAULT_CACHE_THREAD_POOL_SIZE = 2;
 
     /** Cache interface for retrieving and storing responses. */
     private final Cache mCache;
@@ -91,8 +196,8 @@ public class RequestQueue {
     /** The network dispatchers. */
     private NetworkDispatcher[] mDispatchers;
 
-    /** The cache dispatcher. */
-    private CacheDispatcher mCacheDispatcher;
+    /** The cache dispatchers. */
+    private final CacheDispatcher[] mCacheDispatchers;
 
     private List<RequestFinishedListener> mFinishedListeners =
             new ArrayList<RequestFinishedListener>();
@@ -107,9 +212,25 @@ public class RequestQueue {
      */
     public RequestQueue(Cache cache, Network network, int threadPoolSize,
             ResponseDelivery delivery) {
+        this(cache, network, threadPoolSize, DEFAULT_CACHE_THREAD_POOL_SIZE, delivery);
+    }
+
+    /**
+     * Creates the worker pool. Processing will not begin until {@link #start()} is called.
+     *
+     * @param cache A Cache to use for persisting responses to disk
+     * @param network A Network interface for performing HTTP requests
+     * @param threadPoolSize Number of network dispatcher threads to create
+     * @param cacheThreadPoolSize Number of cache dispatcher threads to create
+     * @param delivery A ResponseDelivery interface for posting responses and errors
+     */
+    public RequestQueue(Cache cache, Network network, int threadPoolSize,
+            int cacheThreadPoolSize, ResponseDelivery delivery) {
         mCache = cache;
         mNetwork = network;
         mDispatchers = new NetworkDispatcher[threadPoolSize];
+        mNetworkQueue = new NetworkScheduler(threadPoolSize);
+        mCacheDispatchers = new CacheDispatcher[Math.max(1, cacheThreadPoolSize)];
         mDelivery = delivery;
     }
 
@@ -125,6 +246,17 @@ public class RequestQueue {
                 new ExecutorDelivery(new Handler(Looper.getMainLooper())));
     }
 
+    /**
+     * Creates the worker pool. Processing will not begin until {@link #start()} is called.
+     *
+     * @param cache A Cache to use for persisting responses to disk
+     * @param network A Network interface for performing HTTP requests
+     * @param delivery A ResponseDelivery interface for posting responses and errors
+     */
+    public RequestQueue(Cache cache, Network network, ResponseDelivery delivery) {
+        this(cache, network, DEFAULT_NETWORK_THREAD_POOL_SIZE, delivery);
+    }
+
     /**
      * Creates the worker pool. Processing will not begin until {@link #start()} is called.
      *
@@ -140,9 +272,33 @@ public class RequestQueue {
      */
     public void start() {
         stop();  // Make sure any currently running dispatchers are stopped.
-        // Create the cache dispatcher and start it.
-        mCacheDispatcher = new CacheDispatcher(mCacheQueue, mNetworkQueue, mCache, mDelivery);
-        mCacheDispatcher.start();
+        // Initialize the cache off the dispatchers. A cache that can serve lookups while it
+        // loads lets them start right away; any other cache holds them until it is ready.
+        final CountDownLatch cacheReady = new CountDownLatch(1);
+        final boolean incremental = mCache instanceof IncrementalCache;
+        if (incremental) {
+            cacheReady.countDown();
+        }
+        Thread cacheInitializer = new Thread("Volley-CacheInitializer") {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                try {
+                    mCache.initialize();
+                } finally {
+                    cacheReady.countDown();
+                }
+            }
+        };
+        cacheInitializer.start();
+
+        // Create the cache dispatchers and start them.
+        for (int i = 0; i < mCacheDispatchers.length; i++) {
+            CacheDispatcher cacheDispatcher = new CacheDispatcher(mCacheQueue, mNetworkQueue,
+                    mCache, mDelivery, cacheReady);
+            mCacheDispatchers[i] = cacheDispatcher;
+            cacheDispatcher.start();
+        }
 
         // Create network dispatchers (and corresponding threads) up to the pool size.
         for (int i = 0; i < mDispatchers.length; i++) {
@@ -157,8 +313,10 @@ public class RequestQueue {
      * Stops the cache and network dispatchers.
      */
     public void stop() {
-        if (mCacheDispatcher != null) {
-            mCacheDispatcher.quit();
+        for (int i = 0; i < mCacheDispatchers.length; i++) {
+            if (mCacheDispatchers[i] != null) {
+                mCacheDispatchers[i].quit();
+            }
         }
         for (int i = 0; i < mDispatchers.length; i++) {
             if (mDispatchers[i] != null) {
@@ -174,6 +332,22 @@ public class RequestQueue {
         return mSequenceGenerator.incrementAndGet();
     }
 
+    /**
+     * Sets the function that decides which idempotent requests are identical and share a
+     * network response. Pass null to send every request on its own.
+     */
+    public void setCoalescingKeyFunction(CoalescingKeyFunction coalescingKeyFunction) {
+        mCoalescingKeyFunction = coalescingKeyFunction;
+    }
+
+    /**
+     * Gets the {@link NetworkScheduler} that orders requests going out to the network, to
+     * tune its per-host limit, class weights and connection class.
+     */
+    public NetworkScheduler getNetworkScheduler() {
+        return mNetworkQueue;
+    }
+
     /**
      * Gets the {@link Cache} instance being used.
      */
@@ -234,6 +408,12 @@ public class RequestQueue {
         // Process requests in the order they are added.
         request.setSequence(getSequenceNumber());
         request.addMarker("add-to-queue");
+        request.getTiming().mark(RequestTiming.QUEUED);
+
+        // If an identical request is in flight, wait for its response instead of sending this one.
+        if (attachToInFlight(request)) {
+            return request;
+        }
 
         // If the request is uncacheable, skip the cache queue and go straight to the network.
         if (!request.shouldCache()) {
@@ -241,10 +421,20 @@ public class RequestQueue {
             return request;
         }
 
+        // Network-only requests bypass the cache lookup; their response is still cached.
+        if (request.getCacheMode() == Request.CacheMode.NETWORK_ONLY) {
+            mNetworkQueue.add(request);
+            return request;
+        }
+
         // Insert request into stage if there's already a request with the same cache key in flight.
         synchronized (mWaitingRequests) {
             String cacheKey = request.getCacheKey();
-            if (mWaitingRequests.containsKey(cacheKey)) {
+            if (mRevalidatingKeys.contains(cacheKey)) {
+                // The entry is being refreshed; serve whatever is cached without waiting.
+                request.setSkipRefresh(true);
+                addToCacheQueue(request);
+            } else if (mWaitingRequests.containsKey(cacheKey)) {
                 // There is already a request in flight. Queue up.
                 Queue<Request<?>> stagedRequests = mWaitingRequests.get(cacheKey);
                 if (stagedRequests == null) {
@@ -259,12 +449,79 @@ public class RequestQueue {
                 // Insert 'null' queue for this cacheKey, indicating there is now a request in
                 // flight.
                 mWaitingRequests.put(cacheKey, null);
-                mCacheQueue.add(request);
+                addToCacheQueue(request);
             }
             return request;
         }
     }
 
+    /**
+     * Adds a request to the cache queue, fixing the priority the queue orders it by.
+     */
+    private void addToCacheQueue(Request<?> request) {
+        request.snapshotCacheQueuePriority();
+        mCacheQueue.add(request);
+    }
+
+    /**
+     * Attaches the request to an identical idempotent request in flight, or registers it as
+     * the one in flight for its key.
+     *
+     * @return true if the request was attached and must not be dispatched
+     */
+    private boolean attachToInFlight(Request<?> request) {
+        CoalescingKeyFunction keyFunction = mCoalescingKeyFunction;
+        if (keyFunction == null || !request.isIdempotent()) {
+            return false;
+        }
+        String key = keyFunction.getKey(request);
+        if (key == null) {
+            return false;
+        }
+        synchronized (mInFlightRequests) {
+            List<Request<?>> attached = mInFlightRequests.get(key);
+            if (attached != null) {
+                attached.add(request);
+                request.setCoalesced(true);
+                request.addMarker("coalesced");
+                if (VolleyLog.DEBUG) {
+                    VolleyLog.v("Request for key=%s is in flight, attaching.", key);
+                }
+                return true;
+            }
+            mInFlightRequests.put(key, new ArrayList<Request<?>>());
+            request.setCoalescingKey(key);
+            return false;
+        }
+    }
+
+    /**
+     * Detaches the requests attached to a request in flight. Called by the network dispatcher
+     * once the request has a response (or failed), so that it can answer them too. After this,
+     * new identical requests are sent again.
+     */
+    List<Request<?>> takeCoalescedRequests(Request<?> request) {
+        synchronized (mInFlightRequests) {
+            String key = request.getCoalescingKey();
+            if (key == null) {
+                return Collections.emptyList();
+            }
+            request.setCoalescingKey(null);
+            List<Request<?>> attached = mInFlightRequests.remove(key);
+            return attached != null ? attached : Collections.<Request<?>>emptyList();
+        }
+    }
+
+    /**
+     * Records that the given request, which is in flight for its cache key, is refreshing a
+     * soft-expired entry. Until it finishes, identical requests are served from the cache.
+     */
+    void startRevalidation(Request<?> request) {
+        synchronized (mWaitingRequests) {
+            mRevalidatingKeys.add(request.getCacheKey());
+        }
+    }
+
     /**
      * Called from {@link Request#finish(String)}, indicating that processing of the given request
      * has finished.
@@ -283,9 +540,25 @@ public class RequestQueue {
           }
         }
 
-        if (request.shouldCache()) {
+        // Requests that finish without a network response (cache hits, cancellations) leave
+        // their attached requests behind; dispatch those on their own. After a cache hit they
+        // are served by the now primed cache.
+        for (Request<?> attached : takeCoalescedRequests(request)) {
+            attached.setCoalesced(false);
+            if (attached.isCanceled()) {
+                attached.finish("coalesced-discard-cancelled");
+            } else {
+                add(attached);
+            }
+        }
+
+        // Attached, network-only and refresh-skipping requests never entered the cache staging
+        // area.
+        if (request.shouldCache() && !request.isCoalesced() && !request.shouldSkipRefresh()
+                && request.getCacheMode() != Request.CacheMode.NETWORK_ONLY) {
             synchronized (mWaitingRequests) {
                 String cacheKey = request.getCacheKey();
+                mRevalidatingKeys.remove(cacheKey);
                 Queue<Request<?>> waitingRequests = mWaitingRequests.remove(cacheKey);
                 if (waitingRequests != null) {
                     if (VolleyLog.DEBUG) {
@@ -294,7 +567,9 @@ public class RequestQueue {
                     }
                     // Process all queued up requests. They won't be considered as in flight, but
                     // that's not a problem as the cache has been primed by 'request'.
-                    mCacheQueue.addAll(waitingRequests);
+                    for (Request<?> waiting : waitingRequests) {
+                        addToCacheQueue(waiting);
+                    }
                 }
             }
         }
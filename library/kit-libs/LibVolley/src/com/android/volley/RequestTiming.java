@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+/**
+ * Timestamps of the stages a {@link Request} passes through, recorded by the queue, the
+ * dispatchers, the network and the delivery. Unlike the debug event log kept by
+ * {@link Request#addMarker(String)}, marking a stage only stores a {@link System#nanoTime()}
+ * value in a fixed slot, so it is always on and never allocates.
+ * <p>
+ * A stage that was never reached (for example {@link #CONNECT_END} on a cache hit) reads as 0.
+ * When the network retries, the network stages hold the last attempt.
+ */
+public class RequestTiming {
+    /** The request was added to the {@link RequestQueue}. */
+    public static final int QUEUED = 0;
+    /** The cache dispatcher took the request. */
+    public static final int CACHE_TAKE = 1;
+    /** The cache lookup finished (hit, miss or expired). */
+    public static final int CACHE_DONE = 2;
+    /** A network dispatcher took the request. */
+    public static final int NETWORK_TAKE = 3;
+    /** The HTTP stack started opening the connection. */
+    public static final int CONNECT_START = 4;
+    /**
+     * The connection is established. For requests with a body this includes writing the body,
+     * since HttpURLConnection connects while the body is written.
+     */
+    public static final int CONNECT_END = 5;
+    /** The status line and headers were received. */
+    public static final int RESPONSE_HEADERS = 6;
+    /** The body was read (and inflated, when gzip encoded). */
+    public static final int BODY_END = 7;
+    /** Parsing started on the dispatcher thread. */
+    public static final int PARSE_START = 8;
+    /** Parsing finished on the dispatcher thread. */
+    public static final int PARSE_END = 9;
+    /** The response or error was posted to the delivery thread. */
+    public static final int DELIVERY_POST = 10;
+    /** The delivery thread started delivering. */
+    public static final int DELIVERY_START = 11;
+    /** The listener returned. */
+    public static final int DELIVERY_END = 12;
+
+    private static final int STAGE_COUNT = 13;
+
+    private final long[] mNanos = new long[STAGE_COUNT];
+
+    private volatile boolean mCacheHit;
+    private volatile boolean mGzipped;
+
+    /**
+     * Records the current time for a stage.
+     *
+     * @param stage one of the stage constants of this class
+     */
+    public void mark(int stage) {
+        synchronized (mNanos) {
+            mNanos[stage] = System.nanoTime();
+        }
+    }
+
+    /**
+     * Returns the time a stage was reached in {@link System#nanoTime()} units, or 0 if it was not.
+     */
+    public long getNanos(int stage) {
+        synchronized (mNanos) {
+            return mNanos[stage];
+        }
+    }
+
+    /**
+     * Returns the nanoseconds between two stages, or -1 if either was not reached.
+     */
+    public long getDurationNanos(int fromStage, int toStage) {
+        synchronized (mNanos) {
+            long from = mNanos[fromStage];
+            long to = mNanos[toStage];
+            if (from == 0 || to == 0 || to < from) {
+                return -1;
+            }
+            return to - from;
+        }
+    }
+
+    /** Records that the delivered response came from the cache. */
+    public void setCacheHit(boolean cacheHit) {
+        mCacheHit = cacheHit;
+    }
+
+    public boolean isCacheHit() {
+        return mCacheHit;
+    }
+
+    /** Records that the body was gzip encoded and inflated while it was read. */
+    public void setGzipped(boolean gzipped) {
+        mGzipped = gzipped;
+    }
+
+    public boolean isGzipped() {
+        return mGzipped;
+    }
+}
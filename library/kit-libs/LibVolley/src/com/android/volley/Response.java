@@ -63,6 +63,12 @@ public class Response<T> {
     /** True if this response was a soft-expired one and a second one MAY be coming. */
     public boolean intermediate = false;
 
+    /**
+     * True if this response was read from a cache entry past its soft TTL: it is being
+     * refreshed, could not be refreshed, or was requested with {@link Request.CacheMode#CACHE_ONLY}.
+     */
+    public boolean stale = false;
+
     /**
      * Returns whether this response is considered successful.
      */
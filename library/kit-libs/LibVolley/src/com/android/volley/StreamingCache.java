@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A {@link Cache} that can adopt a response body that was streamed to a file instead of being
+ * buffered in a byte array.
+ *
+ * <p>The network writes the body into a file from {@link #createBodyFile(String)}, the request
+ * parses it from there, and the dispatcher hands the file back with
+ * {@link #commitBodyFile(String, Entry, File)}, which publishes it as the cache entry without
+ * copying the body again.</p>
+ */
+public interface StreamingCache extends Cache {
+    /**
+     * Creates an empty file, on the same file system as the cache, to receive a response body.
+     *
+     * @param key Cache key the body will be stored under
+     */
+    public File createBodyFile(String key) throws IOException;
+
+    /**
+     * Stores a body file created by {@link #createBodyFile(String)} as the entry for a key,
+     * replacing any existing entry. The file is consumed whether or not this succeeds.
+     *
+     * @param key Cache key
+     * @param entry Metadata for cache coherency, TTL, etc.; its {@code data} is ignored
+     * @param bodyFile The file holding the complete body
+     * @return true if the entry was stored
+     */
+    public boolean commitBodyFile(String key, Entry entry, File bodyFile);
+}
@@ -16,8 +16,11 @@
 
 package com.android.volley.toolbox;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.SocketTimeoutException;
 import java.util.Collections;
@@ -25,27 +28,33 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
 
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
+import org.apache.http.protocol.HTTP;
 import org.apache.http.StatusLine;
 import org.apache.http.conn.ConnectTimeoutException;
 import org.apache.http.impl.cookie.DateUtils;
 
 import android.os.SystemClock;
 
+import com.android.volley.AdaptiveRetryPolicy;
 import com.android.volley.AuthFailureError;
 import com.android.volley.Cache;
 import com.android.volley.Cache.Entry;
+import com.android.volley.DeferredRetryError;
 import com.android.volley.Network;
 import com.android.volley.NetworkError;
 import com.android.volley.NetworkResponse;
 import com.android.volley.NoConnectionError;
 import com.android.volley.Request;
+import com.android.volley.RequestTiming;
 import com.android.volley.RetryPolicy;
 import com.android.volley.ServerError;
+import com.android.volley.StreamingCache;
 import com.android.volley.TimeoutError;
 import com.android.volley.VolleyError;
 import com.android.volley.VolleyLog;
@@ -58,20 +67,28 @@ public class BasicNetwork implements Network {
 
     private static int SLOW_REQUEST_THRESHOLD_MS = 3000;
 
-    private static int DEFAULT_POOL_SIZE = 4096;
+    private static final String ENCODING_GZIP = "gzip";
+
+    /**
+     * Bodies at least this large, or of unknown length, are streamed to a cache file when the
+     * request allows it. Smaller bodies are cheaper to buffer than to write and re-read.
+     */
+    private static final int STREAM_THRESHOLD_BYTES = 64 * 1024;
 
     protected final HttpStack mHttpStack;
 
     protected final ByteArrayPool mPool;
 
+    private volatile StreamingCache mStreamingCache;
+
     /**
      * @param httpStack
      *            HTTP stack to be used
      */
     public BasicNetwork(HttpStack httpStack) {
-        // If a pool isn't passed in, then build a small default pool that will give us a lot of
-        // benefit and not use too much memory.
-        this(httpStack, new ByteArrayPool(DEFAULT_POOL_SIZE));
+        // If a pool isn't passed in, then share the process-wide one so that every network
+        // and stream helper reuses the same buffers.
+        this(httpStack, ByteArrayPool.getDefault());
     }
 
     /**
@@ -85,10 +102,28 @@ public class BasicNetwork implements Network {
         mPool = pool;
     }
 
+    /**
+     * Sets the cache that large response bodies are streamed into. Only requests that return
+     * true from both {@link Request#shouldCache()} and {@link Request#shouldStreamBody()} are
+     * streamed; the {@link com.android.volley.NetworkDispatcher} then commits or deletes the
+     * file after parsing.
+     *
+     * @param cache the cache, or null to always buffer bodies in memory
+     */
+    public void setStreamingCache(StreamingCache cache) {
+        mStreamingCache = cache;
+    }
+
     @Override
     public NetworkResponse performRequest(Request<?> request) throws VolleyError {
         long requestStart = SystemClock.elapsedRealtime();
         while (true) {
+            AdaptiveRetryPolicy adaptivePolicy = getAdaptiveRetryPolicy(request);
+            if (adaptivePolicy != null) {
+                // Fails fast while the host's circuit is open.
+                adaptivePolicy.onAttemptStart(request);
+            }
+            long attemptStart = SystemClock.elapsedRealtime();
             HttpResponse httpResponse = null;
             byte[] responseContents = null;
             Map<String, String> responseHeaders = Collections.emptyMap();
@@ -97,8 +132,12 @@ public class BasicNetwork implements Network {
                 Map<String, String> headers = new HashMap<String, String>();
                 addCacheHeaders(headers, request.getCacheEntry());
                 httpResponse = mHttpStack.performRequest(request, headers);
+                request.getTiming().mark(RequestTiming.RESPONSE_HEADERS);
                 StatusLine statusLine = httpResponse.getStatusLine();
                 int statusCode = statusLine.getStatusCode();
+                if (adaptivePolicy != null && statusCode < 500) {
+                    adaptivePolicy.onResponse(SystemClock.elapsedRealtime() - attemptStart);
+                }
 
                 responseHeaders = convertHeaders(httpResponse.getAllHeaders());
                 // Handle cache validation.
@@ -125,9 +164,36 @@ public class BasicNetwork implements Network {
                     // y-miyazaki bugfix end
                 }
 
+                // Large cacheable bodies go straight to a cache file instead of the heap.
+                if (shouldStream(request, statusCode, httpResponse.getEntity())) {
+                    HttpEntity entity = httpResponse.getEntity();
+                    boolean gzipped = isGzipped(entity);
+                    File bodyFile = entityToFile(entity, gzipped, request.getCacheKey());
+                    request.getTiming().mark(RequestTiming.BODY_END);
+                    request.getTiming().setGzipped(gzipped);
+                    if (gzipped) {
+                        responseHeaders.remove(HTTP.CONTENT_ENCODING);
+                        responseHeaders.remove(HTTP.CONTENT_LEN);
+                    }
+                    long requestLifetime = SystemClock.elapsedRealtime() - requestStart;
+                    logSlowRequests(requestLifetime, request, bodyFile.length(), statusLine);
+                    return new NetworkResponse(statusCode, bodyFile, responseHeaders,
+                            SystemClock.elapsedRealtime() - requestStart,
+                            httpResponse.getAllHeaders());
+                }
+
                 // Some responses such as 204s do not have content.  We must check.
                 if (httpResponse.getEntity() != null) {
-                    responseContents = entityToBytes(httpResponse.getEntity());
+                    boolean gzipped = isGzipped(httpResponse.getEntity());
+                    responseContents = entityToBytes(httpResponse.getEntity(), gzipped);
+                    request.getTiming().mark(RequestTiming.BODY_END);
+                    request.getTiming().setGzipped(gzipped);
+                    if (gzipped) {
+                        // The body is now identity-encoded; don't let parsers or the cache
+                        // inflate it a second time.
+                        responseHeaders.remove(HTTP.CONTENT_ENCODING);
+                        responseHeaders.remove(HTTP.CONTENT_LEN);
+                    }
                 } else {
                     // Add 0 byte response as a way of honestly representing a
                     // no-content request.
@@ -136,7 +202,8 @@ public class BasicNetwork implements Network {
 
                 // if the request is slow, log it.
                 long requestLifetime = SystemClock.elapsedRealtime() - requestStart;
-                logSlowRequests(requestLifetime, request, responseContents, statusLine);
+                logSlowRequests(requestLifetime, request,
+                        responseContents != null ? responseContents.length : -1, statusLine);
 
                 if (statusCode < 200 || statusCode > 299) {
                     throw new IOException();
@@ -157,6 +224,9 @@ public class BasicNetwork implements Network {
                 if (httpResponse != null) {
                     statusCode = httpResponse.getStatusLine().getStatusCode();
                 } else {
+                    if (adaptivePolicy != null) {
+                        adaptivePolicy.onFailure();
+                    }
                     throw new NoConnectionError(e);
                 }
                 VolleyLog.e("Unexpected response code %d for %s", statusCode, request.getUrl());
@@ -169,6 +239,16 @@ public class BasicNetwork implements Network {
                             statusCode == HttpStatus.SC_FORBIDDEN) {
                         attemptRetryOnException("auth",
                                 request, new AuthFailureError(networkResponse));
+                    } else if (adaptivePolicy != null && statusCode >= 500) {
+                        // A server in trouble; retry after a backoff unless that could
+                        // repeat a side effect.
+                        if (request.isIdempotent()) {
+                            attemptRetryOnException("server",
+                                    request, new ServerError(networkResponse));
+                        } else {
+                            adaptivePolicy.onFailure();
+                            throw new ServerError(networkResponse);
+                        }
                     } else {
                         // TODO: Only throw ServerError for 5xx status codes.
                         throw new ServerError(networkResponse);
@@ -181,21 +261,30 @@ public class BasicNetwork implements Network {
     }
 
     /**
-     * Logs requests that took over SLOW_REQUEST_THRESHOLD_MS to complete.
+     * Logs requests that took over SLOW_REQUEST_THRESHOLD_MS to complete. A negative size
+     * means the response had no body.
      */
     private void logSlowRequests(long requestLifetime, Request<?> request,
-            byte[] responseContents, StatusLine statusLine) {
+            long responseSize, StatusLine statusLine) {
         if (DEBUG || requestLifetime > SLOW_REQUEST_THRESHOLD_MS) {
             VolleyLog.d("HTTP response for request=<%s> [lifetime=%d], [size=%s], " +
                     "[rc=%d], [retryCount=%s]", request, requestLifetime,
-                    responseContents != null ? responseContents.length : "null",
+                    responseSize >= 0 ? String.valueOf(responseSize) : "null",
                     statusLine.getStatusCode(), request.getRetryPolicy().getCurrentRetryCount());
         }
     }
 
+    private static AdaptiveRetryPolicy getAdaptiveRetryPolicy(Request<?> request) {
+        RetryPolicy retryPolicy = request.getRetryPolicy();
+        return retryPolicy instanceof AdaptiveRetryPolicy
+                ? (AdaptiveRetryPolicy) retryPolicy : null;
+    }
+
     /**
      * Attempts to prepare the request for a retry. If there are no more attempts remaining in the
-     * request's retry policy, a timeout exception is thrown.
+     * request's retry policy, a timeout exception is thrown. If the policy asks for a delay
+     * before the retry, a {@link DeferredRetryError} is thrown so that the request waits in the
+     * queue rather than on this thread.
      * 
      * @param request
      *            The request to use.
@@ -213,6 +302,12 @@ public class BasicNetwork implements Network {
             throw e;
         }
         request.addMarker(String.format("%s-retry [timeout=%s]", logPrefix, oldTimeout));
+        if (retryPolicy instanceof AdaptiveRetryPolicy) {
+            long delayMs = ((AdaptiveRetryPolicy) retryPolicy).getRetryDelayMs();
+            if (delayMs > 0) {
+                throw new DeferredRetryError(delayMs);
+            }
+        }
     }
 
     private void addCacheHeaders(Map<String, String> headers, Cache.Entry entry) {
@@ -236,8 +331,69 @@ public class BasicNetwork implements Network {
         VolleyLog.v("HTTP ERROR(%s) %d ms to fetch %s", what, (now - start), url);
     }
 
+    /**
+     * Returns true if the body of this response should be streamed to a cache file.
+     */
+    private boolean shouldStream(Request<?> request, int statusCode, HttpEntity entity) {
+        if (mStreamingCache == null || entity == null || statusCode < 200 || statusCode > 299
+                || !request.shouldCache() || !request.shouldStreamBody()) {
+            return false;
+        }
+        long length = entity.getContentLength();
+        return length < 0 || length >= STREAM_THRESHOLD_BYTES;
+    }
+
+    /** Writes the contents of HttpEntity into a new body file of the streaming cache. */
+    private File entityToFile(HttpEntity entity, boolean gzipped, String cacheKey)
+            throws IOException, ServerError {
+        File file = mStreamingCache.createBodyFile(cacheKey);
+        boolean success = false;
+        byte[] buffer = null;
+        OutputStream out = null;
+        try {
+            InputStream in = entity.getContent();
+            if (in == null) {
+                throw new ServerError();
+            }
+            if (gzipped) {
+                in = new GZIPInputStream(in, 1024);
+            }
+            out = new FileOutputStream(file);
+            buffer = mPool.getBuf(8192);
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            if (gzipped) {
+                in.close();
+            }
+            out.close();
+            out = null;
+            success = true;
+            return file;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // Ignore; the file is deleted below.
+                }
+            }
+            if (!success && !file.delete()) {
+                VolleyLog.d("Could not delete body file %s", file.getAbsolutePath());
+            }
+            try {
+                entity.consumeContent();
+            } catch (IOException e) {
+                VolleyLog.v("Error occured when calling consumingContent");
+            }
+            mPool.returnBuf(buffer);
+        }
+    }
+
     /** Reads the contents of HttpEntity into a byte[]. */
-    private byte[] entityToBytes(HttpEntity entity) throws IOException, ServerError {
+    private byte[] entityToBytes(HttpEntity entity, boolean gzipped)
+            throws IOException, ServerError {
         PoolingByteArrayOutputStream bytes =
                 new PoolingByteArrayOutputStream(mPool, (int) entity.getContentLength());
         byte[] buffer = null;
@@ -246,11 +402,20 @@ public class BasicNetwork implements Network {
             if (in == null) {
                 throw new ServerError();
             }
+            if (gzipped) {
+                // Inflate straight from the connection so the compressed body is never
+                // buffered on its own.
+                in = new GZIPInputStream(in, 1024);
+            }
             buffer = mPool.getBuf(1024);
             int count;
             while ((count = in.read(buffer)) != -1) {
                 bytes.write(buffer, 0, count);
             }
+            if (gzipped) {
+                // Release the native inflater now rather than at finalization.
+                in.close();
+            }
             return bytes.toByteArray();
         } finally {
             try {
@@ -266,6 +431,17 @@ public class BasicNetwork implements Network {
         }
     }
 
+    /**
+     * Returns true if the entity body is gzip content-encoded. HttpURLConnection only inflates
+     * transparently when it added Accept-Encoding itself, so this happens whenever the caller
+     * asked for gzip explicitly.
+     */
+    private static boolean isGzipped(HttpEntity entity) {
+        Header contentEncoding = entity.getContentEncoding();
+        return contentEncoding != null && contentEncoding.getValue() != null
+                && contentEncoding.getValue().toLowerCase().contains(ENCODING_GZIP);
+    }
+
     /**
      * Converts Headers[] to Map<String, String>.
      */
@@ -0,0 +1,360 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * BitmapPool is a source and repository of mutable {@link Bitmap} objects that can be handed to
+ * {@link BitmapFactory.Options#inBitmap} so that decoding reuses existing pixel memory instead of
+ * allocating a fresh bitmap and leaving the old one to the garbage collector. It plays the same
+ * role for bitmaps that {@link ByteArrayPool} plays for byte buffers.
+ * <p>
+ * Bitmaps are bucketed so that a lookup only scans candidates that can actually be reused:
+ * <ul>
+ * <li>On KitKat and above any bitmap whose allocation is at least as large as the decoded image
+ * can be reused, so buckets are keyed by config and power-of-two allocation size class.</li>
+ * <li>On Honeycomb through Jelly Bean the decoded image must have exactly the same dimensions and
+ * no sampling, so buckets are keyed by config, width and height.</li>
+ * <li>Before Honeycomb {@code inBitmap} does not exist; the pool stays empty and every lookup is
+ * a miss, so callers fall back to a normal allocation.</li>
+ * </ul>
+ * <p>
+ * Only bitmaps that are no longer displayed or referenced anywhere else may be returned to the
+ * pool, since their pixels will be overwritten by the next decode. The total size of pooled
+ * bitmaps never exceeds a byte limit; least-recently-returned bitmaps are dropped first.
+ */
+public class BitmapPool {
+    /** Fraction of the VM heap used by the default pool. */
+    private static final int DEFAULT_HEAP_FRACTION = 16;
+
+    /**
+     * API level from which any large enough bitmap can be reused. A literal, since this library
+     * builds against an SDK that predates the KITKAT constant.
+     */
+    private static final int KITKAT = 19;
+
+    /** Largest size class above the requested one that may be reused (limits wasted memory). */
+    private static final int MAX_SIZE_CLASS_STEP = 1;
+
+    private static BitmapPool sDefault;
+
+    /** The pooled bitmaps, arranged by bucket and by the order they were returned. */
+    private final Map<Key, LinkedList<Bitmap>> mBuckets = new HashMap<Key, LinkedList<Bitmap>>();
+    private final LinkedList<Bitmap> mBitmapsByLastUse = new LinkedList<Bitmap>();
+
+    /** The total size of the bitmaps in the pool */
+    private int mCurrentSize = 0;
+
+    /**
+     * The maximum aggregate size of the bitmaps in the pool. Old bitmaps are dropped to stay
+     * under this limit.
+     */
+    private int mSizeLimit;
+
+    private long mHitCount;
+    private long mMissCount;
+    private long mPutCount;
+    private long mEvictionCount;
+
+    /**
+     * @param sizeLimit the maximum size of the pool, in bytes
+     */
+    public BitmapPool(int sizeLimit) {
+        mSizeLimit = sizeLimit;
+    }
+
+    /**
+     * Returns the process-wide pool shared by {@link ImageRequest} and the application caches.
+     */
+    public static synchronized BitmapPool getDefault() {
+        if (sDefault == null) {
+            sDefault = new BitmapPool((int) (Runtime.getRuntime().maxMemory() / DEFAULT_HEAP_FRACTION));
+        }
+        return sDefault;
+    }
+
+    /**
+     * Returns true if this API level can decode into an existing bitmap.
+     */
+    public static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+    }
+
+    /**
+     * Returns a bitmap to the pool, dropping old bitmaps if the pool would exceed its limit.
+     * Immutable, recycled or oversized bitmaps are ignored.
+     *
+     * @param bitmap a bitmap that is no longer referenced by any view or cache.
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (!isSupported() || bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()
+                || bitmap.getConfig() == null) {
+            return;
+        }
+        int size = getBitmapByteCount(bitmap);
+        if (size > mSizeLimit) {
+            return;
+        }
+        Key key = keyOf(bitmap);
+        LinkedList<Bitmap> bucket = mBuckets.get(key);
+        if (bucket == null) {
+            bucket = new LinkedList<Bitmap>();
+            mBuckets.put(key, bucket);
+        }
+        bucket.add(bitmap);
+        mBitmapsByLastUse.add(bitmap);
+        mCurrentSize += size;
+        mPutCount++;
+        trimToSize(mSizeLimit);
+    }
+
+    /**
+     * Removes and returns a pooled bitmap that a decode of the given size can reuse, or null if
+     * there is none.
+     *
+     * @param width the width of the decoded image
+     * @param height the height of the decoded image
+     * @param config the config of the decoded image
+     */
+    public synchronized Bitmap get(int width, int height, Config config) {
+        if (!isSupported() || width <= 0 || height <= 0) {
+            return null;
+        }
+        if (config == null) {
+            config = Config.ARGB_8888;
+        }
+        Bitmap bitmap;
+        if (Build.VERSION.SDK_INT >= KITKAT) {
+            int needed = width * height * getBytesPerPixel(config);
+            int sizeClass = getSizeClass(needed);
+            bitmap = null;
+            for (int step = 0; step <= MAX_SIZE_CLASS_STEP && bitmap == null; step++) {
+                bitmap = takeFromBucket(new Key(config, sizeClass + step, 0), needed);
+            }
+        } else {
+            bitmap = takeFromBucket(new Key(config, width, height), 0);
+        }
+        if (bitmap == null) {
+            mMissCount++;
+        } else {
+            mHitCount++;
+        }
+        return bitmap;
+    }
+
+    /**
+     * Sets {@link BitmapFactory.Options#inBitmap} to a reusable pooled bitmap. Must be called
+     * after the bounds have been decoded into {@code options} and {@code inSampleSize} has been
+     * chosen. On API levels without {@code inBitmap} this does nothing.
+     *
+     * @param options decode options holding {@code outWidth}/{@code outHeight}
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public void setInBitmap(BitmapFactory.Options options) {
+        if (!isSupported() || options.outWidth <= 0 || options.outHeight <= 0) {
+            return;
+        }
+        int sampleSize = Math.max(1, options.inSampleSize);
+        if (Build.VERSION.SDK_INT < KITKAT && sampleSize != 1) {
+            // Before KitKat the reused bitmap must match exactly, which sampling breaks.
+            return;
+        }
+        // Round up so that the candidate is never smaller than the sampled output.
+        int width = (options.outWidth + sampleSize - 1) / sampleSize;
+        int height = (options.outHeight + sampleSize - 1) / sampleSize;
+        Bitmap inBitmap = get(width, height, options.inPreferredConfig);
+        if (inBitmap != null) {
+            // Only a decode that actually reuses pooled memory needs to produce a mutable bitmap.
+            options.inMutable = true;
+            options.inBitmap = inBitmap;
+        }
+    }
+
+    /**
+     * Decodes a byte array, reusing a pooled bitmap when possible. If the decoder rejects the
+     * pooled bitmap the decode is retried with a fresh allocation.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public Bitmap decodeByteArray(byte[] data, int offset, int length, BitmapFactory.Options options) {
+        setInBitmap(options);
+        try {
+            return BitmapFactory.decodeByteArray(data, offset, length, options);
+        } catch (IllegalArgumentException e) {
+            if (!isSupported() || options.inBitmap == null) {
+                throw e;
+            }
+            options.inBitmap = null;
+            return BitmapFactory.decodeByteArray(data, offset, length, options);
+        }
+    }
+
+    /**
+     * Decodes a file, reusing a pooled bitmap when possible. If the decoder rejects the pooled
+     * bitmap the decode is retried with a fresh allocation.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public Bitmap decodeFile(String pathName, BitmapFactory.Options options) {
+        setInBitmap(options);
+        try {
+            return BitmapFactory.decodeFile(pathName, options);
+        } catch (IllegalArgumentException e) {
+            if (!isSupported() || options.inBitmap == null) {
+                throw e;
+            }
+            options.inBitmap = null;
+            return BitmapFactory.decodeFile(pathName, options);
+        }
+    }
+
+    /**
+     * Changes the byte limit of the pool, dropping bitmaps if it is lowered.
+     */
+    public synchronized void setSizeLimit(int sizeLimit) {
+        mSizeLimit = sizeLimit;
+        trimToSize(sizeLimit);
+    }
+
+    /**
+     * Drops every pooled bitmap.
+     */
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    /**
+     * Drops least-recently-returned bitmaps until the pool is under {@code maxSize} bytes.
+     */
+    public synchronized void trimToSize(int maxSize) {
+        while (mCurrentSize > maxSize && !mBitmapsByLastUse.isEmpty()) {
+            Bitmap bitmap = mBitmapsByLastUse.removeFirst();
+            LinkedList<Bitmap> bucket = mBuckets.get(keyOf(bitmap));
+            if (bucket != null) {
+                bucket.remove(bitmap);
+            }
+            mCurrentSize -= getBitmapByteCount(bitmap);
+            mEvictionCount++;
+        }
+    }
+
+    public synchronized int getCurrentSize() {
+        return mCurrentSize;
+    }
+
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized long getPutCount() {
+        return mPutCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    private Bitmap takeFromBucket(Key key, int neededBytes) {
+        LinkedList<Bitmap> bucket = mBuckets.get(key);
+        if (bucket == null) {
+            return null;
+        }
+        for (Iterator<Bitmap> it = bucket.iterator(); it.hasNext();) {
+            Bitmap bitmap = it.next();
+            if (getBitmapByteCount(bitmap) >= neededBytes) {
+                it.remove();
+                mBitmapsByLastUse.remove(bitmap);
+                mCurrentSize -= getBitmapByteCount(bitmap);
+                return bitmap;
+            }
+        }
+        return null;
+    }
+
+    private static Key keyOf(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= KITKAT) {
+            return new Key(bitmap.getConfig(), getSizeClass(getBitmapByteCount(bitmap)), 0);
+        }
+        return new Key(bitmap.getConfig(), bitmap.getWidth(), bitmap.getHeight());
+    }
+
+    /**
+     * Returns the power-of-two size class (log2, rounded up) of a byte count.
+     */
+    private static int getSizeClass(int bytes) {
+        return 32 - Integer.numberOfLeadingZeros(Math.max(bytes, 1) - 1);
+    }
+
+    /**
+     * Returns the pixel byte count of a bitmap. This can understate the allocation of a bitmap
+     * that was reconfigured by a KitKat decode, which only makes reuse more conservative.
+     */
+    private static int getBitmapByteCount(Bitmap bitmap) {
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    private static int getBytesPerPixel(Config config) {
+        if (config == Config.ALPHA_8) {
+            return 1;
+        } else if (config == Config.RGB_565 || config == Config.ARGB_4444) {
+            return 2;
+        }
+        return 4;
+    }
+
+    /**
+     * Bucket key. {@code a}/{@code b} are the size class and 0 on KitKat and above, or the width
+     * and height below it.
+     */
+    private static final class Key {
+        private final Config mConfig;
+        private final int mA;
+        private final int mB;
+
+        Key(Config config, int a, int b) {
+            mConfig = config;
+            mA = a;
+            mB = b;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return mConfig == other.mConfig && mA == other.mA && mB == other.mB;
+        }
+
+        @Override
+        public int hashCode() {
+            return (mConfig.hashCode() * 31 + mA) * 31 + mB;
+        }
+    }
+}
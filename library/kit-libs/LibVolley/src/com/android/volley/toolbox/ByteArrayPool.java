@@ -16,11 +16,11 @@
 
 package com.android.volley.toolbox;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.LinkedList;
-import java.util.List;
+import android.content.ComponentCallbacks2;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * ByteArrayPool is a source and repository of <code>byte[]</code> objects. Its purpose is to
@@ -47,37 +47,100 @@ import java.util.List;
  * it is not harmful to return to this pool a buffer that was allocated elsewhere, provided there
  * are no other lingering references to it.
  * <p>
- * This class ensures that the total size of the buffers in its recycling pool never exceeds a
- * certain byte limit. When a buffer is returned that would cause the pool to exceed the limit,
- * least-recently-used buffers are disposed.
+ * Buffers are kept in power-of-two size classes, so a lookup is a constant-time index rather
+ * than a scan, and new buffers are allocated at their class size so that they can be reused by
+ * any request of that class. Each thread keeps a small magazine of one buffer per small size
+ * class, which serves the common get/return pairs of a dispatcher thread without touching
+ * shared state; all other buffers live in a shared depot of lock-free slots. No call takes a
+ * lock.
+ * <p>
+ * This class ensures that the total size of the buffers in its shared depot never exceeds a
+ * certain byte limit; a buffer returned when the depot is full is dropped. The per-thread
+ * magazines hold at most {@value #MAGAZINE_MAX_SIZE} bytes per size class in addition.
+ * {@link #trimMemory(int)} releases buffers in response to
+ * {@link ComponentCallbacks2#onTrimMemory(int)}.
  */
 public class ByteArrayPool {
-    /** The buffer pool, arranged both by last use and by buffer size */
-    private List<byte[]> mBuffersByLastUse = new LinkedList<byte[]>();
-    private List<byte[]> mBuffersBySize = new ArrayList<byte[]>(64);
+    /** Size of the smallest size class, as a shift. */
+    private static final int MIN_CLASS_SHIFT = 8;
+
+    /** Size of the largest size class, as a shift; larger buffers are never pooled. */
+    private static final int MAX_CLASS_SHIFT = 20;
+
+    private static final int CLASS_COUNT = MAX_CLASS_SHIFT - MIN_CLASS_SHIFT + 1;
+
+    /** Largest buffer kept in the per-thread magazines. */
+    private static final int MAGAZINE_MAX_SIZE = 16 * 1024;
+
+    /** Number of shared depot slots per size class. */
+    private static final int DEPOT_SLOTS = 8;
 
-    /** The total size of the buffers in the pool */
-    private int mCurrentSize = 0;
+    /** Size limit of the pool returned by {@link #getDefault()}. */
+    private static final int DEFAULT_SIZE_LIMIT = 512 * 1024;
+
+    private static ByteArrayPool sDefault;
+
+    /** The shared depot, one slot array per size class. */
+    private final AtomicReferenceArray<byte[]>[] mDepot;
+
+    /** The total size of the buffers in the depot */
+    private final AtomicLong mCurrentSize = new AtomicLong();
 
     /**
-     * The maximum aggregate size of the buffers in the pool. Old buffers are discarded to stay
-     * under this limit.
+     * The maximum aggregate size of the buffers in the depot. Buffers returned beyond it are
+     * discarded.
      */
-    private final int mSizeLimit;
+    private volatile int mSizeLimit;
 
-    /** Compares buffers by size */
-    protected static final Comparator<byte[]> BUF_COMPARATOR = new Comparator<byte[]>() {
+    /** Incremented to make every thread drop its magazine. */
+    private final AtomicInteger mGeneration = new AtomicInteger();
+
+    /** The calling thread's magazine. */
+    private final ThreadLocal<Magazine> mMagazines = new ThreadLocal<Magazine>() {
         @Override
-        public int compare(byte[] lhs, byte[] rhs) {
-            return lhs.length - rhs.length;
+        protected Magazine initialValue() {
+            return new Magazine(mGeneration.get());
         }
     };
 
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+    private final AtomicLong mAllocatedBytes = new AtomicLong();
+    private final AtomicLong mDiscardCount = new AtomicLong();
+
     /**
-     * @param sizeLimit the maximum size of the pool, in bytes
+     * At most one buffer per small size class, owned by a single thread.
      */
+    private static class Magazine {
+        final byte[][] buffers = new byte[CLASS_COUNT][];
+        /** The pool generation the buffers were returned in. */
+        int generation;
+
+        Magazine(int generation) {
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * @param sizeLimit the maximum size of the shared depot, in bytes
+     */
+    @SuppressWarnings("unchecked")
     public ByteArrayPool(int sizeLimit) {
         mSizeLimit = sizeLimit;
+        mDepot = new AtomicReferenceArray[CLASS_COUNT];
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            mDepot[i] = new AtomicReferenceArray<byte[]>(DEPOT_SLOTS);
+        }
+    }
+
+    /**
+     * Returns the process-wide pool shared by {@link BasicNetwork} and other stream helpers.
+     */
+    public static synchronized ByteArrayPool getDefault() {
+        if (sDefault == null) {
+            sDefault = new ByteArrayPool(DEFAULT_SIZE_LIMIT);
+        }
+        return sDefault;
     }
 
     /**
@@ -88,48 +151,197 @@ public class ByteArrayPool {
      *        larger.
      * @return a byte[] buffer is always returned.
      */
-    public synchronized byte[] getBuf(int len) {
-        for (int i = 0; i < mBuffersBySize.size(); i++) {
-            byte[] buf = mBuffersBySize.get(i);
-            if (buf.length >= len) {
-                mCurrentSize -= buf.length;
-                mBuffersBySize.remove(i);
-                mBuffersByLastUse.remove(buf);
-                return buf;
+    public byte[] getBuf(int len) {
+        int sizeClass = ceilClass(len);
+        if (sizeClass < 0 || classSize(sizeClass) > mSizeLimit) {
+            // Too large to ever be pooled; don't round it up.
+            return allocate(len);
+        }
+
+        byte[][] magazine = getMagazine();
+        byte[] buf = magazine[sizeClass];
+        if (buf != null) {
+            magazine[sizeClass] = null;
+            mHitCount.incrementAndGet();
+            return buf;
+        }
+
+        AtomicReferenceArray<byte[]> slots = mDepot[sizeClass];
+        for (int i = 0; i < DEPOT_SLOTS; i++) {
+            if (slots.get(i) != null) {
+                buf = slots.getAndSet(i, null);
+                if (buf != null) {
+                    mCurrentSize.addAndGet(-buf.length);
+                    mHitCount.incrementAndGet();
+                    return buf;
+                }
             }
         }
-        return new byte[len];
+        return allocate(classSize(sizeClass));
     }
 
     /**
-     * Returns a buffer to the pool, throwing away old buffers if the pool would exceed its allotted
-     * size.
+     * Returns a buffer to the pool, throwing it away if the pool would exceed its allotted size.
      *
      * @param buf the buffer to return to the pool.
      */
-    public synchronized void returnBuf(byte[] buf) {
-        if (buf == null || buf.length > mSizeLimit) {
+    public void returnBuf(byte[] buf) {
+        if (buf == null) {
+            return;
+        }
+        int sizeClass = floorClass(buf.length);
+        if (sizeClass < 0 || buf.length > mSizeLimit) {
+            mDiscardCount.incrementAndGet();
             return;
         }
-        mBuffersByLastUse.add(buf);
-        int pos = Collections.binarySearch(mBuffersBySize, buf, BUF_COMPARATOR);
-        if (pos < 0) {
-            pos = -pos - 1;
+
+        if (buf.length <= MAGAZINE_MAX_SIZE) {
+            byte[][] magazine = getMagazine();
+            if (magazine[sizeClass] == null) {
+                magazine[sizeClass] = buf;
+                return;
+            }
         }
-        mBuffersBySize.add(pos, buf);
-        mCurrentSize += buf.length;
-        trim();
+
+        if (mCurrentSize.addAndGet(buf.length) <= mSizeLimit) {
+            AtomicReferenceArray<byte[]> slots = mDepot[sizeClass];
+            for (int i = 0; i < DEPOT_SLOTS; i++) {
+                if (slots.compareAndSet(i, null, buf)) {
+                    return;
+                }
+            }
+        }
+        mCurrentSize.addAndGet(-buf.length);
+        mDiscardCount.incrementAndGet();
     }
 
     /**
-     * Removes buffers from the pool until it is under its size limit.
+     * Releases pooled buffers in response to {@link ComponentCallbacks2#onTrimMemory(int)}:
+     * everything once the app is in the background or memory is critically low, half of the
+     * depot when memory is getting low while running.
+     *
+     * @param level the level passed to onTrimMemory
      */
-    private synchronized void trim() {
-        while (mCurrentSize > mSizeLimit) {
-            byte[] buf = mBuffersByLastUse.remove(0);
-            mBuffersBySize.remove(buf);
-            mCurrentSize -= buf.length;
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            clear();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            trimToSize(mSizeLimit / 2);
         }
     }
 
+    /**
+     * Changes the maximum size of the depot, trimming it if needed.
+     */
+    public void setSizeLimit(int sizeLimit) {
+        mSizeLimit = sizeLimit;
+        trimToSize(sizeLimit);
+    }
+
+    /**
+     * Empties the depot and makes every thread drop its magazine the next time it uses the pool.
+     */
+    public void clear() {
+        mGeneration.incrementAndGet();
+        trimToSize(0);
+    }
+
+    /**
+     * Removes buffers from the depot, largest first, until it is at most {@code maxSize} bytes.
+     */
+    public void trimToSize(long maxSize) {
+        for (int sizeClass = CLASS_COUNT - 1; sizeClass >= 0; sizeClass--) {
+            AtomicReferenceArray<byte[]> slots = mDepot[sizeClass];
+            for (int i = 0; i < DEPOT_SLOTS; i++) {
+                if (mCurrentSize.get() <= maxSize) {
+                    return;
+                }
+                byte[] buf = slots.getAndSet(i, null);
+                if (buf != null) {
+                    mCurrentSize.addAndGet(-buf.length);
+                }
+            }
+        }
+    }
+
+    /** Returns the total size of the buffers in the depot. */
+    public long getCurrentSize() {
+        return mCurrentSize.get();
+    }
+
+    /** Returns the number of requests served from the pool. */
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    /** Returns the number of requests that had to allocate a new buffer. */
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    /** Returns the total bytes allocated for requests the pool could not serve. */
+    public long getAllocatedBytes() {
+        return mAllocatedBytes.get();
+    }
+
+    /** Returns the number of returned buffers that were dropped instead of pooled. */
+    public long getDiscardCount() {
+        return mDiscardCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ByteArrayPool[size=" + mCurrentSize.get() + "/" + mSizeLimit
+                + " hits=" + mHitCount.get() + " misses=" + mMissCount.get()
+                + " allocated=" + mAllocatedBytes.get() + " discards=" + mDiscardCount.get() + "]";
+    }
+
+    private byte[] allocate(int len) {
+        mMissCount.incrementAndGet();
+        mAllocatedBytes.addAndGet(len);
+        return new byte[len];
+    }
+
+    /**
+     * Returns this thread's magazine, emptied first if the pool was cleared since it was filled.
+     */
+    private byte[][] getMagazine() {
+        Magazine magazine = mMagazines.get();
+        int current = mGeneration.get();
+        if (magazine.generation != current) {
+            for (int i = 0; i < CLASS_COUNT; i++) {
+                magazine.buffers[i] = null;
+            }
+            magazine.generation = current;
+        }
+        return magazine.buffers;
+    }
+
+    private static int classSize(int sizeClass) {
+        return 1 << (sizeClass + MIN_CLASS_SHIFT);
+    }
+
+    /**
+     * Returns the smallest size class holding at least {@code len} bytes, or -1 if there is none.
+     */
+    private static int ceilClass(int len) {
+        if (len <= (1 << MIN_CLASS_SHIFT)) {
+            return 0;
+        }
+        int shift = 32 - Integer.numberOfLeadingZeros(len - 1);
+        return shift > MAX_CLASS_SHIFT ? -1 : shift - MIN_CLASS_SHIFT;
+    }
+
+    /**
+     * Returns the largest size class a buffer of {@code len} bytes can serve, or -1 if it is too
+     * small or too large to pool.
+     */
+    private static int floorClass(int len) {
+        if (len < (1 << MIN_CLASS_SHIFT)) {
+            return -1;
+        }
+        int shift = 31 - Integer.numberOfLeadingZeros(len);
+        return shift > MAX_CLASS_SHIFT ? -1 : shift - MIN_CLASS_SHIFT;
+    }
 }
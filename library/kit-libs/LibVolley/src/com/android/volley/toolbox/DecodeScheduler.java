@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import com.android.volley.Request;
+
+import java.util.LinkedList;
+
+/**
+ * Admits bitmap decodes so that several can run in parallel while the memory they need stays
+ * within a budget. This replaces the single process-wide decode lock that used to serialize every
+ * {@link ImageRequest}.
+ * <p>
+ * Each decode declares the bytes it will allocate, estimated from the {@code inJustDecodeBounds}
+ * dimensions. A decode is admitted when fewer than the maximum number of decodes are running and
+ * the budget has room; a single decode is always admitted when nothing else is running so that
+ * an image larger than the budget cannot starve. Waiting decodes are admitted in request order
+ * (priority, then sequence), and decodes whose request has been canceled, for example because
+ * every {@code ImageContainer} detached from it, leave the queue without decoding.
+ */
+public class DecodeScheduler {
+    /** How often a waiting decode re-checks whether its request was canceled. */
+    private static final long CANCEL_POLL_MS = 50;
+
+    /** Fraction of the VM heap that concurrent decodes may use by default. */
+    private static final int DEFAULT_HEAP_FRACTION = 4;
+
+    private static DecodeScheduler sDefault;
+
+    private final int mMaxConcurrentDecodes;
+    private int mDecodeLimit;
+    private final long mBudgetBytes;
+
+    /** Requests waiting for a decode slot, in arrival order. */
+    private final LinkedList<Request<?>> mWaiting = new LinkedList<Request<?>>();
+
+    private int mActiveCount;
+    private long mActiveBytes;
+    private long mDroppedCount;
+
+    /**
+     * @param maxConcurrentDecodes the maximum number of decodes running at once
+     * @param budgetBytes the total bytes that running decodes may allocate
+     */
+    public DecodeScheduler(int maxConcurrentDecodes, long budgetBytes) {
+        mMaxConcurrentDecodes = Math.max(1, maxConcurrentDecodes);
+        mDecodeLimit = mMaxConcurrentDecodes;
+        mBudgetBytes = budgetBytes;
+    }
+
+    /**
+     * Returns the process-wide scheduler used by {@link ImageRequest} unless another one is set.
+     */
+    public static synchronized DecodeScheduler getDefault() {
+        if (sDefault == null) {
+            sDefault = new DecodeScheduler(Math.max(2, Runtime.getRuntime().availableProcessors()),
+                    Runtime.getRuntime().maxMemory() / DEFAULT_HEAP_FRACTION);
+        }
+        return sDefault;
+    }
+
+    /**
+     * Blocks until the decode for {@code request} may run.
+     *
+     * @param request the request whose response will be decoded
+     * @param bytes the estimated bytes the decode will allocate
+     * @return true if the decode may run and {@link #release(long)} must be called afterwards;
+     *     false if the request was canceled (or the thread interrupted) while waiting.
+     */
+    public synchronized boolean acquire(Request<?> request, long bytes) {
+        mWaiting.add(request);
+        try {
+            while (true) {
+                if (request.isCanceled()) {
+                    mDroppedCount++;
+                    return false;
+                }
+                if (isNext(request) && hasCapacity(bytes)) {
+                    mActiveCount++;
+                    mActiveBytes += bytes;
+                    return true;
+                }
+                try {
+                    wait(CANCEL_POLL_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        } finally {
+            mWaiting.remove(request);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Releases a slot taken by a successful {@link #acquire(Request, long)}.
+     *
+     * @param bytes the same byte estimate that was passed to acquire
+     */
+    public synchronized void release(long bytes) {
+        mActiveCount--;
+        mActiveBytes -= bytes;
+        notifyAll();
+    }
+
+    /**
+     * Lowers the number of decodes running at once below the maximum given at construction,
+     * for example to the number of images on screen while a list scrolls, so that decoding
+     * does not compete with drawing. Pass {@link Integer#MAX_VALUE} to lift the limit.
+     */
+    public synchronized void setDecodeLimit(int limit) {
+        mDecodeLimit = Math.max(1, Math.min(limit, mMaxConcurrentDecodes));
+        notifyAll();
+    }
+
+    public synchronized int getDecodeLimit() {
+        return mDecodeLimit;
+    }
+
+    public synchronized int getActiveCount() {
+        return mActiveCount;
+    }
+
+    public synchronized int getWaitingCount() {
+        return mWaiting.size();
+    }
+
+    /** Returns the number of decodes skipped because their request was canceled. */
+    public synchronized long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    private boolean hasCapacity(long bytes) {
+        if (mActiveCount == 0) {
+            return true;
+        }
+        return mActiveCount < mDecodeLimit && mActiveBytes + bytes <= mBudgetBytes;
+    }
+
+    /**
+     * Returns true if {@code request} is the first live waiter in request order.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private boolean isNext(Request<?> request) {
+        Request best = null;
+        for (Request<?> waiting : mWaiting) {
+            if (waiting.isCanceled()) {
+                continue;
+            }
+            if (best == null || ((Request) waiting).compareTo(best) < 0) {
+                best = waiting;
+            }
+        }
+        return best == request;
+    }
+}
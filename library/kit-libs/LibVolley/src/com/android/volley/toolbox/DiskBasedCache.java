@@ -18,30 +18,59 @@ package com.android.volley.toolbox;
 
 import android.os.SystemClock;
 
-import com.android.volley.Cache;
+import com.android.volley.IncrementalCache;
+import com.android.volley.StreamingCache;
 import com.android.volley.VolleyLog;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
 
 /**
  * Cache implementation that caches files directly onto the hard disk in the specified
  * directory. The default disk usage size is 5MB, but is configurable.
+ *
+ * <p>The in-memory index is guarded by this object and is only held for short bookkeeping;
+ * file reads and writes run under a lock striped by key, so lookups for different keys proceed
+ * in parallel. {@link #initialize()} fills the index incrementally. Until it has finished, a
+ * key that is not indexed yet is looked up directly on disk, so requests can be served from the
+ * cache while the scan is still running.</p>
+ *
+ * <p>The index is persisted in a compact binary file that is loaded with a single memory-mapped
+ * read at startup; only files written after it was last saved have their headers read. The file
+ * is rewritten atomically after every {@value #INDEX_DIRTY_THRESHOLD} changes and by
+ * {@link #flushIndex()}. Cache files are named after a 128-bit hash of their key, and the key
+ * stored in each file is checked on every read.</p>
+ *
+ * <p>Each file holds the response body first, followed by the serialized header and its length
+ * in the last 8 bytes. Because the body comes first, a body streamed to disk by the network
+ * becomes a cache file by appending the header and renaming it, without being copied; see
+ * {@link StreamingCache}.</p>
  */
-public class DiskBasedCache implements Cache {
+public class DiskBasedCache implements IncrementalCache, StreamingCache {
 
     /** Map of the Key, CacheHeader pairs */
     private final Map<String, CacheHeader> mEntries =
@@ -56,6 +85,18 @@ public class DiskBasedCache implements Cache {
     /** The maximum size of the cache in bytes. */
     private final int mMaxCacheSizeInBytes;
 
+    /** Locks serializing file access per key, striped to bound their number. */
+    private final Object[] mKeyLocks = new Object[KEY_LOCK_STRIPES];
+
+    /** Set once {@link #initialize()} has indexed every file on disk. */
+    private volatile boolean mInitialized = false;
+
+    /** Number of index changes not yet persisted to the index file. */
+    private int mDirtyCount = 0;
+
+    /** Serializes writes of the index file. */
+    private final Object mIndexFileLock = new Object();
+
     /** Default maximum disk usage in bytes. */
     private static final int DEFAULT_DISK_USAGE_BYTES = 5 * 1024 * 1024;
 
@@ -63,7 +104,36 @@ public class DiskBasedCache implements Cache {
     private static final float HYSTERESIS_FACTOR = 0.9f;
 
     /** Magic number for current version of cache file format. */
-    private static final int CACHE_MAGIC = 0x20150306;
+    private static final int CACHE_MAGIC = 0x20151020;
+
+    /** Number of per-key lock stripes. */
+    private static final int KEY_LOCK_STRIPES = 32;
+
+    /** Suffix of files being written; they are renamed into place once complete. */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /** Name of the persisted index. Cache files are named by hex digits only. */
+    private static final String INDEX_FILE_NAME = "volley.index";
+
+    /** Magic number for current version of the index file format. */
+    private static final int INDEX_MAGIC = 0x20151020;
+
+    /** Number of index changes after which the index file is rewritten. */
+    private static final int INDEX_DIRTY_THRESHOLD = 32;
+
+    /** Size of the header length that ends every cache file. */
+    private static final int HEADER_LENGTH_SIZE = 8;
+
+    /**
+     * Age after which a temporary file found at startup is considered abandoned. Younger ones
+     * may be bodies that are still being streamed in.
+     */
+    private static final long STALE_TEMP_FILE_MS = 60 * 1000;
+
+    /** Size of the CRC32 checksum that ends the index file. */
+    private static final int INDEX_CHECKSUM_SIZE = 8;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
 
     /**
      * Constructs an instance of the DiskBasedCache at the specified directory.
@@ -73,6 +143,9 @@ public class DiskBasedCache implements Cache {
     public DiskBasedCache(File rootDirectory, int maxCacheSizeInBytes) {
         mRootDirectory = rootDirectory;
         mMaxCacheSizeInBytes = maxCacheSizeInBytes;
+        for (int i = 0; i < KEY_LOCK_STRIPES; i++) {
+            mKeyLocks[i] = new Object();
+        }
     }
 
     /**
@@ -104,70 +177,148 @@ public class DiskBasedCache implements Cache {
      * Returns the cache entry with the specified key if it exists, null otherwise.
      */
     @Override
-    public synchronized Entry get(String key) {
-        CacheHeader entry = mEntries.get(key);
-        // if the entry does not exist, return.
-        if (entry == null) {
-            return null;
-        }
+    public Entry get(String key) {
+        synchronized (getKeyLock(key)) {
+            boolean indexed = getEntry(key) != null;
+            // While the index is still loading, the entry may exist on disk without being
+            // indexed yet.
+            if (!indexed && mInitialized) {
+                return null;
+            }
 
-        File file = getFileForKey(key);
-        CountingInputStream cis = null;
-        try {
-            cis = new CountingInputStream(new BufferedInputStream(new FileInputStream(file)));
-            CacheHeader.readHeader(cis); // eat header
-            byte[] data = streamToBytes(cis, (int) (file.length() - cis.bytesRead));
-            return entry.toCacheEntry(data);
-        } catch (IOException e) {
-            VolleyLog.d("%s: %s", file.getAbsolutePath(), e.toString());
-            remove(key);
-            return null;
-        } finally {
-            if (cis != null) {
-                try {
-                    cis.close();
-                } catch (IOException ioe) {
+            File file = getFileForKey(key);
+            if (!indexed && !file.exists()) {
+                return null;
+            }
+            RandomAccessFile raf = null;
+            try {
+                raf = new RandomAccessFile(file, "r");
+                CacheHeader header = readFileHeader(raf);
+                if (!key.equals(header.key)) {
+                    // A different key that hashes to the same file name.
+                    VolleyLog.d("%s: key mismatch for %s", file.getAbsolutePath(), key);
+                    if (indexed) {
+                        synchronized (this) {
+                            removeEntry(key);
+                        }
+                    }
                     return null;
                 }
+                synchronized (this) {
+                    putEntry(key, header);
+                }
+                byte[] data = new byte[(int) header.dataLength];
+                raf.seek(0);
+                raf.readFully(data);
+                return header.toCacheEntry(data);
+            } catch (IOException e) {
+                VolleyLog.d("%s: %s", file.getAbsolutePath(), e.toString());
+                remove(key);
+                return null;
+            } finally {
+                if (raf != null) {
+                    try {
+                        raf.close();
+                    } catch (IOException ioe) {
+                        return null;
+                    }
+                }
             }
         }
     }
 
     /**
-     * Initializes the DiskBasedCache by scanning for all files currently in the
-     * specified root directory. Creates the root directory if necessary.
+     * Initializes the DiskBasedCache from its index file, then indexes the files written after
+     * the index was last saved. Without a usable index file, every file header is read. Creates
+     * the root directory if necessary.
+     *
+     * <p>Each entry is indexed on its own, so the cache stays usable while this runs. Entries
+     * that were looked up, written or removed in the meantime are left as they are.</p>
      */
     @Override
-    public synchronized void initialize() {
-        if (!mRootDirectory.exists()) {
-            if (!mRootDirectory.mkdirs()) {
-                VolleyLog.e("Unable to create cache dir %s", mRootDirectory.getAbsolutePath());
+    public void initialize() {
+        boolean indexChanged = false;
+        try {
+            if (!mRootDirectory.exists()) {
+                if (!mRootDirectory.mkdirs()) {
+                    VolleyLog.e("Unable to create cache dir %s", mRootDirectory.getAbsolutePath());
+                }
+                return;
             }
-            return;
-        }
 
-        File[] files = mRootDirectory.listFiles();
-        if (files == null) {
-            return;
-        }
-        for (File file : files) {
-            BufferedInputStream fis = null;
-            try {
-                fis = new BufferedInputStream(new FileInputStream(file));
-                CacheHeader entry = CacheHeader.readHeader(fis);
-                entry.size = file.length();
-                putEntry(entry.key, entry);
-            } catch (IOException e) {
-                if (file != null) {
-                   file.delete();
+            File[] files = mRootDirectory.listFiles();
+            if (files == null) {
+                return;
+            }
+            Map<String, File> unindexed = new HashMap<String, File>(files.length);
+            for (File file : files) {
+                String name = file.getName();
+                if (name.endsWith(TEMP_SUFFIX)) {
+                    // Left over from a write that did not complete, unless it is recent enough
+                    // to be a body that is still being streamed in.
+                    if (System.currentTimeMillis() - file.lastModified() > STALE_TEMP_FILE_MS) {
+                        file.delete();
+                    }
+                } else if (!name.equals(INDEX_FILE_NAME)) {
+                    unindexed.put(name, file);
                 }
-            } finally {
+            }
+
+            Map<String, CacheHeader> persisted = readIndex();
+            if (persisted == null) {
+                indexChanged = true;
+            } else {
+                for (Map.Entry<String, CacheHeader> indexed : persisted.entrySet()) {
+                    if (unindexed.remove(indexed.getKey()) == null) {
+                        // The file was deleted after the index was saved.
+                        indexChanged = true;
+                        continue;
+                    }
+                    CacheHeader entry = indexed.getValue();
+                    synchronized (this) {
+                        if (!mEntries.containsKey(entry.key)) {
+                            putEntry(entry.key, entry);
+                        }
+                    }
+                }
+            }
+
+            for (File file : unindexed.values()) {
+                indexChanged = true;
+                RandomAccessFile raf = null;
                 try {
-                    if (fis != null) {
-                        fis.close();
+                    raf = new RandomAccessFile(file, "r");
+                    CacheHeader entry = readFileHeader(raf);
+                    if (!file.getName().equals(getFilenameForKey(entry.key))) {
+                        // Written under an older file naming scheme; it can never be found.
+                        throw new IOException("Unexpected file name for " + entry.key);
                     }
-                } catch (IOException ignored) { }
+                    synchronized (this) {
+                        if (!mEntries.containsKey(entry.key)) {
+                            putEntry(entry.key, entry);
+                        }
+                    }
+                } catch (IOException e) {
+                    if (file != null) {
+                       file.delete();
+                    }
+                } finally {
+                    try {
+                        if (raf != null) {
+                            raf.close();
+                        }
+                    } catch (IOException ignored) { }
+                }
             }
+        } finally {
+            mInitialized = true;
+        }
+        synchronized (this) {
+            // Entries written during the scan were not checked against the files found by it.
+            pruneIfNeeded(0);
+        }
+        if (indexChanged) {
+            flushIndex();
         }
     }
 
@@ -177,69 +328,367 @@ public class DiskBasedCache implements Cache {
      * @param fullExpire True to fully expire the entry, false to soft expire
      */
     @Override
-    public synchronized void invalidate(String key, boolean fullExpire) {
-        Entry entry = get(key);
-        if (entry != null) {
-            entry.softTtl = 0;
-            if (fullExpire) {
-                entry.ttl = 0;
+    public void invalidate(String key, boolean fullExpire) {
+        synchronized (getKeyLock(key)) {
+            Entry entry = get(key);
+            if (entry != null) {
+                entry.softTtl = 0;
+                if (fullExpire) {
+                    entry.ttl = 0;
+                }
+                put(key, entry);
             }
-            put(key, entry);
         }
-
     }
 
     /**
      * Puts the entry with the specified key into the cache.
      */
     @Override
-    public synchronized void put(String key, Entry entry) {
-        pruneIfNeeded(entry.data.length);
-        File file = getFileForKey(key);
-        try {
-            BufferedOutputStream fos = new BufferedOutputStream(new FileOutputStream(file));
-            CacheHeader e = new CacheHeader(key, entry);
-            boolean success = e.writeHeader(fos);
-            if (!success) {
-                fos.close();
-                VolleyLog.d("Failed to write header for %s", file.getAbsolutePath());
-                throw new IOException();
+    public void put(String key, Entry entry) {
+        synchronized (getKeyLock(key)) {
+            synchronized (this) {
+                pruneIfNeeded(entry.data.length);
+            }
+            File file = getFileForKey(key);
+            // Write next to the live file and rename it into place, so that a concurrent reader
+            // of the previous version never sees a partial file.
+            File tempFile = new File(mRootDirectory, file.getName() + TEMP_SUFFIX);
+            try {
+                BufferedOutputStream fos = new BufferedOutputStream(new FileOutputStream(tempFile));
+                CacheHeader e = new CacheHeader(key, entry);
+                try {
+                    fos.write(entry.data);
+                    appendHeader(fos, e);
+                } finally {
+                    fos.close();
+                }
+                commitFile(key, e, tempFile, file);
+                return;
+            } catch (IOException e) {
+                VolleyLog.d("Failed to write %s: %s", file.getAbsolutePath(), e.toString());
+            }
+            boolean deleted = tempFile.delete();
+            if (!deleted) {
+                VolleyLog.d("Could not clean up file %s", tempFile.getAbsolutePath());
             }
-            fos.write(entry.data);
-            fos.close();
-            putEntry(key, e);
-            return;
-        } catch (IOException e) {
         }
-        boolean deleted = file.delete();
-        if (!deleted) {
-            VolleyLog.d("Could not clean up file %s", file.getAbsolutePath());
+    }
+
+    /**
+     * Creates a temporary file in the cache directory to receive a streamed response body.
+     */
+    @Override
+    public File createBodyFile(String key) throws IOException {
+        if (!mRootDirectory.exists() && !mRootDirectory.mkdirs()) {
+            throw new IOException("Unable to create cache dir " + mRootDirectory.getAbsolutePath());
         }
+        return File.createTempFile(getFilenameForKey(key) + "-", TEMP_SUFFIX, mRootDirectory);
+    }
+
+    /**
+     * Appends the header to a streamed body file and renames it into place. The body is never
+     * read back or copied.
+     */
+    @Override
+    public boolean commitBodyFile(String key, Entry entry, File bodyFile) {
+        synchronized (getKeyLock(key)) {
+            File file = getFileForKey(key);
+            try {
+                if (!bodyFile.isFile()) {
+                    // Deleted by clear() while the body was being received.
+                    throw new IOException("Missing body file " + bodyFile.getAbsolutePath());
+                }
+                long dataLength = bodyFile.length();
+                synchronized (this) {
+                    pruneIfNeeded((int) Math.min(dataLength, Integer.MAX_VALUE));
+                }
+                CacheHeader e = new CacheHeader(key, entry);
+                e.dataLength = dataLength;
+                BufferedOutputStream fos =
+                        new BufferedOutputStream(new FileOutputStream(bodyFile, true));
+                try {
+                    appendHeader(fos, e);
+                } finally {
+                    fos.close();
+                }
+                commitFile(key, e, bodyFile, file);
+                return true;
+            } catch (IOException e) {
+                VolleyLog.d("Failed to commit %s: %s", file.getAbsolutePath(), e.toString());
+            }
+            if (!bodyFile.delete()) {
+                VolleyLog.d("Could not clean up file %s", bodyFile.getAbsolutePath());
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Renames a completely written temporary file into place and indexes it. Must be called
+     * with the key's lock held.
+     */
+    private void commitFile(String key, CacheHeader header, File tempFile, File file)
+            throws IOException {
+        if (!tempFile.renameTo(file)) {
+            throw new IOException("Could not rename " + tempFile.getAbsolutePath());
+        }
+        header.size = file.length();
+        synchronized (this) {
+            putEntry(key, header);
+        }
+        flushIndexIfDirty();
+    }
+
+    /**
+     * Writes the header after the body, followed by the header's length.
+     */
+    private static void appendHeader(OutputStream os, CacheHeader header) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        if (!header.writeHeader(bytes)) {
+            throw new IOException("Failed to write header for " + header.key);
+        }
+        bytes.writeTo(os);
+        writeLong(os, bytes.size());
+    }
+
+    /**
+     * Reads the header from the end of a cache file and sets its size and data length.
+     */
+    private static CacheHeader readFileHeader(RandomAccessFile raf) throws IOException {
+        long length = raf.length();
+        if (length < HEADER_LENGTH_SIZE) {
+            throw new IOException("Truncated cache file");
+        }
+        byte[] trailer = new byte[HEADER_LENGTH_SIZE];
+        raf.seek(length - HEADER_LENGTH_SIZE);
+        raf.readFully(trailer);
+        long headerLength = readLong(new ByteArrayInputStream(trailer));
+        if (headerLength <= 0 || headerLength > length - HEADER_LENGTH_SIZE
+                || headerLength > Integer.MAX_VALUE) {
+            throw new IOException("Bad header length " + headerLength);
+        }
+        byte[] headerBytes = new byte[(int) headerLength];
+        long dataLength = length - HEADER_LENGTH_SIZE - headerLength;
+        raf.seek(dataLength);
+        raf.readFully(headerBytes);
+        CacheHeader header = CacheHeader.readHeader(new ByteArrayInputStream(headerBytes));
+        header.size = length;
+        header.dataLength = dataLength;
+        return header;
     }
 
     /**
      * Removes the specified key from the cache if it exists.
      */
     @Override
-    public synchronized void remove(String key) {
-        boolean deleted = getFileForKey(key).delete();
-        removeEntry(key);
-        if (!deleted) {
-            VolleyLog.d("Could not delete cache entry for key=%s, filename=%s",
-                    key, getFilenameForKey(key));
+    public void remove(String key) {
+        synchronized (getKeyLock(key)) {
+            boolean deleted = getFileForKey(key).delete();
+            synchronized (this) {
+                removeEntry(key);
+            }
+            if (!deleted) {
+                VolleyLog.d("Could not delete cache entry for key=%s, filename=%s",
+                        key, getFilenameForKey(key));
+            }
+        }
+        flushIndexIfDirty();
+    }
+
+    /**
+     * Writes the index file now. The cache calls this itself after every
+     * {@value #INDEX_DIRTY_THRESHOLD} changes; call it when the app goes to the background to
+     * make the next start read fewer file headers.
+     */
+    public void flushIndex() {
+        List<CacheHeader> snapshot;
+        synchronized (this) {
+            // Least recently used first, so that reading the file back restores the LRU order.
+            snapshot = new ArrayList<CacheHeader>(mEntries.values());
+            mDirtyCount = 0;
+        }
+        synchronized (mIndexFileLock) {
+            File indexFile = new File(mRootDirectory, INDEX_FILE_NAME);
+            File tempFile = new File(mRootDirectory, INDEX_FILE_NAME + TEMP_SUFFIX);
+            try {
+                CheckedOutputStream cos = new CheckedOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(tempFile)), new CRC32());
+                try {
+                    writeInt(cos, INDEX_MAGIC);
+                    writeInt(cos, snapshot.size());
+                    for (CacheHeader entry : snapshot) {
+                        byte[] hash = hashKey(entry.key);
+                        writeString(cos, entry.key);
+                        cos.write(hash, 0, hash.length);
+                        writeLong(cos, entry.size);
+                        writeLong(cos, entry.ttl);
+                        writeLong(cos, entry.softTtl);
+                        writeString(cos, entry.etag == null ? "" : entry.etag);
+                    }
+                    long checksum = cos.getChecksum().getValue();
+                    writeLong(cos, checksum);
+                } finally {
+                    cos.close();
+                }
+                if (!tempFile.renameTo(indexFile)) {
+                    throw new IOException("Could not rename " + tempFile.getAbsolutePath());
+                }
+            } catch (IOException e) {
+                VolleyLog.d("Failed to write cache index: %s", e.toString());
+                tempFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Counts one index change and writes the index file once enough have accumulated.
+     */
+    private void flushIndexIfDirty() {
+        boolean flush;
+        synchronized (this) {
+            flush = mInitialized && ++mDirtyCount >= INDEX_DIRTY_THRESHOLD;
+        }
+        if (flush) {
+            flushIndex();
         }
     }
 
     /**
-     * Creates a pseudo-unique filename for the specified cache key.
+     * Reads the index file with a single memory-mapped read.
+     *
+     * @return the persisted headers keyed by file name, least recently used first, or null if
+     *     there is no index file or it is not valid
+     */
+    private Map<String, CacheHeader> readIndex() {
+        File indexFile = new File(mRootDirectory, INDEX_FILE_NAME);
+        if (!indexFile.exists()) {
+            return null;
+        }
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(indexFile, "r");
+            FileChannel channel = raf.getChannel();
+            long length = channel.size();
+            if (length < 8 + INDEX_CHECKSUM_SIZE || length > Integer.MAX_VALUE) {
+                throw new IOException("Bad index length " + length);
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            int contentLength = (int) length - INDEX_CHECKSUM_SIZE;
+            CRC32 crc = new CRC32();
+            byte[] chunk = new byte[8192];
+            while (buffer.position() < contentLength) {
+                int count = Math.min(chunk.length, contentLength - buffer.position());
+                buffer.get(chunk, 0, count);
+                crc.update(chunk, 0, count);
+            }
+            if (buffer.getLong() != crc.getValue()) {
+                throw new IOException("Index checksum mismatch");
+            }
+            buffer.rewind();
+            buffer.limit(contentLength);
+
+            if (buffer.getInt() != INDEX_MAGIC) {
+                throw new IOException("Bad index magic");
+            }
+            int count = buffer.getInt();
+            Map<String, CacheHeader> entries = new LinkedHashMap<String, CacheHeader>(count);
+            byte[] hash = new byte[16];
+            for (int i = 0; i < count; i++) {
+                CacheHeader entry = new CacheHeader();
+                entry.key = getString(buffer);
+                buffer.get(hash);
+                entry.size = buffer.getLong();
+                entry.ttl = buffer.getLong();
+                entry.softTtl = buffer.getLong();
+                entry.etag = getString(buffer);
+                if (entry.etag.equals("")) {
+                    entry.etag = null;
+                }
+                // Response headers live in the cache file and are read along with the data.
+                entry.responseHeaders = Collections.<String, String>emptyMap();
+                entries.put(toFilename(hash), entry);
+            }
+            return entries;
+        } catch (IOException e) {
+            VolleyLog.d("Ignoring cache index: %s", e.toString());
+        } catch (BufferUnderflowException e) {
+            VolleyLog.d("Ignoring truncated cache index");
+        } catch (IllegalArgumentException e) {
+            VolleyLog.d("Ignoring corrupt cache index: %s", e.toString());
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException ignored) { }
+            }
+        }
+        indexFile.delete();
+        return null;
+    }
+
+    /**
+     * Reads a string written by {@link #writeString(OutputStream, String)} from a buffer.
+     */
+    private static String getString(ByteBuffer buffer) throws IOException {
+        long n = buffer.getLong();
+        if (n < 0 || n > buffer.remaining()) {
+            throw new IOException("Bad string length " + n);
+        }
+        byte[] b = new byte[(int) n];
+        buffer.get(b);
+        return new String(b, "UTF-8");
+    }
+
+    /**
+     * Returns the lock that serializes file access for the given key.
+     */
+    private Object getKeyLock(String key) {
+        return mKeyLocks[(key.hashCode() & Integer.MAX_VALUE) % KEY_LOCK_STRIPES];
+    }
+
+    /**
+     * Returns the indexed header for the given key, updating its access order.
+     */
+    private synchronized CacheHeader getEntry(String key) {
+        return mEntries.get(key);
+    }
+
+    /**
+     * Creates a filename for the specified cache key from a 128-bit hash of it. Since the key is
+     * also stored in the file and checked on read, a collision can only cause a miss.
      * @param key The key to generate a file name for.
-     * @return A pseudo-unique filename.
+     * @return A 32 character hexadecimal filename.
+     */
+    private static String getFilenameForKey(String key) {
+        return toFilename(hashKey(key));
+    }
+
+    /**
+     * Returns the 128-bit MD5 hash of the key's UTF-8 bytes.
+     */
+    private static byte[] hashKey(String key) {
+        try {
+            return MessageDigest.getInstance("MD5").digest(key.getBytes("UTF-8"));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Formats a hash as lowercase hexadecimal.
      */
-    private String getFilenameForKey(String key) {
-        int firstHalfLength = key.length() / 2;
-        String localFilename = String.valueOf(key.substring(0, firstHalfLength).hashCode());
-        localFilename += String.valueOf(key.substring(firstHalfLength).hashCode());
-        return localFilename;
+    private static String toFilename(byte[] hash) {
+        char[] chars = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            chars[i * 2] = HEX_DIGITS[(hash[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX_DIGITS[hash[i] & 0xf];
+        }
+        return new String(chars);
     }
 
     /**
@@ -341,6 +790,9 @@ public class DiskBasedCache implements Cache {
          * serialized to disk. */
         public long size;
 
+        /** The length of the body at the start of the file. (This is not serialized to disk.) */
+        public long dataLength;
+
         /** The key that identifies the cache entry. */
         public String key;
 
@@ -371,7 +823,9 @@ public class DiskBasedCache implements Cache {
          */
         public CacheHeader(String key, Entry entry) {
             this.key = key;
-            this.size = entry.data.length;
+            // Streamed bodies have no data in memory; their size is set once the file is written.
+            this.size = entry.data != null ? entry.data.length : 0;
+            this.dataLength = this.size;
             this.etag = entry.etag;
             this.serverDate = entry.serverDate;
             this.lastModified = entry.lastModified;
@@ -445,32 +899,6 @@ public class DiskBasedCache implements Cache {
 
     }
 
-    private static class CountingInputStream extends FilterInputStream {
-        private int bytesRead = 0;
-
-        private CountingInputStream(InputStream in) {
-            super(in);
-        }
-
-        @Override
-        public int read() throws IOException {
-            int result = super.read();
-            if (result != -1) {
-                bytesRead++;
-            }
-            return result;
-        }
-
-        @Override
-        public int read(byte[] buffer, int offset, int count) throws IOException {
-            int result = super.read(buffer, offset, count);
-            if (result != -1) {
-                bytesRead += result;
-            }
-            return result;
-        }
-    }
-
     /*
      * Homebrewed simple serialization system used for reading and writing cache
      * headers on disk. Once upon a time, this used the standard Java
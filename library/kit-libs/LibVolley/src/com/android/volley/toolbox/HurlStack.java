@@ -19,6 +19,7 @@ package com.android.volley.toolbox;
 import com.android.volley.AuthFailureError;
 import com.android.volley.Request;
 import com.android.volley.Request.Method;
+import com.android.volley.RequestTiming;
 
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
@@ -99,11 +100,15 @@ public class HurlStack implements HttpStack {
             url = rewritten;
         }
         URL parsedUrl = new URL(url);
+        request.getTiming().mark(RequestTiming.CONNECT_START);
         HttpURLConnection connection = openConnection(parsedUrl, request);
         for (String headerName : map.keySet()) {
             connection.addRequestProperty(headerName, map.get(headerName));
         }
         setConnectionParametersForRequest(connection, request);
+        // Connect explicitly so that connection setup is timed apart from the server's response.
+        connection.connect();
+        request.getTiming().mark(RequestTiming.CONNECT_END);
         // Initialize HttpResponse with data from the HttpURLConnection.
         ProtocolVersion protocolVersion = new ProtocolVersion("HTTP", 1, 1);
         int responseCode = connection.getResponseCode();
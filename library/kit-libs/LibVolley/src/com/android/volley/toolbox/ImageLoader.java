@@ -22,12 +22,16 @@ import android.os.Looper;
 import android.widget.ImageView;
 import android.widget.ImageView.ScaleType;
 import com.android.volley.Request;
+import com.android.volley.Request.Priority;
+import com.android.volley.Request.TrafficClass;
 import com.android.volley.RequestQueue;
 import com.android.volley.Response.ErrorListener;
 import com.android.volley.Response.Listener;
 import com.android.volley.VolleyError;
 
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 
 /**
@@ -49,6 +53,9 @@ public class ImageLoader {
     /** The cache implementation to be used as an L1 cache before calling into volley. */
     private final ImageCache mCache;
 
+    /** Admits the decodes of the image requests made by this loader. */
+    private DecodeScheduler mDecodeScheduler = DecodeScheduler.getDefault();
+
     /**
      * HashMap of Cache keys -> BatchedImageRequest used to track in-flight requests so
      * that we can coalesce multiple requests to the same URL into a single network request.
@@ -66,6 +73,12 @@ public class ImageLoader {
     /** Runnable for in-flight response delivery. */
     private Runnable mRunnable;
 
+    /** True while the list showing the images flings; new requests are held back meanwhile. */
+    private boolean mFlinging;
+
+    /** Cache keys of the requests started by the last {@link #prefetch} call. */
+    private HashSet<String> mPrefetchKeys = new HashSet<String>();
+
     /**
      * Simple cache adapter interface. If provided to the ImageLoader, it
      * will be used as an L1 cache before dispatch to Volley. Implementations
@@ -231,25 +244,162 @@ public class ImageLoader {
         // Check to see if a request is already in-flight.
         BatchedImageRequest request = mInFlightRequests.get(cacheKey);
         if (request != null) {
-            // If it is, add this request to the list of listeners.
+            // If it is, add this request to the list of listeners. A prefetch that a view now
+            // waits for is promoted out of the prefetch class.
             request.addContainer(imageContainer);
+            updatePriority(request);
             return imageContainer;
         }
 
-        // The request is not already in flight. Send the new request to the network and
-        // track it.
+        // The request is not already in flight. Track it, and send it to the network unless a
+        // fling is in progress: the view is likely to be recycled before the image arrives, and
+        // a request that was never queued is dropped for free when its container is canceled.
         Request<Bitmap> newRequest = makeImageRequest(requestUrl, maxWidth, maxHeight, scaleType,
                 cacheKey);
 
-        mRequestQueue.add(newRequest);
-        mInFlightRequests.put(cacheKey,
-                new BatchedImageRequest(newRequest, imageContainer));
+        request = new BatchedImageRequest(newRequest, imageContainer);
+        mInFlightRequests.put(cacheKey, request);
+        updatePriority(request);
+        if (!mFlinging) {
+            dispatch(request);
+        }
         return imageContainer;
     }
 
+    /**
+     * Starts downloading images that are about to be shown, such as the rows just past the
+     * visible range of a list in the scroll direction. The images go to the L1 cache, so a later
+     * {@link #get} with the same size and scale type is served immediately.
+     * <p>
+     * Prefetches run in {@link TrafficClass#PREFETCH} at {@link Priority#LOW}, behind the
+     * requests of visible views. Each call replaces the previous window: prefetches for URLs
+     * that are no longer listed, and that no view has asked for since, are canceled. Nothing
+     * is started while {@link #setFlinging(boolean) flinging}.
+     *
+     * @param requestUrls the URLs to load, nearest first
+     * @param maxWidth The maximum width of the returned image.
+     * @param maxHeight The maximum height of the returned image.
+     * @param scaleType The ImageViews ScaleType used to calculate the needed image size.
+     */
+    public void prefetch(Collection<String> requestUrls, int maxWidth, int maxHeight,
+            ScaleType scaleType) {
+        throwIfNotOnMainThread();
+
+        HashSet<String> keys = new HashSet<String>();
+        if (!mFlinging) {
+            for (String requestUrl : requestUrls) {
+                if (requestUrl == null || requestUrl.length() == 0) {
+                    continue;
+                }
+                String cacheKey = getCacheKey(requestUrl, maxWidth, maxHeight, scaleType);
+                if (mCache.getBitmap(cacheKey) != null) {
+                    continue;
+                }
+                BatchedImageRequest request = mInFlightRequests.get(cacheKey);
+                if (request == null) {
+                    Request<Bitmap> newRequest = makeImageRequest(requestUrl, maxWidth, maxHeight,
+                            scaleType, cacheKey);
+                    newRequest.setTrafficClass(TrafficClass.PREFETCH);
+                    request = new BatchedImageRequest(newRequest);
+                    mInFlightRequests.put(cacheKey, request);
+                    dispatch(request);
+                }
+                keys.add(cacheKey);
+            }
+        }
+
+        // Drop the prefetches that fell out of the window and that no view is waiting for.
+        for (String cacheKey : mPrefetchKeys) {
+            if (keys.contains(cacheKey)) {
+                continue;
+            }
+            BatchedImageRequest request = mInFlightRequests.get(cacheKey);
+            if (request != null && request.mContainers.isEmpty()) {
+                request.mRequest.cancel();
+                mInFlightRequests.remove(cacheKey);
+            }
+        }
+        mPrefetchKeys = keys;
+    }
+
+    /**
+     * Tells the loader whether the list showing its images is flinging. While it is, new
+     * requests are tracked but not sent to the network, and {@link #prefetch} does nothing;
+     * views that scroll off screen meanwhile should cancel their requests. When the fling
+     * ends, the requests of the views that are still waiting are sent.
+     */
+    public void setFlinging(boolean flinging) {
+        throwIfNotOnMainThread();
+
+        if (mFlinging == flinging) {
+            return;
+        }
+        mFlinging = flinging;
+        if (!flinging) {
+            for (BatchedImageRequest request : mInFlightRequests.values()) {
+                if (!request.mDispatched) {
+                    dispatch(request);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns true between {@link #setFlinging(boolean) setFlinging(true)} and
+     * {@link #setFlinging(boolean) setFlinging(false)}.
+     */
+    public boolean isFlinging() {
+        return mFlinging;
+    }
+
+    /**
+     * Caps the number of images decoded at once to the number of images on screen, so that
+     * decoding off-screen images does not compete with the visible ones for CPU and memory.
+     * Applies to the {@link DecodeScheduler} of this loader.
+     *
+     * @param count the number of visible images, or 0 to lift the cap
+     */
+    public void setVisibleImageCount(int count) {
+        mDecodeScheduler.setDecodeLimit(count <= 0 ? Integer.MAX_VALUE : count);
+    }
+
+    /**
+     * Sends a tracked request to the network.
+     */
+    private void dispatch(BatchedImageRequest request) {
+        request.mDispatched = true;
+        mRequestQueue.add(request.mRequest);
+    }
+
+    /**
+     * Derives the priority of a request from the containers waiting for it: requests of
+     * on-screen views load at {@link Priority#NORMAL}, and those whose views all scrolled off
+     * screen (or prefetches) at {@link Priority#LOW}. A prefetch that a view now waits for is
+     * moved to the {@link TrafficClass#IMAGE} class.
+     */
+    private void updatePriority(BatchedImageRequest request) {
+        boolean onScreen = false;
+        for (ImageContainer container : request.mContainers) {
+            if (!container.mOffScreen) {
+                onScreen = true;
+                break;
+            }
+        }
+        if (request.mRequest instanceof ImageRequest) {
+            ((ImageRequest) request.mRequest).setPriority(onScreen ? Priority.NORMAL : Priority.LOW);
+        }
+        if (!request.mContainers.isEmpty()
+                && request.mRequest.getTrafficClass() == TrafficClass.PREFETCH) {
+            request.mRequest.setTrafficClass(TrafficClass.IMAGE);
+            if (request.mDispatched) {
+                mRequestQueue.getNetworkScheduler().reschedule(request.mRequest);
+            }
+        }
+    }
+
     protected Request<Bitmap> makeImageRequest(String requestUrl, int maxWidth, int maxHeight,
             ScaleType scaleType, final String cacheKey) {
-        return new ImageRequest(requestUrl, new Listener<Bitmap>() {
+        ImageRequest request = new ImageRequest(requestUrl, new Listener<Bitmap>() {
             @Override
             public void onResponse(Bitmap response) {
                 onGetImageSuccess(cacheKey, response);
@@ -260,6 +410,16 @@ public class ImageLoader {
                 onGetImageError(cacheKey, error);
             }
         });
+        request.setDecodeScheduler(mDecodeScheduler);
+        return request;
+    }
+
+    /**
+     * Sets the scheduler that admits the decodes of image requests made by this loader.
+     * Defaults to {@link DecodeScheduler#getDefault()}.
+     */
+    public void setDecodeScheduler(DecodeScheduler decodeScheduler) {
+        mDecodeScheduler = decodeScheduler;
     }
 
     /**
@@ -328,6 +488,9 @@ public class ImageLoader {
         /** The request URL that was specified */
         private final String mRequestUrl;
 
+        /** True once the view of this container scrolled off screen */
+        private boolean mOffScreen;
+
         /**
          * Constructs a BitmapContainer object.
          * @param bitmap The final bitmap (if it exists).
@@ -355,6 +518,8 @@ public class ImageLoader {
                 boolean canceled = request.removeContainerAndCancelIfNecessary(this);
                 if (canceled) {
                     mInFlightRequests.remove(mCacheKey);
+                } else {
+                    updatePriority(request);
                 }
             } else {
                 // check to see if it is already batched for delivery.
@@ -368,6 +533,21 @@ public class ImageLoader {
             }
         }
 
+        /**
+         * Marks the view waiting for this container as scrolled off (or back on) screen. The
+         * in-flight request drops to {@link Priority#LOW} once all of its views are off screen.
+         */
+        public void setOffScreen(boolean offScreen) {
+            if (mListener == null || mOffScreen == offScreen) {
+                return;
+            }
+            mOffScreen = offScreen;
+            BatchedImageRequest request = mInFlightRequests.get(mCacheKey);
+            if (request != null && request.mContainers.contains(this)) {
+                updatePriority(request);
+            }
+        }
+
         /**
          * Returns the bitmap associated with the request URL if it has been loaded, null otherwise.
          */
@@ -400,13 +580,25 @@ public class ImageLoader {
         /** List of all of the active ImageContainers that are interested in the request */
         private final LinkedList<ImageContainer> mContainers = new LinkedList<ImageContainer>();
 
+        /** True once the request was added to the RequestQueue */
+        private boolean mDispatched;
+
+        /**
+         * Constructs a new BatchedImageRequest object for a prefetch, which no container waits
+         * for yet.
+         * @param request The request being tracked
+         */
+        public BatchedImageRequest(Request<?> request) {
+            mRequest = request;
+        }
+
         /**
          * Constructs a new BatchedImageRequest object
          * @param request The request being tracked
          * @param container The ImageContainer of the person who initiated the request.
          */
         public BatchedImageRequest(Request<?> request, ImageContainer container) {
-            mRequest = request;
+            this(request);
             mContainers.add(container);
         }
 
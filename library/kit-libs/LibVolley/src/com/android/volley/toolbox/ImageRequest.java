@@ -23,9 +23,11 @@ import com.android.volley.Request;
 import com.android.volley.Response;
 import com.android.volley.VolleyLog;
 
+import android.annotation.TargetApi;
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.Config;
 import android.graphics.BitmapFactory;
+import android.os.Build;
 import android.widget.ImageView.ScaleType;
 
 /**
@@ -47,9 +49,10 @@ public class ImageRequest extends Request<Bitmap> {
     private final int mMaxWidth;
     private final int mMaxHeight;
     private ScaleType mScaleType;
+    private volatile Priority mPriority = Priority.LOW;
 
-    /** Decoding lock so that we don't decode more than one image at a time (to avoid OOM's) */
-    private static final Object sDecodeLock = new Object();
+    /** Admits decodes in parallel within a memory budget (to avoid OOM's) */
+    private DecodeScheduler mDecodeScheduler = DecodeScheduler.getDefault();
 
     /**
      * Creates a new image request, decoding to a maximum specified width and
@@ -74,6 +77,7 @@ public class ImageRequest extends Request<Bitmap> {
         super(Method.GET, url, errorListener); 
         setRetryPolicy(
                 new DefaultRetryPolicy(IMAGE_TIMEOUT_MS, IMAGE_MAX_RETRIES, IMAGE_BACKOFF_MULT));
+        setTrafficClass(TrafficClass.IMAGE);
         mListener = listener;
         mDecodeConfig = decodeConfig;
         mMaxWidth = maxWidth;
@@ -93,7 +97,17 @@ public class ImageRequest extends Request<Bitmap> {
     }
     @Override
     public Priority getPriority() {
-        return Priority.LOW;
+        return mPriority;
+    }
+
+    /**
+     * Changes the priority of this request, for example when its view scrolls on or off
+     * screen. The {@link com.android.volley.NetworkScheduler} reads it the next time it picks a
+     * request, so a waiting request moves without being re-queued. The cache queue keeps the
+     * priority the request was queued with, so the change does not disturb its ordering.
+     */
+    public void setPriority(Priority priority) {
+        mPriority = priority;
     }
 
     /**
@@ -151,33 +165,118 @@ public class ImageRequest extends Request<Bitmap> {
         return resized;
     }
 
+    /**
+     * Sets the scheduler that admits the decode of this request. Defaults to
+     * {@link DecodeScheduler#getDefault()}.
+     */
+    public void setDecodeScheduler(DecodeScheduler decodeScheduler) {
+        mDecodeScheduler = decodeScheduler;
+    }
+
+    /**
+     * Images are usually large and decode straight from a file, so the body may be streamed
+     * into the cache instead of being buffered.
+     */
+    @Override
+    public boolean shouldStreamBody() {
+        return true;
+    }
+
     @Override
     protected Response<Bitmap> parseNetworkResponse(NetworkResponse response) {
-        // Serialize all decode on a global lock to reduce concurrent heap usage.
-        synchronized (sDecodeLock) {
-            try {
-                return doParse(response);
-            } catch (OutOfMemoryError e) {
-                VolleyLog.e("Caught OOM for %d byte image, url=%s", response.data.length, getUrl());
-                return Response.error(new ParseError(e));
-            }
+        // Decode the bounds first (cheap, no pixel allocation) to size the decode.
+        BitmapFactory.Options decodeOptions = new BitmapFactory.Options();
+        decodeOptions.inJustDecodeBounds = true;
+        if (response.bodyFile != null) {
+            BitmapFactory.decodeFile(response.bodyFile.getPath(), decodeOptions);
+        } else {
+            BitmapFactory.decodeByteArray(response.data, 0, response.data.length, decodeOptions);
+        }
+        decodeOptions.inJustDecodeBounds = false;
+
+        // Wait for a decode slot within the memory budget instead of a global lock, so that
+        // several small images can decode in parallel.
+        long decodeBytes = estimateDecodeBytes(decodeOptions);
+        if (!mDecodeScheduler.acquire(this, decodeBytes)) {
+            // Canceled while waiting; the delivery drops responses for canceled requests.
+            return Response.error(new ParseError(response));
+        }
+        try {
+            return doParse(response, decodeOptions);
+        } catch (OutOfMemoryError e) {
+            VolleyLog.e("Caught OOM for %d byte image, url=%s", response.getBodyLength(), getUrl());
+            return Response.error(new ParseError(e));
+        } finally {
+            mDecodeScheduler.release(decodeBytes);
         }
     }
 
+    /**
+     * Estimates the bytes a decode will allocate from its bounds, including the scaled copy
+     * made when the sampled bitmap is still larger than the requested size.
+     */
+    private long estimateDecodeBytes(BitmapFactory.Options bounds) {
+        int actualWidth = bounds.outWidth;
+        int actualHeight = bounds.outHeight;
+        if (actualWidth <= 0 || actualHeight <= 0) {
+            return 0;
+        }
+        if (mMaxWidth == 0 && mMaxHeight == 0) {
+            return (long) actualWidth * actualHeight * getBytesPerPixel(mDecodeConfig);
+        }
+        int desiredWidth = getResizedDimension(mMaxWidth, mMaxHeight,
+                actualWidth, actualHeight, mScaleType);
+        int desiredHeight = getResizedDimension(mMaxHeight, mMaxWidth,
+                actualHeight, actualWidth, mScaleType);
+        int sampleSize = findBestSampleSize(actualWidth, actualHeight, desiredWidth, desiredHeight);
+        long sampledBytes =
+                (long) (actualWidth / sampleSize) * (actualHeight / sampleSize) * 4;
+        return sampledBytes + (long) desiredWidth * desiredHeight * 4;
+    }
+
+    private static int getBytesPerPixel(Config config) {
+        if (config == Config.ALPHA_8) {
+            return 1;
+        } else if (config == Config.RGB_565 || config == Config.ARGB_4444) {
+            return 2;
+        }
+        return 4;
+    }
+
+    /**
+     * Asks for a mutable decode where the platform supports it, which {@link BitmapPool#put}
+     * requires.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void setMutable(BitmapFactory.Options decodeOptions) {
+        if (BitmapPool.isSupported()) {
+            decodeOptions.inMutable = true;
+        }
+    }
+
+    /**
+     * Decodes the body from wherever the network left it: a streamed file or the data array.
+     */
+    private static Bitmap decode(BitmapPool bitmapPool, NetworkResponse response,
+            BitmapFactory.Options decodeOptions) {
+        if (response.bodyFile != null) {
+            return bitmapPool.decodeFile(response.bodyFile.getPath(), decodeOptions);
+        }
+        return bitmapPool.decodeByteArray(response.data, 0, response.data.length, decodeOptions);
+    }
+
     /**
      * The real guts of parseNetworkResponse. Broken out for readability.
+     *
+     * @param decodeOptions options already holding the natural bounds of the image
      */
-    private Response<Bitmap> doParse(NetworkResponse response) {
-        byte[] data = response.data;
-        BitmapFactory.Options decodeOptions = new BitmapFactory.Options();
+    private Response<Bitmap> doParse(NetworkResponse response, BitmapFactory.Options decodeOptions) {
+        BitmapPool bitmapPool = BitmapPool.getDefault();
         Bitmap bitmap = null;
         if (mMaxWidth == 0 && mMaxHeight == 0) {
             decodeOptions.inPreferredConfig = mDecodeConfig;
-            bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, decodeOptions);
+            bitmap = decode(bitmapPool, response, decodeOptions);
         } else {
-            // If we have to resize this image, first get the natural bounds.
-            decodeOptions.inJustDecodeBounds = true;
-            BitmapFactory.decodeByteArray(data, 0, data.length, decodeOptions);
             int actualWidth = decodeOptions.outWidth;
             int actualHeight = decodeOptions.outHeight;
 
@@ -188,20 +287,25 @@ public class ImageRequest extends Request<Bitmap> {
                     actualHeight, actualWidth, mScaleType);
 
             // Decode to the nearest power of two scaling factor.
-            decodeOptions.inJustDecodeBounds = false;
             // TODO(ficus): Do we need this or is it okay since API 8 doesn't support it?
             // decodeOptions.inPreferQualityOverSpeed = PREFER_QUALITY_OVER_SPEED;
             decodeOptions.inSampleSize =
                 findBestSampleSize(actualWidth, actualHeight, desiredWidth, desiredHeight);
-            Bitmap tempBitmap =
-                BitmapFactory.decodeByteArray(data, 0, data.length, decodeOptions);
+            if (actualWidth / decodeOptions.inSampleSize > desiredWidth
+                    || actualHeight / decodeOptions.inSampleSize > desiredHeight) {
+                // The decoded bitmap will only be an intermediate for scaling, so decode it
+                // mutable so that it can go back to the pool afterwards.
+                setMutable(decodeOptions);
+            }
+            Bitmap tempBitmap = decode(bitmapPool, response, decodeOptions);
 
             // If necessary, scale down to the maximal acceptable size.
             if (tempBitmap != null && (tempBitmap.getWidth() > desiredWidth ||
                     tempBitmap.getHeight() > desiredHeight)) {
                 bitmap = Bitmap.createScaledBitmap(tempBitmap,
                         desiredWidth, desiredHeight, true);
-                tempBitmap.recycle();
+                // The intermediate bitmap is never handed out, so its memory can be reused.
+                bitmapPool.put(tempBitmap);
             } else {
                 bitmap = tempBitmap;
             }
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+/**
+ * A fixed-size latency histogram with log-linear buckets, in the manner of HdrHistogram.
+ * <p>
+ * Values are recorded in microseconds. Values below 32 get a bucket each; above that every
+ * power of two is split into 16 linear buckets, so any recorded value is reported within about
+ * 6% of its true value. The bucket array is allocated once, which keeps {@link #record(long)}
+ * cheap enough to call for every request on the delivery thread.
+ */
+public class LatencyHistogram {
+    /** Number of linear sub-buckets per power of two, as a shift. */
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;
+
+    /** Values above one hour are clamped; anything that slow is an outlier regardless. */
+    private static final long MAX_TRACKABLE_MICROS = 60L * 60L * 1000L * 1000L;
+
+    private static final int BUCKET_COUNT = indexOf(MAX_TRACKABLE_MICROS) + 1;
+
+    private final long[] mCounts;
+    private long mTotalCount;
+    private long mSum;
+    private long mMin = Long.MAX_VALUE;
+    private long mMax;
+
+    public LatencyHistogram() {
+        mCounts = new long[BUCKET_COUNT];
+    }
+
+    private LatencyHistogram(LatencyHistogram source) {
+        mCounts = source.mCounts.clone();
+        mTotalCount = source.mTotalCount;
+        mSum = source.mSum;
+        mMin = source.mMin;
+        mMax = source.mMax;
+    }
+
+    /**
+     * Records one value.
+     *
+     * @param micros the latency in microseconds; negative values are ignored
+     */
+    public synchronized void record(long micros) {
+        if (micros < 0) {
+            return;
+        }
+        long value = Math.min(micros, MAX_TRACKABLE_MICROS);
+        mCounts[indexOf(value)]++;
+        mTotalCount++;
+        mSum += value;
+        if (value < mMin) {
+            mMin = value;
+        }
+        if (value > mMax) {
+            mMax = value;
+        }
+    }
+
+    public synchronized long getCount() {
+        return mTotalCount;
+    }
+
+    /** Returns the smallest recorded value, or 0 if nothing was recorded. */
+    public synchronized long getMin() {
+        return mTotalCount == 0 ? 0 : mMin;
+    }
+
+    /** Returns the largest recorded value, or 0 if nothing was recorded. */
+    public synchronized long getMax() {
+        return mMax;
+    }
+
+    /** Returns the mean of the recorded values, or 0 if nothing was recorded. */
+    public synchronized long getMean() {
+        return mTotalCount == 0 ? 0 : mSum / mTotalCount;
+    }
+
+    /**
+     * Returns the value at or below which {@code percentile} percent of the recorded values fall,
+     * reported as the upper bound of its bucket.
+     *
+     * @param percentile a percentile between 0 and 100, for example 50, 95 or 99.9
+     */
+    public synchronized long getPercentile(double percentile) {
+        if (mTotalCount == 0) {
+            return 0;
+        }
+        double clamped = Math.max(0, Math.min(100, percentile));
+        long target = Math.max(1, (long) Math.ceil(clamped / 100.0 * mTotalCount));
+        long seen = 0;
+        for (int i = 0; i < mCounts.length; i++) {
+            seen += mCounts[i];
+            if (seen >= target) {
+                return Math.min(highestEquivalentValue(i), mMax);
+            }
+        }
+        return mMax;
+    }
+
+    /** Returns a copy of the current state that is unaffected by later recording. */
+    public synchronized LatencyHistogram copy() {
+        return new LatencyHistogram(this);
+    }
+
+    /** Discards every recorded value. */
+    public synchronized void reset() {
+        for (int i = 0; i < mCounts.length; i++) {
+            mCounts[i] = 0;
+        }
+        mTotalCount = 0;
+        mSum = 0;
+        mMin = Long.MAX_VALUE;
+        mMax = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "count=" + mTotalCount + " min=" + getMin() + "us p50=" + getPercentile(50)
+                + "us p90=" + getPercentile(90) + "us p99=" + getPercentile(99)
+                + "us max=" + mMax + "us";
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+        return shift * SUB_BUCKET_HALF + (int) (value >>> shift);
+    }
+
+    private static long highestEquivalentValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_HALF - 1;
+        long subBucket = index - shift * SUB_BUCKET_HALF;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
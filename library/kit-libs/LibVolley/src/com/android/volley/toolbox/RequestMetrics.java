@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.RequestTiming;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Aggregates the {@link RequestTiming} of finished requests into per-endpoint latency
+ * histograms, one per phase, plus cache-hit and gzip counters.
+ * <p>
+ * Register it with {@link RequestQueue#addRequestFinishedListener(RequestQueue.RequestFinishedListener)}.
+ * Requests are grouped by URL without the query string unless {@link #getEndpoint(Request)} is
+ * overridden. A phase whose stages were not both reached by a request (for example the connect
+ * phase of a cache hit) is simply not recorded for it.
+ */
+public class RequestMetrics implements RequestQueue.RequestFinishedListener<Object> {
+    /** From {@link RequestQueue#add(Request)} until a dispatcher took the request. */
+    public static final int PHASE_QUEUE_WAIT = 0;
+    /** The cache lookup. */
+    public static final int PHASE_CACHE_LOOKUP = 1;
+    /** Opening the connection, including DNS, TLS and any request body. */
+    public static final int PHASE_CONNECT = 2;
+    /** From the established connection until the response headers arrived. */
+    public static final int PHASE_TIME_TO_FIRST_BYTE = 3;
+    /** Reading (and inflating) the response body. */
+    public static final int PHASE_BODY_READ = 4;
+    /** {@link Request#parseNetworkResponse} on the dispatcher thread. */
+    public static final int PHASE_PARSE = 5;
+    /** From posting the result until the listener returned, including the main thread wait. */
+    public static final int PHASE_DELIVERY = 6;
+    /** From {@link RequestQueue#add(Request)} until the listener returned. */
+    public static final int PHASE_TOTAL = 7;
+
+    private static final int PHASE_COUNT = 8;
+
+    private static final String[] PHASE_NAMES = {
+            "queue", "cache", "connect", "ttfb", "body", "parse", "delivery", "total"
+    };
+
+    private static final int NANOS_PER_MICRO = 1000;
+
+    private final Map<String, EndpointMetrics> mEndpoints = new HashMap<String, EndpointMetrics>();
+
+    /**
+     * The metrics of a single endpoint.
+     */
+    public static class EndpointMetrics {
+        private final LatencyHistogram[] mPhases;
+        private long mCount;
+        private long mCacheHits;
+        private long mGzipped;
+        private long mCanceled;
+
+        EndpointMetrics() {
+            mPhases = new LatencyHistogram[PHASE_COUNT];
+            for (int i = 0; i < PHASE_COUNT; i++) {
+                mPhases[i] = new LatencyHistogram();
+            }
+        }
+
+        private EndpointMetrics(EndpointMetrics source) {
+            mPhases = new LatencyHistogram[PHASE_COUNT];
+            for (int i = 0; i < PHASE_COUNT; i++) {
+                mPhases[i] = source.mPhases[i].copy();
+            }
+            mCount = source.mCount;
+            mCacheHits = source.mCacheHits;
+            mGzipped = source.mGzipped;
+            mCanceled = source.mCanceled;
+        }
+
+        /**
+         * Returns the histogram of a phase, in microseconds.
+         *
+         * @param phase one of the {@code PHASE_} constants of {@link RequestMetrics}
+         */
+        public LatencyHistogram getHistogram(int phase) {
+            return mPhases[phase];
+        }
+
+        /** Returns the number of finished requests, including canceled ones. */
+        public synchronized long getCount() {
+            return mCount;
+        }
+
+        /** Returns the number of requests answered from the cache without a network round trip. */
+        public synchronized long getCacheHits() {
+            return mCacheHits;
+        }
+
+        /** Returns the number of network responses that were gzip encoded. */
+        public synchronized long getGzipped() {
+            return mGzipped;
+        }
+
+        public synchronized long getCanceled() {
+            return mCanceled;
+        }
+
+        synchronized EndpointMetrics copy() {
+            return new EndpointMetrics(this);
+        }
+
+        synchronized void record(RequestTiming timing, boolean canceled) {
+            mCount++;
+            if (canceled) {
+                mCanceled++;
+            }
+            boolean networkUsed = timing.getNanos(RequestTiming.NETWORK_TAKE) != 0;
+            if (timing.isCacheHit() && !networkUsed) {
+                mCacheHits++;
+            }
+            if (timing.isGzipped()) {
+                mGzipped++;
+            }
+            int dispatchStage = timing.getNanos(RequestTiming.CACHE_TAKE) != 0
+                    ? RequestTiming.CACHE_TAKE : RequestTiming.NETWORK_TAKE;
+            recordPhase(PHASE_QUEUE_WAIT, timing, RequestTiming.QUEUED, dispatchStage);
+            recordPhase(PHASE_CACHE_LOOKUP, timing, RequestTiming.CACHE_TAKE, RequestTiming.CACHE_DONE);
+            recordPhase(PHASE_CONNECT, timing, RequestTiming.CONNECT_START, RequestTiming.CONNECT_END);
+            recordPhase(PHASE_TIME_TO_FIRST_BYTE, timing,
+                    RequestTiming.CONNECT_END, RequestTiming.RESPONSE_HEADERS);
+            recordPhase(PHASE_BODY_READ, timing, RequestTiming.RESPONSE_HEADERS, RequestTiming.BODY_END);
+            recordPhase(PHASE_PARSE, timing, RequestTiming.PARSE_START, RequestTiming.PARSE_END);
+            recordPhase(PHASE_DELIVERY, timing, RequestTiming.DELIVERY_POST, RequestTiming.DELIVERY_END);
+            recordPhase(PHASE_TOTAL, timing, RequestTiming.QUEUED, RequestTiming.DELIVERY_END);
+        }
+
+        private void recordPhase(int phase, RequestTiming timing, int fromStage, int toStage) {
+            long nanos = timing.getDurationNanos(fromStage, toStage);
+            if (nanos >= 0) {
+                mPhases[phase].record(nanos / NANOS_PER_MICRO);
+            }
+        }
+
+        @Override
+        public synchronized String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append("count=").append(mCount)
+                    .append(" cacheHits=").append(mCacheHits)
+                    .append(" gzipped=").append(mGzipped)
+                    .append(" canceled=").append(mCanceled);
+            for (int i = 0; i < PHASE_COUNT; i++) {
+                if (mPhases[i].getCount() > 0) {
+                    builder.append("\n  ").append(PHASE_NAMES[i]).append(": ").append(mPhases[i]);
+                }
+            }
+            return builder.toString();
+        }
+    }
+
+    @Override
+    public void onRequestFinished(Request<Object> request) {
+        String endpoint = getEndpoint(request);
+        if (endpoint == null) {
+            return;
+        }
+        EndpointMetrics metrics;
+        synchronized (mEndpoints) {
+            metrics = mEndpoints.get(endpoint);
+            if (metrics == null) {
+                metrics = new EndpointMetrics();
+                mEndpoints.put(endpoint, metrics);
+            }
+        }
+        metrics.record(request.getTiming(), request.isCanceled());
+    }
+
+    /**
+     * Returns the key the request's timings are aggregated under, or null to ignore the request.
+     * The default is the URL without its query string.
+     */
+    protected String getEndpoint(Request<?> request) {
+        String url = request.getUrl();
+        if (url == null) {
+            return null;
+        }
+        int query = url.indexOf('?');
+        return query < 0 ? url : url.substring(0, query);
+    }
+
+    /**
+     * Returns a copy of the metrics of every endpoint seen so far, keyed by endpoint.
+     */
+    public Map<String, EndpointMetrics> getSnapshot() {
+        synchronized (mEndpoints) {
+            Map<String, EndpointMetrics> snapshot =
+                    new HashMap<String, EndpointMetrics>(mEndpoints.size());
+            for (Map.Entry<String, EndpointMetrics> entry : mEndpoints.entrySet()) {
+                snapshot.put(entry.getKey(), entry.getValue().copy());
+            }
+            return snapshot;
+        }
+    }
+
+    /** Discards the metrics of every endpoint. */
+    public void reset() {
+        synchronized (mEndpoints) {
+            mEndpoints.clear();
+        }
+    }
+}
@@ -22,8 +22,8 @@ import android.content.pm.PackageManager.NameNotFoundException;
 import android.net.http.AndroidHttpClient;
 import android.os.Build;
 
-import com.android.volley.Network;
 import com.android.volley.RequestQueue;
+import com.android.volley.ResponseDelivery;
 
 import java.io.File;
 
@@ -40,6 +40,20 @@ public class Volley {
      * @return A started {@link RequestQueue} instance.
      */
     public static RequestQueue newRequestQueue(Context context, HttpStack stack) {
+        return newRequestQueue(context, stack, null);
+    }
+
+    /**
+     * Creates a default instance of the worker pool and calls {@link RequestQueue#start()} on it.
+     *
+     * @param context A {@link Context} to use for creating the cache dir.
+     * @param stack An {@link HttpStack} to use for the network, or null for default.
+     * @param delivery A {@link ResponseDelivery} for posting responses and errors, or null to
+     *     post each one to the main thread.
+     * @return A started {@link RequestQueue} instance.
+     */
+    public static RequestQueue newRequestQueue(Context context, HttpStack stack,
+            ResponseDelivery delivery) {
         File cacheDir = new File(context.getCacheDir(), DEFAULT_CACHE_DIR);
 
         String userAgent = "volley/0";
@@ -60,9 +74,13 @@ public class Volley {
             }
         }
 
-        Network network = new BasicNetwork(stack);
+        DiskBasedCache cache = new DiskBasedCache(cacheDir);
+        BasicNetwork network = new BasicNetwork(stack);
+        // Let large cacheable bodies bypass the heap and land directly in the cache directory.
+        network.setStreamingCache(cache);
 
-        RequestQueue queue = new RequestQueue(new DiskBasedCache(cacheDir), network);
+        RequestQueue queue = delivery == null
+                ? new RequestQueue(cache, network) : new RequestQueue(cache, network, delivery);
         queue.start();
 
         return queue;
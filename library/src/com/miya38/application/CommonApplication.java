@@ -4,6 +4,8 @@ import android.app.Application;
 import android.content.Context;
 import android.content.res.Configuration;
 
+import com.android.volley.toolbox.BitmapPool;
+import com.android.volley.toolbox.ByteArrayPool;
 import com.miya38.BuildConfig;
 import com.miya38.connection.volley.AbstractVolleySetting;
 import com.miya38.utils.AplUtils;
@@ -97,6 +99,14 @@ public abstract class CommonApplication extends Application {
     @Override
     public void onLowMemory() {
         LogUtils.d(TAG, "onLowMemory");
+        BitmapPool.getDefault().clear();
+        ByteArrayPool.getDefault().clear();
+    }
+
+    @Override
+    public void onTrimMemory(final int level) {
+        LogUtils.d(TAG, "onTrimMemory level=" + level);
+        ByteArrayPool.getDefault().trimMemory(level);
     }
 
     /**
@@ -5,6 +5,7 @@ import android.content.res.Configuration;
 import android.support.multidex.MultiDex;
 import android.support.multidex.MultiDexApplication;
 
+import com.android.volley.toolbox.ByteArrayPool;
 import com.miya38.connection.volley.AbstractVolleySetting;
 import com.miya38.utils.AplUtils;
 import com.miya38.utils.ClipboardUtils;
@@ -101,6 +102,13 @@ public abstract class CommonMultiDexApplication extends MultiDexApplication {
     @Override
     public void onLowMemory() {
         LogUtils.d(TAG, "onLowMemory");
+        ByteArrayPool.getDefault().clear();
+    }
+
+    @Override
+    public void onTrimMemory(final int level) {
+        LogUtils.d(TAG, "onTrimMemory level=" + level);
+        ByteArrayPool.getDefault().trimMemory(level);
     }
 
     /**
@@ -10,6 +10,7 @@ import com.miya38.connection.okhttp.NetworkRequestOkHttp;
 import com.squareup.okhttp.Response;
 
 import java.io.IOException;
+import java.io.Reader;
 import java.util.Date;
 
 /**
@@ -45,6 +46,100 @@ public class CommonInterface {
         void onLoaderFinished(NetworkRequestOkHttp networkRequestOkHttp, Response networkResponse, String data) throws IOException;
     }
 
+    /**
+     * ストリーミング解析Loaderインタフェース(Volley)
+     * <p>
+     * 大きなJSONをレスポンス全体の文字列を生成せずに解析する場合に使用する。
+     * </p>
+     *
+     * @param <T>
+     *            解析結果の型
+     * @author y-miyazaki
+     */
+    public interface OnStreamLoaderFinishListener<T> {
+        /**
+         * <b>ストリーミング解析メソッド</b>
+         * <p>
+         * このメソッドはVolleyのディスパッチャースレッドでコールされる。<br>
+         * ※本メソッド内ではView側の処理を記載しないこと。readerからモデルを生成して返却する。<br>
+         * </p>
+         *
+         * @param networkRequest
+         *            {@link NetworkRequest}
+         * @param networkResponse
+         *            {@link NetworkResponse}
+         * @param reader
+         *            レスポンスボディの{@link Reader}
+         * @return 解析結果
+         * @throws IOException
+         *             IOException
+         */
+        T onStreamParse(NetworkRequest networkRequest, NetworkResponse networkResponse, Reader reader) throws IOException;
+
+        /**
+         * 各種通信処理完了後にコールされるメソッド
+         * <p>
+         * onStreamParseコール後にメインスレッドで本メソッドがコールされる。通信・解析エラーの場合はdataにnullが設定される。<br>
+         * ※本メソッド内ではView側の処理を記載すること。<br>
+         * </p>
+         *
+         * @param networkRequest
+         *            {@link NetworkRequest}
+         * @param networkResponse
+         *            {@link NetworkResponse}
+         * @param data
+         *            解析結果
+         */
+        void onStreamLoadView(NetworkRequest networkRequest, NetworkResponse networkResponse, T data);
+    }
+
+    /**
+     * ストリーミング解析Loaderインタフェース(OkHttp)
+     * <p>
+     * 大きなJSONをレスポンス全体の文字列を生成せずに解析する場合に使用する。
+     * </p>
+     *
+     * @param <T>
+     *            解析結果の型
+     * @author y-miyazaki
+     */
+    public interface OnOkHttpStreamLoaderFinishListener<T> {
+        /**
+         * <b>ストリーミング解析メソッド</b>
+         * <p>
+         * このメソッドはOkHttpのスレッドでコールされる。<br>
+         * ※本メソッド内ではView側の処理を記載しないこと。readerからモデルを生成して返却する。<br>
+         * </p>
+         *
+         * @param networkRequestOkHttp
+         *            {@link NetworkRequestOkHttp}
+         * @param networkResponse
+         *            {@link Response}
+         * @param reader
+         *            レスポンスボディの{@link Reader}
+         * @return 解析結果
+         * @throws IOException
+         *             IOException
+         */
+        T onStreamParse(NetworkRequestOkHttp networkRequestOkHttp, Response networkResponse, Reader reader) throws IOException;
+
+        /**
+         * 各種通信処理完了後にコールされるメソッド
+         * <p>
+         * onStreamParseコール後にメインスレッドで本メソッドがコールされる。通信・解析エラーの場合はdataにnullが設定される。<br>
+         * ※本メソッド内ではView側の処理を記載すること。<br>
+         * </p>
+         *
+         * @param networkRequestOkHttp
+         *            {@link NetworkRequestOkHttp}
+         * @param networkResponse
+         *            {@link Response}
+         * @param data
+         *            解析結果
+         */
+        void onStreamLoadView(NetworkRequestOkHttp networkRequestOkHttp, Response networkResponse, T data);
+    }
+
     /**
      * GetLoaderインタフェース
      *
@@ -76,6 +76,11 @@ public final class BitmapDiskLruCache implements ImageCache {
         if (mDiskLruCache == null) {
             return mBitmapLruCashe.getBitmap(url);
         } else {
+            // ディスクへの書き込み待ちの場合は、書き込み待ちのBitmapを返却する
+            final Bitmap bitmap = BitmapDiskWriteExecutor.getInstance().getPendingBitmap(url);
+            if (bitmap != null) {
+                return bitmap;
+            }
             return mDiskLruCache.get(url);
         }
     }
@@ -85,12 +90,7 @@ public final class BitmapDiskLruCache implements ImageCache {
         if (mDiskLruCache == null) {
             mBitmapLruCashe.putBitmap(url, bitmap);
         } else {
-            new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    mDiskLruCache.put(url, bitmap);
-                }
-            }).start();
+            BitmapDiskWriteExecutor.getInstance().execute(url, mDiskLruCache, bitmap);
         }
     }
 }
@@ -0,0 +1,243 @@
+package com.miya38.connection;
+
+import android.graphics.Bitmap;
+import android.os.Process;
+import android.os.SystemClock;
+
+import com.miya38.utils.DiskLruCache;
+import com.miya38.utils.LogUtils;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * シングルトンBitmapディスク書き込みクラス
+ * <p>
+ * {@link BitmapLDCache}/{@link BitmapDiskLruCache}のディスク書き込みを、put毎にスレッドを生成せず固定数のワーカースレッドでまとめて行う。<br>
+ * 同じURLの書き込みが待機中の場合は1件にまとめ、待機数が上限を超えた場合は古いものから破棄する。
+ * </p>
+ *
+ * @author y-miyazaki
+ */
+public final class BitmapDiskWriteExecutor {
+    /** ログに付与するタグ */
+    private static final String TAG = BitmapDiskWriteExecutor.class.getSimpleName();
+    /** ワーカースレッド数 */
+    private static final int DEFAULT_THREAD_POOL_SIZE = 2;
+    /** 待機可能な書き込み数 */
+    private static final int DEFAULT_MAX_PENDING = 64;
+    /** シングルトンBitmapDiskWriteExecutor */
+    private static BitmapDiskWriteExecutor sBitmapDiskWriteExecutor;
+
+    /** 待機中の書き込み(key:URL) このオブジェクト自体をロックとして使用する */
+    private final LinkedHashMap<String, PendingWrite> mPendingWrites = new LinkedHashMap<String, PendingWrite>();
+    /** 待機可能な書き込み数 */
+    private final int mMaxPending;
+    /** 書き込み中のBitmap(key:URL mPendingWritesでロック) */
+    private final HashMap<String, Bitmap> mActiveWrites = new HashMap<String, Bitmap>();
+    /** 同じURLでまとめた数(mPendingWritesでロック) */
+    private long mCoalescedCount;
+    /** 上限超過で破棄した数(mPendingWritesでロック) */
+    private long mDroppedCount;
+
+    /**
+     * コンストラクタ
+     *
+     * @param threadPoolSize
+     *         ワーカースレッド数
+     * @param maxPending
+     *         待機可能な書き込み数
+     */
+    private BitmapDiskWriteExecutor(final int threadPoolSize, final int maxPending) {
+        mMaxPending = maxPending;
+        for (int i = 0; i < threadPoolSize; i++) {
+            final Thread thread = new Thread(new Worker(), TAG + "-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * インスタンス取得
+     *
+     * @return {@link BitmapDiskWriteExecutor}
+     */
+    public static synchronized BitmapDiskWriteExecutor getInstance() {
+        if (sBitmapDiskWriteExecutor == null) {
+            sBitmapDiskWriteExecutor = new BitmapDiskWriteExecutor(DEFAULT_THREAD_POOL_SIZE, DEFAULT_MAX_PENDING);
+        }
+        return sBitmapDiskWriteExecutor;
+    }
+
+    /**
+     * ディスク書き込み登録
+     * <p>
+     * 同じURLが待機中の場合は新しいBitmapで置き換える。待機数が上限に達している場合は最も古い書き込みを破棄する。
+     * </p>
+     *
+     * @param url
+     *         URL
+     * @param diskLruCache
+     *         書き込み先の{@link DiskLruCache}
+     * @param bitmap
+     *         {@link Bitmap}
+     */
+    public void execute(final String url, final DiskLruCache diskLruCache, final Bitmap bitmap) {
+        synchronized (mPendingWrites) {
+            final PendingWrite pendingWrite = mPendingWrites.get(url);
+            if (pendingWrite != null) {
+                pendingWrite.mDiskLruCache = diskLruCache;
+                pendingWrite.mBitmap = bitmap;
+                mCoalescedCount++;
+                return;
+            }
+            if (mPendingWrites.size() >= mMaxPending) {
+                final Iterator<String> iterator = mPendingWrites.keySet().iterator();
+                iterator.next();
+                iterator.remove();
+                mDroppedCount++;
+            }
+            mPendingWrites.put(url, new PendingWrite(url, diskLruCache, bitmap));
+            mPendingWrites.notifyAll();
+        }
+    }
+
+    /**
+     * 書き込み待ちBitmap取得
+     * <p>
+     * ディスクへの書き込みが完了する前に同じURLが参照された場合に使用する。
+     * </p>
+     *
+     * @param url
+     *         URL
+     * @return 書き込み待ちの{@link Bitmap} 存在しない場合はnull
+     */
+    public Bitmap getPendingBitmap(final String url) {
+        synchronized (mPendingWrites) {
+            final PendingWrite pendingWrite = mPendingWrites.get(url);
+            return pendingWrite != null ? pendingWrite.mBitmap : mActiveWrites.get(url);
+        }
+    }
+
+    /**
+     * 書き込み完了待ち
+     * <p>
+     * 待機中・書き込み中の全てのBitmapがディスクに書き込まれるまで待つ。テストや終了処理で使用する。
+     * </p>
+     *
+     * @param timeoutMs
+     *         タイムアウト(ミリ秒)
+     * @return true:全て完了 false:タイムアウト
+     * @throws InterruptedException
+     *         割り込みが発生した場合
+     */
+    public boolean flush(final long timeoutMs) throws InterruptedException {
+        final long deadline = SystemClock.elapsedRealtime() + timeoutMs;
+        synchronized (mPendingWrites) {
+            while (!mPendingWrites.isEmpty() || !mActiveWrites.isEmpty()) {
+                final long remaining = deadline - SystemClock.elapsedRealtime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                mPendingWrites.wait(remaining);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @return 待機中の書き込み数
+     */
+    public int getPendingCount() {
+        synchronized (mPendingWrites) {
+            return mPendingWrites.size();
+        }
+    }
+
+    /**
+     * @return 同じURLでまとめた数
+     */
+    public long getCoalescedCount() {
+        synchronized (mPendingWrites) {
+            return mCoalescedCount;
+        }
+    }
+
+    /**
+     * @return 上限超過で破棄した数
+     */
+    public long getDroppedCount() {
+        synchronized (mPendingWrites) {
+            return mDroppedCount;
+        }
+    }
+
+    // ----------------------------------------------------------
+    // インナークラス
+    // ----------------------------------------------------------
+
+    /**
+     * 書き込み待ちクラス
+     */
+    private static final class PendingWrite {
+        /** URL */
+        private final String mUrl;
+        /** 書き込み先 */
+        private DiskLruCache mDiskLruCache;
+        /** Bitmap */
+        private Bitmap mBitmap;
+
+        /**
+         * コンストラクタ
+         *
+         * @param url
+         *         URL
+         * @param diskLruCache
+         *         書き込み先
+         * @param bitmap
+         *         Bitmap
+         */
+        private PendingWrite(final String url, final DiskLruCache diskLruCache, final Bitmap bitmap) {
+            mUrl = url;
+            mDiskLruCache = diskLruCache;
+            mBitmap = bitmap;
+        }
+    }
+
+    /**
+     * ワーカークラス
+     */
+    private final class Worker implements Runnable {
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            while (true) {
+                final PendingWrite pendingWrite;
+                synchronized (mPendingWrites) {
+                    while (mPendingWrites.isEmpty()) {
+                        try {
+                            mPendingWrites.wait();
+                        } catch (final InterruptedException e) {
+                            return;
+                        }
+                    }
+                    final Iterator<PendingWrite> iterator = mPendingWrites.values().iterator();
+                    pendingWrite = iterator.next();
+                    iterator.remove();
+                    mActiveWrites.put(pendingWrite.mUrl, pendingWrite.mBitmap);
+                }
+                try {
+                    pendingWrite.mDiskLruCache.put(pendingWrite.mUrl, pendingWrite.mBitmap);
+                } catch (final RuntimeException e) {
+                    LogUtils.e(TAG, "write Error url = %s", e, pendingWrite.mUrl);
+                } finally {
+                    synchronized (mPendingWrites) {
+                        mActiveWrites.remove(pendingWrite.mUrl);
+                        mPendingWrites.notifyAll();
+                    }
+                }
+            }
+        }
+    }
+}
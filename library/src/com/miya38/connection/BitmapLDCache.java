@@ -88,7 +88,10 @@ public final class BitmapLDCache implements ImageCache {
             return bitmap;
         }
         if (mDiskLruCache != null) {
-            bitmap = mDiskLruCache.get(url);
+            bitmap = BitmapDiskWriteExecutor.getInstance().getPendingBitmap(url);
+            if (bitmap == null) {
+                bitmap = mDiskLruCache.get(url);
+            }
             if (bitmap != null) {
                 LogUtils.d(TAG, "disk cache url = %s", url);
                 mCache.put(url, bitmap);
@@ -99,14 +102,10 @@ public final class BitmapLDCache implements ImageCache {
 
     @Override
     public void putBitmap(final String url, final Bitmap bitmap) {
-        new Thread(new Runnable() {
-            @Override
-            public void run() {
-                mCache.put(url, bitmap);
-                if (mDiskLruCache != null) {
-                    mDiskLruCache.put(url, bitmap);
-                }
-            }
-        }).start();
+        // 直後のgetBitmapでヒットさせるため、メモリキャッシュは呼び出し元スレッドで設定する
+        mCache.put(url, bitmap);
+        if (mDiskLruCache != null) {
+            BitmapDiskWriteExecutor.getInstance().execute(url, mDiskLruCache, bitmap);
+        }
     }
 }
@@ -0,0 +1,151 @@
+package com.miya38.connection;
+
+import java.util.Map;
+
+/**
+ * HTTPトレースレコードクラス
+ * <p>
+ * {@link HttpTracer}に渡すリクエスト・レスポンスのメタデータを保持する。<br>
+ * 通信スレッドでは値の参照・上限サイズまでのボディのコピーのみを行い、文字列の整形は{@link HttpTracer}のバックグラウンドスレッドで行う。
+ * </p>
+ *
+ * @author y-miyazaki
+ */
+public class HttpTraceRecord {
+    /**
+     * 通信ライブラリ名(Volley/OkHttp)
+     */
+    public String mStack;
+    /**
+     * 記録時刻(ミリ秒)
+     */
+    public long mTimeMillis;
+    /**
+     * リクエストID
+     */
+    public int mId;
+    /**
+     * リクエストメソッド名(GET/POST/PUT/DELETE)
+     */
+    public String mMethod;
+    /**
+     * URL
+     */
+    public String mUrl;
+    /**
+     * リクエストヘッダー
+     */
+    public String[] mRequestHeaders;
+    /**
+     * リクエストボディ(上限サイズまで)
+     */
+    public String mRequestBody;
+    /**
+     * ステータスコード(レスポンスが無い場合は0)
+     */
+    public int mStatusCode;
+    /**
+     * レスポンスヘッダー(名前・値の順に格納)
+     */
+    public String[] mResponseHeaders;
+    /**
+     * レスポンスボディ(上限サイズまで)
+     */
+    public byte[] mResponseBody;
+    /**
+     * レスポンスボディ(文字列で受信した場合 上限文字数まで)
+     */
+    public String mResponseText;
+    /**
+     * レスポンスボディの全体サイズ(byte 文字列で受信した場合は文字数)
+     */
+    public int mResponseBodyLength;
+    /**
+     * レスポンスボディの文字コード
+     */
+    public String mCharset;
+    /**
+     * エラー(正常時はnull)
+     */
+    public Throwable mError;
+
+    /**
+     * リクエストヘッダー設定
+     *
+     * @param headers
+     *         リクエストヘッダー
+     */
+    public void setRequestHeaders(final Map<String, String> headers) {
+        if (headers == null) {
+            return;
+        }
+        final String[] pairs = new String[headers.size() * 2];
+        int i = 0;
+        for (final Map.Entry<String, String> e : headers.entrySet()) {
+            pairs[i++] = e.getKey();
+            pairs[i++] = e.getValue();
+        }
+        mRequestHeaders = pairs;
+    }
+
+    /**
+     * リクエストボディ設定
+     *
+     * @param body
+     *         リクエストボディ
+     * @param maxChars
+     *         上限文字数
+     */
+    public void setRequestBody(final String body, final int maxChars) {
+        mRequestBody = body != null && body.length() > maxChars ? body.substring(0, maxChars) : body;
+    }
+
+    /**
+     * レスポンスボディ設定
+     * <p>
+     * 上限サイズを超える部分はコピーしない。
+     * </p>
+     *
+     * @param body
+     *         レスポンスボディ
+     * @param maxBytes
+     *         上限サイズ(byte)
+     */
+    public void setResponseBody(final byte[] body, final int maxBytes) {
+        if (body == null) {
+            return;
+        }
+        final int length = Math.min(body.length, maxBytes);
+        mResponseBody = new byte[length];
+        System.arraycopy(body, 0, mResponseBody, 0, length);
+        mResponseBodyLength = body.length;
+    }
+
+    /**
+     * レスポンスボディ設定(文字列)
+     *
+     * @param body
+     *         レスポンスボディ
+     * @param maxChars
+     *         上限文字数
+     */
+    public void setResponseBody(final String body, final int maxChars) {
+        if (body == null) {
+            return;
+        }
+        mResponseText = body.length() > maxChars ? body.substring(0, maxChars) : body;
+        mResponseBodyLength = body.length();
+    }
+
+    /**
+     * レスポンスボディが上限サイズで切り詰められているか
+     *
+     * @return true:切り詰めあり false:全体を保持
+     */
+    public boolean isResponseBodyTruncated() {
+        if (mResponseText != null) {
+            return mResponseText.length() < mResponseBodyLength;
+        }
+        return mResponseBody != null && mResponseBody.length < mResponseBodyLength;
+    }
+}
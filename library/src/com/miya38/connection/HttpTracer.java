@@ -0,0 +1,454 @@
+package com.miya38.connection;
+
+import android.os.Process;
+
+import com.miya38.utils.LogUtils;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * シングルトンHTTPトレースクラス
+ * <p>
+ * 通信スレッドでは{@link HttpTraceRecord}を固定長のリングバッファに格納するだけとし、ログ文字列の整形・JSONの整形は低優先度のバックグラウンドスレッドで行う。<br>
+ * 整形が追いつかない場合は古いレコードから上書きする。ボディサイズの上限・サンプリング率・エンドポイント毎のサンプリング率を設定できるため、
+ * ステージング環境でもレイテンシに影響を与えずにトレースを有効にしておける。
+ * </p>
+ *
+ * @author y-miyazaki
+ */
+public final class HttpTracer {
+    /** ログに付与するタグ */
+    private static final String TAG = HttpTracer.class.getSimpleName();
+    /** リングバッファのサイズ */
+    private static final int DEFAULT_CAPACITY = 64;
+    /** ボディの上限サイズ(byte) */
+    private static final int DEFAULT_MAX_BODY_BYTES = 16 * 1024;
+    /** JSON整形時のインデント */
+    private static final int JSON_INDENT = 4;
+    /** Content-Type */
+    private static final String HEADER_CONTENT_TYPE = "Content-Type";
+    /** Content-Type: application/json */
+    private static final String HEADER_CONTENT_TYPE_APPLICATION_JSON = "application/json";
+    /** シングルトンHttpTracer */
+    private static HttpTracer sHttpTracer;
+
+    /** リングバッファ このオブジェクト自体をロックとして使用する */
+    private final HttpTraceRecord[] mRing;
+    /** 次に整形するレコードの位置(mRingでロック) */
+    private int mHead;
+    /** 整形待ちレコード数(mRingでロック) */
+    private int mCount;
+    /** 上書きで破棄したレコード数(mRingでロック) */
+    private long mDroppedCount;
+    /** 整形スレッド(mRingでロック) */
+    private Thread mThread;
+
+    /** トレース有効/無効 */
+    private volatile boolean mIsEnabled = true;
+    /** ボディの上限サイズ(byte) */
+    private volatile int mMaxBodyBytes = DEFAULT_MAX_BODY_BYTES;
+    /** 全体のサンプリング率(0.0〜1.0) */
+    private volatile float mSampleRate = 1f;
+    /** エンドポイント毎のサンプリング率(URLに含まれる文字列, サンプリング率) 書き込み時にコピーする */
+    private volatile List<EndpointFilter> mEndpointFilters = new ArrayList<EndpointFilter>();
+    /** サンプリング用乱数 */
+    private final Random mRandom = new Random();
+
+    /**
+     * コンストラクタ
+     *
+     * @param capacity
+     *         リングバッファのサイズ
+     */
+    private HttpTracer(final int capacity) {
+        mRing = new HttpTraceRecord[capacity];
+    }
+
+    /**
+     * インスタンス取得
+     *
+     * @return {@link HttpTracer}
+     */
+    public static synchronized HttpTracer getInstance() {
+        if (sHttpTracer == null) {
+            sHttpTracer = new HttpTracer(DEFAULT_CAPACITY);
+        }
+        return sHttpTracer;
+    }
+
+    /**
+     * トレース有効/無効設定
+     *
+     * @param isEnabled
+     *         true:有効 false:無効
+     */
+    public void setEnabled(final boolean isEnabled) {
+        mIsEnabled = isEnabled;
+    }
+
+    /**
+     * @return true:有効 false:無効
+     */
+    public boolean isEnabled() {
+        return mIsEnabled;
+    }
+
+    /**
+     * ボディの上限サイズ設定
+     *
+     * @param maxBodyBytes
+     *         上限サイズ(byte) これを超える部分は記録しない
+     */
+    public void setMaxBodyBytes(final int maxBodyBytes) {
+        mMaxBodyBytes = maxBodyBytes;
+    }
+
+    /**
+     * @return ボディの上限サイズ(byte)
+     */
+    public int getMaxBodyBytes() {
+        return mMaxBodyBytes;
+    }
+
+    /**
+     * 全体のサンプリング率設定
+     *
+     * @param sampleRate
+     *         0.0(記録しない)〜1.0(全て記録)
+     */
+    public void setSampleRate(final float sampleRate) {
+        mSampleRate = sampleRate;
+    }
+
+    /**
+     * エンドポイント毎のサンプリング率設定
+     * <p>
+     * URLにpatternを含むリクエストは、全体のサンプリング率の代わりにこのサンプリング率を使用する。先に登録したものが優先される。<br>
+     * 0.0を指定するとそのエンドポイントはトレースしない。
+     * </p>
+     *
+     * @param pattern
+     *         URLに含まれる文字列
+     * @param sampleRate
+     *         0.0(記録しない)〜1.0(全て記録)
+     */
+    public synchronized void setEndpointSampleRate(final String pattern, final float sampleRate) {
+        final List<EndpointFilter> filters = new ArrayList<EndpointFilter>(mEndpointFilters);
+        for (int i = 0; i < filters.size(); i++) {
+            if (filters.get(i).mPattern.equals(pattern)) {
+                filters.set(i, new EndpointFilter(pattern, sampleRate));
+                mEndpointFilters = filters;
+                return;
+            }
+        }
+        filters.add(new EndpointFilter(pattern, sampleRate));
+        mEndpointFilters = filters;
+    }
+
+    /**
+     * エンドポイント毎のサンプリング率を全て削除する
+     */
+    public synchronized void clearEndpointSampleRates() {
+        mEndpointFilters = new ArrayList<EndpointFilter>();
+    }
+
+    /**
+     * トレース対象判定
+     * <p>
+     * 通信スレッドで{@link HttpTraceRecord}を生成する前に呼び、falseの場合は何もしないこと。
+     * </p>
+     *
+     * @param url
+     *         URL
+     * @return true:トレース対象 false:対象外
+     */
+    public boolean isTraced(final String url) {
+        if (!mIsEnabled) {
+            return false;
+        }
+        float sampleRate = mSampleRate;
+        final List<EndpointFilter> filters = mEndpointFilters;
+        if (url != null) {
+            for (int i = 0; i < filters.size(); i++) {
+                final EndpointFilter filter = filters.get(i);
+                if (url.contains(filter.mPattern)) {
+                    sampleRate = filter.mSampleRate;
+                    break;
+                }
+            }
+        }
+        if (sampleRate >= 1f) {
+            return true;
+        }
+        return sampleRate > 0f && mRandom.nextFloat() < sampleRate;
+    }
+
+    /**
+     * レコード追加
+     * <p>
+     * リングバッファに格納してバックグラウンドスレッドに通知するだけで、整形は行わない。
+     * </p>
+     *
+     * @param record
+     *         {@link HttpTraceRecord}
+     */
+    public void trace(final HttpTraceRecord record) {
+        record.mTimeMillis = System.currentTimeMillis();
+        synchronized (mRing) {
+            if (mCount == mRing.length) {
+                // 最も古いレコードを上書きする
+                mRing[mHead] = null;
+                mHead = (mHead + 1) % mRing.length;
+                mCount--;
+                mDroppedCount++;
+            }
+            mRing[(mHead + mCount) % mRing.length] = record;
+            mCount++;
+            if (mThread == null) {
+                mThread = new Thread(new Formatter(), TAG);
+                mThread.setDaemon(true);
+                mThread.start();
+            }
+            mRing.notifyAll();
+        }
+    }
+
+    /**
+     * @return 上書きで破棄したレコード数
+     */
+    public long getDroppedCount() {
+        synchronized (mRing) {
+            return mDroppedCount;
+        }
+    }
+
+    // ----------------------------------------------------------
+    // 整形
+    // ----------------------------------------------------------
+
+    /**
+     * レコード整形
+     *
+     * @param record
+     *         {@link HttpTraceRecord}
+     * @return ログ文字列
+     */
+    private static String format(final HttpTraceRecord record) {
+        final StringBuilder log = new StringBuilder(256);
+        log.append("----------------------------------------start");
+        if (record.mError != null) {
+            log.append("(error)");
+        }
+        log.append("----------------------------------------\n");
+        log.append("■request ").append(record.mStack).append('\n');
+        appendLine(log, "url", record.mUrl);
+        appendLine(log, "method", record.mMethod);
+        appendLine(log, "body", record.mRequestBody);
+        appendLine(log, "id", String.valueOf(record.mId));
+        appendHeaders(log, record.mRequestHeaders);
+
+        String contentType = null;
+        long sentMillis = 0;
+        long receivedMillis = 0;
+        log.append("\n■response\n");
+        if (record.mStatusCode != 0) {
+            appendLine(log, "status code", String.valueOf(record.mStatusCode));
+        }
+        final String[] responseHeaders = record.mResponseHeaders;
+        if (responseHeaders != null) {
+            appendHeaders(log, responseHeaders);
+            for (int i = 0; i + 1 < responseHeaders.length; i += 2) {
+                final String name = responseHeaders[i];
+                final String value = responseHeaders[i + 1];
+                try {
+                    if (HEADER_CONTENT_TYPE.equalsIgnoreCase(name)) {
+                        contentType = value;
+                    } else if ("X-Android-Sent-Millis".equalsIgnoreCase(name) || "OkHttp-Sent-Millis".equalsIgnoreCase(name)) {
+                        sentMillis = Long.parseLong(value);
+                    } else if ("X-Android-Received-Millis".equalsIgnoreCase(name) || "OkHttp-Received-Millis".equalsIgnoreCase(name)) {
+                        receivedMillis = Long.parseLong(value);
+                    }
+                } catch (final NumberFormatException e) {
+                    // 無視する。
+                }
+            }
+        }
+        if (sentMillis != 0 && receivedMillis != 0) {
+            appendLine(log, "time", (receivedMillis - sentMillis) + " msec");
+        }
+
+        final String body = decodeBody(record);
+        if (body != null) {
+            log.append("body = ");
+            if (record.isResponseBodyTruncated()) {
+                log.append("(").append(record.mResponseBodyLength).append(" total, truncated)");
+            }
+            log.append('\n');
+            if (!record.isResponseBodyTruncated() && contentType != null && contentType.contains(HEADER_CONTENT_TYPE_APPLICATION_JSON)) {
+                log.append(prettyPrintJson(body));
+            } else {
+                log.append(body);
+            }
+            log.append('\n');
+        }
+
+        if (record.mError != null) {
+            final StringWriter sw = new StringWriter();
+            final PrintWriter pw = new PrintWriter(sw);
+            record.mError.printStackTrace(pw);
+            pw.flush();
+            log.append("---------- stackTrace(start) ----------\n").append(sw.toString()).append("---------- stackTrace(end) ----------\n");
+        }
+        log.append("---------------------------------------- end ----------------------------------------\n");
+        return log.toString();
+    }
+
+    /**
+     * 1行追加
+     *
+     * @param log
+     *         出力先
+     * @param name
+     *         項目名
+     * @param value
+     *         値
+     */
+    private static void appendLine(final StringBuilder log, final String name, final String value) {
+        log.append(name);
+        for (int i = name.length(); i < 36; i++) {
+            log.append(' ');
+        }
+        log.append("= ").append(value).append('\n');
+    }
+
+    /**
+     * ヘッダー追加
+     *
+     * @param log
+     *         出力先
+     * @param headers
+     *         ヘッダー(名前・値の順に格納)
+     */
+    private static void appendHeaders(final StringBuilder log, final String[] headers) {
+        if (headers == null) {
+            return;
+        }
+        for (int i = 0; i + 1 < headers.length; i += 2) {
+            appendLine(log, "header " + headers[i], headers[i + 1]);
+        }
+    }
+
+    /**
+     * レスポンスボディを文字列に変換する
+     *
+     * @param record
+     *         {@link HttpTraceRecord}
+     * @return ボディ文字列 ボディが無い場合はnull
+     */
+    private static String decodeBody(final HttpTraceRecord record) {
+        if (record.mResponseText != null) {
+            return record.mResponseText;
+        }
+        if (record.mResponseBody == null) {
+            return null;
+        }
+        if (record.mCharset != null) {
+            try {
+                return new String(record.mResponseBody, record.mCharset);
+            } catch (final UnsupportedEncodingException e) {
+                // 既定の文字コードで変換する。
+            }
+        }
+        return new String(record.mResponseBody);
+    }
+
+    /**
+     * JSON整形
+     *
+     * @param body
+     *         JSON文字列
+     * @return 整形後の文字列 JSONでない場合はそのまま返却する
+     */
+    private static String prettyPrintJson(final String body) {
+        try {
+            final String trimmed = body.trim();
+            if (trimmed.startsWith("[")) {
+                return new JSONArray(trimmed).toString(JSON_INDENT);
+            }
+            return new JSONObject(trimmed).toString(JSON_INDENT);
+        } catch (final JSONException e) {
+            return body;
+        } catch (final OutOfMemoryError e) {
+            return body;
+        }
+    }
+
+    // ----------------------------------------------------------
+    // インナークラス
+    // ----------------------------------------------------------
+
+    /**
+     * エンドポイントフィルタークラス
+     */
+    private static final class EndpointFilter {
+        /** URLに含まれる文字列 */
+        private final String mPattern;
+        /** サンプリング率 */
+        private final float mSampleRate;
+
+        /**
+         * コンストラクタ
+         *
+         * @param pattern
+         *         URLに含まれる文字列
+         * @param sampleRate
+         *         サンプリング率
+         */
+        private EndpointFilter(final String pattern, final float sampleRate) {
+            mPattern = pattern;
+            mSampleRate = sampleRate;
+        }
+    }
+
+    /**
+     * 整形スレッドクラス
+     */
+    private final class Formatter implements Runnable {
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
+            while (true) {
+                final HttpTraceRecord record;
+                synchronized (mRing) {
+                    while (mCount == 0) {
+                        try {
+                            mRing.wait();
+                        } catch (final InterruptedException e) {
+                            return;
+                        }
+                    }
+                    record = mRing[mHead];
+                    mRing[mHead] = null;
+                    mHead = (mHead + 1) % mRing.length;
+                    mCount--;
+                }
+                try {
+                    LogUtils.d(TAG, format(record));
+                } catch (final RuntimeException e) {
+                    // ログのエラーは除外する。
+                } catch (final OutOfMemoryError e) {
+                    // 無視する。bodyがでか過ぎて無理なため。
+                }
+            }
+        }
+    }
+}
@@ -21,6 +21,7 @@ import com.miya38.utils.guava.Preconditions;
 import com.squareup.okhttp.Response;
 
 import java.io.IOException;
+import java.io.Reader;
 
 /**
  * コネクション共通処理
@@ -221,6 +222,74 @@ public abstract class AbstractConnectionCommonOkHttp {
         loadingDisplayProgress(true, networkRequestOkHttp.getId(), networkRequestOkHttp.isDisplayProgress()); // ローディング表示をオンにする
     }
 
+    /**
+     * ストリーミング解析ロード完了
+     *
+     * @param networkRequestOkHttp
+     *         リクエストパラメータ
+     * @param response
+     *         受信データ<br>
+     *         ※タイムアウト等の場合はnullが設定される。
+     * @param data
+     *         解析結果 エラーの場合はnull
+     * @param listener
+     *         {@link CommonInterface.OnOkHttpStreamLoaderFinishListener}
+     * @param <T>
+     *         解析結果の型
+     */
+    public <T> void onStreamLoadFinished(final NetworkRequestOkHttp networkRequestOkHttp, final Response response, final T data, final CommonInterface.OnOkHttpStreamLoaderFinishListener<T> listener) {
+        LogUtils.d(TAG, "onStreamLoadFinished");
+
+        // ---------------------------------------------------------------
+        // 通信中にアクティビティが終了するような状況になった場合は、通信イベントの通知を行わない。
+        // ---------------------------------------------------------------
+        if (isFinishing()) {
+            return;
+        }
+
+        listener.onStreamLoadView(networkRequestOkHttp, response, data);
+        // エラー表示
+        if (networkRequestOkHttp.isErrorCheck()) {
+            setError(networkRequestOkHttp, response, data);
+        }
+        loadingDisplayProgress(false, networkRequestOkHttp.getId(), networkRequestOkHttp.isDisplayProgress()); // ローディング表示をオフにする
+    }
+
+    /**
+     * ストリーミング解析リクエストAPI
+     * <p>
+     * レスポンスはOkHttpのスレッドで解析され、メインスレッドには解析結果のみが渡される。大きなJSONを返すAPIで使用する。
+     * </p>
+     *
+     * @param networkRequestOkHttp
+     *         {@link NetworkRequestOkHttp}
+     * @param listener
+     *         {@link CommonInterface.OnOkHttpStreamLoaderFinishListener}
+     * @param <T>
+     *         解析結果の型
+     */
+    public final <T> void requestStreamAPI(final NetworkRequestOkHttp networkRequestOkHttp, final CommonInterface.OnOkHttpStreamLoaderFinishListener<T> listener) {
+        Preconditions.checkNotNull(networkRequestOkHttp, "networkRequest should not be null.");
+        Preconditions.checkNotNull(listener, "listener should not be null.");
+        ApiRequestOkHttp.request(networkRequestOkHttp, new ApiRequestOkHttp.OkHttpStreamCallbackListener<T>() {
+            @Override
+            public T parse(final Response response, final Reader reader) throws IOException {
+                return listener.onStreamParse(networkRequestOkHttp, response, reader);
+            }
+
+            @Override
+            public void onFailure(final Response response, final Throwable throwable) {
+                onStreamLoadFinished(networkRequestOkHttp, response, null, listener);
+            }
+
+            @Override
+            public void onSuccess(final Response response, final T result) {
+                onStreamLoadFinished(networkRequestOkHttp, response, result, listener);
+            }
+        });
+        loadingDisplayProgress(true, networkRequestOkHttp.getId(), networkRequestOkHttp.isDisplayProgress()); // ローディング表示をオンにする
+    }
+
     /**
      * 画面にプログレスバーを表示するか
      *
@@ -4,9 +4,12 @@ import android.os.Handler;
 import android.os.Looper;
 
 import com.miya38.BuildConfig;
+import com.miya38.connection.HttpTraceRecord;
+import com.miya38.connection.HttpTracer;
 import com.miya38.utils.CollectionUtils;
 import com.miya38.utils.CookieUtils;
-import com.miya38.utils.LogUtils;
+import com.miya38.utils.IOUtils;
+import com.miya38.utils.StreamUtils;
 import com.miya38.utils.StringUtils;
 import com.squareup.okhttp.Headers;
 import com.squareup.okhttp.MediaType;
@@ -15,16 +18,12 @@ import com.squareup.okhttp.Request;
 import com.squareup.okhttp.RequestBody;
 import com.squareup.okhttp.Response;
 
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedInputStream;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.Charset;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
-import java.util.zip.GZIPInputStream;
 
 /**
  * リクエストクラス(OkHttp)
@@ -35,14 +34,8 @@ public final class ApiRequestOkHttp {
     // ---------------------------------------------------------------
     // define
     // ---------------------------------------------------------------
-    /** ログに付与するタグ */
-    private static final String TAG = ApiRequestOkHttp.class.getSimpleName();
-    /** Content-Type */
-    private static final String HEADER_CONTENT_TYPE = "Content-Type";
     /** Content-Type: text/plain */
     private static final String HEADER_CONTENT_TYPE_TEXT_PLAIN = "text/plain";
-    /** Content-Type: application/json */
-    private static final String HEADER_CONTENT_TYPE_APPLICATION_JSON = "application/json";
 
     /** コネクションタイムアウト(秒) */
     private static final int CONNECTION_TIMEOUT_SECOND = 20;
@@ -57,6 +50,9 @@ public final class ApiRequestOkHttp {
     /** Set-Cookie */
     private static final String HEADER_SET_COOKIE = "Set-Cookie";
 
+    /** トレースに記録する通信ライブラリ名 */
+    private static final String TRACE_STACK = "OkHttp";
+
     /** JSON */
     public static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
 
@@ -67,6 +63,8 @@ public final class ApiRequestOkHttp {
     private static OkHttpClient sOkHttpClient;
     /** WebView Cookie設定 */
     private static boolean sIsWebViewCookie;
+    /** デバッグ設定 */
+    private static boolean sIsDebuggable = BuildConfig.DEBUG;
 
     /**
      * プライベートコンストラクタ
@@ -76,10 +74,22 @@ public final class ApiRequestOkHttp {
 
     /**
      * OkHttpClient取得
+     * <p>
+     * Volleyの{@link com.miya38.connection.volley.OkHttpStack}もこのクライアントを共有し、コネクションプール・DNSキャッシュ・レスポンスキャッシュを共通にする。
+     * </p>
      *
      * @return OkHttpClient
      */
-    private static OkHttpClient getNewOkHttpClient() {
+    public static OkHttpClient getOkHttpClient() {
+        return getNewOkHttpClient();
+    }
+
+    /**
+     * OkHttpClient取得
+     *
+     * @return OkHttpClient
+     */
+    private static synchronized OkHttpClient getNewOkHttpClient() {
         if (sOkHttpClient == null) {
             sOkHttpClient = new OkHttpClient();
             sOkHttpClient.setConnectTimeout(CONNECTION_TIMEOUT_SECOND, TimeUnit.SECONDS);
@@ -110,6 +120,19 @@ public final class ApiRequestOkHttp {
         okHttpClient.setReadTimeout(seconds, TimeUnit.SECONDS);
     }
 
+    /**
+     * デバッグ設定
+     * <p>
+     * 有効な場合は{@link HttpTracer}にリクエスト・レスポンスを記録する。デフォルトはBuildConfig.DEBUGである。
+     * </p>
+     *
+     * @param isDebugable
+     *         true:デバッグ情報出力/false:デバッグ情報未出力
+     */
+    public static void setDebugable(boolean isDebugable) {
+        sIsDebuggable = isDebugable;
+    }
+
     /**
      * WebView Cookie自動設定
      *
@@ -139,6 +162,51 @@ public final class ApiRequestOkHttp {
      *         コールバックリスナー
      */
     public static void requestGet(NetworkRequestOkHttp networkRequestOkHttp, OkHttpCallbackListener callbackListener) {
+        execute(networkRequestOkHttp, createRequestGet(networkRequestOkHttp), callbackListener);
+    }
+
+    /**
+     * POSTリクエスト
+     *
+     * @param networkRequestOkHttp
+     *         リクエスト
+     * @param callbackListener
+     *         コールバックリスナー
+     */
+    public static void requestPost(NetworkRequestOkHttp networkRequestOkHttp, OkHttpCallbackListener callbackListener) {
+        execute(networkRequestOkHttp, createRequestPost(networkRequestOkHttp), callbackListener);
+    }
+
+    /**
+     * ストリーミング解析リクエスト
+     * <p>
+     * レスポンス全体の文字列を生成せず、OkHttpのスレッドで{@link OkHttpStreamCallbackListener#parse(Response, Reader)}によりモデルを生成する。<br>
+     * メインスレッドには生成したモデルのみが渡される。
+     * </p>
+     *
+     * @param networkRequestOkHttp
+     *         リクエスト
+     * @param callbackListener
+     *         コールバックリスナー
+     * @param <T>
+     *         解析結果の型
+     */
+    public static <T> void request(NetworkRequestOkHttp networkRequestOkHttp, OkHttpStreamCallbackListener<T> callbackListener) {
+        if (networkRequestOkHttp.getMethod() == NetworkRequestOkHttp.Method.GET) {
+            executeStream(networkRequestOkHttp, createRequestGet(networkRequestOkHttp), callbackListener);
+        } else if (networkRequestOkHttp.getMethod() == NetworkRequestOkHttp.Method.POST) {
+            executeStream(networkRequestOkHttp, createRequestPost(networkRequestOkHttp), callbackListener);
+        }
+    }
+
+    /**
+     * GETリクエスト生成
+     *
+     * @param networkRequestOkHttp
+     *         リクエスト
+     * @return {@link Request}
+     */
+    private static Request createRequestGet(NetworkRequestOkHttp networkRequestOkHttp) {
         Request.Builder requestBuilder = new Request.Builder().
                 url(networkRequestOkHttp.getUrl()).
                 get();
@@ -149,19 +217,17 @@ public final class ApiRequestOkHttp {
                 requestBuilder.addHeader(e.getKey(), e.getValue());
             }
         }
-        final Request request = requestBuilder.build();
-        execute(networkRequestOkHttp, request, callbackListener);
+        return requestBuilder.build();
     }
 
     /**
-     * POSTリクエスト
+     * POSTリクエスト生成
      *
      * @param networkRequestOkHttp
      *         リクエスト
-     * @param callbackListener
-     *         コールバックリスナー
+     * @return {@link Request}
      */
-    public static void requestPost(NetworkRequestOkHttp networkRequestOkHttp, OkHttpCallbackListener callbackListener) {
+    private static Request createRequestPost(NetworkRequestOkHttp networkRequestOkHttp) {
         Request.Builder requestBuilder = new Request.Builder().
                 url(networkRequestOkHttp.getUrl()).
                 post(RequestBody.create(MediaType.parse(HEADER_CONTENT_TYPE_TEXT_PLAIN), networkRequestOkHttp.getBody()));
@@ -172,8 +238,7 @@ public final class ApiRequestOkHttp {
                 requestBuilder.addHeader(e.getKey(), e.getValue());
             }
         }
-        final Request request = requestBuilder.build();
-        execute(networkRequestOkHttp, request, callbackListener);
+        return requestBuilder.build();
     }
 
     /**
@@ -193,34 +258,11 @@ public final class ApiRequestOkHttp {
             @Override
             public void onFailure(final Request request, final IOException e) {
                 // ---------------------------------------------------------------
-                // ログ出力
-                // コンパイラ考慮のため、BuildConfig.DEBUGでここは判定する
+                // トレース出力
+                // 整形はHttpTracerのバックグラウンドスレッドで行う。
                 // ---------------------------------------------------------------
-                if (BuildConfig.DEBUG) {
-                    try {
-                        final StringBuffer log = new StringBuffer();
-                        StringUtils.appendBufferFormat(log, "----------------------------------------start(error)----------------------------------------\n");
-                        StringUtils.appendBufferFormat(log, "■request\n");
-                        // URL出力
-                        StringUtils.appendBufferFormat(log, "url                             = %s\n", request.urlString());
-                        // メソッド出力
-                        StringUtils.appendBufferFormat(log, "method                          = %s\n", request.method());
-                        // Body出力
-                        StringUtils.appendBufferFormat(log, "body                            = %s\n", networkRequestOkHttp.getBody());
-                        // リクエストID出力
-                        StringUtils.appendBufferFormat(log, "id                              = %s\n", networkRequestOkHttp.getId());
-
-                        // リクエストヘッダー出力
-                        final Headers requestHeaders = request.headers();
-                        for (final String headerName : requestHeaders.names()) {
-                            StringUtils.appendBufferFormat(log, "header %-24s = %s\n", headerName, requestHeaders.get(headerName));
-                        }
-                        StringUtils.appendBuffer(log, "---------- volley stackTrace(start) ----------\n", e.toString(), "---------- volley stackTrace(end) ----------\n");
-                        StringUtils.appendBufferFormat(log, "---------------------------------------- end(error) ----------------------------------------\n");
-                        LogUtils.d(TAG, log.toString());
-                    } catch (Exception e1) {
-                        // エラー関連はログなので握りつぶす
-                    }
+                if (sIsDebuggable && HttpTracer.getInstance().isTraced(request.urlString())) {
+                    HttpTracer.getInstance().trace(createTraceRecord(networkRequestOkHttp, request, null, null, e));
                 }
                 mainHandler.post(new Runnable() {
                     @Override
@@ -238,20 +280,11 @@ public final class ApiRequestOkHttp {
                 // ---------------------------------------------------------------
                 // gzip対応
                 // ---------------------------------------------------------------
-                final Headers responseHeaders = response.headers();
                 try {
                     // ContentTypeが、もしgzipなら解凍する
-                    if (HEADER_CONTENT_ENCODING_GZIP.equalsIgnoreCase(responseHeaders.get(HEADER_CONTENT_ENCODING))) {
-                        final GZIPInputStream zis = new GZIPInputStream(new BufferedInputStream(new ByteArrayInputStream(response.body().bytes())));
-                        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                        final byte[] buffer = new byte[1024];
-                        int count;
-                        while ((count = zis.read(buffer)) != -1) {
-                            baos.write(buffer, 0, count);
-                        }
-                        data = baos.toString();
-                        baos.close();
-                        zis.close();
+                    // 圧縮データをbyte[]に読み込まず、ソケットから読み込みながら共有バッファプールへ解凍する。
+                    if (isGzipped(response)) {
+                        data = StreamUtils.toString(StreamUtils.gzip(response.body().byteStream()), (int) response.body().contentLength() * 4, getCharset(response));
                     } else {
                         data = response.body().string();
                     }
@@ -268,76 +301,11 @@ public final class ApiRequestOkHttp {
                 }
 
                 // ---------------------------------------------------------------
-                // ログ出力
-                // コンパイラ考慮のため、BuildConfig.DEBUGでここは判定する
+                // トレース出力
+                // 整形はHttpTracerのバックグラウンドスレッドで行う。
                 // ---------------------------------------------------------------
-                if (BuildConfig.DEBUG) {
-                    long okHttpReceivedMillis = 0;
-                    long okHttpSentMillis = 0;
-                    try {
-                        final Request request = response.request();
-
-                        final StringBuffer log = new StringBuffer();
-                        StringUtils.appendBufferFormat(log, "----------------------------------------start----------------------------------------\n");
-                        StringUtils.appendBufferFormat(log, "■request\n");
-                        // URL出力
-                        StringUtils.appendBufferFormat(log, "url                             = %s\n", request.urlString());
-                        // メソッド出力
-                        StringUtils.appendBufferFormat(log, "method                          = %s\n", request.method());
-                        // Body出力
-                        StringUtils.appendBufferFormat(log, "body                            = %s\n", networkRequestOkHttp.getBody());
-                        // リクエストID出力
-                        StringUtils.appendBufferFormat(log, "id                              = %s\n", networkRequestOkHttp.getId());
-
-                        // リクエストヘッダー出力
-                        final Headers requestHeaders = request.headers();
-                        for (final String headerName : requestHeaders.names()) {
-                            StringUtils.appendBufferFormat(log, "header %-24s = %s\n", headerName, requestHeaders.get(headerName));
-                        }
-
-                        StringUtils.appendBufferFormat(log, "\n■response\n");
-                        // ステータスコード出力
-                        StringUtils.appendBufferFormat(log, "status %-24s = %s\n", "code", response.code());
-
-                        final int size = responseHeaders.size();
-                        for (int i = 0; i < size; i++) {
-                            final String name = responseHeaders.name(i);
-                            final String value = responseHeaders.value(i);
-                            StringUtils.appendBufferFormat(log, "header %-24s = %s\n", name, value);
-                            // 送信開始時間を取得
-                            if (StringUtils.equals(name, "OkHttp-Sent-Millis")) {
-                                okHttpSentMillis = Long.parseLong(value);
-                            }
-                            // 受信完了時間を取得
-                            if (StringUtils.equals(name, "OkHttp-Received-Millis")) {
-                                okHttpReceivedMillis = Long.valueOf(value);
-                            }
-                        }
-                        if (okHttpSentMillis != 0 && okHttpReceivedMillis != 0) {
-                            StringUtils.appendBufferFormat(log, "time                            = %d msec\n", okHttpReceivedMillis - okHttpSentMillis);
-                        }
-
-                        // BODY出力
-                        try {
-                            StringUtils.appendBuffer(log, "body = \n");
-                            if (StringUtils.contains(responseHeaders.get(HEADER_CONTENT_TYPE), HEADER_CONTENT_TYPE_APPLICATION_JSON)) {
-                                try {
-                                    JSONObject json = new JSONObject(data);
-                                    StringUtils.appendBuffer(log, json.toString(4));
-                                } catch (JSONException e) {
-                                    StringUtils.appendBuffer(log, data);
-                                }
-                            } else {
-                                StringUtils.appendBuffer(log, data);
-                            }
-                            StringUtils.appendBufferFormat(log, "\n---------------------------------------- end ----------------------------------------\n");
-                            LogUtils.d(TAG, log.toString());
-                        } catch (final OutOfMemoryError e) {
-                            // 無視する。bodyがでか過ぎて無理なため。
-                        }
-                    } catch (Exception e) {
-                        // ログのエラーは除外する。
-                    }
+                if (sIsDebuggable && HttpTracer.getInstance().isTraced(request.urlString())) {
+                    HttpTracer.getInstance().trace(createTraceRecord(networkRequestOkHttp, request, response, data, null));
                 }
 
                 mainHandler.post(new Runnable() {
@@ -350,6 +318,186 @@ public final class ApiRequestOkHttp {
         });
     }
 
+    /**
+     * ストリーミング解析実行
+     *
+     * @param networkRequestOkHttp
+     *         ネットワークリクエスト
+     * @param request
+     *         {@link Request}
+     * @param callbackListener
+     *         コールバックリスナー
+     * @param <T>
+     *         解析結果の型
+     */
+    private static <T> void executeStream(final NetworkRequestOkHttp networkRequestOkHttp, final Request request, final OkHttpStreamCallbackListener<T> callbackListener) {
+        final OkHttpClient okHttpClient = getNewOkHttpClient();
+
+        okHttpClient.newCall(request).enqueue(new com.squareup.okhttp.Callback() {
+            final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+            @Override
+            public void onFailure(final Request request, final IOException e) {
+                postFailure(null, e);
+            }
+
+            @Override
+            public void onResponse(final Response response) throws IOException {
+                // ---------------------------------------------------------------
+                // SetCookie
+                // 自動的にWebViewのCookieに書き込みを行う。
+                // ---------------------------------------------------------------
+                if (sIsWebViewCookie) {
+                    setCookie(response);
+                }
+                if (sIsDebuggable && HttpTracer.getInstance().isTraced(request.urlString())) {
+                    HttpTracer.getInstance().trace(createTraceRecord(networkRequestOkHttp, request, response, null, null));
+                }
+
+                // ---------------------------------------------------------------
+                // ストリーミング解析
+                // 文字列を生成せず、OkHttpのスレッドでモデルまで生成する。
+                // 2xx以外のエラーボディは解析せずエラーとして通知する。
+                // 解析の成否に関わらずボディを閉じ、コネクションをリークさせない。
+                // ---------------------------------------------------------------
+                final T result;
+                Reader reader = null;
+                try {
+                    if (!response.isSuccessful()) {
+                        postFailure(response, new IOException("unexpected code " + response.code()));
+                        return;
+                    }
+                    reader = openReader(response);
+                    result = callbackListener.parse(response, reader);
+                } catch (final Exception e) {
+                    postFailure(response, e);
+                    return;
+                } finally {
+                    IOUtils.closeQuietly(reader);
+                    IOUtils.closeQuietly(response.body());
+                }
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callbackListener.onSuccess(response, result);
+                    }
+                });
+            }
+
+            /**
+             * エラー通知
+             *
+             * @param response
+             *         {@link Response}
+             * @param throwable
+             *         {@link Throwable}
+             */
+            private void postFailure(final Response response, final Throwable throwable) {
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callbackListener.onFailure(response, throwable);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * トレースレコード生成
+     *
+     * @param networkRequestOkHttp
+     *         ネットワークリクエスト
+     * @param request
+     *         {@link Request}
+     * @param response
+     *         {@link Response} レスポンスが無い場合はnull
+     * @param data
+     *         レスポンスデータ ストリーミング解析の場合はnull
+     * @param error
+     *         エラー 正常時はnull
+     * @return {@link HttpTraceRecord}
+     */
+    private static HttpTraceRecord createTraceRecord(final NetworkRequestOkHttp networkRequestOkHttp, final Request request, final Response response, final String data, final Throwable error) {
+        final int maxBodyBytes = HttpTracer.getInstance().getMaxBodyBytes();
+        final HttpTraceRecord record = new HttpTraceRecord();
+        record.mStack = TRACE_STACK;
+        record.mId = networkRequestOkHttp.getId();
+        record.mMethod = request.method();
+        record.mUrl = request.urlString();
+        record.mRequestHeaders = toArray(request.headers());
+        record.setRequestBody(networkRequestOkHttp.getBody(), maxBodyBytes);
+        record.mError = error;
+        if (response != null) {
+            record.mStatusCode = response.code();
+            record.mResponseHeaders = toArray(response.headers());
+            record.setResponseBody(data, maxBodyBytes);
+        }
+        return record;
+    }
+
+    /**
+     * ヘッダー配列変換
+     *
+     * @param headers
+     *         {@link Headers}
+     * @return ヘッダー(名前・値の順に格納)
+     */
+    private static String[] toArray(final Headers headers) {
+        final int size = headers.size();
+        final String[] array = new String[size * 2];
+        for (int i = 0; i < size; i++) {
+            array[i * 2] = headers.name(i);
+            array[i * 2 + 1] = headers.value(i);
+        }
+        return array;
+    }
+
+    /**
+     * レスポンスボディの{@link Reader}を返却する
+     * <p>
+     * gzipの場合はソケットから読み込みながら解凍するため、レスポンス全体の文字列を生成せずにJsonReader等のストリーミングパーサーで解析できる。<br>
+     * 使用後は{@link Reader}をクローズすること。
+     * </p>
+     *
+     * @param response
+     *         {@link Response}
+     * @return {@link Reader}
+     * @throws IOException
+     *         読み込みに失敗した場合
+     */
+    public static Reader openReader(final Response response) throws IOException {
+        InputStream inputStream = response.body().byteStream();
+        if (isGzipped(response)) {
+            inputStream = StreamUtils.gzip(inputStream);
+        }
+        return StreamUtils.toReader(inputStream, getCharset(response));
+    }
+
+    /**
+     * gzip判定
+     *
+     * @param response
+     *         {@link Response}
+     * @return true:gzip false:非圧縮(OkHttpが自動解凍した場合を含む)
+     */
+    private static boolean isGzipped(final Response response) {
+        return HEADER_CONTENT_ENCODING_GZIP.equalsIgnoreCase(response.headers().get(HEADER_CONTENT_ENCODING));
+    }
+
+    /**
+     * 文字コード取得
+     *
+     * @param response
+     *         {@link Response}
+     * @return Content-Typeの文字コード 指定が無い場合はUTF-8
+     */
+    private static String getCharset(final Response response) {
+        final MediaType contentType = response.body().contentType();
+        final Charset charset = contentType != null ? contentType.charset() : null;
+        return charset != null ? charset.name() : StringUtils.UTF_8;
+    }
+
     /**
      * set-Cookie設定処理
      *
@@ -395,4 +543,45 @@ public final class ApiRequestOkHttp {
          */
         void onSuccess(Response response, String content);
     }
+
+    /**
+     * ストリーミング解析Callbackインタフェース
+     *
+     * @param <T>
+     *         解析結果の型
+     */
+    public interface OkHttpStreamCallbackListener<T> {
+        /**
+         * レスポンスボディを解析する(OkHttpのスレッド)
+         *
+         * @param response
+         *         {@link Response}
+         * @param reader
+         *         レスポンスボディの{@link Reader} android.util.JsonReader等に渡して使用する
+         * @return 解析結果
+         * @throws IOException
+         *         解析に失敗した場合
+         */
+        T parse(Response response, Reader reader) throws IOException;
+
+        /**
+         * エラーレスポンス(メインスレッド)
+         *
+         * @param response
+         *         {@link Response} 通信エラーの場合はnull
+         * @param throwable
+         *         {@link Throwable}
+         */
+        void onFailure(Response response, Throwable throwable);
+
+        /**
+         * 正常レスポンス(メインスレッド)
+         *
+         * @param response
+         *         {@link Response}
+         * @param result
+         *         解析結果
+         */
+        void onSuccess(Response response, T result);
+    }
 }
@@ -20,14 +20,17 @@ import com.miya38.common.CommonInterface.OnDeleteLoaderFinishListener;
 import com.miya38.common.CommonInterface.OnGetLoaderFinishListerner;
 import com.miya38.common.CommonInterface.OnPostLoaderFinishListener;
 import com.miya38.common.CommonInterface.OnPutLoaderFinishListener;
+import com.miya38.common.CommonInterface.OnStreamLoaderFinishListener;
 import com.miya38.connection.volley.ApiRequestVolley.ApiErrorListener;
 import com.miya38.connection.volley.ApiRequestVolley.ApiListener;
+import com.miya38.connection.volley.ApiRequestVolley.ApiStreamListener;
 import com.miya38.utils.AplUtils;
 import com.miya38.utils.LogUtils;
 import com.miya38.utils.ViewHelper;
 import com.miya38.utils.guava.Preconditions;
 
 import java.io.IOException;
+import java.io.Reader;
 
 /**
  * コネクション共通処理
@@ -271,6 +274,77 @@ public abstract class AbstractConnectionCommonVolley {
         getRequestQueue().add(apiRequestVolley);
     }
 
+    /**
+     * ストリーミング解析ロード完了
+     *
+     * @param networkRequest
+     *         リクエストパラメータ
+     * @param networkResponse
+     *         受信データ(statusCode/header/data/notmodified)<br>
+     *         ※タイムアウト等の場合はnullが設定される。
+     * @param data
+     *         解析結果 エラーの場合はnull
+     * @param listener
+     *         {@link OnStreamLoaderFinishListener}
+     * @param <T>
+     *         解析結果の型
+     */
+    public <T> void onStreamLoadFinished(final NetworkRequest networkRequest, final NetworkResponse networkResponse, final T data, final OnStreamLoaderFinishListener<T> listener) {
+        LogUtils.d(TAG, "onStreamLoadFinished");
+
+        // ---------------------------------------------------------------
+        // 通信中にアクティビティが終了するような状況になった場合は、通信イベントの通知を行わない。
+        // ---------------------------------------------------------------
+        if (isFinishing()) {
+            return;
+        }
+
+        listener.onStreamLoadView(networkRequest, networkResponse, data);
+        // エラー表示
+        if (networkRequest.mIsErrorCheck) {
+            setError(networkRequest, networkResponse, data);
+        }
+        loadingDisplayProgress(false, networkRequest.mId, networkRequest.mIsDisplayProgress); // ローディング表示をオフにする
+    }
+
+    /**
+     * ストリーミング解析リクエストAPI
+     * <p>
+     * レスポンスはディスパッチャースレッドで{@link OnStreamLoaderFinishListener#onStreamParse(NetworkRequest, NetworkResponse, java.io.Reader)}により解析され、
+     * メインスレッドには解析結果のみが渡される。大きなJSONを返すAPIで使用する。
+     * </p>
+     *
+     * @param networkRequest
+     *         {@link NetworkRequest}
+     * @param listener
+     *         {@link OnStreamLoaderFinishListener}
+     * @param <T>
+     *         解析結果の型
+     */
+    public final <T> void requestStreamAPI(final NetworkRequest networkRequest, final OnStreamLoaderFinishListener<T> listener) {
+        Preconditions.checkNotNull(networkRequest, "networkRequest should not be null.");
+        Preconditions.checkNotNull(listener, "listener should not be null.");
+
+        final ApiRequestVolley apiRequestVolley = new ApiRequestVolley(networkRequest, new ApiStreamListener<T>() {
+            @Override
+            public T parse(final NetworkResponse networkResponse, final int id, final Reader reader) throws IOException {
+                return listener.onStreamParse(networkRequest, networkResponse, reader);
+            }
+
+            @Override
+            public void onResponse(final NetworkResponse networkResponse, final int id, final T response) {
+                onStreamLoadFinished(networkRequest, networkResponse, response, listener);
+            }
+        }, new ApiErrorListener() {
+            @Override
+            public void onErrorResponse(final NetworkResponse networkResponse, final int id) {
+                onStreamLoadFinished(networkRequest, networkResponse, null, listener);
+            }
+        });
+        loadingDisplayProgress(true, networkRequest.mId, networkRequest.mIsDisplayProgress); // ローディング表示をオンにする
+        getRequestQueue().add(apiRequestVolley);
+    }
+
     /**
      * 画面にプログレスバーを表示するか
      *
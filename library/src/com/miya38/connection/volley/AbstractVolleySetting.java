@@ -1,15 +1,26 @@
 package com.miya38.connection.volley;
 
 import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
 import android.net.http.AndroidHttpClient;
+import android.os.Handler;
+import android.os.Looper;
+import android.telephony.TelephonyManager;
 import android.util.AndroidRuntimeException;
 
 import com.android.volley.AuthFailureError;
+import com.android.volley.ExecutorDelivery;
+import com.android.volley.FrameBatchingExecutor;
+import com.android.volley.NetworkScheduler;
+import com.android.volley.NetworkScheduler.ConnectionClass;
 import com.android.volley.Request;
 import com.android.volley.RequestQueue;
+import com.android.volley.ResponseDelivery;
 import com.android.volley.toolbox.HttpClientStack;
 import com.android.volley.toolbox.ImageLoader;
 import com.android.volley.toolbox.ImageLoader.ImageCache;
+import com.android.volley.toolbox.RequestMetrics;
 import com.android.volley.toolbox.Volley;
 import com.miya38.utils.AplUtils;
 
@@ -42,9 +53,23 @@ public abstract class AbstractVolleySetting {
     public RequestQueue mRequestQueue;
     /** ImageLoader */
     public ImageLoader mImageLoader;
+    /** リクエストの計測値 */
+    public RequestMetrics mRequestMetrics;
+    /** コネクション再利用の計測値(Gingerbread未満ではnull) */
+    public ConnectionStats mConnectionStats;
     /** Context */
     public static Context sContext;
 
+    /**
+     * Volleyが使用する通信スタック
+     */
+    public enum StackType {
+        /** HttpURLConnection(Gingerbread未満はHttpClient) */
+        HTTP_URL_CONNECTION,
+        /** OkHttp({@link com.miya38.connection.okhttp.ApiRequestOkHttp}とOkHttpClientを共有する) */
+        OK_HTTP
+    }
+
     /**
      * リクエストヘッダ設定
      * <p>
@@ -85,11 +110,34 @@ public abstract class AbstractVolleySetting {
      *            イメージキャッシュ指定(BitmapLruCach/BitmapDiskLruCache)
      */
     protected AbstractVolleySetting(final ImageCache imageCache) {
+        this(imageCache, StackType.HTTP_URL_CONNECTION);
+    }
+
+    /**
+     * コンストラクタを隠蔽し、インスタンス化を禁止します。
+     * 
+     * @param imageCache
+     *            イメージキャッシュ指定(BitmapLruCach/BitmapDiskLruCache)
+     * @param stackType
+     *            通信スタック
+     */
+    protected AbstractVolleySetting(final ImageCache imageCache, final StackType stackType) {
         // ---------------------------------------------------------------
         // Volleyのqueue設定を行う
         // ---------------------------------------------------------------
         if (mRequestQueue == null) {
-            if (AplUtils.hasGingerbread()) {
+            if (stackType == StackType.OK_HTTP) {
+                final OkHttpStack stack = new OkHttpStack() {
+                    @Override
+                    public HttpResponse performRequest(final Request<?> request, final Map<String, String> headers) throws IOException, AuthFailureError {
+                        // ユーザーエージェントを設定します
+                        headers.put("User-Agent", getUserAgent());
+                        putHeaders(headers);
+                        return super.performRequest(request, headers);
+                    }
+                };
+                mRequestQueue = Volley.newRequestQueue(sContext, stack, createDelivery());
+            } else if (AplUtils.hasGingerbread()) {
                 final CustomHurlStack stack = new CustomHurlStack() {
                     @Override
                     protected HttpURLConnection createConnection(final URL url) throws IOException {
@@ -105,7 +153,8 @@ public abstract class AbstractVolleySetting {
                         return super.performRequest(request, headers);
                     }
                 };
-                mRequestQueue = Volley.newRequestQueue(sContext, stack);
+                mConnectionStats = stack.getConnectionStats();
+                mRequestQueue = Volley.newRequestQueue(sContext, stack, createDelivery());
             } else {
                 // Prior to Gingerbread, HttpUrlConnection was unreliable.
                 // See: http://android-developers.blogspot.com/2011/09/androids-http-clients.html
@@ -118,10 +167,37 @@ public abstract class AbstractVolleySetting {
                         return super.performRequest(request, headers);
                     }
                 };
-                mRequestQueue = Volley.newRequestQueue(sContext, stack);
+                mRequestQueue = Volley.newRequestQueue(sContext, stack, createDelivery());
             }
+            mRequestMetrics = new RequestMetrics();
+            mRequestQueue.addRequestFinishedListener(mRequestMetrics);
+            updateConnectionClass();
             mImageLoader = new ImageLoader(mRequestQueue, imageCache);
+            // レスポンスはフレーム毎にまとめて配信されるため、ImageLoader側で配信を遅延させる必要はない
+            mImageLoader.setBatchedResponseDelay(0);
+        }
+    }
+
+    /**
+     * レスポンス配信生成
+     * <p>
+     * レスポンス毎にメインスレッドへメッセージを送らず、フレーム毎にまとめて配信する(1フレームで配信に使う時間の上限を超えた分は次のフレームに回す)。<br>
+     * 優先度がIMMEDIATEのリクエストは即座に配信する。<br>
+     * Jelly Bean以上ではChoreographerでvsyncに合わせ、それ未満では16ミリ秒毎のHandlerでフレームを区切る。
+     * </p>
+     * 
+     * @return {@link ResponseDelivery}
+     */
+    protected ResponseDelivery createDelivery() {
+        final Handler handler = new Handler(Looper.getMainLooper());
+        final FrameBatchingExecutor responsePoster;
+        if (AplUtils.hasJellyBean()) {
+            responsePoster = new FrameBatchingExecutor(handler, FrameBatchingExecutor.DEFAULT_FRAME_BUDGET_NANOS,
+                    new ChoreographerFrameScheduler());
+        } else {
+            responsePoster = new FrameBatchingExecutor(handler);
         }
+        return new ExecutorDelivery(handler, responsePoster);
     }
 
     /**
@@ -142,6 +218,82 @@ public abstract class AbstractVolleySetting {
         return mRequestQueue;
     }
 
+    /**
+     * 通信回線の品質を通信スケジューラーに反映する
+     * <p>
+     * 回線の種類から同時に通信するリクエスト数の上限を決める。回線が切り替わった際(CONNECTIVITY_ACTIONの受信時等)に呼び出すこと。<br>
+     * ACCESS_NETWORK_STATEパーミッションが無い場合は、回線の品質を不明として扱う。
+     * </p>
+     */
+    public void updateConnectionClass() {
+        final NetworkScheduler scheduler = mRequestQueue.getNetworkScheduler();
+        try {
+            final ConnectivityManager conMan = (ConnectivityManager) sContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+            scheduler.setConnectionClass(getConnectionClass(conMan.getActiveNetworkInfo()));
+        } catch (final SecurityException e) {
+            scheduler.setConnectionClass(ConnectionClass.UNKNOWN);
+        }
+    }
+
+    /**
+     * 回線の品質取得
+     *
+     * @param networkInfo
+     *            {@link NetworkInfo} 未接続の場合はnull
+     * @return {@link ConnectionClass}
+     */
+    private static ConnectionClass getConnectionClass(final NetworkInfo networkInfo) {
+        if (networkInfo == null || !networkInfo.isConnected()) {
+            return ConnectionClass.UNKNOWN;
+        }
+        switch (networkInfo.getType()) {
+        case ConnectivityManager.TYPE_WIFI:
+        case ConnectivityManager.TYPE_ETHERNET:
+        case ConnectivityManager.TYPE_WIMAX:
+            return ConnectionClass.GOOD;
+        case ConnectivityManager.TYPE_MOBILE:
+            switch (networkInfo.getSubtype()) {
+            case TelephonyManager.NETWORK_TYPE_GPRS:
+            case TelephonyManager.NETWORK_TYPE_EDGE:
+            case TelephonyManager.NETWORK_TYPE_CDMA:
+            case TelephonyManager.NETWORK_TYPE_1xRTT:
+            case TelephonyManager.NETWORK_TYPE_IDEN:
+                return ConnectionClass.POOR;
+            case TelephonyManager.NETWORK_TYPE_LTE:
+            case TelephonyManager.NETWORK_TYPE_HSPAP:
+                return ConnectionClass.GOOD;
+            default:
+                return ConnectionClass.MODERATE;
+            }
+        default:
+            return ConnectionClass.UNKNOWN;
+        }
+    }
+
+    /**
+     * リクエスト計測値取得
+     * <p>
+     * エンドポイント毎に、キュー待ち・接続・最初のバイト受信・ボディ受信・パース・配信の各フェーズのレイテンシを保持する。
+     * </p>
+     * 
+     * @return {@link RequestMetrics}
+     */
+    public RequestMetrics getRequestMetrics() {
+        return mRequestMetrics;
+    }
+
+    /**
+     * コネクション再利用の計測値取得
+     * <p>
+     * keep-alive可能な状態で返却したレスポンス数・接続を破棄した数を参照できる。
+     * </p>
+     * 
+     * @return {@link ConnectionStats} Gingerbread未満ではnull
+     */
+    public ConnectionStats getConnectionStats() {
+        return mConnectionStats;
+    }
+
     /**
      * ImageLoader取得
      * 
@@ -2,8 +2,9 @@ package com.miya38.connection.volley;
 
 import android.support.annotation.IntDef;
 
+import com.android.volley.AdaptiveRetryPolicy;
 import com.android.volley.AuthFailureError;
-import com.android.volley.DefaultRetryPolicy;
+import com.android.volley.Cache;
 import com.android.volley.NetworkResponse;
 import com.android.volley.ParseError;
 import com.android.volley.Response;
@@ -11,29 +12,25 @@ import com.android.volley.Response.ErrorListener;
 import com.android.volley.Response.Listener;
 import com.android.volley.VolleyError;
 import com.android.volley.toolbox.StringRequest;
-import com.miya38.BuildConfig;
+import com.miya38.connection.HttpTraceRecord;
+import com.miya38.connection.HttpTracer;
 import com.miya38.utils.CookieUtils;
-import com.miya38.utils.LogUtils;
+import com.miya38.utils.IOUtils;
+import com.miya38.utils.StreamUtils;
 import com.miya38.utils.StringUtils;
 import com.miya38.utils.volley.HttpHeaderParser;
 
 import org.apache.http.Header;
 import org.apache.http.protocol.HTTP;
-import org.json.JSONException;
-import org.json.JSONObject;
 
-import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.StringWriter;
+import java.io.InputStream;
+import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.zip.GZIPInputStream;
 
 /**
  * APIリクエストクラス
@@ -47,12 +44,6 @@ public class ApiRequestVolley extends StringRequest {
     // ---------------------------------------------------------------
     // define
     // ---------------------------------------------------------------
-    /** ログに付与するタグ */
-    private static final String TAG = ApiRequestVolley.class.getSimpleName();
-    /** Content-Type: application/json */
-    private static final String HEADER_CONTENT_TYPE = "Content-Type";
-    /** Content-Type: application/json */
-    private static final String HEADER_CONTENT_TYPE_APPLICATION_JSON = "application/json";
 
     /** Content-Encoding */
     private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
@@ -62,16 +53,29 @@ public class ApiRequestVolley extends StringRequest {
     /** Set-Cookie */
     private static final String HEADER_SET_COOKIE = "Set-Cookie";
 
+    /** トレースに記録する通信ライブラリ名 */
+    private static final String TRACE_STACK = "Volley";
+
     /** デバッグ設定 */
     private static boolean sIsDebuggable;
     // -------------------------------------------------------
     // 通信周り
     // -------------------------------------------------------
-    /** The default socket timeout in milliseconds */
+    /**
+     * The default socket timeout in milliseconds
+     * <p>
+     * ホストのレイテンシが計測されるまでのタイムアウト。計測後は{@link AdaptiveRetryPolicy}がホストのp95レイテンシから算出する。
+     * </p>
+     */
     public static final int CONNETION_DEFAULT_TIMEOUT_MS = 5000;
     /** The default number of retries */
     public static final int CONNETION_DEFAULT_MAX_RETRIES = 3;
-    /** The default backoff multiplier */
+    /**
+     * The default backoff multiplier
+     *
+     * @deprecated {@link AdaptiveRetryPolicy}はジッター付きの指数バックオフを使用するため、使用しない。
+     */
+    @Deprecated
     public static final float CONNETION_DEFAULT_BACKOFF_MULT = 1f;
 
     // ---------------------------------------------------------------
@@ -81,6 +85,10 @@ public class ApiRequestVolley extends StringRequest {
     private ApiListener mApiListener;
     /** コールバックリスナー */
     private ApiErrorListener mApiErrorListener;
+    /** ストリーミング解析用コールバックリスナー */
+    private ApiStreamListener<?> mApiStreamListener;
+    /** ストリーミング解析結果 */
+    private Object mStreamResult;
     /** リクエストパラメータ */
     protected NetworkRequest mNetworkRequest;
     /** リクエストヘッダ用パラメータ */
@@ -116,12 +124,92 @@ public class ApiRequestVolley extends StringRequest {
          */
         public abstract void onResponse(NetworkResponse networkResponse, int id, String response);
 
+        /**
+         * レスポンスを受信したときにコールする
+         * <p>
+         * {@link NetworkRequest#setCachePolicy(long, long, long)}等でキャッシュを使用する場合、古いキャッシュを返却した後に
+         * 再取得したデータで再度コールされることがある。デフォルトでは{@link #onResponse(NetworkResponse, int, String)}を呼び出す。
+         * </p>
+         *
+         * @param networkResponse
+         *         受信データ(statusCode/header/data/notmodified)
+         * @param id
+         *         送信データ判別ID
+         * @param response
+         *         受信データ
+         * @param isStale
+         *         true:有効期限を過ぎたキャッシュのデータ false:最新のデータ
+         */
+        public void onResponse(final NetworkResponse networkResponse, final int id, final String response, final boolean isStale) {
+            onResponse(networkResponse, id, response);
+        }
+
         @Override
         public void onResponse(final String response) {
             // 何もしない。
         }
     }
 
+    /**
+     * Callback interface for delivering responses parsed from a stream.
+     * <p>
+     * {@link #parse(NetworkResponse, int, Reader)}はVolleyのディスパッチャースレッドで呼ばれ、レスポンス全体の文字列を生成せずにモデルを生成する。<br>
+     * メインスレッドには{@link #onResponse(NetworkResponse, int, Object)}で生成したモデルのみが渡される。解析に失敗した場合は{@link ApiErrorListener}が呼ばれる。
+     * </p>
+     *
+     * @param <T>
+     *         解析結果の型
+     * @author y-miyazaki
+     */
+    public abstract static class ApiStreamListener<T> {
+        /**
+         * レスポンスボディを解析する(ディスパッチャースレッド)
+         *
+         * @param networkResponse
+         *         受信データ(statusCode/header/data/notmodified)
+         * @param id
+         *         送信データ判別ID
+         * @param reader
+         *         レスポンスボディの{@link Reader} android.util.JsonReader等に渡して使用する
+         * @return 解析結果
+         * @throws IOException
+         *         解析に失敗した場合
+         */
+        public abstract T parse(NetworkResponse networkResponse, int id, Reader reader) throws IOException;
+
+        /**
+         * 解析結果を受信したときにコールする(メインスレッド)
+         *
+         * @param networkResponse
+         *         受信データ(statusCode/header/data/notmodified)
+         * @param id
+         *         送信データ判別ID
+         * @param response
+         *         解析結果
+         */
+        public abstract void onResponse(NetworkResponse networkResponse, int id, T response);
+
+        /**
+         * 解析結果を受信したときにコールする(メインスレッド)
+         * <p>
+         * 古いキャッシュを返却した後に、再取得したデータで再度コールされることがある。
+         * デフォルトでは{@link #onResponse(NetworkResponse, int, Object)}を呼び出す。
+         * </p>
+         *
+         * @param networkResponse
+         *         受信データ(statusCode/header/data/notmodified)
+         * @param id
+         *         送信データ判別ID
+         * @param response
+         *         解析結果
+         * @param isStale
+         *         true:有効期限を過ぎたキャッシュのデータ false:最新のデータ
+         */
+        public void onResponse(final NetworkResponse networkResponse, final int id, final T response, final boolean isStale) {
+            onResponse(networkResponse, id, response);
+        }
+    }
+
     /**
      * Callback interface for delivering parsed responses.
      *
@@ -168,7 +256,7 @@ public class ApiRequestVolley extends StringRequest {
         mNetworkRequest.mUrl = url;
         mNetworkRequest.mId = id;
 
-        setRetryPolicy(new DefaultRetryPolicy(CONNETION_DEFAULT_TIMEOUT_MS, CONNETION_DEFAULT_MAX_RETRIES, CONNETION_DEFAULT_BACKOFF_MULT));
+        setRetryPolicy(new AdaptiveRetryPolicy(CONNETION_DEFAULT_TIMEOUT_MS, CONNETION_DEFAULT_MAX_RETRIES));
     }
 
     /**
@@ -187,7 +275,7 @@ public class ApiRequestVolley extends StringRequest {
         mNetworkRequest = networkRequest;
         mApiErrorListener = apiErrorListener;
 
-        setRetryPolicy(new DefaultRetryPolicy(CONNETION_DEFAULT_TIMEOUT_MS, CONNETION_DEFAULT_MAX_RETRIES, CONNETION_DEFAULT_BACKOFF_MULT));
+        setRetryPolicy(new AdaptiveRetryPolicy(CONNETION_DEFAULT_TIMEOUT_MS, CONNETION_DEFAULT_MAX_RETRIES));
 
         if (networkRequest.mBody != null) {
             setParams(networkRequest.mBody);
@@ -196,6 +284,28 @@ public class ApiRequestVolley extends StringRequest {
         if (networkRequest.mHeaders != null) {
             setHeaders(networkRequest.mHeaders);
         }
+
+        // 冪等なリクエストは、同じリクエストが通信中であればそのレスポンスを共有する
+        setIdempotent(networkRequest.mIsIdempotent);
+
+        // キャッシュポリシー
+        setCacheMode(networkRequest.mCacheMode);
+        setStaleIfErrorMs(networkRequest.mStaleIfErrorMs);
+    }
+
+    /**
+     * コンストラクタ レスポンスを{@link ApiStreamListener}でストリーミング解析する。このコンストラクタは、自動的にsetParams/setHeadersを行う。
+     *
+     * @param networkRequest
+     *         {@link NetworkResponse}
+     * @param apiStreamListener
+     *         {@link ApiStreamListener}
+     * @param apiErrorListener
+     *         {@link ApiErrorListener}
+     */
+    public ApiRequestVolley(final NetworkRequest networkRequest, final ApiStreamListener<?> apiStreamListener, final ApiErrorListener apiErrorListener) {
+        this(networkRequest, (ApiListener) null, apiErrorListener);
+        mApiStreamListener = apiStreamListener;
     }
 
     /**
@@ -217,68 +327,25 @@ public class ApiRequestVolley extends StringRequest {
         setCookie(networkResponse);
 
         // ---------------------------------------------------------------
-        // ログ出力
+        // トレース出力
+        // 整形はHttpTracerのバックグラウンドスレッドで行う。
         // ---------------------------------------------------------------
-        if (sIsDebuggable) {
-            final StringBuffer log = new StringBuffer();
-            StringUtils.appendBufferFormat(log, "----------------------------------------start(error)----------------------------------------\n");
-            StringUtils.appendBufferFormat(log, "request url = %s\n", mNetworkRequest.mUrl);
-            // リクエストヘッダー出力
-            for (final Entry<String, String> e : mNetworkRequest.mHeaders.entrySet()) {
-                StringUtils.appendBufferFormat(log, "request header: %s:%s\n", e.getKey(), e.getValue());
-            }
-            if (mNetworkRequest.mMethod == Method.GET) {
-                StringUtils.appendBufferFormat(log, "request method: GET\n");
-            } else if (mNetworkRequest.mMethod == Method.POST) {
-                StringUtils.appendBufferFormat(log, "request method: POST\n");
-            } else if (mNetworkRequest.mMethod == Method.PUT) {
-                StringUtils.appendBufferFormat(log, "request method: PUT\n");
-            } else if (mNetworkRequest.mMethod == Method.DELETE) {
-                StringUtils.appendBufferFormat(log, "request method: DELETE\n");
-            }
-            StringUtils.appendBufferFormat(log, "request body = %s\n", mNetworkRequest.mBody);
-            StringUtils.appendBufferFormat(log, "request id = %s\n", mNetworkRequest.mId);
-            try {
-                if (networkResponse != null) {
-                    // ステータスコード出力
-                    StringUtils.appendBufferFormat(log, "response status code = %s\n", networkResponse.statusCode);
-
-                    final Header[] apacheHeaders = networkResponse.apacheHeaders;
-                    if (apacheHeaders != null) {
-                        for (final Header apacheHeader : apacheHeaders) {
-                            final String key = apacheHeader.getName();
-                            final String value = apacheHeader.getValue();
-                            StringUtils.appendBufferFormat(log, "response header %-16s = %s\n", key, value);
-                        }
-                    }
-                    StringUtils.appendBuffer(log, "response body = \n");
-                    if (StringUtils.contains(networkResponse.headers.get(HEADER_CONTENT_TYPE), HEADER_CONTENT_TYPE_APPLICATION_JSON)) {
-                        try {
-                            JSONObject json = new JSONObject(new String(networkResponse.data));
-                            StringUtils.appendBuffer(log, json.toString(4));
-                        } catch (JSONException e) {
-                            StringUtils.appendBuffer(log, new String(networkResponse.data));
-                        }
-                    } else {
-                        StringUtils.appendBuffer(log, new String(networkResponse.data));
-                    }
-                }
-                // stacktrace関連
-                final StringWriter sw = new StringWriter();
-                final PrintWriter pw = new PrintWriter(sw);
-                volleyError.printStackTrace(pw);
-                pw.flush();
-                StringUtils.appendBuffer(log, "---------- volley stackTrace(start) ----------\n", sw.toString(), "---------- volley stackTrace(end) ----------\n");
-                StringUtils.appendBufferFormat(log, "---------------------------------------- end(error) ----------------------------------------\n");
-
-                LogUtils.d(TAG, log.toString());
-            } catch (final Exception e) {
-                // 無視する。bodyがでか過ぎて無理なため。
-            }
+        if (sIsDebuggable && HttpTracer.getInstance().isTraced(mNetworkRequest.mUrl)) {
+            HttpTracer.getInstance().trace(createTraceRecord(networkResponse, volleyError));
         }
         return super.parseNetworkError(volleyError);
     }
 
+    /**
+     * ストリーミング解析の場合は、大きなレスポンスボディをメモリに展開せずキャッシュファイルに直接書き込む
+     *
+     * @return true:ストリーミング解析 false:文字列で受信
+     */
+    @Override
+    public boolean shouldStreamBody() {
+        return mApiStreamListener != null;
+    }
+
     @Override
     protected Response<String> parseNetworkResponse(final NetworkResponse response) {
         mNetworkResponse = response;
@@ -287,20 +354,11 @@ public class ApiRequestVolley extends StringRequest {
         // ---------------------------------------------------------------
         try {
             // ContentTypeが、もしgzipなら解凍する
-            if (!mNetworkResponse.notModified && HEADER_CONTENT_ENCODING_GZIP.equalsIgnoreCase(response.headers.get(HEADER_CONTENT_ENCODING))) {
-                final GZIPInputStream zis = new GZIPInputStream(new BufferedInputStream(new ByteArrayInputStream(response.data)));
-                final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                try {
-                    final byte[] buffer = new byte[1024];
-                    int count;
-                    while ((count = zis.read(buffer)) != -1) {
-                        baos.write(buffer, 0, count);
-                    }
-                    mNetworkResponse = new NetworkResponse(response.statusCode, baos.toByteArray(), response.headers, response.notModified, response.networkTimeMs, response.apacheHeaders);
-                } finally {
-                    baos.close();
-                    zis.close();
-                }
+            // 通常はBasicNetworkが受信時に解凍済みのため、ここに来るのはgzipのまま保存されたキャッシュ等に限られる。
+            if (isGzipped(response)) {
+                final byte[] data = StreamUtils.toByteArray(StreamUtils.gzip(new ByteArrayInputStream(response.data)), response.data.length * 4);
+                mNetworkResponse = new NetworkResponse(response.statusCode, data, response.headers, response.notModified, response.networkTimeMs, response.apacheHeaders);
+                mNetworkResponse.headers.remove(HEADER_CONTENT_ENCODING);
             }
         } catch (final UnsupportedEncodingException e) {
             return Response.error(new ParseError(e));
@@ -328,91 +386,150 @@ public class ApiRequestVolley extends StringRequest {
         }
 
         // ---------------------------------------------------------------
-        // ログ出力
-        // コンパイラ考慮のため、BuildConfig.DEBUGでここは判定する
+        // トレース出力
+        // 整形はHttpTracerのバックグラウンドスレッドで行う。
         // ---------------------------------------------------------------
-        if (BuildConfig.DEBUG) {
-
-            if (sIsDebuggable) {
-                long xAndroidReceivedMillis = 0;
-                long xAndroidSentMillis = 0;
-
-                final StringBuffer log = new StringBuffer();
-                StringUtils.appendBufferFormat(log, "----------------------------------------start----------------------------------------\n");
-                StringUtils.appendBufferFormat(log, "■request\n");
-                // URL出力
-                StringUtils.appendBufferFormat(log, "url                                 = %s\n", mNetworkRequest.mUrl);
-                // メソッド出力
-                if (mNetworkRequest.mMethod == Method.GET) {
-                    StringUtils.appendBufferFormat(log, "method                              = GET\n");
-                } else if (mNetworkRequest.mMethod == Method.POST) {
-                    StringUtils.appendBufferFormat(log, "method                              = POST\n");
-                } else if (mNetworkRequest.mMethod == Method.PUT) {
-                    StringUtils.appendBufferFormat(log, "method                              = PUT\n");
-                } else if (mNetworkRequest.mMethod == Method.DELETE) {
-                    StringUtils.appendBufferFormat(log, "method                              = DELETE\n");
-                }
-                // Body出力
-                StringUtils.appendBufferFormat(log, "body                                = %s\n", mNetworkRequest.mBody);
-                // リクエストID出力
-                StringUtils.appendBufferFormat(log, "id                                  = %s\n", mNetworkRequest.mId);
-                // リクエストヘッダー出力
-                for (final Entry<String, String> e : mNetworkRequest.mHeaders.entrySet()) {
-                    StringUtils.appendBufferFormat(log, "request header: %s:%s\n", e.getKey(), e.getValue());
-                }
-
-                StringUtils.appendBufferFormat(log, "\n■response\n");
-                // ステータスコード出力
-                StringUtils.appendBufferFormat(log, "status %-28s = %s\n", "code", mNetworkResponse.statusCode);
-
-                final Header[] apacheHeaders = mNetworkResponse.apacheHeaders;
-                if (apacheHeaders != null) {
-                    for (final Header apacheHeader : apacheHeaders) {
-                        final String key = apacheHeader.getName();
-                        final String value = apacheHeader.getValue();
-                        StringUtils.appendBufferFormat(log, "header %-28s = %s\n", key, value);
-
-                        // 送信開始時間を取得
-                        if (StringUtils.equals(key, "X-Android-Sent-Millis")) {
-                            xAndroidSentMillis = Long.parseLong(value);
-                        }
-                        // 受信完了時間を取得
-                        if (StringUtils.equals(key, "X-Android-Received-Millis")) {
-                            xAndroidReceivedMillis = Long.valueOf(value);
-                        }
-                    }
-                    if (xAndroidSentMillis != 0 && xAndroidReceivedMillis != 0) {
-                        StringUtils.appendBufferFormat(log, "time                                = %d msec\n", xAndroidReceivedMillis - xAndroidSentMillis);
-                    }
-                }
-
-                // BODY出力
-                try {
-                    StringUtils.appendBuffer(log, "body = \n");
-                    if (StringUtils.contains(response.headers.get(HEADER_CONTENT_TYPE), HEADER_CONTENT_TYPE_APPLICATION_JSON)) {
-                        try {
-                            JSONObject json = new JSONObject(new String(mNetworkResponse.data));
-                            StringUtils.appendBuffer(log, json.toString(4));
-                        } catch (JSONException e) {
-                            StringUtils.appendBuffer(log, new String(mNetworkResponse.data));
-                        }
-                    } else {
-                        StringUtils.appendBuffer(log, new String(mNetworkResponse.data));
-                    }
-                    StringUtils.appendBufferFormat(log, "\n---------------------------------------- end ----------------------------------------\n");
-                    LogUtils.d(TAG, log.toString());
-                } catch (final OutOfMemoryError e) {
-                    // 無視する。bodyがでか過ぎて無理なため。
-                }
+        if (sIsDebuggable && HttpTracer.getInstance().isTraced(mNetworkRequest.mUrl)) {
+            HttpTracer.getInstance().trace(createTraceRecord(mNetworkResponse, null));
+        }
+        // ---------------------------------------------------------------
+        // ストリーミング解析
+        // 文字列を生成せず、ディスパッチャースレッドでモデルまで生成する。
+        // ---------------------------------------------------------------
+        if (mApiStreamListener != null) {
+            Reader reader = null;
+            try {
+                reader = openReader(mNetworkResponse);
+                mStreamResult = mApiStreamListener.parse(mNetworkResponse, mNetworkRequest.mId, reader);
+            } catch (final IOException e) {
+                return Response.error(new ParseError(e));
+            } catch (final RuntimeException e) {
+                return Response.error(new ParseError(e));
+            } finally {
+                IOUtils.closeQuietly(reader);
             }
+            return Response.success(null, parseCacheEntry(mNetworkResponse));
         }
+
         String parsed;
         try {
             parsed = new String(mNetworkResponse.data, HttpHeaderParser.parseCharset(mNetworkResponse.headers, HTTP.UTF_8));
         } catch (final UnsupportedEncodingException e) {
             parsed = new String(mNetworkResponse.data);
         }
-        return Response.success(parsed, HttpHeaderParser.parseCacheHeaders(mNetworkResponse));
+        return Response.success(parsed, parseCacheEntry(mNetworkResponse));
+    }
+
+    /**
+     * キャッシュエントリー生成
+     * <p>
+     * {@link NetworkRequest#mSoftTtlMs}が指定されている場合はサーバのキャッシュヘッダーを無視し、クライアントで指定した期間を使用する。
+     * </p>
+     *
+     * @param response
+     *         受信データ
+     * @return {@link Cache.Entry} キャッシュしない場合はnull
+     */
+    private Cache.Entry parseCacheEntry(final NetworkResponse response) {
+        if (mNetworkRequest.mSoftTtlMs >= 0) {
+            return HttpHeaderParser.parseCacheHeaders(response, mNetworkRequest.mSoftTtlMs, mNetworkRequest.mTtlMs);
+        }
+        return HttpHeaderParser.parseCacheHeaders(response);
+    }
+
+    /**
+     * レスポンスボディの{@link Reader}を返却する
+     * <p>
+     * キャッシュファイルに書き込まれたボディはファイルから読み込む。gzipのままのデータは読み込みながら解凍するため、レスポンス全体の文字列を生成せずにJsonReader等のストリーミングパーサーで解析できる。
+     * </p>
+     *
+     * @param response
+     *         {@link NetworkResponse}
+     * @return {@link Reader}
+     * @throws IOException
+     *         gzipヘッダが不正な場合
+     */
+    public static Reader openReader(final NetworkResponse response) throws IOException {
+        InputStream inputStream = response.openBody();
+        if (isGzipped(response)) {
+            inputStream = StreamUtils.gzip(inputStream);
+        }
+        try {
+            return StreamUtils.toReader(inputStream, HttpHeaderParser.parseCharset(response.headers, HTTP.UTF_8));
+        } catch (final UnsupportedEncodingException e) {
+            return StreamUtils.toReader(inputStream, HTTP.UTF_8);
+        }
+    }
+
+    /**
+     * gzip判定
+     *
+     * @param response
+     *         {@link NetworkResponse}
+     * @return true:gzipのまま false:解凍済み/非圧縮
+     */
+    private static boolean isGzipped(final NetworkResponse response) {
+        return response.data != null && response.headers != null && HEADER_CONTENT_ENCODING_GZIP.equalsIgnoreCase(response.headers.get(HEADER_CONTENT_ENCODING));
+    }
+
+    /**
+     * トレースレコード生成
+     *
+     * @param response
+     *         {@link NetworkResponse} レスポンスが無い場合はnull
+     * @param error
+     *         エラー 正常時はnull
+     * @return {@link HttpTraceRecord}
+     */
+    private HttpTraceRecord createTraceRecord(final NetworkResponse response, final Throwable error) {
+        final int maxBodyBytes = HttpTracer.getInstance().getMaxBodyBytes();
+        final HttpTraceRecord record = new HttpTraceRecord();
+        record.mStack = TRACE_STACK;
+        record.mId = mNetworkRequest.mId;
+        record.mMethod = getMethodName(mNetworkRequest.mMethod);
+        record.mUrl = mNetworkRequest.mUrl;
+        record.setRequestHeaders(mNetworkRequest.mHeaders);
+        record.setRequestBody(mNetworkRequest.mBody, maxBodyBytes);
+        record.mError = error;
+        if (response != null) {
+            record.mStatusCode = response.statusCode;
+            final Header[] apacheHeaders = response.apacheHeaders;
+            if (apacheHeaders != null) {
+                final String[] headers = new String[apacheHeaders.length * 2];
+                for (int i = 0; i < apacheHeaders.length; i++) {
+                    headers[i * 2] = apacheHeaders[i].getName();
+                    headers[i * 2 + 1] = apacheHeaders[i].getValue();
+                }
+                record.mResponseHeaders = headers;
+            }
+            record.setResponseBody(response.data, maxBodyBytes);
+            if (response.headers != null) {
+                record.mCharset = HttpHeaderParser.parseCharset(response.headers, HTTP.UTF_8);
+            }
+        }
+        return record;
+    }
+
+    /**
+     * メソッド名取得
+     *
+     * @param method
+     *         {@link Method}
+     * @return メソッド名
+     */
+    private static String getMethodName(final int method) {
+        switch (method) {
+            case Method.GET:
+                return "GET";
+            case Method.POST:
+                return "POST";
+            case Method.PUT:
+                return "PUT";
+            case Method.DELETE:
+                return "DELETE";
+            default:
+                return String.valueOf(method);
+        }
     }
 
     /**
@@ -441,10 +558,38 @@ public class ApiRequestVolley extends StringRequest {
 
     @Override
     public void deliverResponse(final String response) {
+        deliverResponse(response, false, false);
+    }
+
+    @Override
+    protected void deliverResponse(final String response, final boolean intermediate, final boolean stale) {
         if (mApiListener != null) {
-            mApiListener.onResponse(mNetworkResponse, mNetworkRequest.mId, response);
+            mApiListener.onResponse(mNetworkResponse, mNetworkRequest.mId, response, stale);
         }
-        finish();
+        if (mApiStreamListener != null) {
+            deliverStreamResponse(mApiStreamListener, mStreamResult, stale);
+        }
+        // 再取得中の場合は、再取得したデータを通知するためにリスナーを保持する
+        if (!intermediate) {
+            finish();
+        }
+    }
+
+    /**
+     * ストリーミング解析結果の通知
+     *
+     * @param apiStreamListener
+     *         {@link ApiStreamListener}
+     * @param result
+     *         {@link ApiStreamListener#parse(NetworkResponse, int, Reader)}の解析結果
+     * @param isStale
+     *         true:有効期限を過ぎたキャッシュのデータ false:最新のデータ
+     * @param <T>
+     *         解析結果の型
+     */
+    @SuppressWarnings("unchecked")
+    private <T> void deliverStreamResponse(final ApiStreamListener<T> apiStreamListener, final Object result, final boolean isStale) {
+        apiStreamListener.onResponse(mNetworkResponse, mNetworkRequest.mId, (T) result, isStale);
     }
 
     @Override
@@ -515,6 +660,8 @@ public class ApiRequestVolley extends StringRequest {
     private void finish() {
         mApiErrorListener = null;
         mApiListener = null;
+        mApiStreamListener = null;
+        mStreamResult = null;
         mHeaders = null;
         mNetworkRequest = null;
         mNetworkResponse = null;
@@ -0,0 +1,42 @@
+package com.miya38.connection.volley;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.view.Choreographer;
+
+import com.android.volley.FrameBatchingExecutor;
+
+/**
+ * Choreographerによるフレームスケジューラクラス
+ * <p>
+ * {@link FrameBatchingExecutor}の配信を画面のvsyncに合わせる。ChoreographerはJelly Bean以上でのみ使用できるため、
+ * このクラスはJelly Bean以上の場合のみ生成すること。
+ * </p>
+ *
+ * @author y-miyazaki
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+final class ChoreographerFrameScheduler implements FrameBatchingExecutor.FrameScheduler, Choreographer.FrameCallback {
+    /** Choreographer(呼び出し元スレッドで初回使用時に取得する) */
+    private Choreographer mChoreographer;
+    /** 次のフレームで実行するタスク */
+    private Runnable mFrameTask;
+
+    @Override
+    public void schedule(final Runnable frameTask) {
+        if (mChoreographer == null) {
+            mChoreographer = Choreographer.getInstance();
+        }
+        mFrameTask = frameTask;
+        mChoreographer.postFrameCallback(this);
+    }
+
+    @Override
+    public void doFrame(final long frameTimeNanos) {
+        final Runnable frameTask = mFrameTask;
+        mFrameTask = null;
+        if (frameTask != null) {
+            frameTask.run();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.miya38.connection.volley;
+
+/**
+ * コネクション再利用の計測クラス
+ * <p>
+ * {@link CustomHurlStack}がレスポンス毎に、ボディを読み切りkeep-alive可能な状態でプラットフォームのコネクションプールへ
+ * 返却できたか、接続を破棄したかを記録する。<br>
+ * HttpURLConnectionのソケットはプラットフォームが保持するため、実際にソケットが再利用されたかは計測できない。
+ * このクラスが数えるのは再利用可能な状態で返却できた割合であり、ホスト毎の同時接続数は
+ * {@link com.android.volley.NetworkScheduler}が制限する。
+ * </p>
+ *
+ * @author y-miyazaki
+ */
+public final class ConnectionStats {
+    /** レスポンス数 */
+    private long mResponseCount;
+    /** keep-alive可能な状態で返却した数 */
+    private long mReusableCount;
+    /** 接続を破棄した数 */
+    private long mDiscardedCount;
+
+    /**
+     * レスポンスの返却を記録する
+     *
+     * @param reusable
+     *         true:ボディを読み切りkeep-alive可能な状態で返却した false:接続を破棄した
+     */
+    synchronized void record(final boolean reusable) {
+        mResponseCount++;
+        if (reusable) {
+            mReusableCount++;
+        } else {
+            mDiscardedCount++;
+        }
+    }
+
+    /**
+     * レスポンス数取得
+     *
+     * @return レスポンス数
+     */
+    public synchronized long getResponseCount() {
+        return mResponseCount;
+    }
+
+    /**
+     * 返却数取得
+     *
+     * @return keep-alive可能な状態で返却した数
+     */
+    public synchronized long getReusableCount() {
+        return mReusableCount;
+    }
+
+    /**
+     * 破棄数取得
+     *
+     * @return 接続を破棄した数
+     */
+    public synchronized long getDiscardedCount() {
+        return mDiscardedCount;
+    }
+
+    /**
+     * 返却率取得
+     *
+     * @return keep-alive可能な状態で返却した割合(0.0〜1.0)
+     */
+    public synchronized float getReusableRatio() {
+        return mResponseCount == 0 ? 0f : (float) mReusableCount / mResponseCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "responses=" + mResponseCount + " reusable=" + mReusableCount + " discarded=" + mDiscardedCount;
+    }
+}
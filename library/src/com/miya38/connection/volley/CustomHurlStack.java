@@ -16,7 +16,9 @@
 
 package com.miya38.connection.volley;
 
+import java.io.ByteArrayInputStream;
 import java.io.DataOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
@@ -42,6 +44,7 @@ import org.apache.http.message.BasicStatusLine;
 import com.android.volley.AuthFailureError;
 import com.android.volley.Request;
 import com.android.volley.Request.Method;
+import com.android.volley.RequestTiming;
 import com.android.volley.toolbox.HttpStack;
 
 /**
@@ -51,6 +54,12 @@ public class CustomHurlStack implements HttpStack {
 
     private static final String HEADER_CONTENT_TYPE = "Content-Type";
 
+    /**
+     * The most bytes left unread by the caller that are drained on close so that the connection
+     * can go back to the keep-alive pool. Larger remainders are cheaper to drop than to read.
+     */
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
     /**
      * An interface for transforming URLs before use.
      */
@@ -64,6 +73,7 @@ public class CustomHurlStack implements HttpStack {
 
     private final UrlRewriter mUrlRewriter;
     private final SSLSocketFactory mSslSocketFactory;
+    private final ConnectionStats mConnectionStats = new ConnectionStats();
 
     public CustomHurlStack() {
         this(null);
@@ -88,6 +98,13 @@ public class CustomHurlStack implements HttpStack {
         mSslSocketFactory = sslSocketFactory;
     }
 
+    /**
+     * Returns the counters of responses whose connection went back to the keep-alive pool.
+     */
+    public ConnectionStats getConnectionStats() {
+        return mConnectionStats;
+    }
+
     @Override
     public HttpResponse performRequest(final Request<?> request, final Map<String, String> additionalHeaders)
             throws IOException, AuthFailureError {
@@ -103,23 +120,41 @@ public class CustomHurlStack implements HttpStack {
             url = rewritten;
         }
         final URL parsedUrl = new URL(url);
-        final HttpURLConnection connection = openConnection(parsedUrl, request);
-        for (final String headerName : map.keySet()) {
-            connection.addRequestProperty(headerName, map.get(headerName));
-        }
-        setConnectionParametersForRequest(connection, request);
-        // Initialize HttpResponse with data from the HttpURLConnection.
-        final ProtocolVersion protocolVersion = new ProtocolVersion("HTTP", 1, 1);
-        final int responseCode = connection.getResponseCode();
-        if (responseCode == -1) {
-            // -1 is returned by getResponseCode() if the response code could not be retrieved.
-            // Signal to the caller that something was wrong with the connection.
-            throw new IOException("Could not retrieve response code from HttpUrlConnection.");
+        HttpURLConnection connection = null;
+        final BasicHttpResponse response;
+        try {
+            request.getTiming().mark(RequestTiming.CONNECT_START);
+            connection = openConnection(parsedUrl, request);
+            for (final String headerName : map.keySet()) {
+                connection.addRequestProperty(headerName, map.get(headerName));
+            }
+            setConnectionParametersForRequest(connection, request);
+            // 接続時間をサーバーの応答時間と分けて計測するため、明示的に接続する。
+            connection.connect();
+            request.getTiming().mark(RequestTiming.CONNECT_END);
+            // Initialize HttpResponse with data from the HttpURLConnection.
+            final ProtocolVersion protocolVersion = new ProtocolVersion("HTTP", 1, 1);
+            final int responseCode = connection.getResponseCode();
+            if (responseCode == -1) {
+                // -1 is returned by getResponseCode() if the response code could not be retrieved.
+                // Signal to the caller that something was wrong with the connection.
+                throw new IOException("Could not retrieve response code from HttpUrlConnection.");
+            }
+            final StatusLine responseStatus = new BasicStatusLine(protocolVersion,
+                    connection.getResponseCode(), connection.getResponseMessage());
+            response = new BasicHttpResponse(responseStatus);
+        } catch (final IOException e) {
+            discard(connection);
+            throw e;
+        } catch (final AuthFailureError e) {
+            discard(connection);
+            throw e;
+        } catch (final RuntimeException e) {
+            discard(connection);
+            throw e;
         }
-        final StatusLine responseStatus = new BasicStatusLine(protocolVersion,
-                connection.getResponseCode(), connection.getResponseMessage());
-        final BasicHttpResponse response = new BasicHttpResponse(responseStatus);
-        response.setEntity(entityFromConnection(connection));
+        // From here on the connection belongs to the entity stream and is released when it is closed.
+        response.setEntity(entityFromConnection(connection, request.getMethod()));
         for (final Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
             if (header.getKey() != null) {
                 // bug fix y-miyazaki start
@@ -135,11 +170,19 @@ public class CustomHurlStack implements HttpStack {
 
     /**
      * Initializes an {@link HttpEntity} from the given {@link HttpURLConnection}.
+     * <p>
+     * The content stream drains what the caller left unread when it is closed, so that the
+     * connection can be reused, and records the outcome. Responses that cannot have a body
+     * (HEAD, 1xx, 204, 304) are released right away, because Volley does not read or close
+     * the entity of a 304.
      * 
      * @param connection
+     * @param method
+     *            the request method
      * @return an HttpEntity populated with data from <code>connection</code>.
      */
-    private static HttpEntity entityFromConnection(final HttpURLConnection connection) {
+    private HttpEntity entityFromConnection(final HttpURLConnection connection, final int method)
+            throws IOException {
         final BasicHttpEntity entity = new BasicHttpEntity();
         InputStream inputStream;
         try {
@@ -147,13 +190,125 @@ public class CustomHurlStack implements HttpStack {
         } catch (final IOException ioe) {
             inputStream = connection.getErrorStream();
         }
-        entity.setContent(inputStream);
+        final ReleasingInputStream releasingStream = new ReleasingInputStream(inputStream, connection);
+        // getErrorStream() is null for an error response without a body.
+        if (inputStream != null && hasResponseBody(method, connection.getResponseCode())) {
+            entity.setContent(releasingStream);
+        } else {
+            releasingStream.close();
+            entity.setContent(new ByteArrayInputStream(new byte[0]));
+        }
         entity.setContentLength(connection.getContentLength());
         entity.setContentEncoding(connection.getContentEncoding());
         entity.setContentType(connection.getContentType());
         return entity;
     }
 
+    /**
+     * Returns true if a response with the given code to the given method may carry a body.
+     */
+    private static boolean hasResponseBody(final int method, final int responseCode) {
+        return method != Method.HEAD
+                && !(100 <= responseCode && responseCode < 200)
+                && responseCode != HttpURLConnection.HTTP_NO_CONTENT
+                && responseCode != HttpURLConnection.HTTP_NOT_MODIFIED;
+    }
+
+    /**
+     * Drops a connection that failed before its response reached the caller.
+     */
+    private void discard(final HttpURLConnection connection) {
+        if (connection != null) {
+            connection.disconnect();
+        }
+        mConnectionStats.record(false);
+    }
+
+    /**
+     * The content stream of a response. Closing it reads the rest of the body, up to
+     * {@link #MAX_DRAIN_BYTES}, so the platform can return the socket to its keep-alive pool;
+     * if the rest is longer or cannot be read, the connection is disconnected instead. Either way
+     * the outcome is recorded in the {@link ConnectionStats} exactly once.
+     */
+    private final class ReleasingInputStream extends FilterInputStream {
+        private final HttpURLConnection mConnection;
+        private boolean mEof;
+        private boolean mReleased;
+
+        ReleasingInputStream(final InputStream in, final HttpURLConnection connection) {
+            super(in);
+            mConnection = connection;
+            mEof = in == null;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (in == null) {
+                return -1;
+            }
+            final int b = in.read();
+            if (b == -1) {
+                mEof = true;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] buffer, final int offset, final int count) throws IOException {
+            if (in == null) {
+                return -1;
+            }
+            final int read = in.read(buffer, offset, count);
+            if (read == -1) {
+                mEof = true;
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mReleased) {
+                return;
+            }
+            mReleased = true;
+            boolean reusable = mEof || drain();
+            try {
+                if (in != null) {
+                    in.close();
+                }
+            } catch (final IOException e) {
+                reusable = false;
+            } finally {
+                if (!reusable) {
+                    mConnection.disconnect();
+                }
+                mConnectionStats.record(reusable);
+            }
+        }
+
+        /**
+         * Reads and discards the rest of the body.
+         *
+         * @return true if the end of the body was reached
+         */
+        private boolean drain() {
+            final byte[] buffer = new byte[4096];
+            int remaining = MAX_DRAIN_BYTES;
+            try {
+                while (remaining > 0) {
+                    final int read = in.read(buffer, 0, Math.min(buffer.length, remaining));
+                    if (read == -1) {
+                        return true;
+                    }
+                    remaining -= read;
+                }
+                return in.read() == -1;
+            } catch (final IOException e) {
+                return false;
+            }
+        }
+    }
+
     /**
      * Create an {@link HttpURLConnection} for the specified {@code url}.
      */
@@ -2,6 +2,7 @@ package com.miya38.connection.volley;
 
 import android.support.annotation.IntDef;
 
+import com.android.volley.Request.CacheMode;
 import com.android.volley.Request.Method;
 import com.miya38.exception.ApplicationException;
 import com.miya38.utils.ConnectionUtils;
@@ -52,6 +53,34 @@ public class NetworkRequest {
      * エラーチェックを実施するか？
      */
     public boolean mIsErrorCheck = true;
+    /**
+     * 冪等なリクエストか？<br>
+     * trueの場合、同じメソッド・URL・ボディのリクエストが通信中であれば通信せずにそのレスポンスを共有する。
+     * GETは常に共有するため、参照のみを行うPOST等で指定する。
+     */
+    public boolean mIsIdempotent = false;
+    /**
+     * キャッシュモード<br>
+     * {@link CacheMode#CACHE_ONLY}の場合は通信せずにキャッシュのみを返却し(期限切れのキャッシュも返却する)、
+     * {@link CacheMode#NETWORK_ONLY}の場合はキャッシュを読まずに通信する(レスポンスはキャッシュに保存する)。
+     */
+    public CacheMode mCacheMode = CacheMode.NORMAL;
+    /**
+     * キャッシュを再検証せずに返却する期間(ミリ秒)<br>
+     * この期間を過ぎたキャッシュは古いデータとして返却し、バックグラウンドで再取得する。
+     * -1の場合はサーバのキャッシュヘッダーに従う。
+     */
+    public long mSoftTtlMs = -1;
+    /**
+     * キャッシュを返却する期間(ミリ秒)<br>
+     * この期間を過ぎたキャッシュは返却せずに通信する。-1の場合は{@link #mSoftTtlMs}と同じ期間とする。
+     */
+    public long mTtlMs = -1;
+    /**
+     * 通信エラー時にキャッシュを返却する期間(キャッシュの期限切れからのミリ秒)<br>
+     * 0の場合は通信エラーをそのまま返却する。
+     */
+    public long mStaleIfErrorMs = 0;
     /**
      * ダイアログリスナーID<br>
      * このパラメータでもしダイアログを起動した際のコールバックリスナーを判断するためのIDに使用することが出来る。
@@ -322,4 +351,39 @@ public class NetworkRequest {
         this.mDialogListenerId = dialogListenerId;
     }
 
+    /**
+     * @return mCacheMode
+     */
+    public final CacheMode getCacheMode() {
+        return mCacheMode;
+    }
+
+    /**
+     * @param cacheMode
+     *            セットする mCacheMode
+     */
+    public final void setCacheMode(final CacheMode cacheMode) {
+        this.mCacheMode = cacheMode;
+    }
+
+    /**
+     * stale-while-revalidate設定
+     * <p>
+     * softTtlMsの間はキャッシュをそのまま返却し、softTtlMsからttlMsまではキャッシュを古いデータとして返却した後に
+     * 低優先度で再取得する。再取得に失敗した場合は古いデータのまま終了する。サーバのキャッシュヘッダー(no-cacheを含む)は無視する。
+     * </p>
+     *
+     * @param softTtlMs
+     *            キャッシュを再検証せずに返却する期間(ミリ秒)
+     * @param ttlMs
+     *            キャッシュを返却する期間(ミリ秒)
+     * @param staleIfErrorMs
+     *            通信エラー時にキャッシュを返却する期間(キャッシュの期限切れからのミリ秒)
+     */
+    public final void setCachePolicy(final long softTtlMs, final long ttlMs, final long staleIfErrorMs) {
+        this.mSoftTtlMs = softTtlMs;
+        this.mTtlMs = ttlMs;
+        this.mStaleIfErrorMs = staleIfErrorMs;
+    }
+
 }
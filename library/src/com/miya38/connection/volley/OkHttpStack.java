@@ -0,0 +1,254 @@
+package com.miya38.connection.volley;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.Request.Method;
+import com.android.volley.RequestTiming;
+import com.android.volley.toolbox.HttpStack;
+import com.miya38.connection.okhttp.ApiRequestOkHttp;
+import com.squareup.okhttp.Headers;
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.MediaType;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Protocol;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.RequestBody;
+import com.squareup.okhttp.Response;
+import com.squareup.okhttp.ResponseBody;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * OkHttpを使用したVolley用HttpStackクラス
+ * <p>
+ * {@link ApiRequestOkHttp}のOkHttpClientを共有するため、VolleyとOkHttpの両方の通信レイヤーを使用するアプリでも
+ * コネクションプール・DNSキャッシュ・SPDY/HTTP2・レスポンスキャッシュがプロセスで一つになる。<br>
+ * Volleyのリクエスト毎のタイムアウトは、共有クライアントをクローンしたクライアントで設定する。クローンは設定のみをコピーし、
+ * コネクションプール等は元のクライアントと共有する。
+ * </p>
+ *
+ * @author y-miyazaki
+ */
+public class OkHttpStack implements HttpStack {
+    /** Content-Type */
+    private static final String HEADER_CONTENT_TYPE = "Content-Type";
+    /** Content-Encoding */
+    private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+
+    /** 接続完了を記録するクライアント(タイムアウトは共有クライアントと同じ) */
+    private final OkHttpClient mClient;
+    /** 直近のタイムアウト値で設定したクライアント(thisでロック) */
+    private OkHttpClient mTimeoutClient;
+    /** mTimeoutClientのタイムアウト(ミリ秒) */
+    private int mTimeoutMs = -1;
+
+    /**
+     * コンストラクタ
+     * <p>
+     * {@link ApiRequestOkHttp}と共有するOkHttpClientを使用する。
+     * </p>
+     */
+    public OkHttpStack() {
+        this(ApiRequestOkHttp.getOkHttpClient());
+    }
+
+    /**
+     * コンストラクタ
+     *
+     * @param client
+     *         使用するOkHttpClient
+     */
+    public OkHttpStack(final OkHttpClient client) {
+        mClient = client.clone();
+        mClient.networkInterceptors().add(new Interceptor() {
+            @Override
+            public Response intercept(final Chain chain) throws IOException {
+                // ネットワークインターセプターは接続が確立した後に呼び出される
+                final Object tag = chain.request().tag();
+                if (tag instanceof com.android.volley.Request) {
+                    ((com.android.volley.Request<?>) tag).getTiming().mark(RequestTiming.CONNECT_END);
+                }
+                return chain.proceed(chain.request());
+            }
+        });
+    }
+
+    @Override
+    public HttpResponse performRequest(final com.android.volley.Request<?> request, final Map<String, String> additionalHeaders)
+            throws IOException, AuthFailureError {
+        final Map<String, String> map = new HashMap<String, String>();
+        map.putAll(request.getHeaders());
+        map.putAll(additionalHeaders);
+
+        final Request.Builder builder = new Request.Builder().url(request.getUrl()).tag(request);
+        for (final Map.Entry<String, String> header : map.entrySet()) {
+            builder.header(header.getKey(), header.getValue());
+        }
+        setConnectionParametersForRequest(builder, request);
+
+        request.getTiming().mark(RequestTiming.CONNECT_START);
+        final Response response = getClient(request.getTimeoutMs()).newCall(builder.build()).execute();
+
+        final BasicStatusLine statusLine = new BasicStatusLine(getProtocolVersion(response.protocol()), response.code(),
+                response.message());
+        final BasicHttpResponse httpResponse = new BasicHttpResponse(statusLine);
+        httpResponse.setEntity(entityFromResponse(response, request.getMethod()));
+        final Headers headers = response.headers();
+        for (int i = 0, size = headers.size(); i < size; i++) {
+            httpResponse.addHeader(headers.name(i), headers.value(i));
+        }
+        return httpResponse;
+    }
+
+    /**
+     * タイムアウトを設定したクライアント取得
+     *
+     * @param timeoutMs
+     *         タイムアウト(ミリ秒)
+     * @return OkHttpClient
+     */
+    private synchronized OkHttpClient getClient(final int timeoutMs) {
+        if (mTimeoutClient == null || mTimeoutMs != timeoutMs) {
+            final OkHttpClient client = mClient.clone();
+            client.setConnectTimeout(timeoutMs, TimeUnit.MILLISECONDS);
+            client.setReadTimeout(timeoutMs, TimeUnit.MILLISECONDS);
+            client.setWriteTimeout(timeoutMs, TimeUnit.MILLISECONDS);
+            mTimeoutClient = client;
+            mTimeoutMs = timeoutMs;
+        }
+        return mTimeoutClient;
+    }
+
+    /**
+     * レスポンスからHttpEntityを生成する
+     * <p>
+     * ボディを持たないレスポンス(HEAD, 1xx, 204, 304)は、Volleyがストリームを閉じないためここで閉じて接続をプールに戻す。
+     * </p>
+     *
+     * @param response
+     *         レスポンス
+     * @param method
+     *         リクエストメソッド
+     * @return {@link BasicHttpEntity}
+     * @throws IOException
+     *         ボディの取得に失敗した場合
+     */
+    private static BasicHttpEntity entityFromResponse(final Response response, final int method) throws IOException {
+        final BasicHttpEntity entity = new BasicHttpEntity();
+        final ResponseBody body = response.body();
+        final int code = response.code();
+        if (method == Method.HEAD || (100 <= code && code < 200) || code == HttpURLConnection.HTTP_NO_CONTENT
+                || code == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            body.close();
+            entity.setContent(new ByteArrayInputStream(new byte[0]));
+            entity.setContentLength(0);
+        } else {
+            entity.setContent(body.byteStream());
+            entity.setContentLength(body.contentLength());
+        }
+        entity.setContentEncoding(response.header(HEADER_CONTENT_ENCODING));
+        entity.setContentType(response.header(HEADER_CONTENT_TYPE));
+        return entity;
+    }
+
+    /**
+     * プロトコルのバージョン取得
+     *
+     * @param protocol
+     *         プロトコル
+     * @return {@link ProtocolVersion}
+     */
+    private static ProtocolVersion getProtocolVersion(final Protocol protocol) {
+        switch (protocol) {
+        case HTTP_1_0:
+            return new ProtocolVersion("HTTP", 1, 0);
+        case SPDY_3:
+            return new ProtocolVersion("SPDY", 3, 1);
+        case HTTP_2:
+            return new ProtocolVersion("HTTP", 2, 0);
+        case HTTP_1_1:
+        default:
+            return new ProtocolVersion("HTTP", 1, 1);
+        }
+    }
+
+    /**
+     * リクエストメソッド・ボディ設定
+     *
+     * @param builder
+     *         {@link Request.Builder}
+     * @param request
+     *         Volleyのリクエスト
+     * @throws AuthFailureError
+     *         ボディの取得に失敗した場合
+     */
+    @SuppressWarnings("deprecation")
+    private static void setConnectionParametersForRequest(final Request.Builder builder, final com.android.volley.Request<?> request)
+            throws AuthFailureError {
+        switch (request.getMethod()) {
+        case Method.DEPRECATED_GET_OR_POST:
+            // ボディがある場合はPOST、無い場合はGETとして扱う
+            final byte[] postBody = request.getPostBody();
+            if (postBody != null) {
+                builder.post(RequestBody.create(MediaType.parse(request.getPostBodyContentType()), postBody));
+            }
+            break;
+        case Method.GET:
+            builder.get();
+            break;
+        case Method.DELETE:
+            builder.delete();
+            break;
+        case Method.POST:
+            builder.post(createRequestBody(request));
+            break;
+        case Method.PUT:
+            builder.put(createRequestBody(request));
+            break;
+        case Method.HEAD:
+            builder.head();
+            break;
+        case Method.OPTIONS:
+            builder.method("OPTIONS", null);
+            break;
+        case Method.TRACE:
+            builder.method("TRACE", null);
+            break;
+        case Method.PATCH:
+            builder.patch(createRequestBody(request));
+            break;
+        default:
+            throw new IllegalStateException("Unknown method type.");
+        }
+    }
+
+    /**
+     * リクエストボディ生成
+     * <p>
+     * OkHttpではPOST/PUT/PATCHにボディが必須のため、ボディが無い場合は空のボディを生成する。
+     * </p>
+     *
+     * @param request
+     *         Volleyのリクエスト
+     * @return {@link RequestBody}
+     * @throws AuthFailureError
+     *         ボディの取得に失敗した場合
+     */
+    private static RequestBody createRequestBody(final com.android.volley.Request<?> request) throws AuthFailureError {
+        byte[] body = request.getBody();
+        if (body == null) {
+            body = new byte[0];
+        }
+        return RequestBody.create(MediaType.parse(request.getBodyContentType()), body);
+    }
+}
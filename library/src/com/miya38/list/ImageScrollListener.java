@@ -0,0 +1,227 @@
+package com.miya38.list;
+
+import android.os.SystemClock;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
+import android.widget.AbsListView.RecyclerListener;
+import android.widget.ImageView.ScaleType;
+import android.widget.ListView;
+
+import com.android.volley.toolbox.ImageLoader;
+import com.miya38.widget.volley.NetworkImageView;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 画像リスト用スクロールリスナークラス
+ * <p>
+ * ListView/GridViewのスクロール状態を{@link ImageLoader}に伝え、高速スクロール中に不要な画像のダウンロードが溜まらないようにする。
+ * </p>
+ * <ul>
+ * <li>表示中のアイテム数を{@link ImageLoader#setVisibleImageCount(int)}に設定し、同時デコード数を表示範囲に合わせる。</li>
+ * <li>フリングの速度(1秒あたりのアイテム数)が閾値を超えた場合は{@link ImageLoader#setFlinging(boolean)}を設定し、
+ * 新規リクエストの送信を止める。画面外に出た読み込み中のビューはリクエストをキャンセルする。</li>
+ * <li>それ以外で画面外に出た読み込み中のビューは、リクエストの優先度を下げる。</li>
+ * <li>スクロール方向の次の表示範囲にある画像を{@link ImageLoader#prefetch}で先読みする。</li>
+ * </ul>
+ * <p>
+ * 先読みした画像は{@link ImageLoader}のL1キャッシュに保存されるため、{@link NetworkImageView}に設定する最大サイズと同じ値をコンストラクタに指定すること。
+ * </p>
+ *
+ * @author y-miyazaki
+ */
+public class ImageScrollListener implements OnScrollListener, RecyclerListener {
+    /** 高速フリングとみなす速度のデフォルト値(1秒あたりに通過する画面数) */
+    public static final float DEFAULT_FAST_SCREENS_PER_SECOND = 2f;
+
+    /** ImageLoader */
+    private final ImageLoader mImageLoader;
+    /** 先読みするURLの取得(nullの場合は先読みしない) */
+    private final UrlProvider mUrlProvider;
+    /** 画像の最大横幅 */
+    private final int mMaxWidth;
+    /** 画像の最大縦幅 */
+    private final int mMaxHeight;
+    /** 高速フリングとみなす速度(1秒あたりに通過する画面数) */
+    private float mFastScreensPerSecond = DEFAULT_FAST_SCREENS_PER_SECOND;
+    /** 委譲先のスクロールリスナー */
+    private OnScrollListener mOnScrollListener;
+
+    /** スクロール状態 */
+    private int mScrollState = SCROLL_STATE_IDLE;
+    /** 前回の先頭表示位置 */
+    private int mFirstVisibleItem = -1;
+    /** 前回の先頭表示位置を記録した時刻 */
+    private long mFirstVisibleItemTime;
+    /** 表示アイテム数 */
+    private int mVisibleItemCount;
+    /** 1秒あたりに通過したアイテム数 */
+    private float mVelocity;
+    /** スクロール方向 true:下方向 false:上方向 */
+    private boolean mScrollForward = true;
+
+    /**
+     * 先読みURL取得インターフェース
+     */
+    public interface UrlProvider {
+        /**
+         * アダプター上の位置のアイテムが表示する画像URL取得
+         *
+         * @param position
+         *         アダプター上の位置(ヘッダーを含まない)
+         * @return 画像URLのリスト(無い場合はnullまたは空のリスト)
+         */
+        List<String> getImageUrls(int position);
+    }
+
+    /**
+     * コンストラクタ
+     *
+     * @param imageLoader
+     *         {@link ImageLoader}
+     * @param urlProvider
+     *         先読みするURLの取得(nullの場合は先読みしない)
+     * @param maxWidth
+     *         {@link NetworkImageView}に設定する最大横幅
+     * @param maxHeight
+     *         {@link NetworkImageView}に設定する最大縦幅
+     */
+    public ImageScrollListener(final ImageLoader imageLoader, final UrlProvider urlProvider, final int maxWidth, final int maxHeight) {
+        mImageLoader = imageLoader;
+        mUrlProvider = urlProvider;
+        mMaxWidth = maxWidth;
+        mMaxHeight = maxHeight;
+    }
+
+    /**
+     * 委譲先のスクロールリスナー設定
+     *
+     * @param l
+     *         {@link OnScrollListener}
+     */
+    public void setOnScrollListener(final OnScrollListener l) {
+        mOnScrollListener = l;
+    }
+
+    /**
+     * 高速フリングとみなす速度設定
+     *
+     * @param screensPerSecond
+     *         1秒あたりに通過する画面数
+     */
+    public void setFastScreensPerSecond(final float screensPerSecond) {
+        mFastScreensPerSecond = screensPerSecond;
+    }
+
+    @Override
+    public void onScrollStateChanged(final AbsListView view, final int scrollState) {
+        mScrollState = scrollState;
+        if (scrollState != SCROLL_STATE_FLING) {
+            mImageLoader.setFlinging(false);
+        }
+        if (scrollState == SCROLL_STATE_IDLE) {
+            mVelocity = 0;
+            prefetch(view);
+        }
+        if (mOnScrollListener != null) {
+            mOnScrollListener.onScrollStateChanged(view, scrollState);
+        }
+    }
+
+    @Override
+    public void onScroll(final AbsListView view, final int firstVisibleItem, final int visibleItemCount, final int totalItemCount) {
+        if (visibleItemCount != mVisibleItemCount) {
+            mVisibleItemCount = visibleItemCount;
+            mImageLoader.setVisibleImageCount(visibleItemCount);
+        }
+        if (firstVisibleItem != mFirstVisibleItem) {
+            final long now = SystemClock.uptimeMillis();
+            if (mFirstVisibleItem >= 0) {
+                final int delta = firstVisibleItem - mFirstVisibleItem;
+                final long elapsed = Math.max(1, now - mFirstVisibleItemTime);
+                mVelocity = Math.abs(delta) * 1000f / elapsed;
+                mScrollForward = delta > 0;
+            }
+            mFirstVisibleItem = firstVisibleItem;
+            mFirstVisibleItemTime = now;
+
+            mImageLoader.setFlinging(mScrollState == SCROLL_STATE_FLING
+                    && mVelocity > Math.max(1, visibleItemCount) * mFastScreensPerSecond);
+            prefetch(view);
+        }
+        if (mOnScrollListener != null) {
+            mOnScrollListener.onScroll(view, firstVisibleItem, visibleItemCount, totalItemCount);
+        }
+    }
+
+    @Override
+    public void onMovedToScrapHeap(final View view) {
+        moveToScrapHeap(view);
+    }
+
+    /**
+     * ビュー階層内の{@link NetworkImageView}に画面外に出たことを通知する
+     *
+     * @param view
+     *         対象のビュー
+     */
+    private static void moveToScrapHeap(final View view) {
+        if (view instanceof NetworkImageView) {
+            ((NetworkImageView) view).onMovedToScrapHeap();
+        } else if (view instanceof ViewGroup) {
+            final ViewGroup viewGroup = (ViewGroup) view;
+            for (int i = 0, count = viewGroup.getChildCount(); i < count; i++) {
+                moveToScrapHeap(viewGroup.getChildAt(i));
+            }
+        }
+    }
+
+    /**
+     * スクロール方向の次の表示範囲の画像を先読みする
+     * <p>
+     * 高速フリング中は{@link ImageLoader#prefetch}が何もしないため、呼び出しても問題ない。
+     * </p>
+     *
+     * @param view
+     *         {@link AbsListView}
+     */
+    private void prefetch(final AbsListView view) {
+        if (mUrlProvider == null || mImageLoader.isFlinging() || mVisibleItemCount == 0) {
+            return;
+        }
+        int headerCount = 0;
+        int footerCount = 0;
+        if (view instanceof ListView) {
+            headerCount = ((ListView) view).getHeaderViewsCount();
+            footerCount = ((ListView) view).getFooterViewsCount();
+        }
+        final int itemCount = view.getCount() - headerCount - footerCount;
+        final int first = view.getFirstVisiblePosition() - headerCount;
+        final int start;
+        final int end;
+        if (mScrollForward) {
+            start = first + mVisibleItemCount;
+            end = start + mVisibleItemCount;
+        } else {
+            end = first;
+            start = end - mVisibleItemCount;
+        }
+
+        final List<String> urls = new ArrayList<String>();
+        for (int i = 0; i < mVisibleItemCount; i++) {
+            // 近い順に追加する
+            final int position = mScrollForward ? start + i : end - 1 - i;
+            if (position < 0 || position >= itemCount) {
+                continue;
+            }
+            final List<String> imageUrls = mUrlProvider.getImageUrls(position);
+            if (imageUrls != null) {
+                urls.addAll(imageUrls);
+            }
+        }
+        mImageLoader.prefetch(urls, mMaxWidth, mMaxHeight, ScaleType.CENTER_INSIDE);
+    }
+}
@@ -296,6 +296,20 @@ public class SettingGridView<T extends CustomArrayAdapter<U>, U> extends Abstrac
         return mGridView.getRefreshableView();
     }
 
+    /**
+     * 画像リスト用スクロールリスナー設定
+     * <p>
+     * スクロール状態に合わせて画像の先読み・優先度の変更・リクエストのキャンセルを行う。{@link #setView}の後に呼び出すこと。
+     * </p>
+     * 
+     * @param l
+     *            {@link ImageScrollListener}
+     */
+    public final void setImageScrollListener(final ImageScrollListener l) {
+        mGridView.setOnScrollListener(l);
+        getGridView().setRecyclerListener(l);
+    }
+
     @Override
     public final void setOnItemClickListener(final OnItemClickListener l) {
         if (l == null) {
@@ -54,6 +54,8 @@ public class SettingListView<T extends CustomArrayAdapter<U>, U> extends Abstrac
     protected int mListViewEmptyId;
     /** ヘッダーView */
     protected View mHeaderView;
+    /** 画像リスト用スクロールリスナー */
+    protected ImageScrollListener mImageScrollListener;
 
     /**
      * コンストラクタ
@@ -425,6 +427,21 @@ public class SettingListView<T extends CustomArrayAdapter<U>, U> extends Abstrac
         return mListView == null ? null : mListView.getRefreshableView();
     }
 
+    /**
+     * 画像リスト用スクロールリスナー設定
+     * <p>
+     * スクロール状態に合わせて画像の先読み・優先度の変更・リクエストのキャンセルを行う。{@link #setView}の後に呼び出すこと。
+     * </p>
+     * 
+     * @param l
+     *            {@link ImageScrollListener}
+     */
+    public void setImageScrollListener(final ImageScrollListener l) {
+        mImageScrollListener = l;
+        mListView.setOnScrollListener(l);
+        getListView().setRecyclerListener(l);
+    }
+
     @Override
     public void setOnItemClickListener(final OnItemClickListener l) {
         if (l == null) {
@@ -229,7 +229,20 @@ public class SettingListViewNoPull<T extends CustomArrayAdapter<U>, U> extends S
      *            {@link OnScrollListener}
      */
     public void setOnScrollListener(final OnScrollListener l) {
-        mListView.setOnScrollListener(l);
+        // 画像リスト用スクロールリスナーが設定されている場合は、その委譲先として設定する。
+        if (mImageScrollListener != null) {
+            mImageScrollListener.setOnScrollListener(l);
+        } else {
+            mListView.setOnScrollListener(l);
+        }
+    }
+
+    @Override
+    public void setImageScrollListener(final ImageScrollListener l) {
+        super.setImageScrollListener(l);
+        if (l != null && (mMode == Mode.BOTH || mMode == Mode.PULL_FROM_END)) {
+            l.setOnScrollListener(this);
+        }
     }
 
     @Override
@@ -14,9 +14,7 @@ import org.apache.http.NameValuePair;
 import org.apache.http.client.utils.URLEncodedUtils;
 import org.apache.http.message.BasicNameValuePair;
 
-import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
@@ -30,7 +28,6 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.zip.GZIPInputStream;
 
 /**
  * コネクションユーティリティークラス
@@ -257,19 +254,7 @@ public final class ConnectionUtils {
     public byte[] getGZipToContents(final byte[] data) {
         try {
             // ContentTypeが、もしgzipなら解凍する
-            final GZIPInputStream zis = new GZIPInputStream(new BufferedInputStream(new ByteArrayInputStream(data)));
-            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            try {
-                final byte[] buffer = new byte[1024];
-                int count;
-                while ((count = zis.read(buffer)) != -1) {
-                    baos.write(buffer, 0, count);
-                }
-                return baos.toByteArray();
-            } finally {
-                baos.close();
-                zis.close();
-            }
+            return StreamUtils.toByteArray(StreamUtils.gzip(new ByteArrayInputStream(data)), data.length * 4);
         } catch (final UnsupportedEncodingException e) {
             // 握りつぶす
         } catch (final IOException e) {
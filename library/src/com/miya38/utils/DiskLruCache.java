@@ -18,43 +18,62 @@ import android.os.Build;
 import android.os.Environment;
 import android.os.StatFs;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.List;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * キャッシュファイルクラス Least Recently Used (LRU): 最近最も使われていないデータを最初に捨てる
  * <p>
- * A simple disk LRU bitmap cache to illustrate how a disk cache would be used
- * for bitmap caching. A much more robust
- * and efficient disk LRU cache solution can be found in the ICS source code
- * (libcore/luni/src/main/java/libcore/io/DiskLruCache.java) and is preferable
- * to this simple implementation.
+ * libcore の DiskLruCache と同様に、キャッシュの状態を追記型のジャーナルファイルで管理する。<br>
+ * ジャーナルには次の操作が1行ずつ追記される。
+ * <ul>
+ * <li>DIRTY key : 書き込み開始(一時ファイル作成中)</li>
+ * <li>CLEAN key size : 書き込み完了</li>
+ * <li>REMOVE key : 削除</li>
+ * <li>READ key : 参照(LRU順序の更新)</li>
+ * </ul>
  * <p>
- * ①初期処理：initDiskLruCache<br>
- * →synchronizedMapに既存のキャッシュファイル情報を設定<br>
- * →既存キャッシュファイルの合計ファイルサイズを設定<br>
- * ※synchronizedMapを共有する必要があるため、SKINダウンロードサービスなどを別プロセスに出来ない<br>
+ * ①初期処理：コンストラクタ<br>
+ * →ジャーナルを先頭から順に読み込み、キャッシュファイル管理テーブルを復元する(ディレクトリの走査・ソートは行わない)<br>
+ * →CLEAN/REMOVEされずに残ったDIRTYの一時ファイルは削除する<br>
+ * →ジャーナルが存在しない場合(旧形式のキャッシュ)のみ、ディレクトリを走査してジャーナルを作成する<br>
+ * ※ジャーナルを共有する必要があるため、SKINダウンロードサービスなどを別プロセスに出来ない<br>
  * ②オープン：openCache<br>
- * →空き容量+既存キャッシュファイル合計がMaxサイズ以下であるかチェック<br>
  * →アプリ内で同じインスタンスを参照するようSingletonパターンとする<br>
  * ③書き込み：put<br>
- * →合計ファイルサイズに書き込むファイルサイズを加算<br>
- * →キャッシュファイルの書き込み<br>
- * ④書き込み後処理：flush<br>
+ * →同一キーの書き込み中は後続の書き込みをスキップする<br>
+ * →Bitmapの圧縮・ファイル書き込みはロックを取らずに一時ファイルへ行い、完了後にリネームで確定させる<br>
+ * ④読み込み：get/getSnapshot<br>
+ * →管理テーブルの参照のみ短時間ロックし、デコードはロック外で行う<br>
+ * →{@link Snapshot}はファイルをオープンした状態で返却するため、削除・上書きされても読み込みを継続できる<br>
+ * ⑤書き込み後処理：trimToSize<br>
  * →キャッシュサイズがMaxサイズ以上の場合、古いファイルから順番に消していく<br>
- * →一度に削除するファイルの数は、MAX_REMOVALS(4)ファイルまでとなっている<br>
- * ※MAX_REMOVALSを上げると処理速度に影響をする<br>
+ * →キー単位の操作はキーのハッシュで分割したロック(ストライプロック)で排他し、別キーの操作同士は待ち合わせない<br>
+ * ⑥ジャーナル再構築：rebuildJournal<br>
+ * →冗長な操作(READ/REMOVE等)が一定数を超えた場合、現在の管理テーブルからジャーナルを作り直す<br>
  */
 @SuppressWarnings("javadoc")
 public abstract class DiskLruCache {
@@ -62,7 +81,7 @@ public abstract class DiskLruCache {
     // define
     // ----------------------------------------------------------
     /** IOバッファサイズ */
-    public static final int IO_BUFFER_SIZE = 32 * 1024; // 1KB
+    public static final int IO_BUFFER_SIZE = 32 * 1024; // 32KB
     /** PNG形式保存 */
     public static CompressFormat mCompressFormat = CompressFormat.PNG;
     /** 品質 */
@@ -73,21 +92,56 @@ public abstract class DiskLruCache {
     private static final float LOAD_FACTOR = 0.75f;
     /** キャッシュファイル名プレフィックス */
     private static final String CACHE_FILENAME_PREFIX = "cache_";
-    /** 一度に削除するファイルのMax数(ファイル数制限、容量制限がオーバーしている場合は無効) */
-    private static final int MAX_REMOVALS = 4;
+    /** 書き込み中の一時ファイルサフィックス */
+    private static final String TEMP_FILENAME_SUFFIX = ".tmp";
     /** 保有可能なキャッシュファイル数 */
     private static final int MAX_CACHE_ITEM_SIZE = 1024;
+    /** ストライプロック数(2のべき乗) */
+    private static final int LOCK_STRIPES = 16;
+
+    /** ジャーナルファイル名 */
+    private static final String JOURNAL_FILE = "journal";
+    /** ジャーナル再構築用の一時ファイル名 */
+    private static final String JOURNAL_FILE_TMP = "journal.tmp";
+    /** ジャーナルマジック */
+    private static final String JOURNAL_MAGIC = "com.miya38.utils.DiskLruCache";
+    /** ジャーナルバージョン */
+    private static final String JOURNAL_VERSION = "1";
+    /** ジャーナルの文字コード */
+    private static final String JOURNAL_CHARSET = "US-ASCII";
+    /** ジャーナル操作：書き込み完了 */
+    private static final String CLEAN = "CLEAN";
+    /** ジャーナル操作：書き込み開始 */
+    private static final String DIRTY = "DIRTY";
+    /** ジャーナル操作：削除 */
+    private static final String REMOVE = "REMOVE";
+    /** ジャーナル操作：参照 */
+    private static final String READ = "READ";
+    /** ジャーナルを再構築する冗長操作数 */
+    private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
 
     /** キャッシュディレクトリ */
     private final File mCacheDir;
+    /** ジャーナルファイル */
+    private final File mJournalFile;
+    /** ジャーナル再構築用の一時ファイル */
+    private final File mJournalFileTmp;
     /** 保有可能なキャッシュファイルの最大容量数 */
     private long mMaxCacheByteSize = 1024 * 1024 * 5;
-    /** キャッシュファイル管理テーブル */
-    private final Map<String, String> mLinkedHashMap = Collections.synchronizedMap(new LinkedHashMap<String, String>(INITIAL_CAPACITY, LOAD_FACTOR, true));
-    /** キャッシュサイズ */
-    private int mCcacheSize;
-    /** キャッシュファイル合計サイズ */
-    private static long mCcacheByteSize;
+    /** キャッシュファイル管理テーブル(key:変換後キー value:ファイルサイズ) このオブジェクト自体をロックとして使用する */
+    private final LinkedHashMap<String, Long> mLruEntries = new LinkedHashMap<String, Long>(INITIAL_CAPACITY, LOAD_FACTOR, true);
+    /** キャッシュファイル合計サイズ(mLruEntriesでロック) */
+    private long mCacheByteSize;
+    /** キー単位のストライプロック */
+    private final Object[] mKeyLocks = new Object[LOCK_STRIPES];
+    /** 書き込み中のキー */
+    private final ConcurrentHashMap<String, Boolean> mPendingWrites = new ConcurrentHashMap<String, Boolean>();
+    /** ジャーナル書き込みロック */
+    private final Object mJournalLock = new Object();
+    /** ジャーナルWriter(mJournalLockでロック) */
+    private Writer mJournalWriter;
+    /** 冗長なジャーナル操作数(mJournalLockでロック) */
+    private int mRedundantOpCount;
     /** DiskLruCachePostEclairクラス */
     private static DiskLruCachePostEclair sDiskLruCachePostEclair;
     /** DiskLruCachePreEclairクラス(1.6以前のため未使用) */
@@ -118,10 +172,20 @@ public abstract class DiskLruCache {
     private DiskLruCache(final File cacheDir, final long maxByteSize) {
         mCacheDir = cacheDir;
         mMaxCacheByteSize = maxByteSize;
+        mJournalFile = new File(cacheDir, JOURNAL_FILE);
+        mJournalFileTmp = new File(cacheDir, JOURNAL_FILE_TMP);
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            mKeyLocks[i] = new Object();
+        }
         // キャッシュファイル管理テーブル 初期化
-        initLinkedHashMap(cacheDir);
-        // 全ファイルサイズ取得
-        mCcacheByteSize = getAllFileSize(cacheDir);
+        if (readJournal()) {
+            openJournalWriter();
+        } else {
+            // ジャーナルがない(旧形式)または壊れている場合のみディレクトリを走査する
+            initFromDirectory(cacheDir);
+            rebuildJournal();
+        }
+        trimToSize();
     }
 
     /**
@@ -182,25 +246,49 @@ public abstract class DiskLruCache {
 
     /**
      * キャッシュから画像ファイル取得 Get an image from the disk cache.
+     * <p>
+     * デコードはロック外で行うため、同じキーを複数スレッドから同時に読み込むことが出来る。
+     * </p>
      *
      * @param key
      *         The unique identifier for the bitmap
      * @return The bitmap or null if not found
      */
     public Bitmap get(final String key) {
-        synchronized (mLinkedHashMap) {
-            final String renameKey = getKey(key);
-            final String file = mLinkedHashMap.get(renameKey);
-            if (file != null) {
-                return BitmapFactory.decodeFile(file);
-            } else {
-                // キャッシュMapにないが、ファイルが存在する場合は、キャッシュMapに書き込む
-                final String existingFile = createFilePath(mCacheDir, renameKey);
-                if (new File(existingFile).exists()) {
-                    put(key, existingFile);
-                    return BitmapFactory.decodeFile(existingFile);
-                }
-            }
+        final Snapshot snapshot = getSnapshot(key);
+        if (snapshot == null) {
+            return null;
+        }
+        try {
+            return BitmapFactory.decodeStream(new BufferedInputStream(snapshot.getInputStream(), IO_BUFFER_SIZE));
+        } finally {
+            snapshot.close();
+        }
+    }
+
+    /**
+     * キャッシュからスナップショット取得
+     * <p>
+     * スナップショットはファイルをオープンした状態で返却する。取得後に同じキーが上書き・削除された場合でも、
+     * スナップショットからは取得時点の内容を読み込むことが出来る。<br>
+     * 使用後は必ず{@link Snapshot#close()}を呼び出すこと。
+     * </p>
+     *
+     * @param key
+     *         The unique identifier for the entry
+     * @return {@link Snapshot} or null if not found
+     */
+    public Snapshot getSnapshot(final String key) {
+        final String renameKey = getKey(key);
+        final File file = lookupFile(renameKey);
+        if (file == null) {
+            return null;
+        }
+        try {
+            return new Snapshot(key, file, new FileInputStream(file));
+        } catch (final FileNotFoundException e) {
+            // 管理テーブルにあるがファイルが参照できない場合は、管理テーブルから除外する
+            removeEntry(renameKey);
             return null;
         }
     }
@@ -213,27 +301,17 @@ public abstract class DiskLruCache {
      * @return The bitmap or null if not found
      */
     public String getFile(final String key) {
-        synchronized (mLinkedHashMap) {
-            final String renameKey = getKey(key);
-            final String file = mLinkedHashMap.get(renameKey);
-            if (file != null) {
-                // ファイルが参照できないパターンを考慮しexsitsチェックを行う
-                final File checkFile = new File(file);
-                if (checkFile.exists()) {
-                    return file;
-                } else {
-                    return null;
-                }
-            } else {
-                // キャッシュMapにないが、ファイルが存在する場合は、キャッシュMapに書き込む
-                final String existingFile = createFilePath(mCacheDir, renameKey);
-                if (new File(existingFile).exists()) {
-                    put(key, existingFile);
-                    return existingFile;
-                }
-            }
+        final String renameKey = getKey(key);
+        final File file = lookupFile(renameKey);
+        if (file == null) {
             return null;
         }
+        // ファイルが参照できないパターンを考慮しexsitsチェックを行う
+        if (file.exists()) {
+            return file.getAbsolutePath();
+        }
+        removeEntry(renameKey);
+        return null;
     }
 
     /**
@@ -245,7 +323,12 @@ public abstract class DiskLruCache {
      *         The bitmap to store.
      */
     public void put(final String key, final Bitmap data) {
-        put(key, data, false);
+        write(getKey(key), new EntryWriter() {
+            @Override
+            public boolean write(final File file) throws IOException {
+                return writeBitmapToFile(data, file);
+            }
+        });
     }
 
     /**
@@ -256,25 +339,12 @@ public abstract class DiskLruCache {
      * @param data
      *         The bitmap to store.
      * @param isAsync
-     *         true:async false:not async
+     *         使用されない
+     * @deprecated isAsyncは使用されないため、{@link #put(String, Bitmap)}を使用すること。
      */
+    @Deprecated
     public void put(final String key, final Bitmap data, final boolean isAsync) {
-        synchronized (mLinkedHashMap) {
-            final String renameKey = getKey(key);
-            if (mLinkedHashMap.get(renameKey) == null) {
-                try {
-                    final String file = createFilePath(mCacheDir, renameKey);
-                    if (writeBitmapToFile(data, file)) {
-                        put(key, file);
-                        flushCache();
-                    }
-                } catch (final FileNotFoundException e) {
-                    LogUtils.e("DiskLruCache", "put Error", e);
-                } catch (final IOException e) {
-                    LogUtils.e("DiskLruCache", "put Error", e);
-                }
-            }
-        }
+        put(key, data);
     }
 
     /**
@@ -286,20 +356,12 @@ public abstract class DiskLruCache {
      *         The bitmap to store.
      */
     public void putData(final String key, final String data) {
-        synchronized (mLinkedHashMap) {
-            final String renameKey = getKey(key);
-            if (mLinkedHashMap.get(renameKey) == null) {
-                try {
-                    final String file = createFilePath(mCacheDir, renameKey);
-                    if (writeStringToFile(data, file)) {
-                        put(key, file);
-                        flushCache();
-                    }
-                } catch (final FileNotFoundException e) {
-                } catch (final IOException e) {
-                }
+        write(getKey(key), new EntryWriter() {
+            @Override
+            public boolean write(final File file) throws IOException {
+                return writeStringToFile(data, file);
             }
-        }
+        });
     }
 
     /**
@@ -312,25 +374,26 @@ public abstract class DiskLruCache {
     public boolean containsKey(final String key) {
         final String renameKey = getKey(key);
         // See if the key is in our HashMap
-        if (mLinkedHashMap.containsKey(renameKey)) {
+        if (containsEntry(renameKey)) {
             return true;
         }
-
         // Now check if there's an actual file that exists based on the key
-        final String existingFile = createFilePath(mCacheDir, renameKey);
-        if (new File(existingFile).exists()) {
-            // File found, add it to the HashMap for future use
-            put(renameKey, existingFile);
-            return true;
-        }
-        return false;
+        return adoptIfExists(renameKey) != null;
     }
 
     /**
      * Removes all disk cache entries from this instance cache dir
      */
     public void clearCache() {
+        final List<String> keys;
+        synchronized (mLruEntries) {
+            keys = new ArrayList<String>(mLruEntries.keySet());
+        }
+        for (final String renameKey : keys) {
+            removeEntry(renameKey);
+        }
         DiskLruCache.clearCache(mCacheDir);
+        rebuildJournal();
     }
 
     /**
@@ -357,7 +420,33 @@ public abstract class DiskLruCache {
      */
     public static void clearCache(final Context context, final String uniqueName) {
         final File cacheDir = getDiskCacheDir(context, uniqueName);
+        // オープン中のインスタンスがある場合は、管理テーブルとジャーナルWriterを整合させるためインスタンス経由で削除する
+        final DiskLruCache openCache = getOpenCache(cacheDir);
+        if (openCache != null) {
+            openCache.clearCache();
+            return;
+        }
         clearCache(cacheDir);
+        // 削除済みエントリがジャーナルに残らないようジャーナルも削除する(次回オープン時に再作成される)
+        new File(cacheDir, JOURNAL_FILE).delete();
+        new File(cacheDir, JOURNAL_FILE_TMP).delete();
+    }
+
+    /**
+     * 指定ディレクトリでオープン中のインスタンス取得
+     *
+     * @param cacheDir
+     *         キャッシュディレクトリ
+     * @return オープン中のインスタンス 存在しない場合はnull
+     */
+    private static synchronized DiskLruCache getOpenCache(final File cacheDir) {
+        final DiskLruCache[] caches = {sDiskLruCachePostEclair, sDiskLruCachePreEclair};
+        for (final DiskLruCache cache : caches) {
+            if (cache != null && cache.mCacheDir.getAbsoluteFile().equals(cacheDir.getAbsoluteFile())) {
+                return cache;
+            }
+        }
+        return null;
     }
 
     /**
@@ -466,12 +555,8 @@ public abstract class DiskLruCache {
      *
      * @param key
      */
-    public synchronized void remove(final String key) {
-        final String renameKey = getKey(key);
-        // キャッシュファイル管理テーブル更新
-        mLinkedHashMap.remove(renameKey);
-        // ファイルサイズ更新
-        mCcacheByteSize -= new File(renameKey).length();
+    public void remove(final String key) {
+        removeEntry(getKey(key));
     }
 
     /**
@@ -480,13 +565,386 @@ public abstract class DiskLruCache {
      * @return
      */
     public int getMapSize() {
-        return mLinkedHashMap.size();
+        synchronized (mLruEntries) {
+            return mLruEntries.size();
+        }
     }
 
     // ----------------------------------------------------------
     // 内部メソッド
     // ----------------------------------------------------------
 
+    /**
+     * キャッシュ書き込み共通処理
+     * <p>
+     * 一時ファイルへの書き込みはロック外で行い、リネーム・管理テーブル更新・ジャーナル追記のみキーのストライプロック内で行う。
+     * </p>
+     *
+     * @param renameKey
+     *         変換後キー
+     * @param entryWriter
+     *         {@link EntryWriter}
+     */
+    private void write(final String renameKey, final EntryWriter entryWriter) {
+        if (containsEntry(renameKey)) {
+            return;
+        }
+        // 同一キーを他スレッドが書き込み中の場合はスキップする
+        if (mPendingWrites.putIfAbsent(renameKey, Boolean.TRUE) != null) {
+            return;
+        }
+        try {
+            final File file = new File(createFilePath(mCacheDir, renameKey));
+            final File tempFile = new File(file.getPath() + TEMP_FILENAME_SUFFIX);
+            appendJournal(DIRTY, renameKey, -1);
+            boolean isSuccess = false;
+            try {
+                isSuccess = entryWriter.write(tempFile);
+            } catch (final IOException e) {
+                LogUtils.e("DiskLruCache", "put Error", e);
+            }
+            synchronized (getKeyLock(renameKey)) {
+                if (isSuccess && tempFile.renameTo(file)) {
+                    final long size = file.length();
+                    synchronized (mLruEntries) {
+                        final Long previous = mLruEntries.put(renameKey, size);
+                        if (previous != null) {
+                            mCacheByteSize -= previous;
+                        }
+                        mCacheByteSize += size;
+                    }
+                    appendJournal(CLEAN, renameKey, size);
+                } else {
+                    tempFile.delete();
+                    appendJournal(REMOVE, renameKey, -1);
+                }
+            }
+        } finally {
+            mPendingWrites.remove(renameKey);
+        }
+        trimToSize();
+    }
+
+    /**
+     * キーに対応するキャッシュファイル取得
+     * <p>
+     * 管理テーブルにない場合でもファイルが存在すれば管理テーブルに取り込む。
+     * </p>
+     *
+     * @param renameKey
+     *         変換後キー
+     * @return キャッシュファイル 存在しない場合はnull
+     */
+    private File lookupFile(final String renameKey) {
+        final boolean isHit;
+        synchronized (mLruEntries) {
+            // アクセス順のLinkedHashMapのため、getでLRU順序も更新される
+            isHit = mLruEntries.get(renameKey) != null;
+        }
+        if (isHit) {
+            appendJournal(READ, renameKey, -1);
+            return new File(createFilePath(mCacheDir, renameKey));
+        }
+        // キャッシュMapにないが、ファイルが存在する場合は、キャッシュMapに書き込む
+        return adoptIfExists(renameKey);
+    }
+
+    /**
+     * 管理テーブル外のキャッシュファイル取り込み
+     *
+     * @param renameKey
+     *         変換後キー
+     * @return キャッシュファイル 存在しない場合はnull
+     */
+    private File adoptIfExists(final String renameKey) {
+        final File file = new File(createFilePath(mCacheDir, renameKey));
+        if (!file.exists()) {
+            return null;
+        }
+        synchronized (getKeyLock(renameKey)) {
+            final long size = file.length();
+            boolean isAdopted = false;
+            synchronized (mLruEntries) {
+                if (mLruEntries.get(renameKey) == null) {
+                    mLruEntries.put(renameKey, size);
+                    mCacheByteSize += size;
+                    isAdopted = true;
+                }
+            }
+            if (isAdopted) {
+                appendJournal(CLEAN, renameKey, size);
+            }
+        }
+        return file;
+    }
+
+    /**
+     * 管理テーブル存在チェック(LRU順序は更新しない)
+     *
+     * @param renameKey
+     *         変換後キー
+     * @return true:存在する false:存在しない
+     */
+    private boolean containsEntry(final String renameKey) {
+        synchronized (mLruEntries) {
+            return mLruEntries.containsKey(renameKey);
+        }
+    }
+
+    /**
+     * キャッシュエントリ削除
+     *
+     * @param renameKey
+     *         変換後キー
+     */
+    private void removeEntry(final String renameKey) {
+        synchronized (getKeyLock(renameKey)) {
+            final Long size;
+            synchronized (mLruEntries) {
+                size = mLruEntries.remove(renameKey);
+                if (size != null) {
+                    mCacheByteSize -= size;
+                }
+            }
+            if (size != null) {
+                new File(createFilePath(mCacheDir, renameKey)).delete();
+                appendJournal(REMOVE, renameKey, -1);
+            }
+        }
+    }
+
+    /**
+     * キャッシュディレクトリの容量調整<br>
+     * キャッシュサイズ・ファイル数が制限値を下回るまで古いファイルから削除する。
+     * ファイル削除は管理テーブルのロック外で行う。
+     */
+    private void trimToSize() {
+        while (true) {
+            final String eldestKey;
+            synchronized (mLruEntries) {
+                if (mLruEntries.size() <= MAX_CACHE_ITEM_SIZE && mCacheByteSize <= mMaxCacheByteSize) {
+                    return;
+                }
+                eldestKey = mLruEntries.keySet().iterator().next();
+            }
+            removeEntry(eldestKey);
+        }
+    }
+
+    /**
+     * キーに対応するストライプロック取得
+     *
+     * @param renameKey
+     *         変換後キー
+     * @return ロックオブジェクト
+     */
+    private Object getKeyLock(final String renameKey) {
+        return mKeyLocks[renameKey.hashCode() & (LOCK_STRIPES - 1)];
+    }
+
+    /**
+     * ジャーナル読み込み
+     *
+     * @return true:読み込み成功 false:ジャーナルなし・不正
+     */
+    private boolean readJournal() {
+        if (!mJournalFile.exists()) {
+            return false;
+        }
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(mJournalFile), JOURNAL_CHARSET), IO_BUFFER_SIZE);
+            if (!JOURNAL_MAGIC.equals(reader.readLine()) || !JOURNAL_VERSION.equals(reader.readLine()) || !"".equals(reader.readLine())) {
+                return false;
+            }
+            final Set<String> dirtyKeys = new HashSet<String>();
+            int lineCount = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                readJournalLine(line, dirtyKeys);
+                lineCount++;
+            }
+            // 書き込み途中で終了した一時ファイルは削除する
+            for (final String renameKey : dirtyKeys) {
+                new File(createFilePath(mCacheDir, renameKey) + TEMP_FILENAME_SUFFIX).delete();
+            }
+            mRedundantOpCount = lineCount - mLruEntries.size();
+            return true;
+        } catch (final IOException e) {
+            LogUtils.e("DiskLruCache", "readJournal Error", e);
+            mLruEntries.clear();
+            mCacheByteSize = 0;
+            return false;
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+    }
+
+    /**
+     * ジャーナル1行分の反映
+     * <p>
+     * 書き込み途中で終了した不完全な行は無視する。
+     * </p>
+     *
+     * @param line
+     *         ジャーナル行
+     * @param dirtyKeys
+     *         書き込み中のキー
+     */
+    private void readJournalLine(final String line, final Set<String> dirtyKeys) {
+        final String[] parts = line.split(" ");
+        if (parts.length < 2) {
+            return;
+        }
+        final String op = parts[0];
+        final String renameKey = parts[1];
+        if (CLEAN.equals(op) && parts.length == 3) {
+            try {
+                final long size = Long.parseLong(parts[2]);
+                final Long previous = mLruEntries.put(renameKey, size);
+                if (previous != null) {
+                    mCacheByteSize -= previous;
+                }
+                mCacheByteSize += size;
+                dirtyKeys.remove(renameKey);
+            } catch (final NumberFormatException e) {
+                // 不完全な行は無視する
+            }
+        } else if (DIRTY.equals(op)) {
+            dirtyKeys.add(renameKey);
+        } else if (REMOVE.equals(op)) {
+            final Long previous = mLruEntries.remove(renameKey);
+            if (previous != null) {
+                mCacheByteSize -= previous;
+            }
+            dirtyKeys.remove(renameKey);
+        } else if (READ.equals(op)) {
+            mLruEntries.get(renameKey);
+        }
+    }
+
+    /**
+     * キャッシュディレクトリからの管理テーブル初期化(ジャーナルがない場合のみ)
+     *
+     * @param dir
+     *         キャッシュディレクトリ
+     */
+    private void initFromDirectory(final File dir) {
+        final File[] listFiles = dir.listFiles(mCacheFileFilter);
+        if (listFiles == null) {
+            return;
+        }
+        // 全キャッシュファイルをキャッシュファイル管理テーブルに設定(更新日時の昇順)
+        Arrays.sort(listFiles, new FileSort());
+        for (final File file : listFiles) {
+            if (file.getName().endsWith(TEMP_FILENAME_SUFFIX)) {
+                file.delete();
+                continue;
+            }
+            final long size = file.length();
+            mLruEntries.put(createMapKey(file.getName()), size);
+            mCacheByteSize += size;
+        }
+    }
+
+    /**
+     * ジャーナル再構築<br>
+     * 現在の管理テーブルから一時ファイルにジャーナルを作成し、リネームで置き換える。
+     */
+    private void rebuildJournal() {
+        synchronized (mJournalLock) {
+            IOUtils.closeQuietly(mJournalWriter);
+            mJournalWriter = null;
+
+            final List<Entry<String, Long>> entries;
+            synchronized (mLruEntries) {
+                entries = new ArrayList<Entry<String, Long>>(mLruEntries.entrySet());
+            }
+            Writer writer = null;
+            try {
+                writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(mJournalFileTmp), JOURNAL_CHARSET), IO_BUFFER_SIZE);
+                writer.write(JOURNAL_MAGIC);
+                writer.write('\n');
+                writer.write(JOURNAL_VERSION);
+                writer.write('\n');
+                writer.write('\n');
+                for (final Entry<String, Long> entry : entries) {
+                    writer.write(CLEAN + ' ' + entry.getKey() + ' ' + entry.getValue() + '\n');
+                }
+                writer.close();
+                writer = null;
+                if (!mJournalFileTmp.renameTo(mJournalFile)) {
+                    throw new IOException("rename failed: " + mJournalFileTmp);
+                }
+                mRedundantOpCount = 0;
+            } catch (final IOException e) {
+                LogUtils.e("DiskLruCache", "rebuildJournal Error", e);
+                IOUtils.closeQuietly(writer);
+                mJournalFileTmp.delete();
+                // 不完全なジャーナルは次回起動時にディレクトリから再構築させる
+                mJournalFile.delete();
+                return;
+            }
+            openJournalWriter();
+        }
+    }
+
+    /**
+     * ジャーナルWriterオープン(追記モード)
+     */
+    private void openJournalWriter() {
+        synchronized (mJournalLock) {
+            try {
+                mJournalWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(mJournalFile, true), JOURNAL_CHARSET), IO_BUFFER_SIZE);
+            } catch (final IOException e) {
+                LogUtils.e("DiskLruCache", "openJournalWriter Error", e);
+                mJournalWriter = null;
+            }
+        }
+    }
+
+    /**
+     * ジャーナル追記
+     * <p>
+     * READ以外は即時にフラッシュする。冗長な操作が一定数を超えた場合はジャーナルを再構築する。
+     * </p>
+     *
+     * @param op
+     *         操作
+     * @param renameKey
+     *         変換後キー
+     * @param size
+     *         ファイルサイズ(CLEANのみ)
+     */
+    private void appendJournal(final String op, final String renameKey, final long size) {
+        synchronized (mJournalLock) {
+            if (mJournalWriter == null) {
+                return;
+            }
+            try {
+                if (CLEAN.equals(op)) {
+                    mJournalWriter.write(op + ' ' + renameKey + ' ' + size + '\n');
+                } else {
+                    mJournalWriter.write(op + ' ' + renameKey + '\n');
+                }
+                if (!READ.equals(op)) {
+                    mJournalWriter.flush();
+                }
+            } catch (final IOException e) {
+                LogUtils.e("DiskLruCache", "appendJournal Error", e);
+                IOUtils.closeQuietly(mJournalWriter);
+                mJournalWriter = null;
+                // 以降の操作が記録されないため、次回起動時にディレクトリから再構築させる
+                mJournalFile.delete();
+                return;
+            }
+            mRedundantOpCount++;
+            if (mRedundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD && mRedundantOpCount >= getMapSize()) {
+                rebuildJournal();
+            }
+        }
+    }
+
     /**
      * 画像データファイル書き込み<br>
      * Writes a bitmap to a file. Call {@link DiskLruCache#setCompressParams(CompressFormat, int)} first to set
@@ -497,7 +955,7 @@ public abstract class DiskLruCache {
      * @param file
      * @return
      */
-    private boolean writeBitmapToFile(final Bitmap bitmap, final String file) throws IOException, FileNotFoundException {
+    private static boolean writeBitmapToFile(final Bitmap bitmap, final File file) throws IOException {
         OutputStream out = null;
         try {
             out = new BufferedOutputStream(new FileOutputStream(file), IO_BUFFER_SIZE);
@@ -511,15 +969,13 @@ public abstract class DiskLruCache {
 
     /**
      * 文字データファイル書き込み<br>
-     * Writes a data to a file. Call {@link DiskLruCache#setCompressParams(CompressFormat, int)} first to set
-     * the target
-     * bitmap compression and format.
+     * Writes a data to a file.
      *
      * @param data
      * @param file
      * @return
      */
-    private boolean writeStringToFile(final String data, final String file) throws IOException, FileNotFoundException {
+    private static boolean writeStringToFile(final String data, final File file) throws IOException {
         OutputStream out = null;
         try {
             out = new BufferedOutputStream(new FileOutputStream(file), IO_BUFFER_SIZE);
@@ -532,65 +988,6 @@ public abstract class DiskLruCache {
         return true;
     }
 
-    /**
-     * キャッシュディレクトリの容量調整<br>
-     * Flush the cache, removing oldest entries if the total size is over the
-     * specified cache size. Note that this isn't
-     * keeping track of stale files in the cache directory that aren't in the
-     * HashMap. If the images and keys in the
-     * disk cache change often then they probably won't ever be removed.
-     */
-    private void flushCache() {
-        Entry<String, String> eldestEntry;
-        File eldestFile;
-        long eldestFileSize;
-        int count = 0;
-
-        // 削除したファイル数が、一度に削除するファイル数「MAX_REMOVALS」を超えるまえ
-        // キャッシュ保有ファイル数が制限値より小さくなるまで
-        // キャッシュ全ファイルサイズが制限値より小さくなるまで
-        while (count < MAX_REMOVALS && (mCcacheSize > MAX_CACHE_ITEM_SIZE || mCcacheByteSize > mMaxCacheByteSize)) {
-            eldestEntry = mLinkedHashMap.entrySet().iterator().next();
-            eldestFile = new File(eldestEntry.getValue());
-            eldestFileSize = eldestFile.length();
-            mLinkedHashMap.remove(eldestEntry.getKey());
-            eldestFile.delete();
-            mCcacheSize = mLinkedHashMap.size();
-            mCcacheByteSize -= eldestFileSize;
-            count++;
-        }
-    }
-
-    /**
-     * mLinkedHashMap設定
-     *
-     * @param key
-     * @param file
-     */
-    private void put(final String key, final String file) {
-        final String renameKey = getKey(key);
-        // キャッシュファイル管理テーブル 更新
-        mLinkedHashMap.put(renameKey, file);
-        // キャッシュファイル数 更新
-        mCcacheSize = mLinkedHashMap.size();
-        // キャッシュサイズ 更新
-        mCcacheByteSize += new File(file).length();
-    }
-
-    /**
-     * LinkedHashMap初期化
-     *
-     * @param files
-     */
-    private void initLinkedHashMap(final File files) {
-        final File[] listFiles = files.listFiles();
-        // 全キャッシュファイルをキャッシュファイル管理テーブルに設定(更新日時の昇順)
-        Arrays.sort(listFiles, new FileSort());
-        for (final File file : listFiles) {
-            mLinkedHashMap.put(createMapKey(file.getName()), file.getAbsolutePath());
-        }
-    }
-
     /**
      * キー取得メソッド
      * <p>
@@ -605,23 +1002,81 @@ public abstract class DiskLruCache {
         return Uri.encode(key);
     }
 
+    // ----------------------------------------------------------
+    // インナークラス
+    // ----------------------------------------------------------
+
     /**
-     * 全ファイルサイズ取得
-     *
-     * @param files
-     * @return 指定ディレクトリの全ファイルサイズの合算値
+     * キャッシュエントリ書き込みインタフェース
      */
-    private static long getAllFileSize(final File files) {
-        long allFileSize = 0;
-        for (final File file : files.listFiles()) {
-            allFileSize += file.length();
-        }
-        return allFileSize;
+    private interface EntryWriter {
+        /**
+         * 一時ファイルへの書き込み
+         *
+         * @param file
+         *         書き込み先の一時ファイル
+         * @return true:成功 false:失敗
+         * @throws IOException
+         */
+        boolean write(File file) throws IOException;
     }
 
-    // ----------------------------------------------------------
-    // インナークラス
-    // ----------------------------------------------------------
+    /**
+     * キャッシュエントリのスナップショットクラス
+     * <p>
+     * 取得時点のファイルをオープンした状態で保持する。同じキーのスナップショットは複数同時に保持できる。
+     * </p>
+     */
+    public static final class Snapshot implements Closeable {
+        /** キー */
+        private final String mKey;
+        /** キャッシュファイル */
+        private final File mFile;
+        /** 入力ストリーム */
+        private final InputStream mInputStream;
+
+        /**
+         * コンストラクタ
+         *
+         * @param key
+         *         キー
+         * @param file
+         *         キャッシュファイル
+         * @param inputStream
+         *         入力ストリーム
+         */
+        private Snapshot(final String key, final File file, final InputStream inputStream) {
+            mKey = key;
+            mFile = file;
+            mInputStream = inputStream;
+        }
+
+        /**
+         * @return キー
+         */
+        public String getKey() {
+            return mKey;
+        }
+
+        /**
+         * @return キャッシュファイル(取得後に削除・上書きされている可能性がある)
+         */
+        public File getFile() {
+            return mFile;
+        }
+
+        /**
+         * @return 入力ストリーム
+         */
+        public InputStream getInputStream() {
+            return mInputStream;
+        }
+
+        @Override
+        public void close() {
+            IOUtils.closeQuietly(mInputStream);
+        }
+    }
 
     /**
      * ファイル更新日時ソートクラス
@@ -629,7 +1084,8 @@ public abstract class DiskLruCache {
     private static class FileSort implements Comparator<File> {
         @Override
         public int compare(final File f1, final File f2) {
-            return (int) (f1.lastModified() - f2.lastModified());
+            final long diff = f1.lastModified() - f2.lastModified();
+            return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
         }
     }
 
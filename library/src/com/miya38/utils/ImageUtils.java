@@ -8,7 +8,6 @@ import android.graphics.Bitmap.Config;
 import android.graphics.BitmapFactory;
 import android.graphics.BitmapFactory.Options;
 import android.graphics.Canvas;
-import android.graphics.Color;
 import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.PorterDuff.Mode;
@@ -18,8 +17,17 @@ import android.graphics.RectF;
 import android.os.Build;
 import android.util.DisplayMetrics;
 
+import com.android.volley.toolbox.BitmapPool;
+import com.miya38.utils.image.ImageFilter;
+import com.miya38.utils.image.ImageFilterPipeline;
+import com.miya38.utils.image.ImageStripFilter;
+import com.miya38.utils.image.JavaImageFilter;
+import com.miya38.utils.image.MosaicFilter;
+import com.miya38.utils.image.RenderScriptImageFilter;
+
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -52,6 +60,8 @@ public final class ImageUtils {
     // ----------------------------------------------------------
     /** Context */
     private static Context sContext;
+    /** 画像フィルター */
+    private static volatile ImageFilter sImageFilter;
 
     /**
      * コンストラクタを隠蔽し、インスタンス化を禁止します。
@@ -70,31 +80,48 @@ public final class ImageUtils {
         sContext = context;
     }
 
-    // static {
-    // System.loadLibrary("Image");
-    // }
-
-    /* implementend by libplasma.so */
-
-    // private static native void Mozaic(int[] pixels, int width, int height,
-    // int originalWidth, int originalHeight, int
-    // dot, int square);
-    //
-    // private static native void Grayscale(int[] pixels, int width, int
-    // height);
-    //
-    // private static native void Negative(int[] pixels, int width, int height);
-    //
-    // private static native void Brightness(int[] pixels, int width, int
-    // height, int setting);
-    //
-    // private static native void Contrast(int[] pixels, int width, int height,
-    // int setting);
-    //
-    // private static native void Saturation(int[] pixels, int width, int
-    // height, int setting);
-    //
-    // private static native void Sepia(int[] pixels, int width, int height);
+    /**
+     * 画像フィルター設定
+     * <p>
+     * 各フィルター処理の実装を差し替える。nullを指定した場合は{@link JavaImageFilter}を使用する。
+     * </p>
+     *
+     * @param imageFilter
+     *         {@link ImageFilter}
+     */
+    public static void setImageFilter(final ImageFilter imageFilter) {
+        sImageFilter = imageFilter;
+    }
+
+    /**
+     * 画像フィルター取得
+     * <p>
+     * 初回呼び出し時に、KitKat以上でRenderScriptが使用でき変換結果がJava実装と一致する端末では{@link RenderScriptImageFilter}を、
+     * それ以外の端末と{@link #configure(Context)}を呼び出していない場合は{@link JavaImageFilter}を選択する。
+     * RenderScriptの初期化に時間がかかるため、初回はメインスレッド以外で呼び出すことが望ましい。
+     * </p>
+     *
+     * @return {@link ImageFilter}
+     */
+    public static ImageFilter getImageFilter() {
+        ImageFilter imageFilter = sImageFilter;
+        if (imageFilter == null) {
+            if (sContext == null) {
+                return JavaImageFilter.getInstance();
+            }
+            synchronized (ImageUtils.class) {
+                imageFilter = sImageFilter;
+                if (imageFilter == null) {
+                    imageFilter = RenderScriptImageFilter.create(sContext);
+                    if (imageFilter == null) {
+                        imageFilter = JavaImageFilter.getInstance();
+                    }
+                    sImageFilter = imageFilter;
+                }
+            }
+        }
+        return imageFilter;
+    }
 
     /**
      * イメージリサイズ処理(Bitmap→Bitmap)<br>
@@ -178,12 +205,13 @@ public final class ImageUtils {
             options.inMutable = true;
         }
         options.inSampleSize = Math.max(scaleWidth, scaleHeight);
-        options.inPurgeable = true;
+        // inBitmapが使えない場合のみPurgeableにする
+        options.inPurgeable = !BitmapPool.isSupported();
 
-        Bitmap tmpBitmap = BitmapFactory.decodeFile(filename, options);
+        Bitmap tmpBitmap = BitmapPool.getDefault().decodeFile(filename, options);
         final Bitmap resizeBitmap = imageResize(tmpBitmap, w, h);
         if (tmpBitmap != null && !tmpBitmap.equals(resizeBitmap)) {
-            tmpBitmap.recycle();
+            recycleOrPool(tmpBitmap);
             tmpBitmap = null;
         }
         return resizeBitmap;
@@ -230,14 +258,15 @@ public final class ImageUtils {
             options.inMutable = true;
         }
         options.inSampleSize = Math.max(scaleWidth, scaleHeight);
-        options.inPurgeable = true;
+        // inBitmapが使えない場合のみPurgeableにする
+        options.inPurgeable = !BitmapPool.isSupported();
 
-        Bitmap tmpBitmap = BitmapFactory.decodeByteArray(byteData, 0, byteData.length, options); // 画像を縮小
+        Bitmap tmpBitmap = BitmapPool.getDefault().decodeByteArray(byteData, 0, byteData.length, options); // 画像を縮小
         // or
         // 拡大して読み込み
         final Bitmap resizeBitmap = imageResize(tmpBitmap, w, h);
         if (tmpBitmap != null && !tmpBitmap.equals(resizeBitmap)) {
-            tmpBitmap.recycle();
+            recycleOrPool(tmpBitmap);
             tmpBitmap = null;
         }
 
@@ -338,6 +367,9 @@ public final class ImageUtils {
 
     /**
      * モザイク変換処理 画面全体に対してモザイクをかける
+     * <p>
+     * 画像の左上から16ピクセル四方のブロックに区切り、各ブロックを平均色で塗りつぶす。
+     * </p>
      *
      * @param bitmap
      *         ビットマップ
@@ -347,58 +379,32 @@ public final class ImageUtils {
         // BitmapFactory.Options options = new BitmapFactory.Options();
         // options.inSampleSize = 8;
         final Bitmap rBitmap = bitmap.copy(Bitmap.Config.ARGB_8888, true); // モザイク用画像
+        new MosaicFilter().addRegion(new Rect(0, 0, rBitmap.getWidth(), rBitmap.getHeight()), MOZAIC_DOT).apply(rBitmap);
+        return rBitmap;
+    }
 
-        int width, height, originalWidth, originalHeight;
-        originalWidth = rBitmap.getWidth(); // 画像横幅
-        originalHeight = rBitmap.getHeight(); // 画像縦幅
-        width = originalWidth / MOZAIC_DOT; // 画像横幅×モザイク幅
-        height = originalHeight / MOZAIC_DOT; // 画像縦幅×モザイク幅
-
-        final int[] pixels = new int[originalWidth * originalHeight]; // 設定するピクセルを領域取得
-        rBitmap.getPixels(pixels, 0, originalWidth, 0, 0, originalWidth, originalHeight);
-
-        // ----------------------------------------------------
-        // ARMアーキテクチャの場合
-        // ----------------------------------------------------
-        final String arch = System.getProperty("os.arch");
-        if (arch.contains("arm")) {
-            // Nativeのモザイク処理を呼び出す
-            // Mozaic(pixels, width, height, originalWidth, originalHeight, dot,
-            // square);
-            // ----------------------------------------------------
-            // ARMアーキテクチャ以外の場合
-            // ----------------------------------------------------
-        } else {
-            // ピクセルデータ分ループ
-            for (int i = 0; i < width; i++) {
-                for (int j = 0; j < height; j++) {
-                    // ----------------------------------------------------
-                    // モザイク変換
-                    // 計算式:指定ドット数のカラー値平均値
-                    // ----------------------------------------------------
-                    final int moveX = i * MOZAIC_DOT;
-                    final int moveY = j * MOZAIC_DOT;
-                    /*
-                     * // ドットの中の平均値を使う int rr = 0; int gg = 0; int bb = 0; for
-                     * (int k=0;k<dot;k++) { for (int l=0;l<dot;l++){ int
-                     * dotColor = pixels[moveX+k + (moveY+l) * originalWidth];
-                     * rr += Color.red(dotColor); gg += Color.green(dotColor);
-                     * bb += Color.blue(dotColor); } } rr = rr / square; gg = gg
-                     * / square; bb = bb / square; for (int k=0;k<dot;k++) { for
-                     * (int l=0;l<dot;l++){ pixels[moveX+k + (moveY+l) *
-                     * originalWidth] = Color.rgb(rr, gg, bb); } }
-                     */
-                    for (int k = 1; k < MOZAIC_DOT; k++) {
-                        for (int l = 1; l < MOZAIC_DOT; l++) {
-                            // アルファ値＋赤＋緑＋青
-                            pixels[moveX + k + (moveY + l) * originalWidth] = pixels[moveX + k - 1 + (moveY + l - 1) * originalWidth];
-                        }
-                    }
-                }
-            }
+    /**
+     * モザイク変換処理 指定した複数の領域に対してモザイクをかける
+     * <p>
+     * 各ブロックを平均色で塗りつぶす。顔の匿名化等、写真の複数の領域にモザイクをかける場合に使用する。
+     * 領域毎にブロックの大きさを変える場合は{@link MosaicFilter}を使用する。
+     * </p>
+     *
+     * @param bitmap
+     *         ビットマップ
+     * @param regions
+     *         モザイクをかける領域(画像の外にはみ出した部分は無視する)
+     * @param dot
+     *         モザイクのドット
+     * @return 変換後のビットマップ
+     */
+    public static Bitmap setMosaic(final Bitmap bitmap, final Rect[] regions, final int dot) {
+        final Bitmap rBitmap = bitmap.copy(Bitmap.Config.ARGB_8888, true); // モザイク用画像
+        final MosaicFilter mosaicFilter = new MosaicFilter();
+        for (final Rect region : regions) {
+            mosaicFilter.addRegion(region, dot);
         }
-        // 設定するピクセルを一気に指定
-        rBitmap.setPixels(pixels, 0, originalWidth, 0, 0, originalWidth, originalHeight);
+        mosaicFilter.apply(rBitmap);
         return rBitmap;
     }
 
@@ -422,11 +428,9 @@ public final class ImageUtils {
         // options.inSampleSize = 8;
         Bitmap rBitmap = bitmap.copy(Bitmap.Config.ARGB_8888, true); // モザイク用画像
 
-        int width, height, originalWidth, originalHeight;
+        int originalWidth, originalHeight;
         originalWidth = rBitmap.getWidth(); // 画像横幅
         originalHeight = rBitmap.getHeight(); // 画像縦幅
-        width = originalWidth / MOZAIC_DOT; // 画像横幅×モザイク幅
-        height = originalHeight / MOZAIC_DOT; // 画像縦幅×モザイク幅
 
         // ----------------------------------------------------
         // 横幅or縦幅を超えて位置を指定されている場合は、モザイクをかけない
@@ -466,50 +470,8 @@ public final class ImageUtils {
         }
         mozaicHeight = mozaicHeight > 0 ? mozaicHeight : 0;
 
-        final int[] pixels = new int[originalWidth * originalHeight]; // 設定するピクセルを領域取得
-        rBitmap.getPixels(pixels, 0, originalWidth, mozaicX, mozaicY, mozaicWidth, mozaicHeight);
-        // ----------------------------------------------------
-        // ARMアーキテクチャの場合
-        // ----------------------------------------------------
-        final String arch = System.getProperty("os.arch");
-        if (arch.contains("arm")) {
-            // Nativeのモザイク処理を呼び出す
-            // Mozaic(pixels, width, height, originalWidth, originalHeight, dot,
-            // square);
-            // ----------------------------------------------------
-            // ARMアーキテクチャ以外の場合
-            // ----------------------------------------------------
-        } else {
-            // ピクセルデータ分ループ
-            for (int i = 0; i < width; i++) {
-                for (int j = 0; j < height; j++) {
-                    // ----------------------------------------------------
-                    // モザイク変換
-                    // 計算式:指定ドット数のカラー値平均値
-                    // ----------------------------------------------------
-                    final int moveX = i * MOZAIC_DOT;
-                    final int moveY = j * MOZAIC_DOT;
-                    /*
-                     * // ドットの中の平均値を使う int rr = 0; int gg = 0; int bb = 0; for
-                     * (int k=0;k<dot;k++) { for (int l=0;l<dot;l++){ int
-                     * dotColor = pixels[moveX+k + (moveY+l) * originalWidth];
-                     * rr += Color.red(dotColor); gg += Color.green(dotColor);
-                     * bb += Color.blue(dotColor); } } rr = rr / square; gg = gg
-                     * / square; bb = bb / square; for (int k=0;k<dot;k++) { for
-                     * (int l=0;l<dot;l++){ pixels[moveX+k + (moveY+l) *
-                     * originalWidth] = Color.rgb(rr, gg, bb); } }
-                     */
-                    for (int k = 1; k < MOZAIC_DOT; k++) {
-                        for (int l = 1; l < MOZAIC_DOT; l++) {
-                            // アルファ値＋赤＋緑＋青
-                            pixels[moveX + k + (moveY + l) * originalWidth] = pixels[moveX + k - 1 + (moveY + l - 1) * originalWidth];
-                        }
-                    }
-                }
-            }
-        }
-        // 設定するピクセルを一気に指定
-        rBitmap.setPixels(pixels, 0, originalWidth, mozaicX, mozaicY, mozaicWidth, mozaicHeight);
+        // モザイク変換
+        new MosaicFilter().addRegion(new Rect(mozaicX, mozaicY, mozaicX + mozaicWidth, mozaicY + mozaicHeight), MOZAIC_DOT).apply(rBitmap);
         return rBitmap;
     }
 
@@ -530,7 +492,7 @@ public final class ImageUtils {
      */
     public static Bitmap setMosaic(final String filename, float left, float top, final float right, final float bottom) {
         // long start = System.currentTimeMillis();
-        int width, height, originalWidth, originalHeight;
+        int originalWidth, originalHeight;
         Bitmap rBitmap = null;
 
         // BitmapFactory.Options options = new BitmapFactory.Options();
@@ -541,8 +503,6 @@ public final class ImageUtils {
 
             originalWidth = rBitmap.getWidth(); // 画像横幅
             originalHeight = rBitmap.getHeight(); // 画像縦幅
-            width = originalWidth / MOZAIC_DOT; // 画像横幅×モザイク幅
-            height = originalHeight / MOZAIC_DOT; // 画像縦幅×モザイク幅
 
             // ----------------------------------------------------
             // 横幅or縦幅を超えて位置を指定されている場合は、モザイクをかけない
@@ -582,51 +542,8 @@ public final class ImageUtils {
             }
             mozaicHeight = mozaicHeight > 0 ? mozaicHeight : 0;
 
-            final int[] pixels = new int[originalWidth * originalHeight]; // 設定するピクセルを領域取得
-            rBitmap.getPixels(pixels, 0, originalWidth, mozaicX, mozaicY, mozaicWidth, mozaicHeight);
-            // ----------------------------------------------------
-            // ARMアーキテクチャの場合
-            // ----------------------------------------------------
-            final String arch = System.getProperty("os.arch");
-            if (arch.contains("arm")) {
-                // Nativeのモザイク処理を呼び出す
-                // Mozaic(pixels, width, height, originalWidth, originalHeight,
-                // dot, square);
-                // ----------------------------------------------------
-                // ARMアーキテクチャ以外の場合
-                // ----------------------------------------------------
-            } else {
-                // ピクセルデータ分ループ
-                for (int i = 0; i < width; i++) {
-                    for (int j = 0; j < height; j++) {
-                        // ----------------------------------------------------
-                        // モザイク変換
-                        // 計算式:指定ドット数のカラー値平均値
-                        // ----------------------------------------------------
-                        final int moveX = i * MOZAIC_DOT;
-                        final int moveY = j * MOZAIC_DOT;
-                        /*
-                         * // ドットの中の平均値を使う int rr = 0; int gg = 0; int bb = 0;
-                         * for (int k=0;k<dot;k++) { for (int l=0;l<dot;l++){
-                         * int dotColor = pixels[moveX+k + (moveY+l) *
-                         * originalWidth]; rr += Color.red(dotColor); gg +=
-                         * Color.green(dotColor); bb += Color.blue(dotColor); }
-                         * } rr = rr / square; gg = gg / square; bb = bb /
-                         * square; for (int k=0;k<dot;k++) { for (int
-                         * l=0;l<dot;l++){ pixels[moveX+k + (moveY+l) *
-                         * originalWidth] = Color.rgb(rr, gg, bb); } }
-                         */
-                        for (int k = 1; k < MOZAIC_DOT; k++) {
-                            for (int l = 1; l < MOZAIC_DOT; l++) {
-                                // アルファ値＋赤＋緑＋青
-                                pixels[moveX + k + (moveY + l) * originalWidth] = pixels[moveX + k - 1 + (moveY + l - 1) * originalWidth];
-                            }
-                        }
-                    }
-                }
-            }
-            // 設定するピクセルを一気に指定
-            rBitmap.setPixels(pixels, 0, originalWidth, mozaicX, mozaicY, mozaicWidth, mozaicHeight);
+            // モザイク変換
+            new MosaicFilter().addRegion(new Rect(mozaicX, mozaicY, mozaicX + mozaicWidth, mozaicY + mozaicHeight), MOZAIC_DOT).apply(rBitmap);
         } catch (final Exception e) {
             // 何もしない。
         }
@@ -642,38 +559,8 @@ public final class ImageUtils {
      * @return 変換後のビットマップ
      */
     public static Bitmap setGrayscale(final Bitmap bitmap) {
-        final int width = bitmap.getWidth(); // 画像横幅
-        final int height = bitmap.getHeight(); // 画像縦幅
         final Bitmap rBitmap = bitmap.copy(Bitmap.Config.ARGB_8888, true); // 画像をコピー(しないと元画像自体が変更される)
-
-        final int[] pixels = new int[width * height]; // 設定するピクセルを領域取得
-        rBitmap.getPixels(pixels, 0, width, 0, 0, width, height); // 設定するピクセルを領域取得
-        // ----------------------------------------------------
-        // ARMアーキテクチャの場合
-        // ----------------------------------------------------
-        final String arch = System.getProperty("os.arch");
-        if (arch.contains("arm")) {
-            // Nativeのグレースケール処理を呼び出す
-            // Grayscale(pixels, width, height); // Native C method(Grayscale)
-            // ----------------------------------------------------
-            // ARMアーキテクチャ以外の場合
-            // ----------------------------------------------------
-        } else {
-            // ピクセルデータ分ループ
-            // グレースケール計算を行う
-            for (int i = 0; i < width; i++) {
-                for (int j = 0; j < height; j++) {
-                    // ----------------------------------------------------
-                    // グレースケール変換
-                    // 計算式:R * 0.299 + G * 587 + B * 114
-                    // ----------------------------------------------------
-                    final int color = pixels[i + j * width];
-                    final int data = (299 * Color.red(color) + 587 * Color.green(color) + 114 * Color.blue(color)) / 1000;
-                    pixels[i + j * width] = Color.rgb(data, data, data);
-                }
-            }
-        }
-        rBitmap.setPixels(pixels, 0, width, 0, 0, width, height); // 設定するピクセルを一気に指定
+        getImageFilter().grayscale(rBitmap);
         return rBitmap;
     }
 
@@ -685,50 +572,7 @@ public final class ImageUtils {
      * @return 変換後のファイル名
      */
     public static Bitmap setGrayscale(final String filename) {
-        // long start = System.currentTimeMillis();
-
-        Bitmap rBitmap = null;
-
-        try {
-            rBitmap = FileApplicationUtils.readBitmap(filename); // ファイルからBitmap取得
-            rBitmap = rBitmap.copy(Bitmap.Config.ARGB_8888, true); // Mutableへの変更(ようするに編集可能にする)
-            final int width = rBitmap.getWidth(); // ビットマップの横幅取得
-            final int height = rBitmap.getHeight(); // ビットマップの縦幅取得
-            final int[] pixels = new int[width * height]; // 設定するピクセルを領域取得
-
-            rBitmap.getPixels(pixels, 0, width, 0, 0, width, height); // 設定するピクセルを領域取得
-            // ----------------------------------------------------
-            // ARMアーキテクチャの場合
-            // ----------------------------------------------------
-            final String arch = System.getProperty("os.arch");
-            if (arch.contains("arm")) {
-                // Nativeのグレースケール処理を呼び出す
-                // Grayscale(pixels, width, height); // Native C
-                // method(Grayscale)
-                // ----------------------------------------------------
-                // ARMアーキテクチャ以外の場合
-                // ----------------------------------------------------
-            } else {
-                // ピクセルデータ分ループ
-                // グレースケール計算を行う
-                for (int i = 0; i < width; i++) {
-                    for (int j = 0; j < height; j++) {
-                        // ----------------------------------------------------
-                        // グレースケール変換
-                        // 計算式:R * 0.299 + G * 587 + B * 114
-                        // ----------------------------------------------------
-                        final int color = pixels[i + j * width];
-                        final int data = (299 * Color.red(color) + 587 * Color.green(color) + 114 * Color.blue(color)) / 1000;
-                        pixels[i + j * width] = Color.rgb(data, data, data);
-                    }
-                }
-            }
-            rBitmap.setPixels(pixels, 0, width, 0, 0, width, height); // 設定するピクセルを一気に指定
-        } catch (final Exception e) {
-            // 何もしない。
-        }
-        // long end = System.currentTimeMillis();
-        return rBitmap;
+        return setFilter(filename, new ImageFilterPipeline().grayscale());
     }
 
     /**
@@ -739,38 +583,8 @@ public final class ImageUtils {
      * @return 変換後のビットマップ
      */
     public static Bitmap setNegative(final Bitmap bitmap) {
-        final int width = bitmap.getWidth(); // 画像横幅
-        final int height = bitmap.getHeight(); // 画像縦幅
-        final int[] pixels = new int[width * height]; // 設定するピクセルを領域取得
         final Bitmap rBitmap = bitmap.copy(Bitmap.Config.ARGB_8888, true); // 画像をコピー(しないと元画像自体が変更される)
-        rBitmap.getPixels(pixels, 0, width, 0, 0, width, height); // 設定するピクセルを領域取得
-        // ----------------------------------------------------
-        // ARMアーキテクチャの場合
-        // ----------------------------------------------------
-        final String arch = System.getProperty("os.arch");
-        if (arch.contains("arm")) {
-            // Nativeのネガティブ処理を呼び出す
-            // Negative(pixels, width, height); // Native C method(Negative)
-            // ----------------------------------------------------
-            // ARMアーキテクチャ以外の場合
-            // ----------------------------------------------------
-        } else {
-            // ピクセルデータ分ループ
-            for (int i = 0; i < width; i++) {
-                for (int j = 0; j < height; j++) {
-                    // ----------------------------------------------------
-                    // ネガティブ変換
-                    // 計算式:カラー最大値 - 現在カラー値
-                    // ----------------------------------------------------
-                    final int color = pixels[i + j * width];
-                    final int rr = 255 - Color.red(color);
-                    final int gg = 255 - Color.green(color);
-                    final int bb = 255 - Color.blue(color);
-                    pixels[i + j * width] = Color.rgb(rr, gg, bb);
-                }
-            }
-        }
-        rBitmap.setPixels(pixels, 0, width, 0, 0, width, height);
+        getImageFilter().negative(rBitmap);
         return rBitmap;
     }
 
@@ -782,49 +596,7 @@ public final class ImageUtils {
      * @return 変換後のビットマップ
      */
     public static Bitmap setNegative(final String filename) {
-        // long start = System.currentTimeMillis();
-        Bitmap rBitmap = null;
-
-        try {
-            rBitmap = FileApplicationUtils.readBitmap(filename); // ファイルからBitmap取得
-            rBitmap = rBitmap.copy(Bitmap.Config.ARGB_8888, true); // Mutableへの変更(ようするに編集可能にする)
-            final int width = rBitmap.getWidth(); // ビットマップの横幅取得
-            final int height = rBitmap.getHeight(); // ビットマップの縦幅取得
-            final int[] pixels = new int[width * height]; // 設定するピクセルを領域取得
-
-            rBitmap.getPixels(pixels, 0, width, 0, 0, width, height); // 設定するピクセルを領域取得
-            // ----------------------------------------------------
-            // ARMアーキテクチャの場合
-            // ----------------------------------------------------
-            final String arch = System.getProperty("os.arch");
-            if (arch.contains("arm")) {
-                // Nativeのネガティブ処理を呼び出す
-                // Negative(pixels, width, height); // Native C method(Negative)
-                // ----------------------------------------------------
-                // ARMアーキテクチャ以外の場合
-                // ----------------------------------------------------
-            } else {
-                // ピクセルデータ分ループ
-                for (int i = 0; i < width; i++) {
-                    for (int j = 0; j < height; j++) {
-                        // ----------------------------------------------------
-                        // ネガティブ変換
-                        // 計算式:カラー最大値 - 現在カラー値
-                        // ----------------------------------------------------
-                        final int color = pixels[i + j * width];
-                        final int rr = 255 - Color.red(color);
-                        final int gg = 255 - Color.green(color);
-                        final int bb = 255 - Color.blue(color);
-                        pixels[i + j * width] = Color.rgb(rr, gg, bb);
-                    }
-                }
-            }
-            rBitmap.setPixels(pixels, 0, width, 0, 0, width, height);
-        } catch (final Exception e) {
-            // 何もしない。
-        }
-        // long end = System.currentTimeMillis();
-        return rBitmap;
+        return setFilter(filename, new ImageFilterPipeline().negative());
     }
 
     /**
@@ -837,50 +609,8 @@ public final class ImageUtils {
      * @return 変換後のビットマップ
      */
     public static Bitmap setBrightness(final Bitmap bitmap, final int setting) {
-        final int width = bitmap.getWidth(); // 画像横幅
-        final int height = bitmap.getHeight(); // 画像縦幅
-        final int[] pixels = new int[width * height]; // 設定するピクセルを領域取得
         final Bitmap rBitmap = bitmap.copy(Bitmap.Config.ARGB_8888, true); // 画像をコピー(しないと元画像自体が変更される)
-        rBitmap.getPixels(pixels, 0, width, 0, 0, width, height); // 設定するピクセルを領域取得
-        // ----------------------------------------------------
-        // ARMアーキテクチャの場合
-        // ----------------------------------------------------
-        final String arch = System.getProperty("os.arch");
-        if (arch.contains("arm")) {
-            // Nativeの明るさ処理を呼び出す
-            // Brightness(pixels, width, height, setting); // Native C
-            // method(Brightness)
-            // ----------------------------------------------------
-            // ARMアーキテクチャ以外の場合
-            // ----------------------------------------------------
-        } else {
-            // ピクセルデータ分ループ
-            for (int i = 0; i < width; i++) {
-                for (int j = 0; j < height; j++) {
-                    final int color = pixels[i + j * width];
-                    int rr = Color.red(color) * setting / 50;
-                    int gg = Color.green(color) * setting / 50;
-                    int bb = Color.blue(color) * setting / 50;
-                    if (rr > 255) {
-                        rr = 255;
-                    } else if (rr < 0) {
-                        rr = 0;
-                    }
-                    if (gg > 255) {
-                        gg = 255;
-                    } else if (gg < 0) {
-                        gg = 0;
-                    }
-                    if (bb > 255) {
-                        bb = 255;
-                    } else if (bb < 0) {
-                        bb = 0;
-                    }
-                    pixels[i + j * width] = Color.rgb(rr, gg, bb);
-                }
-            }
-        }
-        rBitmap.setPixels(pixels, 0, width, 0, 0, width, height);
+        getImageFilter().brightness(rBitmap, setting);
         return rBitmap;
     }
 
@@ -894,60 +624,7 @@ public final class ImageUtils {
      * @return 変換後のビットマップ
      */
     public static Bitmap setBrightness(final String filename, final int setting) {
-        // long start = System.currentTimeMillis();
-        Bitmap rBitmap = null;
-
-        try {
-            rBitmap = FileApplicationUtils.readBitmap(filename); // ファイルからBitmap取得
-            rBitmap = rBitmap.copy(Bitmap.Config.ARGB_8888, true); // Mutableへの変更(ようするに編集可能にする)
-            final int width = rBitmap.getWidth(); // ビットマップの横幅取得
-            final int height = rBitmap.getHeight(); // ビットマップの縦幅取得
-            final int[] pixels = new int[width * height]; // 設定するピクセルを領域取得
-            rBitmap.getPixels(pixels, 0, width, 0, 0, width, height); // 設定するピクセルを領域取得
-            // ----------------------------------------------------
-            // ARMアーキテクチャの場合
-            // ----------------------------------------------------
-            final String arch = System.getProperty("os.arch");
-            if (arch.contains("arm")) {
-                // Nativeの明るさ処理を呼び出す
-                // Brightness(pixels, width, height, setting); // Native C
-                // method(Brightness)
-                // ----------------------------------------------------
-                // ARMアーキテクチャ以外の場合
-                // ----------------------------------------------------
-            } else {
-                // ピクセルデータ分ループ
-                for (int i = 0; i < width; i++) {
-                    for (int j = 0; j < height; j++) {
-                        final int color = pixels[i + j * width];
-                        int rr = Color.red(color) * setting / 50;
-                        int gg = Color.green(color) * setting / 50;
-                        int bb = Color.blue(color) * setting / 50;
-                        if (rr > 255) {
-                            rr = 255;
-                        } else if (rr < 0) {
-                            rr = 0;
-                        }
-                        if (gg > 255) {
-                            gg = 255;
-                        } else if (gg < 0) {
-                            gg = 0;
-                        }
-                        if (bb > 255) {
-                            bb = 255;
-                        } else if (bb < 0) {
-                            bb = 0;
-                        }
-                        pixels[i + j * width] = Color.rgb(rr, gg, bb);
-                    }
-                }
-            }
-            rBitmap.setPixels(pixels, 0, width, 0, 0, width, height);
-        } catch (final Exception e) {
-            // 何もしない。
-        }
-        // long end = System.currentTimeMillis();
-        return rBitmap;
+        return setFilter(filename, new ImageFilterPipeline().brightness(setting));
     }
 
     /**
@@ -960,54 +637,8 @@ public final class ImageUtils {
      * @return 変換後のビットマップ
      */
     public static Bitmap setContrast(final Bitmap bitmap, final int setting) {
-        final int width = bitmap.getWidth(); // 画像横幅
-        final int height = bitmap.getHeight(); // 画像縦幅
-        final int[] pixels = new int[width * height]; // 設定するピクセルを領域取得
         final Bitmap rBitmap = bitmap.copy(Bitmap.Config.ARGB_8888, true); // 画像をコピー(しないと元画像自体が変更される)
-        rBitmap.getPixels(pixels, 0, width, 0, 0, width, height); // 設定するピクセルを領域取得
-        // ----------------------------------------------------
-        // ARMアーキテクチャの場合
-        // ----------------------------------------------------
-        final String arch = System.getProperty("os.arch");
-        if (arch.contains("arm")) {
-            // Nativeの明るさ処理を呼び出す
-            // Contrast(pixels, width, height, setting); // Native C
-            // method(contrast)
-            // ----------------------------------------------------
-            // ARMアーキテクチャ以外の場合
-            // ----------------------------------------------------
-        } else {
-            // ピクセルデータ分ループ
-            for (int i = 0; i < width; i++) {
-                for (int j = 0; j < height; j++) {
-                    final int color = pixels[i + j * width];
-                    // ----------------------------------------------------
-                    // コントラスト変換処理
-                    // 計算式 ((現在のカラー - 128) * ？%) + 128
-                    // ----------------------------------------------------
-                    int rr = (Color.red(color) - 128) * setting / 50 + 128;
-                    int gg = (Color.green(color) - 128) * setting / 50 + 128;
-                    int bb = (Color.blue(color) - 128) * setting / 50 + 128;
-                    if (rr > 255) {
-                        rr = 255;
-                    } else if (rr < 0) {
-                        rr = 0;
-                    }
-                    if (gg > 255) {
-                        gg = 255;
-                    } else if (gg < 0) {
-                        gg = 0;
-                    }
-                    if (bb > 255) {
-                        bb = 255;
-                    } else if (bb < 0) {
-                        bb = 0;
-                    }
-                    pixels[i + j * width] = Color.rgb(rr, gg, bb);
-                }
-            }
-        }
-        rBitmap.setPixels(pixels, 0, width, 0, 0, width, height);
+        getImageFilter().contrast(rBitmap, setting);
         return rBitmap;
     }
 
@@ -1021,64 +652,7 @@ public final class ImageUtils {
      * @return 変換後のビットマップ
      */
     public static Bitmap setContrast(final String filename, final int setting) {
-        // long start = System.currentTimeMillis();
-        Bitmap rBitmap = null;
-
-        try {
-            rBitmap = FileApplicationUtils.readBitmap(filename); // ファイルからBitmap取得
-            rBitmap = rBitmap.copy(Bitmap.Config.ARGB_8888, true); // Mutableへの変更(ようするに編集可能にする)
-            final int width = rBitmap.getWidth(); // ビットマップの横幅取得
-            final int height = rBitmap.getHeight(); // ビットマップの縦幅取得
-            final int[] pixels = new int[width * height]; // 設定するピクセルを領域取得
-            rBitmap.getPixels(pixels, 0, width, 0, 0, width, height); // 設定するピクセルを領域取得
-            // ----------------------------------------------------
-            // ARMアーキテクチャの場合
-            // ----------------------------------------------------
-            final String arch = System.getProperty("os.arch");
-            if (arch.contains("arm")) {
-                // Nativeのコントラスト処理を呼び出す
-                // Contrast(pixels, width, height, setting); // Native C
-                // method(contrast)
-                // ----------------------------------------------------
-                // ARMアーキテクチャ以外の場合
-                // ----------------------------------------------------
-            } else {
-                // ピクセルデータ分ループ
-                for (int i = 0; i < width; i++) {
-                    for (int j = 0; j < height; j++) {
-                        final int color = pixels[i + j * width];
-                        // ----------------------------------------------------
-                        // コントラスト変換処理
-                        // 計算式 ((現在のカラー - 128) * ？%) + 128
-                        // ----------------------------------------------------
-                        int rr = (Color.red(color) - 128) * setting / 50 + 128;
-                        int gg = (Color.green(color) - 128) * setting / 50 + 128;
-                        int bb = (Color.blue(color) - 128) * setting / 50 + 128;
-                        if (rr > 255) {
-                            rr = 255;
-                        } else if (rr < 0) {
-                            rr = 0;
-                        }
-                        if (gg > 255) {
-                            gg = 255;
-                        } else if (gg < 0) {
-                            gg = 0;
-                        }
-                        if (bb > 255) {
-                            bb = 255;
-                        } else if (bb < 0) {
-                            bb = 0;
-                        }
-                        pixels[i + j * width] = Color.rgb(rr, gg, bb);
-                    }
-                }
-            }
-            rBitmap.setPixels(pixels, 0, width, 0, 0, width, height);
-        } catch (final Exception e) {
-            // 何もしない。
-        }
-        // long end = System.currentTimeMillis();
-        return rBitmap;
+        return setFilter(filename, new ImageFilterPipeline().contrast(setting));
     }
 
     /**
@@ -1091,55 +665,8 @@ public final class ImageUtils {
      * @return 変換後のビットマップ
      */
     public static Bitmap setSaturation(final Bitmap bitmap, final int setting) {
-        final int width = bitmap.getWidth(); // 画像横幅
-        final int height = bitmap.getHeight(); // 画像縦幅
-        final int[] pixels = new int[width * height]; // 設定するピクセルを領域取得
         final Bitmap rBitmap = bitmap.copy(Bitmap.Config.ARGB_8888, true); // 画像をコピー(しないと元画像自体が変更される)
-        rBitmap.getPixels(pixels, 0, width, 0, 0, width, height); // 設定するピクセルを領域取得
-        // ----------------------------------------------------
-        // ARMアーキテクチャの場合
-        // ----------------------------------------------------
-        final String arch = System.getProperty("os.arch");
-        if (arch.contains("arm")) {
-            // Nativeの彩度処理を呼び出す
-            // Saturation(pixels, width, height, setting); // Native C
-            // method(Saturation)
-            // ----------------------------------------------------
-            // ARMアーキテクチャ以外の場合
-            // ----------------------------------------------------
-        } else {
-            // ピクセルデータ分ループ
-            for (int i = 0; i < width; i++) {
-                for (int j = 0; j < height; j++) {
-                    final int color = pixels[i + j * width];
-                    int rr = Color.red(color);
-                    int gg = Color.green(color);
-                    int bb = Color.blue(color);
-                    final int max = getRGBMax(rr, gg, bb);
-                    rr = max - (max - rr) * (setting / 50);
-                    gg = max - (max - gg) * (setting / 50);
-                    bb = max - (max - bb) * (setting / 50);
-
-                    if (rr > 255) {
-                        rr = 255;
-                    } else if (rr < 0) {
-                        rr = 0;
-                    }
-                    if (gg > 255) {
-                        gg = 255;
-                    } else if (gg < 0) {
-                        gg = 0;
-                    }
-                    if (bb > 255) {
-                        bb = 255;
-                    } else if (bb < 0) {
-                        bb = 0;
-                    }
-                    pixels[i + j * width] = Color.rgb(rr, gg, bb);
-                }
-            }
-        }
-        rBitmap.setPixels(pixels, 0, width, 0, 0, width, height);
+        getImageFilter().saturation(rBitmap, setting);
         return rBitmap;
     }
 
@@ -1153,65 +680,7 @@ public final class ImageUtils {
      * @return 変換後のビットマップ
      */
     public static Bitmap setSaturation(final String filename, final int setting) {
-        // long start = System.currentTimeMillis();
-        Bitmap rBitmap = null;
-
-        try {
-            rBitmap = FileApplicationUtils.readBitmap(filename); // ファイルからBitmap取得
-            rBitmap = rBitmap.copy(Bitmap.Config.ARGB_8888, true); // Mutableへの変更(ようするに編集可能にする)
-            final int width = rBitmap.getWidth(); // ビットマップの横幅取得
-            final int height = rBitmap.getHeight(); // ビットマップの縦幅取得
-            final int[] pixels = new int[width * height]; // 設定するピクセルを領域取得
-            rBitmap.getPixels(pixels, 0, width, 0, 0, width, height); // 設定するピクセルを領域取得
-            // ----------------------------------------------------
-            // ARMアーキテクチャの場合
-            // ----------------------------------------------------
-            final String arch = System.getProperty("os.arch");
-            if (arch.contains("arm")) {
-                // Nativeの彩度処理を呼び出す
-                // Saturation(pixels, width, height, setting); // Native C
-                // method(Saturation)
-                // ----------------------------------------------------
-                // ARMアーキテクチャ以外の場合
-                // ----------------------------------------------------
-            } else {
-                // ピクセルデータ分ループ
-                for (int i = 0; i < width; i++) {
-                    for (int j = 0; j < height; j++) {
-                        final int color = pixels[i + j * width];
-                        int rr = Color.red(color);
-                        int gg = Color.green(color);
-                        int bb = Color.blue(color);
-                        final int max = getRGBMax(rr, gg, bb);
-                        rr = max - (max - rr) * (setting / 50);
-                        gg = max - (max - gg) * (setting / 50);
-                        bb = max - (max - bb) * (setting / 50);
-
-                        if (rr > 255) {
-                            rr = 255;
-                        } else if (rr < 0) {
-                            rr = 0;
-                        }
-                        if (gg > 255) {
-                            gg = 255;
-                        } else if (gg < 0) {
-                            gg = 0;
-                        }
-                        if (bb > 255) {
-                            bb = 255;
-                        } else if (bb < 0) {
-                            bb = 0;
-                        }
-                        pixels[i + j * width] = Color.rgb(rr, gg, bb);
-                    }
-                }
-            }
-            rBitmap.setPixels(pixels, 0, width, 0, 0, width, height);
-        } catch (final Exception e) {
-            // 何もしない。
-        }
-        // long end = System.currentTimeMillis();
-        return rBitmap;
+        return setFilter(filename, new ImageFilterPipeline().saturation(setting));
     }
 
     /**
@@ -1222,62 +691,8 @@ public final class ImageUtils {
      * @return 変換後のビットマップ
      */
     public static Bitmap setSepia(final Bitmap bitmap) {
-        final int width = bitmap.getWidth(); // 画像横幅
-        final int height = bitmap.getHeight(); // 画像縦幅
-        final int[] pixels = new int[width * height]; // 設定するピクセルを領域取得
         final Bitmap rBitmap = bitmap.copy(Bitmap.Config.ARGB_8888, true); // 画像をコピー(しないと元画像自体が変更される)
-        rBitmap.getPixels(pixels, 0, width, 0, 0, width, height); // 設定するピクセルを領域取得
-        // ----------------------------------------------------
-        // ARMアーキテクチャの場合
-        // ----------------------------------------------------
-        final String arch = System.getProperty("os.arch");
-        if (arch.contains("arm")) {
-            // Nativeのセピア処理を呼び出す
-            // Sepia(pixels, width, height); // Native C method(Sepia)
-            // ----------------------------------------------------
-            // ARMアーキテクチャ以外の場合
-            // ----------------------------------------------------
-        } else {
-            // ピクセルデータ分ループ
-            for (int i = 0; i < width; i++) {
-                for (int j = 0; j < height; j++) {
-                    final int color = pixels[i + j * width];
-                    int rr = Color.red(color);
-                    int gg = Color.green(color);
-                    int bb = Color.blue(color);
-                    final int yy = (299 * rr + 587 * gg + 114 * bb) / 1000; // 行列の計算１
-
-                    /*
-                     * uu = (-169 * rr - 331 * gg + 500 * bb) / 1000; //行列の計算２
-                     * vv = (500 * rr - 419 * gg - 81 * bb) / 1000; //行列の計算３ uu
-                     * = -23.296; vv = 14.336; rr = 1.0 * yy + 1.402 * vv;
-                     * //逆行列の計算１ gg = 1.0 * yy - 0.334 * uu - 0.714 * vv;
-                     * //逆行列の計算２ bb = 1.0 * yy + 1.772 * uu; //逆行列の計算３
-                     */
-                    rr = yy + 20; // 逆行列の計算１
-                    gg = yy - 2; // 逆行列の計算２
-                    bb = yy - 41; // 逆行列の計算３
-
-                    if (rr > 255) {
-                        rr = 255;
-                    } else if (rr < 0) {
-                        rr = 0;
-                    }
-                    if (gg > 255) {
-                        gg = 255;
-                    } else if (gg < 0) {
-                        gg = 0;
-                    }
-                    if (bb > 255) {
-                        bb = 255;
-                    } else if (bb < 0) {
-                        bb = 0;
-                    }
-                    pixels[i + j * width] = Color.rgb(rr, gg, bb);
-                }
-            }
-        }
-        rBitmap.setPixels(pixels, 0, width, 0, 0, width, height);
+        getImageFilter().sepia(rBitmap);
         return rBitmap;
     }
 
@@ -1289,72 +704,39 @@ public final class ImageUtils {
      * @return 変換後のビットマップ
      */
     public static Bitmap setSepia(final String filename) {
-        // long start = System.currentTimeMillis();
+        return setFilter(filename, new ImageFilterPipeline().sepia());
+    }
+
+    /**
+     * フィルター変換処理 本メソッドはBitmap実体を持つとheap memoryが少なくなるため、ファイルシステムに移行している。
+     * <p>
+     * 画像を{@link ImageStripFilter#DEFAULT_STRIP_HEIGHT}行毎にデコードしてフィルターを適用するため、
+     * 作業メモリは変換後のビットマップとストリップ1つ分になる。ストリップ単位でデコードできない場合は画像全体をデコードする。
+     * </p>
+     *
+     * @param filename
+     *         ファイル名
+     * @param pipeline
+     *         {@link ImageFilterPipeline}
+     * @return 変換後のビットマップ
+     */
+    public static Bitmap setFilter(final String filename, final ImageFilterPipeline pipeline) {
+        if (ImageStripFilter.isSupported()) {
+            try {
+                return ImageStripFilter.decode(FileApplicationUtils.getPath(filename), pipeline, ImageStripFilter.DEFAULT_STRIP_HEIGHT);
+            } catch (final IOException e) {
+                // 対応していない形式の場合は画像全体をデコードする
+            }
+        }
         Bitmap rBitmap = null;
 
         try {
             rBitmap = FileApplicationUtils.readBitmap(filename); // ファイルからBitmap取得
             rBitmap = rBitmap.copy(Bitmap.Config.ARGB_8888, true); // Mutableへの変更(ようするに編集可能にする)
-            final int width = rBitmap.getWidth(); // ビットマップの横幅取得
-            final int height = rBitmap.getHeight(); // ビットマップの縦幅取得
-            final int[] pixels = new int[width * height]; // 設定するピクセルを領域取得
-            rBitmap.getPixels(pixels, 0, width, 0, 0, width, height); // 設定するピクセルを領域取得
-            // ----------------------------------------------------
-            // ARMアーキテクチャの場合
-            // ----------------------------------------------------
-            final String arch = System.getProperty("os.arch");
-            if (arch.contains("arm")) {
-                // Nativeのセピア処理を呼び出す
-                // Sepia(pixels, width, height); // Native C method(Sepia)
-                // ----------------------------------------------------
-                // ARMアーキテクチャ以外の場合
-                // ----------------------------------------------------
-            } else {
-                // ピクセルデータ分ループ
-                for (int i = 0; i < width; i++) {
-                    for (int j = 0; j < height; j++) {
-                        final int color = pixels[i + j * width];
-                        int rr = Color.red(color);
-                        int gg = Color.green(color);
-                        int bb = Color.blue(color);
-                        final int yy = (299 * rr + 587 * gg + 114 * bb) / 1000; // 行列の計算１
-
-                        /*
-                         * uu = (-169 * rr - 331 * gg + 500 * bb) / 1000;
-                         * //行列の計算２ vv = (500 * rr - 419 * gg - 81 * bb) / 1000;
-                         * //行列の計算３ uu = -23.296; vv = 14.336; rr = 1.0 * yy +
-                         * 1.402 * vv; //逆行列の計算１ gg = 1.0 * yy - 0.334 * uu -
-                         * 0.714 * vv; //逆行列の計算２ bb = 1.0 * yy + 1.772 * uu;
-                         * //逆行列の計算３
-                         */
-                        rr = yy + 20; // 逆行列の計算１
-                        gg = yy - 2; // 逆行列の計算２
-                        bb = yy - 41; // 逆行列の計算３
-
-                        if (rr > 255) {
-                            rr = 255;
-                        } else if (rr < 0) {
-                            rr = 0;
-                        }
-                        if (gg > 255) {
-                            gg = 255;
-                        } else if (gg < 0) {
-                            gg = 0;
-                        }
-                        if (bb > 255) {
-                            bb = 255;
-                        } else if (bb < 0) {
-                            bb = 0;
-                        }
-                        pixels[i + j * width] = Color.rgb(rr, gg, bb);
-                    }
-                }
-            }
-            rBitmap.setPixels(pixels, 0, width, 0, 0, width, height);
+            pipeline.apply(rBitmap, rBitmap);
         } catch (final Exception e) {
             // 何もしない。
         }
-        // long end = System.currentTimeMillis();
         return rBitmap;
     }
 
@@ -1644,4 +1026,22 @@ public final class ImageUtils {
         }
         return copyBitmap;
     }
+
+    /**
+     * 不要になったBitmapの解放
+     * <p>
+     * inBitmapが使える場合は{@link BitmapPool}に返却して次のデコードで再利用し、使えない場合はrecycleする。<br>
+     * 他から参照されていないBitmapにのみ使用すること。
+     * </p>
+     *
+     * @param bitmap
+     *         不要になったビットマップ
+     */
+    private static void recycleOrPool(final Bitmap bitmap) {
+        if (BitmapPool.isSupported() && bitmap.isMutable()) {
+            BitmapPool.getDefault().put(bitmap);
+        } else {
+            bitmap.recycle();
+        }
+    }
 }
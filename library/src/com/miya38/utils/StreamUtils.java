@@ -1,8 +1,16 @@
 package com.miya38.utils;
 
+import com.android.volley.toolbox.ByteArrayPool;
+import com.android.volley.toolbox.PoolingByteArrayOutputStream;
+
+import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Stream に関するユーティリティメソッドを提供します。
@@ -11,10 +19,23 @@ import java.io.InputStream;
  * 
  */
 public final class StreamUtils {
+    /** 読み込みバッファサイズ(byte) */
+    private static final int BUFFER_SIZE = 4096;
+    /** 共有バッファプール */
+    private static final ByteArrayPool sByteArrayPool = ByteArrayPool.getDefault();
 
     private StreamUtils() {
     }
 
+    /**
+     * 共有バッファプールを返します。
+     * 
+     * @return {@link ByteArrayPool}
+     */
+    public static ByteArrayPool getByteArrayPool() {
+        return sByteArrayPool;
+    }
+
     /**
      * ストリームを全て読み込み、バイト列として返します。
      * 
@@ -48,4 +69,111 @@ public final class StreamUtils {
     public static String toString(final InputStream inputStream) throws IOException {
         return new String(toByteArray(inputStream), StringUtils.UTF_8);
     }
+
+    /**
+     * ストリームを全て読み込み、バイト列として返します。
+     * <p>
+     * 読み込み中のバッファは共有バッファプールから取得するため、中間バッファの生成・破棄を繰り返しません。
+     * </p>
+     * 
+     * @param inputStream
+     *            {@link InputStream}
+     * @param sizeHint
+     *            想定サイズ(byte) 不明な場合は0以下
+     * @return ストリームバイト列
+     * @throws IOException
+     */
+    public static byte[] toByteArray(final InputStream inputStream, final int sizeHint) throws IOException {
+        final PoolingByteArrayOutputStream out = readFully(inputStream, sizeHint);
+        try {
+            return out.toByteArray();
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+    }
+
+    /**
+     * ストリームを全て読み込み、指定文字コードの文字列として返します。
+     * <p>
+     * 共有バッファプールのバッファから直接文字列を生成するため、バイト列のコピーを作りません。
+     * </p>
+     * 
+     * @param inputStream
+     *            {@link InputStream}
+     * @param sizeHint
+     *            想定サイズ(byte) 不明な場合は0以下
+     * @param charsetName
+     *            文字コード
+     * @return 文字列
+     * @throws IOException
+     */
+    public static String toString(final InputStream inputStream, final int sizeHint, final String charsetName) throws IOException {
+        final PoolingByteArrayOutputStream out = readFully(inputStream, sizeHint);
+        try {
+            return out.toString(charsetName);
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+    }
+
+    /**
+     * gzip解凍しながら読み込むストリームを返します。
+     * <p>
+     * 圧縮データ全体をメモリに展開せず、読み込んだ分だけ解凍します。
+     * </p>
+     * 
+     * @param inputStream
+     *            gzipされた{@link InputStream}
+     * @return 解凍後のデータを読み込む{@link InputStream}
+     * @throws IOException
+     */
+    public static InputStream gzip(final InputStream inputStream) throws IOException {
+        return new GZIPInputStream(inputStream, BUFFER_SIZE);
+    }
+
+    /**
+     * ストリームを指定文字コードで読み込む{@link Reader}を返します。
+     * <p>
+     * JsonReader等のストリーミングパーサーに渡すことで、レスポンス全体の文字列を生成せずに解析できます。
+     * </p>
+     * 
+     * @param inputStream
+     *            {@link InputStream}
+     * @param charsetName
+     *            文字コード
+     * @return {@link Reader}
+     * @throws UnsupportedEncodingException
+     *             文字コードが不正な場合
+     */
+    public static Reader toReader(final InputStream inputStream, final String charsetName) throws UnsupportedEncodingException {
+        return new BufferedReader(new InputStreamReader(inputStream, charsetName), BUFFER_SIZE);
+    }
+
+    /**
+     * ストリームを全て共有バッファプールのバッファに読み込みます。 読み込み後に入力ストリームはクローズします。
+     * 
+     * @param inputStream
+     *            {@link InputStream}
+     * @param sizeHint
+     *            想定サイズ(byte) 不明な場合は0以下
+     * @return 読み込んだ{@link PoolingByteArrayOutputStream} 使用後にクローズしてバッファを返却すること
+     * @throws IOException
+     */
+    private static PoolingByteArrayOutputStream readFully(final InputStream inputStream, final int sizeHint) throws IOException {
+        final PoolingByteArrayOutputStream out = new PoolingByteArrayOutputStream(sByteArrayPool, sizeHint);
+        final byte[] buffer = sByteArrayPool.getBuf(BUFFER_SIZE);
+        try {
+            int count;
+            while ((count = inputStream.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            return out;
+        } catch (final IOException e) {
+            IOUtils.closeQuietly(out);
+            throw e;
+        } finally {
+            sByteArrayPool.returnBuf(buffer);
+            IOUtils.closeQuietly(inputStream);
+        }
+    }
 }
@@ -0,0 +1,86 @@
+package com.miya38.utils.image;
+
+import android.graphics.Bitmap;
+
+/**
+ * 画像フィルター処理インターフェース
+ * <p>
+ * {@link com.miya38.utils.ImageUtils}の各フィルターの実装を切り替えるために使用する。<br>
+ * 変換結果は{@link JavaImageFilter}と同じ(チャネル毎の誤差は最大1)であり、アルファ値は常に255になる。
+ * </p>
+ *
+ * @author y-miyazaki
+ */
+public interface ImageFilter {
+    /**
+     * モザイク変換処理
+     * <p>
+     * 画像の左上からdotピクセル四方のブロックに区切り、各ブロックを平均色で塗りつぶす。
+     * 右端・下端のブロックは画像内のピクセルのみで平均を求める。
+     * </p>
+     *
+     * @param pixels
+     *         ピクセル(ARGB)
+     * @param width
+     *         横幅(pixelsの1行のピクセル数)
+     * @param height
+     *         縦幅
+     * @param dot
+     *         モザイクのドット
+     */
+    void mosaic(int[] pixels, int width, int height, int dot);
+
+    /**
+     * グレースケール変換処理
+     *
+     * @param bitmap
+     *         変更可能なARGB_8888のビットマップ
+     */
+    void grayscale(Bitmap bitmap);
+
+    /**
+     * ネガティブ変換処理
+     *
+     * @param bitmap
+     *         変更可能なARGB_8888のビットマップ
+     */
+    void negative(Bitmap bitmap);
+
+    /**
+     * 明るさ変換処理
+     *
+     * @param bitmap
+     *         変更可能なARGB_8888のビットマップ
+     * @param setting
+     *         0%～50%～100%まで明るさを変更することができる。
+     */
+    void brightness(Bitmap bitmap, int setting);
+
+    /**
+     * コントラスト変換処理
+     *
+     * @param bitmap
+     *         変更可能なARGB_8888のビットマップ
+     * @param setting
+     *         0%～50%～100%までコントラストを変更することができる。
+     */
+    void contrast(Bitmap bitmap, int setting);
+
+    /**
+     * 彩度変換処理
+     *
+     * @param bitmap
+     *         変更可能なARGB_8888のビットマップ
+     * @param setting
+     *         0%～50%～100%まで彩度を変更することができる。
+     */
+    void saturation(Bitmap bitmap, int setting);
+
+    /**
+     * セピア変換処理
+     *
+     * @param bitmap
+     *         変更可能なARGB_8888のビットマップ
+     */
+    void sepia(Bitmap bitmap);
+}
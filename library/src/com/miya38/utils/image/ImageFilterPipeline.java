@@ -0,0 +1,430 @@
+package com.miya38.utils.image;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 画像フィルターパイプラインクラス
+ * <p>
+ * 複数のフィルターを登録順に1回の走査で適用する。
+ * </p>
+ * <ul>
+ * <li>明るさ・コントラスト・ネガティブはチャネル毎の256要素の変換テーブルになり、連続する場合は1つのテーブルに合成する。</li>
+ * <li>グレースケール・セピアは輝度からの変換テーブルになり、直後のチャネル毎の変換テーブルを合成する。</li>
+ * <li>ビットマップは行単位のタイル(デフォルトで{@link #DEFAULT_TILE_PIXELS}ピクセル)毎に読み込み、
+ * タイルがキャッシュに載っている間に全てのフィルターを適用して書き込む。画像全体のint[]は確保しない。</li>
+ * </ul>
+ * <p>
+ * 変換結果は各フィルターを{@link JavaImageFilter}で順に適用した結果と一致し、アルファ値は255になる。<br>
+ * 使用例:
+ * </p>
+ *
+ * <pre>
+ * Bitmap result = new ImageFilterPipeline().brightness(60).contrast(55).saturation(100).apply(bitmap);
+ * </pre>
+ *
+ * @author y-miyazaki
+ */
+public final class ImageFilterPipeline {
+    /** タイルのピクセル数のデフォルト値(int換算で64KB) */
+    public static final int DEFAULT_TILE_PIXELS = 16 * 1024;
+
+    /** 輝度計算用テーブル(R * 299) */
+    private static final int[] LUMINANCE_R = new int[256];
+    /** 輝度計算用テーブル(G * 587) */
+    private static final int[] LUMINANCE_G = new int[256];
+    /** 輝度計算用テーブル(B * 114) */
+    private static final int[] LUMINANCE_B = new int[256];
+
+    static {
+        for (int c = 0; c < 256; c++) {
+            LUMINANCE_R[c] = 299 * c;
+            LUMINANCE_G[c] = 587 * c;
+            LUMINANCE_B[c] = 114 * c;
+        }
+    }
+
+    /** カーネル */
+    private final List<Kernel> mKernels = new ArrayList<Kernel>();
+    /** タイルのピクセル数 */
+    private int mTilePixels = DEFAULT_TILE_PIXELS;
+
+    /**
+     * タイルのピクセル数設定
+     * <p>
+     * タイルは画像の横幅単位で確保するため、横幅がこの値より大きい場合は1行をタイルとする。
+     * </p>
+     *
+     * @param tilePixels
+     *         タイルのピクセル数
+     * @return {@link ImageFilterPipeline}
+     */
+    public ImageFilterPipeline setTilePixels(final int tilePixels) {
+        mTilePixels = Math.max(1, tilePixels);
+        return this;
+    }
+
+    /**
+     * グレースケール変換追加
+     *
+     * @return {@link ImageFilterPipeline}
+     */
+    public ImageFilterPipeline grayscale() {
+        final int[] identity = newTable();
+        for (int c = 0; c < 256; c++) {
+            identity[c] = c;
+        }
+        return add(new LuminanceKernel(identity, identity, identity));
+    }
+
+    /**
+     * セピア変換追加
+     *
+     * @return {@link ImageFilterPipeline}
+     */
+    public ImageFilterPipeline sepia() {
+        final int[] red = newTable();
+        final int[] green = newTable();
+        final int[] blue = newTable();
+        for (int c = 0; c < 256; c++) {
+            red[c] = clamp(c + 20);
+            green[c] = clamp(c - 2);
+            blue[c] = clamp(c - 41);
+        }
+        return add(new LuminanceKernel(red, green, blue));
+    }
+
+    /**
+     * ネガティブ変換追加
+     *
+     * @return {@link ImageFilterPipeline}
+     */
+    public ImageFilterPipeline negative() {
+        final int[] table = newTable();
+        for (int c = 0; c < 256; c++) {
+            table[c] = 255 - c;
+        }
+        return add(new ChannelKernel(table, table, table));
+    }
+
+    /**
+     * 明るさ変換追加
+     *
+     * @param setting
+     *         0%～50%～100%まで明るさを変更することができる。
+     * @return {@link ImageFilterPipeline}
+     */
+    public ImageFilterPipeline brightness(final int setting) {
+        final int[] table = newTable();
+        for (int c = 0; c < 256; c++) {
+            table[c] = clamp(c * setting / 50);
+        }
+        return add(new ChannelKernel(table, table, table));
+    }
+
+    /**
+     * コントラスト変換追加
+     *
+     * @param setting
+     *         0%～50%～100%までコントラストを変更することができる。
+     * @return {@link ImageFilterPipeline}
+     */
+    public ImageFilterPipeline contrast(final int setting) {
+        final int[] table = newTable();
+        for (int c = 0; c < 256; c++) {
+            table[c] = clamp((c - 128) * setting / 50 + 128);
+        }
+        return add(new ChannelKernel(table, table, table));
+    }
+
+    /**
+     * 彩度変換追加
+     *
+     * @param setting
+     *         0%～50%～100%まで彩度を変更することができる。
+     * @return {@link ImageFilterPipeline}
+     */
+    public ImageFilterPipeline saturation(final int setting) {
+        return add(new SaturationKernel(setting / 50));
+    }
+
+    /**
+     * フィルターが登録されているか
+     *
+     * @return true:登録なし false:登録あり
+     */
+    public boolean isEmpty() {
+        return mKernels.isEmpty();
+    }
+
+    /**
+     * フィルター適用
+     * <p>
+     * 元のビットマップは変更せず、変換結果を新しいARGB_8888のビットマップに書き込む。
+     * </p>
+     *
+     * @param bitmap
+     *         ビットマップ
+     * @return 変換後のビットマップ
+     */
+    public Bitmap apply(final Bitmap bitmap) {
+        final Bitmap rBitmap = Bitmap.createBitmap(bitmap.getWidth(), bitmap.getHeight(), Bitmap.Config.ARGB_8888);
+        apply(bitmap, rBitmap);
+        return rBitmap;
+    }
+
+    /**
+     * フィルター適用
+     * <p>
+     * src/dstに同じビットマップを指定した場合は、そのビットマップを変換する。
+     * </p>
+     *
+     * @param src
+     *         変換元のビットマップ
+     * @param dst
+     *         変換結果を書き込む変更可能なビットマップ(srcと同じサイズ)
+     */
+    public void apply(final Bitmap src, final Bitmap dst) {
+        final int width = src.getWidth();
+        final int height = src.getHeight();
+        final int rows = Math.max(1, Math.min(height, mTilePixels / Math.max(1, width)));
+        final int[] tile = new int[width * rows];
+        for (int y = 0; y < height; y += rows) {
+            final int tileRows = Math.min(rows, height - y);
+            src.getPixels(tile, 0, width, 0, y, width, tileRows);
+            apply(tile, 0, width * tileRows);
+            dst.setPixels(tile, 0, width, 0, y, width, tileRows);
+        }
+    }
+
+    /**
+     * フィルター適用
+     *
+     * @param pixels
+     *         ピクセル(ARGB)
+     * @param offset
+     *         開始位置
+     * @param length
+     *         ピクセル数
+     */
+    public void apply(final int[] pixels, final int offset, final int length) {
+        for (int i = 0, size = mKernels.size(); i < size; i++) {
+            mKernels.get(i).apply(pixels, offset, length);
+        }
+    }
+
+    // ----------------------------------------------------------
+    // private
+    // ----------------------------------------------------------
+
+    /**
+     * カーネル追加
+     * <p>
+     * 直前のカーネルと合成できる場合は合成する。
+     * </p>
+     *
+     * @param kernel
+     *         カーネル
+     * @return {@link ImageFilterPipeline}
+     */
+    private ImageFilterPipeline add(final Kernel kernel) {
+        final int last = mKernels.size() - 1;
+        if (last >= 0 && kernel instanceof ChannelKernel) {
+            final Kernel merged = mKernels.get(last).merge((ChannelKernel) kernel);
+            if (merged != null) {
+                mKernels.set(last, merged);
+                return this;
+            }
+        }
+        mKernels.add(kernel);
+        return this;
+    }
+
+    /**
+     * 256要素の変換テーブル生成
+     *
+     * @return 変換テーブル
+     */
+    private static int[] newTable() {
+        return new int[256];
+    }
+
+    /**
+     * 変換テーブルの合成
+     *
+     * @param first
+     *         先に適用するテーブル
+     * @param second
+     *         後に適用するテーブル
+     * @return 合成したテーブル
+     */
+    private static int[] compose(final int[] first, final int[] second) {
+        final int[] table = newTable();
+        for (int c = 0; c < 256; c++) {
+            table[c] = second[first[c]];
+        }
+        return table;
+    }
+
+    /**
+     * 0～255に丸める
+     *
+     * @param value
+     *         値
+     * @return 0～255の値
+     */
+    private static int clamp(final int value) {
+        return value < 0 ? 0 : value > 255 ? 255 : value;
+    }
+
+    /**
+     * カーネル
+     */
+    private abstract static class Kernel {
+        /**
+         * フィルター適用
+         *
+         * @param pixels
+         *         ピクセル(ARGB)
+         * @param offset
+         *         開始位置
+         * @param length
+         *         ピクセル数
+         */
+        abstract void apply(int[] pixels, int offset, int length);
+
+        /**
+         * 後に適用するチャネル毎の変換を合成する
+         *
+         * @param next
+         *         後に適用するカーネル
+         * @return 合成したカーネル 合成できない場合はnull
+         */
+        Kernel merge(final ChannelKernel next) {
+            return null;
+        }
+    }
+
+    /**
+     * チャネル毎の変換テーブルを適用するカーネル
+     */
+    private static final class ChannelKernel extends Kernel {
+        /** Rの変換テーブル */
+        private final int[] mRed;
+        /** Gの変換テーブル */
+        private final int[] mGreen;
+        /** Bの変換テーブル */
+        private final int[] mBlue;
+
+        /**
+         * コンストラクタ
+         *
+         * @param red
+         *         Rの変換テーブル
+         * @param green
+         *         Gの変換テーブル
+         * @param blue
+         *         Bの変換テーブル
+         */
+        ChannelKernel(final int[] red, final int[] green, final int[] blue) {
+            mRed = red;
+            mGreen = green;
+            mBlue = blue;
+        }
+
+        @Override
+        void apply(final int[] pixels, final int offset, final int length) {
+            final int[] red = mRed;
+            final int[] green = mGreen;
+            final int[] blue = mBlue;
+            for (int i = offset, end = offset + length; i < end; i++) {
+                final int color = pixels[i];
+                pixels[i] = 0xff000000 | red[color >> 16 & 0xff] << 16 | green[color >> 8 & 0xff] << 8 | blue[color & 0xff];
+            }
+        }
+
+        @Override
+        Kernel merge(final ChannelKernel next) {
+            return new ChannelKernel(compose(mRed, next.mRed), compose(mGreen, next.mGreen), compose(mBlue, next.mBlue));
+        }
+    }
+
+    /**
+     * 輝度からの変換テーブルを適用するカーネル(グレースケール・セピア)
+     */
+    private static final class LuminanceKernel extends Kernel {
+        /** 輝度からRへの変換テーブル */
+        private final int[] mRed;
+        /** 輝度からGへの変換テーブル */
+        private final int[] mGreen;
+        /** 輝度からBへの変換テーブル */
+        private final int[] mBlue;
+
+        /**
+         * コンストラクタ
+         *
+         * @param red
+         *         輝度からRへの変換テーブル
+         * @param green
+         *         輝度からGへの変換テーブル
+         * @param blue
+         *         輝度からBへの変換テーブル
+         */
+        LuminanceKernel(final int[] red, final int[] green, final int[] blue) {
+            mRed = red;
+            mGreen = green;
+            mBlue = blue;
+        }
+
+        @Override
+        void apply(final int[] pixels, final int offset, final int length) {
+            final int[] red = mRed;
+            final int[] green = mGreen;
+            final int[] blue = mBlue;
+            for (int i = offset, end = offset + length; i < end; i++) {
+                final int color = pixels[i];
+                final int yy = (LUMINANCE_R[color >> 16 & 0xff] + LUMINANCE_G[color >> 8 & 0xff] + LUMINANCE_B[color & 0xff]) / 1000;
+                pixels[i] = 0xff000000 | red[yy] << 16 | green[yy] << 8 | blue[yy];
+            }
+        }
+
+        @Override
+        Kernel merge(final ChannelKernel next) {
+            return new LuminanceKernel(compose(mRed, next.mRed), compose(mGreen, next.mGreen), compose(mBlue, next.mBlue));
+        }
+    }
+
+    /**
+     * 彩度変換カーネル
+     */
+    private static final class SaturationKernel extends Kernel {
+        /** 倍率(setting / 50の整数除算) */
+        private final int mFactor;
+
+        /**
+         * コンストラクタ
+         *
+         * @param factor
+         *         倍率
+         */
+        SaturationKernel(final int factor) {
+            mFactor = factor;
+        }
+
+        @Override
+        void apply(final int[] pixels, final int offset, final int length) {
+            final int factor = mFactor;
+            for (int i = offset, end = offset + length; i < end; i++) {
+                final int color = pixels[i];
+                final int rr = color >> 16 & 0xff;
+                final int gg = color >> 8 & 0xff;
+                final int bb = color & 0xff;
+                final int max = Math.max(rr, Math.max(gg, bb));
+                pixels[i] = 0xff000000 | clamp(max - (max - rr) * factor) << 16 | clamp(max - (max - gg) * factor) << 8
+                        | clamp(max - (max - bb) * factor);
+            }
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.miya38.utils.image;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.os.Build;
+
+import java.io.IOException;
+
+/**
+ * 画像ファイルのストリップ単位フィルター処理クラス
+ * <p>
+ * {@link BitmapRegionDecoder}で画像ファイルを横長のストリップ毎にデコードし、{@link ImageFilterPipeline}を適用する。<br>
+ * 画像全体のデコード・コピー・int[]を確保しないため、作業メモリはストリップの大きさ(横幅 × ストリップの高さ)に比例する。
+ * 12～16MPのカメラ画像を全体でデコードするとそれだけで48～64MBになるため、ファイルからフィルターをかける場合に使用する。
+ * </p>
+ * <p>
+ * {@link BitmapRegionDecoder}はAPI Level 10以上、かつJPEG/PNG(API Level 14以上はWebPも)のみ対応している。
+ * 対応していない場合は{@link #isSupported()}がfalse、または各メソッドが{@link IOException}を返却する。
+ * </p>
+ *
+ * @author y-miyazaki
+ */
+@TargetApi(Build.VERSION_CODES.GINGERBREAD_MR1)
+public final class ImageStripFilter {
+    /** ストリップの高さのデフォルト値 */
+    public static final int DEFAULT_STRIP_HEIGHT = 128;
+
+    /**
+     * ストリップ受信リスナー
+     */
+    public interface OnStripListener {
+        /**
+         * フィルターを適用したストリップを受信したときにコールする
+         * <p>
+         * pixelsは次のストリップで再利用されるため、保持する場合はコピーすること。
+         * </p>
+         *
+         * @param pixels
+         *         ピクセル(ARGB) 先頭からwidth × rows要素が有効
+         * @param top
+         *         ストリップの開始Y座標
+         * @param width
+         *         横幅
+         * @param rows
+         *         ストリップの行数
+         */
+        void onStrip(int[] pixels, int top, int width, int rows);
+    }
+
+    /**
+     * コンストラクタを隠蔽し、インスタンス化を禁止します。
+     */
+    private ImageStripFilter() {
+    }
+
+    /**
+     * ストリップ単位のデコードが使用できるか
+     *
+     * @return true:使用可能 false:使用不可
+     */
+    public static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD_MR1;
+    }
+
+    /**
+     * 画像ファイルにストリップ単位でフィルターを適用する
+     *
+     * @param pathName
+     *         画像ファイルのパス
+     * @param pipeline
+     *         {@link ImageFilterPipeline}
+     * @param stripHeight
+     *         ストリップの高さ
+     * @param listener
+     *         {@link OnStripListener} ストリップ毎に上から順にコールされる
+     * @throws IOException
+     *         画像ファイルを読み込めない、または対応していない形式の場合
+     */
+    public static void filter(final String pathName, final ImageFilterPipeline pipeline, final int stripHeight,
+            final OnStripListener listener) throws IOException {
+        final BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(pathName, false);
+        try {
+            filter(decoder, pipeline, stripHeight, listener);
+        } finally {
+            decoder.recycle();
+        }
+    }
+
+    /**
+     * 画像ファイルにストリップ単位でフィルターを適用したビットマップを生成する
+     * <p>
+     * 作業メモリは変換後のビットマップとストリップ1つ分になる。
+     * </p>
+     *
+     * @param pathName
+     *         画像ファイルのパス
+     * @param pipeline
+     *         {@link ImageFilterPipeline}
+     * @param stripHeight
+     *         ストリップの高さ
+     * @return 変換後の変更可能なARGB_8888のビットマップ
+     * @throws IOException
+     *         画像ファイルを読み込めない、または対応していない形式の場合
+     */
+    public static Bitmap decode(final String pathName, final ImageFilterPipeline pipeline, final int stripHeight) throws IOException {
+        final BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(pathName, false);
+        Bitmap rBitmap = null;
+        boolean completed = false;
+        try {
+            rBitmap = Bitmap.createBitmap(decoder.getWidth(), decoder.getHeight(), Bitmap.Config.ARGB_8888);
+            final Bitmap output = rBitmap;
+            filter(decoder, pipeline, stripHeight, new OnStripListener() {
+                @Override
+                public void onStrip(final int[] pixels, final int top, final int width, final int rows) {
+                    output.setPixels(pixels, 0, width, 0, top, width, rows);
+                }
+            });
+            completed = true;
+            return rBitmap;
+        } finally {
+            decoder.recycle();
+            // 途中で失敗した場合、呼び出し元が画像全体をデコードし直す前に出力先を解放する
+            if (!completed && rBitmap != null) {
+                rBitmap.recycle();
+            }
+        }
+    }
+
+    /**
+     * ストリップ単位でフィルターを適用する
+     *
+     * @param decoder
+     *         {@link BitmapRegionDecoder}
+     * @param pipeline
+     *         {@link ImageFilterPipeline}
+     * @param stripHeight
+     *         ストリップの高さ
+     * @param listener
+     *         {@link OnStripListener}
+     * @throws IOException
+     *         ストリップをデコードできない場合
+     */
+    private static void filter(final BitmapRegionDecoder decoder, final ImageFilterPipeline pipeline, final int stripHeight,
+            final OnStripListener listener) throws IOException {
+        final int width = decoder.getWidth();
+        final int height = decoder.getHeight();
+        final int rows = Math.max(1, Math.min(stripHeight, height));
+        final int[] pixels = new int[width * rows];
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        final Rect rect = new Rect();
+        for (int top = 0; top < height; top += rows) {
+            final int stripRows = Math.min(rows, height - top);
+            rect.set(0, top, width, top + stripRows);
+            final Bitmap strip = decoder.decodeRegion(rect, options);
+            if (strip == null) {
+                throw new IOException("failed to decode region " + rect);
+            }
+            try {
+                strip.getPixels(pixels, 0, width, 0, 0, width, stripRows);
+            } finally {
+                strip.recycle();
+            }
+            pipeline.apply(pixels, 0, width * stripRows);
+            listener.onStrip(pixels, top, width, stripRows);
+        }
+    }
+}
@@ -0,0 +1,487 @@
+package com.miya38.utils.image;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 画像のタイル並列実行クラス
+ * <p>
+ * 画像を行単位のタイル(キャッシュに載る大きさ)に分割し、CPUコア数のスレッドで並列に処理する。<br>
+ * 呼び出し元のスレッドもタイルを処理し(fork/join方式)、プールのスレッドは空いていれば手伝う。
+ * そのため、プールのスレッドから呼び出してもデッドロックせず、プールが混んでいる場合も呼び出し元だけで処理が終わる。
+ * </p>
+ * <p>
+ * {@link #submit(Bitmap, ImageFilterPipeline, OnImageTaskListener)}等の非同期処理は{@link ImageTask}を返却する。
+ * リスト等でビューが再利用された場合は{@link ImageTask#cancel(boolean)}を呼び出すと、未処理のタイルは処理されず、リスナーも呼ばれない。
+ * </p>
+ *
+ * @author y-miyazaki
+ */
+public final class ImageTileExecutor {
+    /** スレッド数 */
+    private static final int POOL_SIZE = Math.max(1, Runtime.getRuntime().availableProcessors());
+    /** アイドルスレッドの終了までの時間(秒) */
+    private static final long KEEP_ALIVE_SECONDS = 30;
+    /** インスタンス */
+    private static final ImageTileExecutor INSTANCE = new ImageTileExecutor();
+
+    /** スレッドプール */
+    private final ThreadPoolExecutor mExecutor;
+    /** メインスレッドのHandler */
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * タイル処理インターフェース
+     */
+    public interface TileProcessor {
+        /**
+         * タイルを処理する(複数のスレッドから同時に呼ばれる)
+         *
+         * @param top
+         *         タイルの開始行
+         * @param rows
+         *         タイルの行数
+         */
+        void process(int top, int rows);
+    }
+
+    /**
+     * 非同期処理のリスナー(メインスレッドでコールされる)
+     */
+    public interface OnImageTaskListener {
+        /**
+         * 進捗を通知する
+         * <p>
+         * 前回の通知がメインスレッドで処理される前に進んだ分はまとめて通知する。
+         * </p>
+         *
+         * @param completed
+         *         処理済みのタイル数
+         * @param total
+         *         タイル数
+         */
+        void onProgress(int completed, int total);
+
+        /**
+         * 処理が完了したときにコールする
+         *
+         * @param bitmap
+         *         変換後のビットマップ
+         */
+        void onComplete(Bitmap bitmap);
+
+        /**
+         * 処理に失敗したときにコールする
+         *
+         * @param e
+         *         例外
+         */
+        void onError(Throwable e);
+    }
+
+    /**
+     * 非同期処理
+     * <p>
+     * {@link #get()}で変換後のビットマップを取得できる。
+     * </p>
+     */
+    public static final class ImageTask extends FutureTask<Bitmap> {
+        /** タイル処理 */
+        private final Job mJob;
+
+        /**
+         * コンストラクタ
+         *
+         * @param callable
+         *         処理
+         * @param job
+         *         タイル処理
+         */
+        ImageTask(final Callable<Bitmap> callable, final Job job) {
+            super(callable);
+            mJob = job;
+        }
+
+        @Override
+        public boolean cancel(final boolean mayInterruptIfRunning) {
+            mJob.mCancelled = true;
+            return super.cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        protected void done() {
+            mJob.deliver(this);
+        }
+    }
+
+    /**
+     * コンストラクタ
+     */
+    private ImageTileExecutor() {
+        mExecutor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        final Thread thread = new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                runnable.run();
+                            }
+                        }, "ImageTile-" + mCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * インスタンス取得
+     *
+     * @return {@link ImageTileExecutor}
+     */
+    public static ImageTileExecutor getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * タイルの行数取得
+     *
+     * @param width
+     *         画像の横幅
+     * @param alignment
+     *         タイルの行数の倍数
+     * @return タイルの行数
+     */
+    public static int getTileRows(final int width, final int alignment) {
+        final int rows = Math.max(1, ImageFilterPipeline.DEFAULT_TILE_PIXELS / Math.max(1, width));
+        final int align = Math.max(1, alignment);
+        return Math.max(align, rows / align * align);
+    }
+
+    /**
+     * タイルを並列に処理し、全てのタイルの処理が終わるまで待つ
+     *
+     * @param height
+     *         画像の縦幅
+     * @param tileRows
+     *         タイルの行数
+     * @param processor
+     *         {@link TileProcessor}
+     */
+    public void invoke(final int height, final int tileRows, final TileProcessor processor) {
+        try {
+            new Job(height, tileRows, processor, null).invoke();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("interrupted");
+        }
+    }
+
+    /**
+     * フィルターを並列に適用する
+     * <p>
+     * src/dstに同じビットマップを指定した場合は、そのビットマップを変換する。
+     * </p>
+     *
+     * @param pipeline
+     *         {@link ImageFilterPipeline}
+     * @param src
+     *         変換元のビットマップ
+     * @param dst
+     *         変換結果を書き込む変更可能なビットマップ(srcと同じサイズ)
+     */
+    public void apply(final ImageFilterPipeline pipeline, final Bitmap src, final Bitmap dst) {
+        invoke(src.getHeight(), getTileRows(src.getWidth(), 1), newFilterProcessor(pipeline, src, dst));
+    }
+
+    /**
+     * フィルターを非同期で並列に適用する
+     * <p>
+     * 元のビットマップは変更せず、変換結果を新しいARGB_8888のビットマップに書き込む。
+     * </p>
+     *
+     * @param bitmap
+     *         ビットマップ
+     * @param pipeline
+     *         {@link ImageFilterPipeline}
+     * @param listener
+     *         {@link OnImageTaskListener} nullの場合は{@link ImageTask#get()}で結果を取得する
+     * @return {@link ImageTask}
+     */
+    public ImageTask submit(final Bitmap bitmap, final ImageFilterPipeline pipeline, final OnImageTaskListener listener) {
+        final Bitmap rBitmap = Bitmap.createBitmap(bitmap.getWidth(), bitmap.getHeight(), Bitmap.Config.ARGB_8888);
+        return submit(rBitmap, bitmap.getHeight(), getTileRows(bitmap.getWidth(), 1), newFilterProcessor(pipeline, bitmap, rBitmap),
+                listener);
+    }
+
+    /**
+     * モザイク変換を非同期で並列に適用する
+     * <p>
+     * 元のビットマップは変更せず、変換結果を新しいARGB_8888のビットマップに書き込む。
+     * タイルはdotの倍数の行で区切り、タイル毎に読み込み・変換・書き込みを行うため、画像全体のint[]は確保しない。
+     * 画像の一部や複数の領域にモザイクをかける場合は{@link MosaicFilter}を使用する。
+     * </p>
+     *
+     * @param bitmap
+     *         ビットマップ
+     * @param dot
+     *         モザイクのドット
+     * @param listener
+     *         {@link OnImageTaskListener} nullの場合は{@link ImageTask#get()}で結果を取得する
+     * @return {@link ImageTask}
+     */
+    public ImageTask submitMosaic(final Bitmap bitmap, final int dot, final OnImageTaskListener listener) {
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+        final int tileRows = getTileRows(width, dot);
+        final Bitmap rBitmap = bitmap.copy(Bitmap.Config.ARGB_8888, true);
+        final ThreadLocal<int[]> buffers = new ThreadLocal<int[]>() {
+            @Override
+            protected int[] initialValue() {
+                return new int[width * tileRows];
+            }
+        };
+        return submit(rBitmap, height, tileRows, new TileProcessor() {
+            @Override
+            public void process(final int top, final int rows) {
+                final int[] tile = buffers.get();
+                rBitmap.getPixels(tile, 0, width, 0, top, width, rows);
+                MosaicFilter.pixelate(tile, width, 0, 0, width, rows, dot);
+                rBitmap.setPixels(tile, 0, width, 0, top, width, rows);
+            }
+        }, listener);
+    }
+
+    /**
+     * タイル処理を非同期で実行する
+     *
+     * @param result
+     *         処理結果として返却するビットマップ(processorが書き込む)
+     * @param height
+     *         画像の縦幅
+     * @param tileRows
+     *         タイルの行数
+     * @param processor
+     *         {@link TileProcessor}
+     * @param listener
+     *         {@link OnImageTaskListener} nullの場合は{@link ImageTask#get()}で結果を取得する
+     * @return {@link ImageTask}
+     */
+    public ImageTask submit(final Bitmap result, final int height, final int tileRows, final TileProcessor processor,
+            final OnImageTaskListener listener) {
+        final Job job = new Job(height, tileRows, processor, listener);
+        final ImageTask task = new ImageTask(new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() throws Exception {
+                job.invoke();
+                return result;
+            }
+        }, job);
+        mExecutor.execute(task);
+        return task;
+    }
+
+    /**
+     * フィルター適用のタイル処理生成
+     *
+     * @param pipeline
+     *         {@link ImageFilterPipeline}
+     * @param src
+     *         変換元のビットマップ
+     * @param dst
+     *         変換結果を書き込むビットマップ
+     * @return {@link TileProcessor}
+     */
+    private static TileProcessor newFilterProcessor(final ImageFilterPipeline pipeline, final Bitmap src, final Bitmap dst) {
+        final int width = src.getWidth();
+        final int tileRows = getTileRows(width, 1);
+        // タイルのバッファはスレッド毎に再利用する
+        final ThreadLocal<int[]> buffers = new ThreadLocal<int[]>() {
+            @Override
+            protected int[] initialValue() {
+                return new int[width * tileRows];
+            }
+        };
+        return new TileProcessor() {
+            @Override
+            public void process(final int top, final int rows) {
+                final int[] tile = buffers.get();
+                src.getPixels(tile, 0, width, 0, top, width, rows);
+                pipeline.apply(tile, 0, width * rows);
+                dst.setPixels(tile, 0, width, 0, top, width, rows);
+            }
+        };
+    }
+
+    /**
+     * タイル処理
+     */
+    private final class Job implements Runnable {
+        /** 画像の縦幅 */
+        private final int mHeight;
+        /** タイルの行数 */
+        private final int mTileRows;
+        /** タイル数 */
+        private final int mTileCount;
+        /** タイル処理 */
+        private final TileProcessor mProcessor;
+        /** リスナー */
+        private final OnImageTaskListener mListener;
+        /** 次に処理するタイル */
+        private final AtomicInteger mNextTile = new AtomicInteger();
+        /** 処理済みのタイル数 */
+        private final AtomicInteger mCompleted = new AtomicInteger();
+        /** 未完了のタイル */
+        private final CountDownLatch mRemaining;
+        /** 最初に発生した例外 */
+        private final AtomicReference<Throwable> mError = new AtomicReference<Throwable>();
+        /** 進捗通知をメインスレッドに送信済みか */
+        private final AtomicBoolean mProgressPosted = new AtomicBoolean();
+        /** キャンセルされたか */
+        volatile boolean mCancelled;
+
+        /**
+         * コンストラクタ
+         *
+         * @param height
+         *         画像の縦幅
+         * @param tileRows
+         *         タイルの行数
+         * @param processor
+         *         {@link TileProcessor}
+         * @param listener
+         *         {@link OnImageTaskListener}
+         */
+        Job(final int height, final int tileRows, final TileProcessor processor, final OnImageTaskListener listener) {
+            mHeight = height;
+            mTileRows = Math.max(1, tileRows);
+            mTileCount = (height + mTileRows - 1) / mTileRows;
+            mProcessor = processor;
+            mListener = listener;
+            mRemaining = new CountDownLatch(mTileCount);
+        }
+
+        /**
+         * タイルを並列に処理し、全てのタイルの処理が終わるまで待つ
+         *
+         * @throws InterruptedException
+         *         待機中に割り込まれた場合
+         */
+        void invoke() throws InterruptedException {
+            final int helpers = Math.min(mTileCount, POOL_SIZE) - 1;
+            for (int i = 0; i < helpers; i++) {
+                mExecutor.execute(this);
+            }
+            run();
+            try {
+                mRemaining.await();
+            } catch (final InterruptedException e) {
+                mCancelled = true;
+                throw e;
+            }
+            final Throwable error = mError.get();
+            if (error instanceof RuntimeException) {
+                throw (RuntimeException) error;
+            } else if (error instanceof Error) {
+                throw (Error) error;
+            }
+            if (mCancelled) {
+                throw new CancellationException();
+            }
+        }
+
+        /**
+         * 未処理のタイルが無くなるまでタイルを処理する
+         */
+        @Override
+        public void run() {
+            int tile;
+            while ((tile = mNextTile.getAndIncrement()) < mTileCount) {
+                try {
+                    if (!mCancelled) {
+                        final int top = tile * mTileRows;
+                        mProcessor.process(top, Math.min(mTileRows, mHeight - top));
+                        postProgress(mCompleted.incrementAndGet());
+                    }
+                } catch (final Throwable e) {
+                    // 残りのタイルは処理しない
+                    mError.compareAndSet(null, e);
+                    mCancelled = true;
+                } finally {
+                    mRemaining.countDown();
+                }
+            }
+        }
+
+        /**
+         * 進捗を通知する
+         *
+         * @param completed
+         *         処理済みのタイル数
+         */
+        private void postProgress(final int completed) {
+            if (mListener == null || completed == mTileCount || !mProgressPosted.compareAndSet(false, true)) {
+                return;
+            }
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mProgressPosted.set(false);
+                    if (!mCancelled) {
+                        mListener.onProgress(mCompleted.get(), mTileCount);
+                    }
+                }
+            });
+        }
+
+        /**
+         * 処理結果をリスナーに通知する
+         *
+         * @param task
+         *         完了した{@link ImageTask}
+         */
+        void deliver(final ImageTask task) {
+            if (mListener == null || task.isCancelled()) {
+                return;
+            }
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (task.isCancelled()) {
+                        return;
+                    }
+                    try {
+                        final Bitmap bitmap = task.get();
+                        mListener.onProgress(mTileCount, mTileCount);
+                        mListener.onComplete(bitmap);
+                    } catch (final ExecutionException e) {
+                        mListener.onError(e.getCause());
+                    } catch (final InterruptedException e) {
+                        mListener.onError(e);
+                    } catch (final CancellationException e) {
+                        // キャンセルされた場合は通知しない
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.miya38.utils.image;
+
+import android.graphics.Bitmap;
+
+/**
+ * Javaによる画像フィルター処理クラス
+ * <p>
+ * 全ての端末で使用できる実装。各フィルターの変換結果の基準となる。<br>
+ * 変換は{@link ImageFilterPipeline}のカーネルで行う。ピクセル配列は先頭から順に1回だけ走査し、チャネル毎の変換は
+ * 256要素のテーブルを引く。ビットマップは行単位のタイル毎に変換し、画像全体のint[]は確保しない。
+ * タイルは{@link ImageTileExecutor}でCPUコア数のスレッドで並列に処理する。
+ * </p>
+ *
+ * @author y-miyazaki
+ */
+public final class JavaImageFilter implements ImageFilter {
+    /** インスタンス */
+    private static final JavaImageFilter INSTANCE = new JavaImageFilter();
+
+    /**
+     * コンストラクタ
+     */
+    private JavaImageFilter() {
+    }
+
+    /**
+     * インスタンス取得
+     *
+     * @return {@link JavaImageFilter}
+     */
+    public static JavaImageFilter getInstance() {
+        return INSTANCE;
+    }
+
+    @Override
+    public void mosaic(final int[] pixels, final int width, final int height, final int dot) {
+        // ブロックの行単位で分割すると各タイルは独立しているため、並列に処理する
+        ImageTileExecutor.getInstance().invoke(height, ImageTileExecutor.getTileRows(width, dot),
+                new ImageTileExecutor.TileProcessor() {
+                    @Override
+                    public void process(final int top, final int rows) {
+                        MosaicFilter.pixelate(pixels, width, 0, top, width, top + rows, dot);
+                    }
+                });
+    }
+
+    @Override
+    public void grayscale(final Bitmap bitmap) {
+        ImageTileExecutor.getInstance().apply(new ImageFilterPipeline().grayscale(), bitmap, bitmap);
+    }
+
+    @Override
+    public void negative(final Bitmap bitmap) {
+        ImageTileExecutor.getInstance().apply(new ImageFilterPipeline().negative(), bitmap, bitmap);
+    }
+
+    @Override
+    public void brightness(final Bitmap bitmap, final int setting) {
+        ImageTileExecutor.getInstance().apply(new ImageFilterPipeline().brightness(setting), bitmap, bitmap);
+    }
+
+    @Override
+    public void contrast(final Bitmap bitmap, final int setting) {
+        ImageTileExecutor.getInstance().apply(new ImageFilterPipeline().contrast(setting), bitmap, bitmap);
+    }
+
+    @Override
+    public void saturation(final Bitmap bitmap, final int setting) {
+        ImageTileExecutor.getInstance().apply(new ImageFilterPipeline().saturation(setting), bitmap, bitmap);
+    }
+
+    @Override
+    public void sepia(final Bitmap bitmap) {
+        ImageTileExecutor.getInstance().apply(new ImageFilterPipeline().sepia(), bitmap, bitmap);
+    }
+}
@@ -0,0 +1,179 @@
+package com.miya38.utils.image;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * モザイク(ピクセレート)処理クラス
+ * <p>
+ * 指定した領域をブロックに分割し、各ブロックを平均色で塗りつぶす。顔の匿名化等、写真の一部にモザイクをかける場合に使用する。
+ * </p>
+ * <ul>
+ * <li>ブロックの平均色は、ブロック1行分の帯の積分画像(summed-area table)から求めるため、ブロックの大きさに関係なく1ブロックO(1)になる。
+ * 積分画像の作成は各ピクセルを1回読むだけで、作業メモリは帯の横幅に比例する。</li>
+ * <li>複数の領域を登録でき、領域毎にブロックの大きさを指定できる。領域は登録順に処理する。</li>
+ * <li>ブロックは領域の左上を基準に区切り、領域の端のブロックは領域内のピクセルのみで平均を求める。</li>
+ * <li>ビットマップはブロック行単位のタイル毎に読み込み、{@link ImageTileExecutor}で並列に処理する。</li>
+ * </ul>
+ * <p>
+ * 使用例:
+ * </p>
+ *
+ * <pre>
+ * new MosaicFilter().addRegion(face1, 24).addRegion(face2, 16).apply(bitmap);
+ * </pre>
+ *
+ * @author y-miyazaki
+ */
+public final class MosaicFilter {
+    /** 領域 */
+    private final List<Rect> mRegions = new ArrayList<Rect>();
+    /** 領域毎のブロックの大きさ */
+    private final List<Integer> mBlockSizes = new ArrayList<Integer>();
+
+    /**
+     * 領域追加
+     *
+     * @param region
+     *         モザイクをかける領域(画像の外にはみ出した部分は無視する)
+     * @param blockSize
+     *         ブロックの大きさ(ピクセル)
+     * @return {@link MosaicFilter}
+     */
+    public MosaicFilter addRegion(final Rect region, final int blockSize) {
+        mRegions.add(new Rect(region));
+        mBlockSizes.add(Math.max(1, blockSize));
+        return this;
+    }
+
+    /**
+     * モザイク変換処理
+     * <p>
+     * 変更可能なビットマップに直接モザイクをかける。
+     * </p>
+     *
+     * @param bitmap
+     *         変更可能なビットマップ
+     */
+    public void apply(final Bitmap bitmap) {
+        for (int i = 0, size = mRegions.size(); i < size; i++) {
+            final Rect region = new Rect(mRegions.get(i));
+            if (!region.intersect(0, 0, bitmap.getWidth(), bitmap.getHeight())) {
+                continue;
+            }
+            apply(bitmap, region, mBlockSizes.get(i));
+        }
+    }
+
+    /**
+     * 1つの領域にモザイクをかける
+     *
+     * @param bitmap
+     *         変更可能なビットマップ
+     * @param region
+     *         ビットマップ内の領域
+     * @param blockSize
+     *         ブロックの大きさ
+     */
+    private static void apply(final Bitmap bitmap, final Rect region, final int blockSize) {
+        final int left = region.left;
+        final int top = region.top;
+        final int width = region.width();
+        // タイルの行数はブロックの倍数にし、ブロックがタイルを跨がないようにする
+        final int tileRows = ImageTileExecutor.getTileRows(width, blockSize);
+        final ThreadLocal<int[]> buffers = new ThreadLocal<int[]>() {
+            @Override
+            protected int[] initialValue() {
+                return new int[width * tileRows];
+            }
+        };
+        ImageTileExecutor.getInstance().invoke(region.height(), tileRows, new ImageTileExecutor.TileProcessor() {
+            @Override
+            public void process(final int y, final int rows) {
+                final int[] tile = buffers.get();
+                bitmap.getPixels(tile, 0, width, left, top + y, width, rows);
+                pixelate(tile, width, 0, 0, width, rows, blockSize);
+                bitmap.setPixels(tile, 0, width, left, top + y, width, rows);
+            }
+        });
+    }
+
+    /**
+     * ピクセル配列の領域にモザイクをかける
+     *
+     * @param pixels
+     *         ピクセル(ARGB)
+     * @param stride
+     *         pixelsの1行のピクセル数
+     * @param left
+     *         領域の開始X座標
+     * @param top
+     *         領域の開始Y座標
+     * @param right
+     *         領域の終了X座標(この座標は含まない)
+     * @param bottom
+     *         領域の終了Y座標(この座標は含まない)
+     * @param blockSize
+     *         ブロックの大きさ
+     */
+    public static void pixelate(final int[] pixels, final int stride, final int left, final int top, final int right, final int bottom,
+            final int blockSize) {
+        final int width = right - left;
+        if (width <= 0 || bottom <= top) {
+            return;
+        }
+        // ブロック1行分の帯の列毎の合計
+        final int[] columnA = new int[width];
+        final int[] columnR = new int[width];
+        final int[] columnG = new int[width];
+        final int[] columnB = new int[width];
+        // 列毎の合計の累積和(帯の積分画像)
+        final long[] sumA = new long[width + 1];
+        final long[] sumR = new long[width + 1];
+        final long[] sumG = new long[width + 1];
+        final long[] sumB = new long[width + 1];
+
+        for (int y0 = top; y0 < bottom; y0 += blockSize) {
+            final int y1 = Math.min(y0 + blockSize, bottom);
+            Arrays.fill(columnA, 0);
+            Arrays.fill(columnR, 0);
+            Arrays.fill(columnG, 0);
+            Arrays.fill(columnB, 0);
+            for (int y = y0; y < y1; y++) {
+                final int row = y * stride + left;
+                for (int x = 0; x < width; x++) {
+                    final int color = pixels[row + x];
+                    columnA[x] += color >>> 24;
+                    columnR[x] += color >> 16 & 0xff;
+                    columnG[x] += color >> 8 & 0xff;
+                    columnB[x] += color & 0xff;
+                }
+            }
+            for (int x = 0; x < width; x++) {
+                sumA[x + 1] = sumA[x] + columnA[x];
+                sumR[x + 1] = sumR[x] + columnR[x];
+                sumG[x + 1] = sumG[x] + columnG[x];
+                sumB[x + 1] = sumB[x] + columnB[x];
+            }
+
+            for (int x0 = 0; x0 < width; x0 += blockSize) {
+                final int x1 = Math.min(x0 + blockSize, width);
+                final long count = (long) (x1 - x0) * (y1 - y0);
+                final long half = count / 2;
+                final int aa = (int) ((sumA[x1] - sumA[x0] + half) / count);
+                final int rr = (int) ((sumR[x1] - sumR[x0] + half) / count);
+                final int gg = (int) ((sumG[x1] - sumG[x0] + half) / count);
+                final int bb = (int) ((sumB[x1] - sumB[x0] + half) / count);
+                final int color = aa << 24 | rr << 16 | gg << 8 | bb;
+                for (int y = y0; y < y1; y++) {
+                    final int row = y * stride + left;
+                    Arrays.fill(pixels, row + x0, row + x1, color);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package com.miya38.utils.image;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.renderscript.Allocation;
+import android.renderscript.Element;
+import android.renderscript.Float4;
+import android.renderscript.Matrix4f;
+import android.renderscript.RenderScript;
+import android.renderscript.ScriptIntrinsicColorMatrix;
+
+import com.miya38.utils.LogUtils;
+
+/**
+ * RenderScriptによる画像フィルター処理クラス
+ * <p>
+ * グレースケール・ネガティブ・明るさ・コントラスト・セピアは線形変換のため、{@link ScriptIntrinsicColorMatrix}で
+ * CPUのSIMD命令(NEON等)またはGPUを使用して変換する。<br>
+ * 彩度(画素毎のRGB最大値に依存する)とモザイクは線形変換で表せないため、{@link JavaImageFilter}で変換する。
+ * アルファを持つビットマップもRenderScriptではアルファ乗算済みの値を扱うことになるため、{@link JavaImageFilter}で変換する。
+ * </p>
+ * <p>
+ * KitKat以上で使用できる。{@link #create(Context)}は、RenderScriptの変換結果が{@link JavaImageFilter}と一致することを確認できた場合のみインスタンスを返却する。
+ * </p>
+ *
+ * @author y-miyazaki
+ */
+@TargetApi(Build.VERSION_CODES.KITKAT)
+public final class RenderScriptImageFilter implements ImageFilter {
+    /** TAG */
+    private static final String TAG = RenderScriptImageFilter.class.getSimpleName();
+    /** {@link JavaImageFilter}との比較で許容するチャネル毎の誤差(丸め方向の違い) */
+    private static final int TOLERANCE = 1;
+    /** 比較用画像のサイズ */
+    private static final int PROBE_SIZE = 16;
+    /** 1/255 */
+    private static final float UNIT = 1f / 255f;
+
+    /** RenderScript */
+    private final RenderScript mRenderScript;
+    /** カラーマトリックス(thisでロック) */
+    private final ScriptIntrinsicColorMatrix mColorMatrix;
+
+    /**
+     * コンストラクタ
+     *
+     * @param renderScript
+     *         RenderScript
+     */
+    private RenderScriptImageFilter(final RenderScript renderScript) {
+        mRenderScript = renderScript;
+        mColorMatrix = ScriptIntrinsicColorMatrix.create(renderScript, Element.U8_4(renderScript));
+    }
+
+    /**
+     * インスタンス生成
+     *
+     * @param context
+     *         {@link Context}
+     * @return {@link RenderScriptImageFilter} 使用できない場合はnull
+     */
+    public static RenderScriptImageFilter create(final Context context) {
+        // ScriptIntrinsicColorMatrix#setAdd(Float4)はKitKat以上のため
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            return null;
+        }
+        RenderScript renderScript = null;
+        try {
+            renderScript = RenderScript.create(context.getApplicationContext());
+            final RenderScriptImageFilter filter = new RenderScriptImageFilter(renderScript);
+            if (filter.verify()) {
+                return filter;
+            }
+            LogUtils.d(TAG, "RenderScript output differs from the Java filter.");
+        } catch (final RuntimeException e) {
+            // RenderScriptのドライバが無い端末ではRSRuntimeException等が発生する
+            LogUtils.d(TAG, "RenderScript is not available. " + e.getMessage());
+        } catch (final LinkageError e) {
+            // 端末のRenderScriptにメソッドが無い場合等もJava実装で変換する
+            LogUtils.d(TAG, "RenderScript is not available. " + e.getMessage());
+        }
+        if (renderScript != null) {
+            renderScript.destroy();
+        }
+        return null;
+    }
+
+    @Override
+    public void mosaic(final int[] pixels, final int width, final int height, final int dot) {
+        JavaImageFilter.getInstance().mosaic(pixels, width, height, dot);
+    }
+
+    @Override
+    public void grayscale(final Bitmap bitmap) {
+        if (bitmap.hasAlpha()) {
+            JavaImageFilter.getInstance().grayscale(bitmap);
+            return;
+        }
+        final Matrix4f matrix = newMatrix();
+        setLuminance(matrix);
+        apply(bitmap, matrix, new Float4(0f, 0f, 0f, 1f));
+    }
+
+    @Override
+    public void negative(final Bitmap bitmap) {
+        if (bitmap.hasAlpha()) {
+            JavaImageFilter.getInstance().negative(bitmap);
+            return;
+        }
+        final Matrix4f matrix = newMatrix();
+        for (int i = 0; i < 3; i++) {
+            matrix.set(i, i, -1f);
+        }
+        apply(bitmap, matrix, new Float4(1f, 1f, 1f, 1f));
+    }
+
+    @Override
+    public void brightness(final Bitmap bitmap, final int setting) {
+        if (bitmap.hasAlpha()) {
+            JavaImageFilter.getInstance().brightness(bitmap, setting);
+            return;
+        }
+        final Matrix4f matrix = newMatrix();
+        for (int i = 0; i < 3; i++) {
+            matrix.set(i, i, setting / 50f);
+        }
+        apply(bitmap, matrix, new Float4(0f, 0f, 0f, 1f));
+    }
+
+    @Override
+    public void contrast(final Bitmap bitmap, final int setting) {
+        if (bitmap.hasAlpha()) {
+            JavaImageFilter.getInstance().contrast(bitmap, setting);
+            return;
+        }
+        final float scale = setting / 50f;
+        final float offset = 128 * UNIT * (1f - scale);
+        final Matrix4f matrix = newMatrix();
+        for (int i = 0; i < 3; i++) {
+            matrix.set(i, i, scale);
+        }
+        apply(bitmap, matrix, new Float4(offset, offset, offset, 1f));
+    }
+
+    @Override
+    public void saturation(final Bitmap bitmap, final int setting) {
+        JavaImageFilter.getInstance().saturation(bitmap, setting);
+    }
+
+    @Override
+    public void sepia(final Bitmap bitmap) {
+        if (bitmap.hasAlpha()) {
+            JavaImageFilter.getInstance().sepia(bitmap);
+            return;
+        }
+        final Matrix4f matrix = newMatrix();
+        setLuminance(matrix);
+        apply(bitmap, matrix, new Float4(20 * UNIT, -2 * UNIT, -41 * UNIT, 1f));
+    }
+
+    /**
+     * カラーマトリックスを適用する
+     *
+     * @param bitmap
+     *         変更可能なARGB_8888のビットマップ
+     * @param matrix
+     *         カラーマトリックス
+     * @param add
+     *         変換後に加える値(0.0～1.0)
+     */
+    private synchronized void apply(final Bitmap bitmap, final Matrix4f matrix, final Float4 add) {
+        final Allocation input = Allocation.createFromBitmap(mRenderScript, bitmap);
+        final Allocation output = Allocation.createTyped(mRenderScript, input.getType());
+        try {
+            mColorMatrix.setColorMatrix(matrix);
+            mColorMatrix.setAdd(add);
+            mColorMatrix.forEach(input, output);
+            output.copyTo(bitmap);
+        } finally {
+            input.destroy();
+            output.destroy();
+        }
+    }
+
+    /**
+     * 全要素0のマトリックス生成
+     * <p>
+     * アルファは変換後に加える値で1.0(255)にする。
+     * </p>
+     *
+     * @return {@link Matrix4f}
+     */
+    private static Matrix4f newMatrix() {
+        return new Matrix4f(new float[16]);
+    }
+
+    /**
+     * RGBの各出力に輝度(R * 0.299 + G * 0.587 + B * 0.114)を設定する
+     * <p>
+     * {@link Matrix4f#set(int, int, float)}の第1引数が入力チャネル、第2引数が出力チャネル。
+     * </p>
+     *
+     * @param matrix
+     *         {@link Matrix4f}
+     */
+    private static void setLuminance(final Matrix4f matrix) {
+        for (int i = 0; i < 3; i++) {
+            matrix.set(0, i, 0.299f);
+            matrix.set(1, i, 0.587f);
+            matrix.set(2, i, 0.114f);
+        }
+    }
+
+    /**
+     * 変換結果が{@link JavaImageFilter}と一致するか確認する
+     * <p>
+     * 全チャネルの値を含む比較用画像を各フィルターで変換し、チャネル毎の誤差が{@link #TOLERANCE}以内であることを確認する。
+     * </p>
+     *
+     * @return true:一致 false:不一致
+     */
+    private boolean verify() {
+        final int[] pixels = new int[PROBE_SIZE * PROBE_SIZE];
+        for (int i = 0; i < pixels.length; i++) {
+            // 0～255の全ての値を各チャネルに分散させる
+            pixels[i] = 0xff000000 | i << 16 | (i * 7 & 0xff) << 8 | (255 - i);
+        }
+        final ImageFilter reference = JavaImageFilter.getInstance();
+        final int[] settings = {0, 25, 50, 75, 100};
+        for (int op = 0; op < 5; op++) {
+            for (final int setting : settings) {
+                final Bitmap expected = createProbe(pixels);
+                final Bitmap actual = createProbe(pixels);
+                try {
+                    filter(reference, op, expected, setting);
+                    filter(this, op, actual, setting);
+                    if (!matches(expected, actual)) {
+                        return false;
+                    }
+                } finally {
+                    expected.recycle();
+                    actual.recycle();
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 比較用のフィルターを適用する
+     *
+     * @param filter
+     *         {@link ImageFilter}
+     * @param op
+     *         0:グレースケール 1:ネガティブ 2:明るさ 3:コントラスト 4:セピア
+     * @param bitmap
+     *         ビットマップ
+     * @param setting
+     *         明るさ・コントラストの設定値
+     */
+    private static void filter(final ImageFilter filter, final int op, final Bitmap bitmap, final int setting) {
+        switch (op) {
+        case 0:
+            filter.grayscale(bitmap);
+            break;
+        case 1:
+            filter.negative(bitmap);
+            break;
+        case 2:
+            filter.brightness(bitmap, setting);
+            break;
+        case 3:
+            filter.contrast(bitmap, setting);
+            break;
+        default:
+            filter.sepia(bitmap);
+            break;
+        }
+    }
+
+    /**
+     * 比較用のアルファを持たないビットマップ生成
+     *
+     * @param pixels
+     *         ピクセル
+     * @return ビットマップ
+     */
+    private static Bitmap createProbe(final int[] pixels) {
+        final Bitmap bitmap = Bitmap.createBitmap(PROBE_SIZE, PROBE_SIZE, Bitmap.Config.ARGB_8888);
+        bitmap.setPixels(pixels, 0, PROBE_SIZE, 0, 0, PROBE_SIZE, PROBE_SIZE);
+        bitmap.setHasAlpha(false);
+        return bitmap;
+    }
+
+    /**
+     * 2つのビットマップのチャネル毎の誤差が{@link #TOLERANCE}以内か確認する
+     *
+     * @param expected
+     *         期待値
+     * @param actual
+     *         比較対象
+     * @return true:一致 false:不一致
+     */
+    private static boolean matches(final Bitmap expected, final Bitmap actual) {
+        final int[] e = new int[PROBE_SIZE * PROBE_SIZE];
+        final int[] a = new int[PROBE_SIZE * PROBE_SIZE];
+        expected.getPixels(e, 0, PROBE_SIZE, 0, 0, PROBE_SIZE, PROBE_SIZE);
+        actual.getPixels(a, 0, PROBE_SIZE, 0, 0, PROBE_SIZE, PROBE_SIZE);
+        for (int i = 0; i < e.length; i++) {
+            for (int shift = 0; shift < 32; shift += 8) {
+                if (Math.abs((e[i] >>> shift & 0xff) - (a[i] >>> shift & 0xff)) > TOLERANCE) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
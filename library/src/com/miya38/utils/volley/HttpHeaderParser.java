@@ -103,6 +103,37 @@ public class HttpHeaderParser {
         return entry;
     }
 
+    /**
+     * Builds a cache entry whose freshness is set by the client rather than by the server's
+     * cache headers, which are ignored (including no-cache and no-store). Validators (ETag,
+     * Last-Modified) and the Date header are kept so that refreshes can be conditional.
+     * 
+     * @param response
+     *            The network response to parse headers from
+     * @param softTtlMs
+     *            How long the entry is served without a refresh
+     * @param ttlMs
+     *            How long the entry is served at all; at least softTtlMs
+     * @return a cache entry for the given response
+     */
+    public static Cache.Entry parseCacheHeaders(final NetworkResponse response, final long softTtlMs, final long ttlMs) {
+        final long now = System.currentTimeMillis();
+        final Map<String, String> headers = response.headers;
+
+        final Cache.Entry entry = new Cache.Entry();
+        entry.data = response.data;
+        entry.etag = headers.get("ETag");
+        entry.softTtl = now + softTtlMs;
+        entry.ttl = now + Math.max(softTtlMs, ttlMs);
+        String headerValue = headers.get("Date");
+        entry.serverDate = headerValue != null ? parseDateAsEpoch(headerValue) : 0;
+        headerValue = headers.get("Last-Modified");
+        entry.lastModified = headerValue != null ? parseDateAsEpoch(headerValue) : 0;
+        entry.responseHeaders = headers;
+
+        return entry;
+    }
+
     /**
      * Parse date in RFC1123 format, and return its value as epoch
      */
@@ -102,8 +102,11 @@ public class NetworkImageView extends ImageView {
      *            最大縦幅
      */
     public void setImageUrl(final String url, final ImageLoader imageLoader, final int maxWidth, final int maxHeight) {
-        // 同じURLの場合は何もしない。
+        // 同じURLの場合は何もしない。(画面外に出た後に再表示された場合は優先度を戻す)
         if (TextUtils.equals(mUrl, url)) {
+            if (mImageContainer != null) {
+                mImageContainer.setOffScreen(false);
+            }
             return;
         } else {
             setImageBitmap(null);
@@ -168,6 +171,7 @@ public class NetworkImageView extends ImageView {
         if (mImageContainer != null && mImageContainer.getRequestUrl() != null) {
             if (mImageContainer.getRequestUrl().equals(mUrl)) {
                 // if the request is from the same URL, return.
+                mImageContainer.setOffScreen(false);
                 return;
             } else {
                 // if there is a pre-existing request, cancel it if it's fetching a different URL.
@@ -251,6 +255,26 @@ public class NetworkImageView extends ImageView {
         mImageContainer = newContainer;
     }
 
+    /**
+     * Called when the list recycles this view (it scrolled off screen).
+     * <p>
+     * 読み込み中の場合、フリング中はリクエストをキャンセルし(再バインド時に同じURLでも再度読み込む)、
+     * それ以外はリクエストの優先度を下げる。
+     * </p>
+     */
+    public void onMovedToScrapHeap() {
+        if (mImageContainer == null || mImageContainer.getBitmap() != null) {
+            return;
+        }
+        if (mImageLoader != null && mImageLoader.isFlinging()) {
+            mImageContainer.cancelRequest();
+            mImageContainer = null;
+            mUrl = null;
+        } else {
+            mImageContainer.setOffScreen(true);
+        }
+    }
+
     private void setDefaultImageOrNull() {
         if (mDefaultImageId != 0) {
             setImageResource(mDefaultImageId);